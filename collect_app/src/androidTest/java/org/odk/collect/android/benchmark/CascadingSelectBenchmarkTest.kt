@@ -0,0 +1,86 @@
+package org.odk.collect.android.benchmark
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.blankOrNullString
+import org.hamcrest.Matchers.not
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.RuleChain
+import org.junit.runner.RunWith
+import org.odk.collect.android.benchmark.support.Benchmarker
+import org.odk.collect.android.benchmark.support.benchmark
+import org.odk.collect.android.support.TestDependencies
+import org.odk.collect.android.support.pages.MainMenuPage
+import org.odk.collect.android.support.rules.CollectTestRule
+import org.odk.collect.android.support.rules.TestRuleChain.chain
+import org.odk.collect.android.test.BuildConfig.ENTITIES_CASCADING_SELECT_PROJECT_URL
+
+/**
+ * Benchmarks the performance of cascading selects filtered on entity properties.
+ * [ENTITIES_CASCADING_SELECT_PROJECT_URL] should be set to a project that contains the
+ * "100k Entities Cascading Select" benchmark form and the "entities_100k" entity list. The form
+ * should filter villages with `district = ${district}` and households with
+ * `village = ${village} and members >= ${min_members} and starts-with(head, ${initial})` so
+ * that equality, range and prefix queries are all covered.
+ *
+ * Devices that currently pass:
+ * - Fairphone 3
+ *
+ */
+
+@RunWith(AndroidJUnit4::class)
+class CascadingSelectBenchmarkTest {
+
+    private val rule = CollectTestRule(useDemoProject = false)
+
+    @get:Rule
+    var chain: RuleChain = chain(TestDependencies(true)).around(rule)
+
+    @Test
+    fun run() {
+        assertThat(
+            "Need to set ENTITIES_CASCADING_SELECT_PROJECT_URL before running!",
+            ENTITIES_CASCADING_SELECT_PROJECT_URL,
+            not(blankOrNullString())
+        )
+
+        val benchmarker = Benchmarker()
+
+        rule.startAtFirstLaunch()
+            .clickManuallyEnterProjectDetails()
+            .inputUrl(ENTITIES_CASCADING_SELECT_PROJECT_URL)
+            .addProject()
+
+            .clickGetBlankForm()
+            .clickGetSelected()
+            .clickOK(MainMenuPage())
+
+            .clickFillBlankForm()
+            .benchmark("Loading form first time", 20, benchmarker) {
+                it.clickOnForm("100k Entities Cascading Select")
+            }
+
+            .pressBackAndDiscardForm()
+            .clickFillBlankForm()
+            .benchmark("Loading form second time", 2, benchmarker) {
+                it.clickOnForm("100k Entities Cascading Select")
+            }
+
+            .answerQuestion("Which district?", "12")
+            .benchmark("Filtering villages", 2, benchmarker) {
+                it.swipeToNextQuestion("Which village?")
+            }
+
+            .clickOnText("Village 1201")
+            .swipeToNextQuestion("Minimum household size?")
+            .answerQuestion("Minimum household size?", "4")
+            .swipeToNextQuestion("Initial of household head?")
+            .answerQuestion("Initial of household head?", "A")
+            .benchmark("Filtering households", 2, benchmarker) {
+                it.swipeToNextQuestion("Which household?")
+            }
+
+        benchmarker.assertResults()
+    }
+}
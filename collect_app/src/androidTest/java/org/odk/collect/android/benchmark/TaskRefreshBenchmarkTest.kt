@@ -0,0 +1,135 @@
+package org.odk.collect.android.benchmark
+
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import au.smap.fieldTask.database.TaskResponseAssignment
+import au.smap.fieldTask.database.TrAssignment
+import au.smap.fieldTask.database.TrTask
+import au.smap.fieldTask.tasks.TaskBatch
+import au.smap.fieldTask.utilities.Utilities
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.RuleChain
+import org.junit.runner.RunWith
+import org.odk.collect.android.application.Collect
+import org.odk.collect.android.benchmark.support.Benchmarker
+import org.odk.collect.android.database.instances.DatabaseInstancesRepository
+import org.odk.collect.android.injection.DaggerUtils
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns
+import org.odk.collect.android.support.TestDependencies
+import org.odk.collect.android.support.rules.CollectTestRule
+import org.odk.collect.android.support.rules.TestRuleChain.chain
+import org.odk.collect.forms.instances.Instance
+
+/**
+ * Benchmarks applying the assignments from a task refresh to the instances table. Each refresh
+ * inserts the assignments, updates their parameters and then rejects obsolete tasks, first
+ * committing every change on its own (as refreshes used to) and then with all of them made in
+ * one [TaskBatch]. Downloading the assignments and their forms is not included.
+ */
+@RunWith(AndroidJUnit4::class)
+class TaskRefreshBenchmarkTest {
+
+    private val rule = CollectTestRule()
+
+    @get:Rule
+    var chain: RuleChain = chain(TestDependencies(true)).around(rule)
+
+    private val resolver: ContentResolver =
+        ApplicationProvider.getApplicationContext<Context>().contentResolver
+
+    private var nextAssignmentId = 1
+
+    @Test
+    fun applyingAssignments() {
+        rule.startAtMainMenu()
+
+        val benchmarker = Benchmarker()
+
+        listOf(
+            Triple(1000, 60L, 5L),
+            Triple(5000, 300L, 15L),
+            Triple(20000, 1200L, 60L)
+        ).forEach { (count, separateTarget, batchedTarget) ->
+            val separate = createAssignments(count)
+            benchmarker.benchmark("Applying $count assignments one change at a time", separateTarget) {
+                refresh(separate, true)
+            }
+
+            val batched = createAssignments(count)
+            benchmarker.benchmark("Applying $count assignments in one transaction", batchedTarget) {
+                refresh(batched, false)
+            }
+        }
+
+        benchmarker.assertResults()
+    }
+
+    private fun refresh(assignments: List<TaskResponseAssignment>, commitEachChange: Boolean) {
+        var batch = newBatch()
+        val committed = {
+            if (commitEachChange) {
+                batch.commit()
+                batch = newBatch()
+            }
+        }
+
+        assignments.forEach {
+            batch.insert(values(it))
+            committed()
+        }
+
+        assignments.forEach {
+            Utilities.updateParametersForAssignment(batch, it.assignment.assignment_id.toLong(), it)
+            committed()
+        }
+
+        Utilities.rejectObsoleteTasks(batch, assignments)
+        batch.commit()
+    }
+
+    private fun newBatch(): TaskBatch {
+        val component = DaggerUtils.getComponent(ApplicationProvider.getApplicationContext<Collect>())
+        return TaskBatch(
+            component.instancesRepositoryProvider().create() as DatabaseInstancesRepository,
+            component.formsRepositoryProvider().create(),
+            resolver
+        )
+    }
+
+    private fun createAssignments(count: Int): List<TaskResponseAssignment> {
+        return (1..count).map {
+            val id = nextAssignmentId++
+            TaskResponseAssignment().apply {
+                task = TrTask().apply {
+                    this.id = id
+                    title = "Task $id"
+                    form_id = "benchmark"
+                    type = "task"
+                    address = "[{\"name\":\"address\",\"value\":\"$id Main Street\"}]"
+                }
+                assignment = TrAssignment().apply {
+                    assignment_id = id
+                    assignment_status = Utilities.STATUS_T_ACCEPTED
+                }
+            }
+        }
+    }
+
+    private fun values(ta: TaskResponseAssignment) =
+        ContentValues().apply {
+            put(InstanceColumns.JR_FORM_ID, ta.task.form_id)
+            put(InstanceColumns.SOURCE, Utilities.getSource())
+            put(InstanceColumns.DISPLAY_NAME, ta.task.form_id)
+            put(InstanceColumns.INSTANCE_FILE_PATH, "benchmark_${ta.assignment.assignment_id}/instance.xml")
+            put(InstanceColumns.STATUS, Instance.STATUS_INCOMPLETE)
+            put(InstanceColumns.T_TITLE, ta.task.title)
+            put(InstanceColumns.T_ASS_ID, ta.assignment.assignment_id)
+            put(InstanceColumns.T_TASK_SRV_ID, ta.task.id)
+            put(InstanceColumns.T_TASK_STATUS, ta.assignment.assignment_status)
+            put(InstanceColumns.T_TASK_TYPE, ta.task.type)
+        }
+}
@@ -4,6 +4,7 @@ import android.os.Handler
 import android.os.Looper
 import androidx.fragment.app.Fragment
 import org.odk.collect.maps.LineDescription
+import org.odk.collect.maps.MapBounds
 import org.odk.collect.maps.MapFragment
 import org.odk.collect.maps.MapPoint
 import org.odk.collect.maps.PolygonDescription
@@ -96,6 +97,10 @@ class FakeClickableMapFragment : Fragment(), MapFragment {
 
     override fun setDragEndListener(listener: MapFragment.FeatureListener?) {}
 
+    override fun getVisibleBounds(): MapBounds? = null
+
+    override fun setCameraIdleListener(listener: MapFragment.CameraIdleListener?) {}
+
     override fun setGpsLocationEnabled(enabled: Boolean) {}
 
     override fun getGpsLocation(): MapPoint? {
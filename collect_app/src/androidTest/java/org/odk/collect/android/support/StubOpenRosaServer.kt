@@ -154,6 +154,16 @@ class StubOpenRosaServer : OpenRosaHttpInterface {
         return HttpPostResult("", 200, "")
     }
 
+    override fun uploadCompactTaskStatus(
+        body: ByteArray,
+        formatHeader: String,
+        version: Int,
+        uri: URI,
+        credentials: HttpCredentialsInterface?
+    ): HttpPostResult {
+        return HttpPostResult("", 200, "")
+    }
+
     override fun uploadLocation(
         lat: String,
         lon: String,
@@ -163,6 +173,16 @@ class StubOpenRosaServer : OpenRosaHttpInterface {
         return HttpPostResult("", 200, "")
     }
 
+    override fun uploadLocations(
+        lat: String,
+        lon: String,
+        points: String,
+        uri: URI,
+        credentials: HttpCredentialsInterface?
+    ): HttpPostResult {
+        return HttpPostResult("", 200, "")
+    }
+
     override fun SubmitFileForResponse(
         fileName: String,
         file: File,
@@ -12,9 +12,9 @@ import au.smap.fieldTask.activities.SmapMain;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.injection.DaggerUtils;
 import au.smap.fieldTask.database.TraceUtilities;
+import au.smap.fieldTask.utilities.LocationPublisher;
 import org.odk.collect.permissions.PermissionListener;
 import org.odk.collect.permissions.PermissionsProvider;
-import org.odk.collect.android.smap.tasks.SubmitLocationTask;
 import org.odk.collect.settings.keys.ProjectKeys;
 import org.odk.collect.shared.settings.Settings;
 
@@ -24,7 +24,7 @@ import timber.log.Timber;
 
 /*
  * location Register
- * Records locations in a trace db file and automatically submits to the server in real time
+ * Records locations in a trace db file and publishes them to the server in batches
  */
 public class LocationRegister {
 
@@ -45,12 +45,8 @@ public class LocationRegister {
             Timber.i("+++++ Insert Point");
             LocalBroadcastManager.getInstance(context).sendBroadcast(new Intent("locationChanged"));  // update map
 
-            // Attempt to send current location and trace immediately
-            String server = settings.getString(ProjectKeys.KEY_SERVER_URL);
-            String latString = String.valueOf(location.getLatitude());
-            String lonString = String.valueOf(location.getLongitude());
-            SubmitLocationTask task = new SubmitLocationTask();
-            task.execute(server, latString, lonString);
+            // Send the current location to the server with the next batch
+            LocationPublisher.getInstance().publish(location.getLatitude(), location.getLongitude(), location.getTime());
         }
     }
 
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2025 Smap Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.smap.fieldTask.dao;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.google.gson.Gson;
+
+import au.smap.fieldTask.database.SmapLocalDataDatabaseHelper;
+import au.smap.fieldTask.models.LinkedInstanceData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import static au.smap.fieldTask.database.SmapLocalDataDatabaseHelper.LD_DATA;
+import static au.smap.fieldTask.database.SmapLocalDataDatabaseHelper.LD_FORM_ID;
+import static au.smap.fieldTask.database.SmapLocalDataDatabaseHelper.LD_MODIFIED;
+import static au.smap.fieldTask.database.SmapLocalDataDatabaseHelper.LD_PATH;
+import static au.smap.fieldTask.database.SmapLocalDataDatabaseHelper.TABLE_NAME;
+
+/**
+ * This class is used to encapsulate all access to the local data database
+ *
+ * Each finalized instance of a survey is read once and its values saved here, surveys that
+ * search the data of linked surveys on the device get the values from here rather than
+ * reading every instance each time they are opened.
+ */
+public class SmapLocalDataDao {
+
+    public static class Entry {
+        public final long modified;
+        public final LinkedInstanceData data;
+
+        Entry(long modified, LinkedInstanceData data) {
+            this.modified = modified;
+            this.data = data;
+        }
+    }
+
+    private final SmapLocalDataDatabaseHelper dbHelper;
+    private final Gson gson = new Gson();
+
+    public SmapLocalDataDao() {
+        dbHelper = new SmapLocalDataDatabaseHelper();
+    }
+
+    /*
+     * Save the values of an instance, replacing any that were saved earlier
+     */
+    public void put(String path, String formId, long modified, LinkedInstanceData data) {
+        ContentValues values = new ContentValues();
+        values.put(LD_PATH, path);
+        values.put(LD_FORM_ID, formId);
+        values.put(LD_MODIFIED, modified);
+        values.put(LD_DATA, gson.toJson(data));
+
+        dbHelper.getWritableDatabase().insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /*
+     * Get the saved values of every instance of the surveys, keyed on the instance path
+     */
+    public HashMap<String, Entry> getInstances(Collection<String> formIds) {
+
+        HashMap<String, Entry> instances = new HashMap<>();
+        if (formIds.isEmpty()) {
+            return instances;
+        }
+
+        StringBuilder selection = new StringBuilder(LD_FORM_ID + " in (");
+        List<String> selectionArgs = new ArrayList<>();
+        for (String formId : formIds) {
+            selection.append(selectionArgs.isEmpty() ? "?" : ",?");
+            selectionArgs.add(formId);
+        }
+        selection.append(")");
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_NAME, new String[]{LD_PATH, LD_MODIFIED, LD_DATA}, selection.toString(),
+                selectionArgs.toArray(new String[0]), null, null, null)) {
+            while (cursor.moveToNext()) {
+                LinkedInstanceData data = gson.fromJson(cursor.getString(2), LinkedInstanceData.class);
+                instances.put(cursor.getString(0), new Entry(cursor.getLong(1), data));
+            }
+        }
+        return instances;
+    }
+
+    public void delete(Collection<String> paths) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String path : paths) {
+                db.delete(TABLE_NAME, LD_PATH + " = ?", new String[]{path});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2025 Smap Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package au.smap.fieldTask.dao;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import au.smap.fieldTask.database.SmapLookupCacheDatabaseHelper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import timber.log.Timber;
+
+import static au.smap.fieldTask.database.SmapLookupCacheDatabaseHelper.LC_ACCESSED;
+import static au.smap.fieldTask.database.SmapLookupCacheDatabaseHelper.LC_CREATED;
+import static au.smap.fieldTask.database.SmapLookupCacheDatabaseHelper.LC_DATA;
+import static au.smap.fieldTask.database.SmapLookupCacheDatabaseHelper.LC_IDENT;
+import static au.smap.fieldTask.database.SmapLookupCacheDatabaseHelper.LC_SIZE;
+import static au.smap.fieldTask.database.SmapLookupCacheDatabaseHelper.LC_URL;
+import static au.smap.fieldTask.database.SmapLookupCacheDatabaseHelper.TABLE_NAME;
+
+/**
+ * This class is used to encapsulate all access to the lookup cache database
+ *
+ * Responses are kept for a limited time (the TTL) after they were downloaded and the total
+ * size of the cache is bounded, when it is exceeded the least recently used responses are
+ * removed first.
+ */
+public class SmapLookupCacheDao {
+
+    public static final long DEFAULT_TTL = TimeUnit.HOURS.toMillis(24);
+    public static final long DEFAULT_MAX_SIZE = 5 * 1024 * 1024;     // Characters
+
+    // Only record that a response has been used if it has not been used for this long, to avoid a write on every read
+    private static final long ACCESS_RESOLUTION = TimeUnit.MINUTES.toMillis(10);
+
+    private final SmapLookupCacheDatabaseHelper dbHelper;
+    private final long ttl;
+    private final long maxSize;
+    private final long accessResolution;
+    private final Supplier<Long> clock;
+
+    public SmapLookupCacheDao() {
+        this(DEFAULT_TTL, DEFAULT_MAX_SIZE, System::currentTimeMillis);
+    }
+
+    public SmapLookupCacheDao(long ttl, long maxSize, Supplier<Long> clock) {
+        dbHelper = new SmapLookupCacheDatabaseHelper();
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+        this.accessResolution = Math.min(ACCESS_RESOLUTION, ttl / 10);
+        this.clock = clock;
+    }
+
+    /*
+     * Get the cached response for a url, or null if there isn't one or it has expired
+     */
+    public String get(String url) {
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long now = clock.get();
+        String data = null;
+        long accessed = 0;
+
+        String[] projection = {LC_DATA, LC_CREATED, LC_ACCESSED};
+        try (Cursor cursor = db.query(TABLE_NAME, projection, LC_URL + " = ?", new String[]{url}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                if (cursor.getLong(1) + ttl > now) {
+                    data = cursor.getString(0);
+                    accessed = cursor.getLong(2);
+                } else {
+                    db.delete(TABLE_NAME, LC_URL + " = ?", new String[]{url});
+                }
+            }
+        }
+
+        if (data != null && now - accessed > accessResolution) {
+            ContentValues values = new ContentValues();
+            values.put(LC_ACCESSED, now);
+            db.update(TABLE_NAME, values, LC_URL + " = ?", new String[]{url});
+        }
+        return data;
+    }
+
+    /*
+     * Save the response to a lookup, replacing any earlier response for the same url.  Only
+     * JSON objects (records) and arrays (choices) are saved, anything else is a message from
+     * the server.
+     */
+    public void put(String url, String ident, String data) {
+
+        if (url == null || data == null || data.length() > maxSize || !isRecord(data)) {
+            return;
+        }
+
+        long now = clock.get();
+        ContentValues values = new ContentValues();
+        values.put(LC_URL, url);
+        values.put(LC_IDENT, ident);
+        values.put(LC_DATA, data);
+        values.put(LC_CREATED, now);
+        values.put(LC_ACCESSED, now);
+        values.put(LC_SIZE, data.length());
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        evict(db);
+    }
+
+    /*
+     * Get the urls of responses that have been used recently but are more than half way to
+     * expiring.  Downloading these again while the device is online keeps them available
+     * offline.  Returns a map of url to the form that looked it up.
+     */
+    public LinkedHashMap<String, String> getUrlsToRefresh(int limit) {
+
+        LinkedHashMap<String, String> urls = new LinkedHashMap<>();
+        long now = clock.get();
+        String selection = LC_CREATED + " < ? and " + LC_ACCESSED + " > ?";
+        String[] selectionArgs = {String.valueOf(now - ttl / 2), String.valueOf(now - ttl)};
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_NAME, new String[]{LC_URL, LC_IDENT}, selection, selectionArgs,
+                null, null, LC_ACCESSED + " desc", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                urls.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        return urls;
+    }
+
+    /*
+     * Remove expired responses and those for forms that are no longer on the device
+     */
+    public void clean(Collection<String> activeIdents) {
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int count = db.delete(TABLE_NAME, LC_CREATED + " <= ?", new String[]{String.valueOf(clock.get() - ttl)});
+
+        if (activeIdents != null) {
+            StringBuilder selection = new StringBuilder(LC_IDENT + " is null");
+            List<String> selectionArgs = new ArrayList<>();
+            if (!activeIdents.isEmpty()) {
+                selection.append(" or " + LC_IDENT + " not in (");
+                for (String ident : activeIdents) {
+                    selection.append(selectionArgs.isEmpty() ? "?" : ",?");
+                    selectionArgs.add(ident);
+                }
+                selection.append(")");
+            }
+            count += db.delete(TABLE_NAME, selection.toString(), selectionArgs.toArray(new String[0]));
+        }
+        Timber.i("Removed %d entries from the lookup cache", count);
+    }
+
+    public void clear() {
+        dbHelper.getWritableDatabase().delete(TABLE_NAME, null, null);
+    }
+
+    private static boolean isRecord(String data) {
+        try {
+            JsonElement json = JsonParser.parseString(data);
+            return json.isJsonObject() || json.isJsonArray();
+        } catch (JsonParseException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Remove the least recently used responses until the cache is within its size limit
+     */
+    private void evict(SQLiteDatabase db) {
+
+        long total;
+        try (Cursor cursor = db.rawQuery("select sum(" + LC_SIZE + ") from " + TABLE_NAME, null)) {
+            total = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+        if (total <= maxSize) {
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_NAME, new String[]{LC_URL, LC_SIZE}, null, null,
+                null, null, LC_ACCESSED + " asc")) {
+            while (total > maxSize && cursor.moveToNext()) {
+                evicted.add(cursor.getString(0));
+                total -= cursor.getLong(1);
+            }
+        }
+
+        db.beginTransaction();
+        try {
+            for (String url : evicted) {
+                db.delete(TABLE_NAME, LC_URL + " = ?", new String[]{url});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Timber.i("Evicted %d entries from the lookup cache", evicted.size());
+    }
+}
@@ -119,4 +119,19 @@ public class SmapReferencesDao {
 
         return surveys;
     }
+
+    /*
+     * Return true if the data of the survey is searched by another survey
+     */
+    public boolean isReferenced(String referenceSurvey) {
+
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String selection = SmapReferenceDatabaseHelper.REF_SOURCE + " = ? and " + SmapReferenceDatabaseHelper.REF_REFERENCE_SURVEY + " = ?";
+        String[] selectionArgs = { Utilities.getSource(), referenceSurvey };
+
+        try (Cursor cursor = db.query(SmapReferenceDatabaseHelper.TABLE_NAME, new String[] {BaseColumns._ID},
+                selection, selectionArgs, null, null, null, "1")) {
+            return cursor.moveToFirst();
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package au.smap.fieldTask.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.storage.StoragePathProvider;
+import org.odk.collect.android.storage.StorageSubdirectory;
+import org.odk.collect.db.sqlite.AltDatabasePathContext;
+import org.odk.collect.db.sqlite.SQLiteUtils;
+
+import timber.log.Timber;
+
+/**
+ * smap - Opens, creates and upgrades the database that holds the values extracted from
+ * finalized instances so that they can be searched by surveys that link to them.
+ */
+public class SmapLocalDataDatabaseHelper extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "local_data.db";
+    public static final String TABLE_NAME = "local_data";
+
+    static final int DATABASE_VERSION = 1;
+
+    public static final String LD_PATH = "path";                // Absolute path of the instance file, used as the key
+    public static final String LD_FORM_ID = "form_id";          // The survey the instance belongs to
+    public static final String LD_MODIFIED = "modified";        // When the instance file was last modified
+    public static final String LD_DATA = "data";                // The values in the instance as JSON
+
+    public SmapLocalDataDatabaseHelper() {
+        super(new AltDatabasePathContext(new StoragePathProvider().getDirPath(StorageSubdirectory.METADATA), Collect.getInstance()), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createLatestVersion(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The contents can always be extracted again from the instances so just start afresh
+        Timber.i("Upgrading local data from version %d to %d", oldVersion, newVersion);
+        SQLiteUtils.dropTable(db, TABLE_NAME);
+        createLatestVersion(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    private static void createLatestVersion(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                + LD_PATH + " text primary key, "
+                + LD_FORM_ID + " text not null, "
+                + LD_MODIFIED + " long not null, "
+                + LD_DATA + " text not null "
+                + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_" + LD_FORM_ID
+                + " ON " + TABLE_NAME + " (" + LD_FORM_ID + ");");
+    }
+}
@@ -0,0 +1,65 @@
+package au.smap.fieldTask.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.storage.StoragePathProvider;
+import org.odk.collect.android.storage.StorageSubdirectory;
+import org.odk.collect.db.sqlite.AltDatabasePathContext;
+import org.odk.collect.db.sqlite.SQLiteUtils;
+
+import timber.log.Timber;
+
+/**
+ * smap - Opens, creates and upgrades the database that holds the results of lookup() calls
+ * so that they are available when the device is offline.
+ */
+public class SmapLookupCacheDatabaseHelper extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "lookup_cache.db";
+    public static final String TABLE_NAME = "lookup_cache";
+
+    static final int DATABASE_VERSION = 1;
+
+    public static final String LC_URL = "url";                  // The lookup url, used as the key
+    public static final String LC_IDENT = "ident";              // The form that made the lookup
+    public static final String LC_DATA = "data";                // The response from the server
+    public static final String LC_CREATED = "created";          // When the response was received
+    public static final String LC_ACCESSED = "accessed";        // When the response was last used
+    public static final String LC_SIZE = "size";                // Characters in the response
+
+    public SmapLookupCacheDatabaseHelper() {
+        super(new AltDatabasePathContext(new StoragePathProvider().getDirPath(StorageSubdirectory.METADATA), Collect.getInstance()), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createLatestVersion(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The contents can always be downloaded again so just start afresh
+        Timber.i("Upgrading lookup cache from version %d to %d", oldVersion, newVersion);
+        SQLiteUtils.dropTable(db, TABLE_NAME);
+        createLatestVersion(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    private static void createLatestVersion(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                + LC_URL + " text primary key, "
+                + LC_IDENT + " text, "
+                + LC_DATA + " text not null, "
+                + LC_CREATED + " long not null, "
+                + LC_ACCESSED + " long not null, "
+                + LC_SIZE + " integer not null "
+                + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_" + LC_ACCESSED
+                + " ON " + TABLE_NAME + " (" + LC_ACCESSED + ");");
+    }
+}
@@ -25,7 +25,7 @@ public class SmapTraceDatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "trace.db";
     private static final String TABLE_NAME = "trace";
 
-    static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 3;
 
     private static final String[] COLUMN_NAMES_V1 = {
             _ID,
@@ -42,9 +42,16 @@ public class SmapTraceDatabaseHelper extends SQLiteOpenHelper {
             TraceProviderAPI.TraceColumns.TIME,
             };
 
+    private static final String[] COLUMN_NAMES_V3 = {
+            _ID,
+            TraceProviderAPI.TraceColumns.SOURCE,
+            TraceProviderAPI.TraceColumns.LAT,
+            TraceProviderAPI.TraceColumns.LON,
+            TraceProviderAPI.TraceColumns.TIME,
+            TraceProviderAPI.TraceColumns.SENT,
+    };
 
-
-    static final String[] CURRENT_VERSION_COLUMN_NAMES = COLUMN_NAMES_V2;  // smap
+    static final String[] CURRENT_VERSION_COLUMN_NAMES = COLUMN_NAMES_V3;  // smap
 
     private static boolean isDatabaseBeingMigrated;
 
@@ -97,6 +104,9 @@ public class SmapTraceDatabaseHelper extends SQLiteOpenHelper {
         if (!SQLiteUtils.doesColumnExist(db, TABLE_NAME, TraceProviderAPI.TraceColumns.SOURCE)) {
             SQLiteUtils.addColumn(db, TABLE_NAME, TraceProviderAPI.TraceColumns.SOURCE, "text");
         }
+        if (!SQLiteUtils.doesColumnExist(db, TABLE_NAME, TraceProviderAPI.TraceColumns.SENT)) {
+            SQLiteUtils.addColumn(db, TABLE_NAME, TraceProviderAPI.TraceColumns.SENT, "integer default 0");
+        }
     }
 
     private static void createLatestVersion(SQLiteDatabase db) {
@@ -105,7 +115,8 @@ public class SmapTraceDatabaseHelper extends SQLiteOpenHelper {
                 + TraceProviderAPI.TraceColumns.SOURCE + " text, "
                 + TraceProviderAPI.TraceColumns.LAT + " double not null, "
                 + TraceProviderAPI.TraceColumns.LON + " double not null, "
-                + TraceProviderAPI.TraceColumns.TIME + " long not null "
+                + TraceProviderAPI.TraceColumns.TIME + " long not null, "
+                + TraceProviderAPI.TraceColumns.SENT + " integer default 0 "
                 + ");");
     }
 
@@ -43,6 +43,7 @@ public final class TraceProviderAPI {
         public static final String LAT = "lat";
         public static final String LON = "lon";
         public static final String TIME = "time";
+        public static final String SENT = "sent";      // 1 once the point has been sent to the server
 
     }
 }
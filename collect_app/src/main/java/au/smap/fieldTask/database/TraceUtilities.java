@@ -23,14 +23,25 @@ import android.net.Uri;
 import au.smap.fieldTask.database.TraceProviderAPI.TraceColumns;
 import org.odk.collect.android.application.Collect;
 import au.smap.fieldTask.loaders.PointEntry;
+import au.smap.fieldTask.utilities.TrailSimplifier;
 import au.smap.fieldTask.utilities.Utilities;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import timber.log.Timber;
 
 public class TraceUtilities {
 
+    /*
+     * The number of recent points shown on the map
+     */
+    public static final int MAP_POINTS = 500;
+
+    private static final String NOT_SENT = "(" + TraceColumns.SENT + " is null or " + TraceColumns.SENT + " = 0)";
+    private static final int DELETE_BATCH = 500;
 
     public static void insertPoint(Location location) {
 
@@ -49,9 +60,10 @@ public class TraceUtilities {
     }
 
     /*
-     * Get the trail of points
+     * Get the trail of points, only those that have not been sent to the server unless
+     * includeSent is set
      */
-    public static long getPoints(List<PointEntry> entries, int limit, boolean desc) {
+    public static long getPoints(List<PointEntry> entries, int limit, boolean desc, boolean includeSent) {
 
         String [] proj = {
                 TraceProviderAPI.TraceColumns._ID,
@@ -64,6 +76,9 @@ public class TraceUtilities {
         String [] selectArgs = {""};
         selectArgs[0] = Utilities.getSource();
         String selectClause = TraceProviderAPI.TraceColumns.SOURCE + " = ?";
+        if (!includeSent) {
+            selectClause += " and " + NOT_SENT;
+        }
 
         String sortOrder = TraceProviderAPI.TraceColumns._ID + (desc ? " DESC" : " ASC") + " LIMIT " + limit + ";";
 
@@ -100,6 +115,92 @@ public class TraceUtilities {
         return id;
     }
 
+    /*
+     * Get the trail of points with those that do not change its shape by more than the
+     * tolerance in metres removed.  The points stay in the database.  Returns the id of the
+     * last point read so that all of them can be compacted once the trail has been sent.
+     */
+    public static long getPoints(List<PointEntry> entries, int limit, boolean desc, boolean includeSent, double tolerance) {
+        List<PointEntry> points = new ArrayList<>(100);
+        long id = getPoints(points, limit, desc, includeSent);
+        entries.addAll(TrailSimplifier.simplify(points, tolerance, TrailSimplifier.MAX_GAP));
+        return id;
+    }
+
+    /*
+     * Write the trail of points that have not been sent, oldest first, straight from the
+     * cursor rather than building a list of them.  If the tolerance in metres is greater than
+     * 0 the trail is simplified first.  Returns the id of the last point read, which may not
+     * have been written, so that all of them can be compacted once the trail has been sent.
+     */
+    public static long getPoints(PointWriter writer, int limit, double tolerance) throws IOException {
+
+        String [] proj = {
+                TraceProviderAPI.TraceColumns._ID,
+                TraceProviderAPI.TraceColumns.LAT,
+                TraceProviderAPI.TraceColumns.LON,
+                TraceProviderAPI.TraceColumns.TIME,
+        };
+
+        String [] selectArgs = {Utilities.getSource()};
+        String selectClause = TraceProviderAPI.TraceColumns.SOURCE + " = ? and " + NOT_SENT;
+        String sortOrder = TraceProviderAPI.TraceColumns._ID + " ASC LIMIT " + limit + ";";
+
+        final ContentResolver resolver = Collect.getInstance().getContentResolver();
+        long id = 0;
+        try (Cursor cursor = resolver.query(TraceProviderAPI.TraceColumns.CONTENT_URI, proj, selectClause, selectArgs, sortOrder)) {
+            if (cursor == null) {
+                writer.begin(0);
+                return id;
+            }
+
+            int idColumn = cursor.getColumnIndexOrThrow(TraceProviderAPI.TraceColumns._ID);
+            int latColumn = cursor.getColumnIndexOrThrow(TraceProviderAPI.TraceColumns.LAT);
+            int lonColumn = cursor.getColumnIndexOrThrow(TraceProviderAPI.TraceColumns.LON);
+            int timeColumn = cursor.getColumnIndexOrThrow(TraceProviderAPI.TraceColumns.TIME);
+
+            if (tolerance <= 0) {
+                writer.begin(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    writer.write(cursor.getDouble(latColumn), cursor.getDouble(lonColumn), cursor.getLong(timeColumn));
+                    id = cursor.getLong(idColumn);
+                }
+                return id;
+            }
+
+            // The whole trail is needed to simplify it, hold it in arrays rather than objects
+            int count = cursor.getCount();
+            double[] lat = new double[count];
+            double[] lon = new double[count];
+            long[] time = new long[count];
+            int n = 0;
+            while (n < count && cursor.moveToNext()) {
+                lat[n] = cursor.getDouble(latColumn);
+                lon[n] = cursor.getDouble(lonColumn);
+                time[n] = cursor.getLong(timeColumn);
+                id = cursor.getLong(idColumn);
+                n++;
+            }
+
+            boolean[] keep = TrailSimplifier.simplify(lat, lon, time, n, tolerance, TrailSimplifier.MAX_GAP);
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (keep[i]) {
+                    kept++;
+                }
+            }
+            writer.begin(kept);
+            for (int i = 0; i < n; i++) {
+                if (keep[i]) {
+                    writer.write(lat[i], lon[i], time[i]);
+                }
+            }
+            Timber.i("Trail of %d points simplified to %d", n, kept);
+        }
+
+        return id;
+    }
+
     /*
      * Delete the trace points
      * If lastId is > 0 then only delete points up to and including this id
@@ -138,4 +239,96 @@ public class TraceUtilities {
         return status;
 
     }
+
+    /*
+     * Compact the points up to and including lastId once the server has accepted them.  The
+     * raw points are kept until then so that a failed upload can be sent again.
+     *   (1) Sent points older than those shown on the map are deleted
+     *   (2) Sent points still shown on the map are replaced by the points of the simplified
+     *       trail, so the map keeps showing them with a fraction of the rows
+     * Points recorded after lastId are not changed.  Returns false if the compaction failed.
+     */
+    public static boolean compactSent(long lastId, double tolerance) {
+
+        final ContentResolver resolver = Collect.getInstance().getContentResolver();
+        Uri dbUri = TraceColumns.CONTENT_URI;
+        String source = Utilities.getSource();
+        String sentClause = TraceColumns.SOURCE + " = ? and " + TraceColumns._ID + " <= ?";
+        String[] sentArgs = {source, String.valueOf(lastId)};
+
+        try {
+            ContentValues values = new ContentValues();
+            values.put(TraceColumns.SENT, 1);
+            resolver.update(dbUri, values, sentClause, sentArgs);
+
+            // The oldest point shown on the map
+            long mapStart = 0;
+            String[] proj = {TraceColumns._ID};
+            String[] sourceArgs = {source};
+            String sortOrder = TraceColumns._ID + " DESC LIMIT 1 OFFSET " + (MAP_POINTS - 1) + ";";
+            try (Cursor c = resolver.query(dbUri, proj, TraceColumns.SOURCE + " = ?", sourceArgs, sortOrder)) {
+                if (c != null && c.moveToFirst()) {
+                    mapStart = c.getLong(0);
+                }
+            }
+
+            int deleted = 0;
+            if (mapStart > 0) {
+                String[] oldArgs = {source, String.valueOf(lastId), String.valueOf(mapStart)};
+                deleted = resolver.delete(dbUri, sentClause + " and " + TraceColumns._ID + " < ?", oldArgs);
+            }
+
+            // Simplify the sent points that are on the map
+            List<Long> ids = new ArrayList<>();
+            List<PointEntry> points = new ArrayList<>();
+            String[] pointProj = {TraceColumns._ID, TraceColumns.LAT, TraceColumns.LON, TraceColumns.TIME};
+            String[] mapArgs = {source, String.valueOf(lastId), String.valueOf(mapStart)};
+            try (Cursor c = resolver.query(dbUri, pointProj, sentClause + " and " + TraceColumns._ID + " >= ?",
+                    mapArgs, TraceColumns._ID + " ASC")) {
+                while (c != null && c.moveToNext()) {
+                    PointEntry point = new PointEntry();
+                    point.lat = c.getDouble(1);
+                    point.lon = c.getDouble(2);
+                    point.time = c.getLong(3);
+                    ids.add(c.getLong(0));
+                    points.add(point);
+                }
+            }
+            List<PointEntry> kept = TrailSimplifier.simplify(points, tolerance, TrailSimplifier.MAX_GAP);
+
+            List<String> dropped = new ArrayList<>();
+            int k = 0;
+            for (int i = 0; i < points.size(); i++) {
+                if (k < kept.size() && kept.get(k) == points.get(i)) {
+                    k++;
+                } else {
+                    dropped.add(String.valueOf(ids.get(i)));
+                }
+            }
+            for (int i = 0; i < dropped.size(); i += DELETE_BATCH) {
+                List<String> batch = dropped.subList(i, Math.min(i + DELETE_BATCH, dropped.size()));
+                String in = TraceColumns._ID + " in (" + String.join(",", Collections.nCopies(batch.size(), "?")) + ")";
+                deleted += resolver.delete(dbUri, in, batch.toArray(new String[0]));
+            }
+
+            Timber.i("Compacted the sent trail, %d points deleted", deleted);
+            return true;
+        } catch (Exception e) {
+            Timber.e(e, "Failed to compact the sent trail");
+            return false;
+        }
+    }
+
+    /**
+     * Receives the points of the trail in order
+     */
+    public interface PointWriter {
+
+        /**
+         * Called once, before the points, with the number that will follow
+         */
+        void begin(int count) throws IOException;
+
+        void write(double lat, double lon, long time) throws IOException;
+    }
 }
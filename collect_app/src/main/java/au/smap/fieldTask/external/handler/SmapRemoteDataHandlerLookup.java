@@ -25,6 +25,7 @@ import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.condition.IFunctionHandler;
 import org.javarosa.xpath.expr.XPathFuncExpr;
 import org.odk.collect.android.application.Collect;
+import au.smap.fieldTask.dao.SmapLookupCacheDao;
 import au.smap.fieldTask.database.SqlFrag;
 import org.odk.collect.android.dynamicpreload.ExternalDataUtil;
 import org.odk.collect.settings.keys.ProjectKeys;
@@ -48,6 +49,7 @@ public class SmapRemoteDataHandlerLookup implements IFunctionHandler {
     public static final String HANDLER_NAME = "lookup";
     public String mIdent = null;
     public String mServerUrlBase = null;
+    private SmapLookupCacheDao lookupCache = null;      // smap - responses kept for use offline
 
     public SmapRemoteDataHandlerLookup(String ident) {
         this.mIdent = ident;
@@ -183,6 +185,9 @@ public class SmapRemoteDataHandlerLookup implements IFunctionHandler {
 
         // Get the cache results if they exist
         String data = app.getRemoteData(url);
+        if(data == null) {
+            data = getSavedData(url);
+        }
         HashMap<String, String> record = null;
         if(data != null) {
             try {
@@ -199,7 +204,7 @@ public class SmapRemoteDataHandlerLookup implements IFunctionHandler {
             app.startRemoteCall();
             SmapRemoteWebServiceTask task = new SmapRemoteWebServiceTask();
             task.setSmapRemoteListener(app.getFormFillingActivity());
-            task.execute(url, "0", "false", null, null, "true");
+            task.execute(url, "0", "false", null, null, "true", mIdent);
             return "";
         } else {
             if(index == -1 || (fn != null && fn.equals(ExternalDataHandlerPull.FN_COUNT))) {
@@ -209,4 +214,29 @@ public class SmapRemoteDataHandlerLookup implements IFunctionHandler {
             }
         }
     }
+
+    /*
+     * Get a response saved on the device by an earlier lookup.  It is added to the in memory
+     * cache so the device is only checked once per submission.
+     */
+    private String getSavedData(String url) {
+        String data = null;
+        try {
+            if(lookupCache == null) {
+                lookupCache = new SmapLookupCacheDao();
+            }
+            data = lookupCache.get(url);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to read the lookup cache");
+        }
+
+        if(data != null) {
+            SmapRemoteDataItem item = new SmapRemoteDataItem();
+            item.key = url;
+            item.data = data;
+            item.perSubmission = true;
+            Collect.getInstance().setRemoteItem(item);
+        }
+        return data;
+    }
 }
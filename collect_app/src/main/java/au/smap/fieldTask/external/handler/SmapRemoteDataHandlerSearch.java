@@ -30,20 +30,29 @@ import org.javarosa.xpath.expr.XPathFuncExpr;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.exception.ExternalDataException;
+import org.odk.collect.android.dynamicpreload.ExternalDataManager;
 import org.odk.collect.android.dynamicpreload.ExternalDataUtil;
 import org.odk.collect.android.dynamicpreload.ExternalSelectChoice;
+import org.odk.collect.android.dynamicpreload.handler.ExternalDataHandlerSearch;
+import au.smap.fieldTask.dao.SmapLookupCacheDao;
 import org.odk.collect.settings.keys.ProjectKeys;
 import au.smap.fieldTask.preferences.GeneralSharedPreferencesSmap;
 import au.smap.fieldTask.tasks.SmapRemoteWebServiceTask;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.net.URLEncoder;
 
 import timber.log.Timber;
 
 /**
  * Get choices from the server
+ *
+ * If the data set has been downloaded with the form media, and the local database has been
+ * imported from that copy, the choices are found on the device.  Otherwise the data set is
+ * treated as live and the server is asked, the response is kept on the device so that it can
+ * be used offline.
  */
 public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
 
@@ -53,11 +62,16 @@ public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
     private final String valueColumn;
     private final String imageColumn;
 
+    private final ExternalDataManager externalDataManager;
+    private final String mIdent;
     public String mServerUrlBase = null;
 
-    public SmapRemoteDataHandlerSearch(String ident, String dColumns,
+    public SmapRemoteDataHandlerSearch(ExternalDataManager externalDataManager, String ident, String dColumns,
                                        String valueColumn, String imageColumn) {
 
+        this.externalDataManager = externalDataManager;
+        this.mIdent = ident;
+
         GeneralSharedPreferencesSmap prefs = GeneralSharedPreferencesSmap.getInstance();
         String serverUrl = (String) prefs.get(ProjectKeys.KEY_SERVER_URL);
         mServerUrlBase = serverUrl + "/lookup/choices/" + ident + "/";
@@ -154,6 +168,14 @@ public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
         String dataSetName = XPathFuncExpr.toString(args[0]);
         ArrayList<SelectChoice> choices = new ArrayList<>();
 
+        // Use the local copy of the data set if there is one
+        if (expression == null) {
+            List<SelectChoice> localChoices = getLocalChoices(dataSetName, args, ec);
+            if (localChoices != null) {
+                return localChoices;
+            }
+        }
+
         try {
             // Get the url which doubles as the cache key
             StringBuffer url = new StringBuffer(mServerUrlBase)
@@ -199,6 +221,9 @@ public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
             // Get the cache results if they exist
             String urlString = url.toString();
             String data = app.getRemoteData(urlString);
+            if(data == null) {
+                data = getSavedData(urlString);
+            }
             if(data != null) {
                 try {
                     ArrayList<SelectChoice> serverChoices =
@@ -222,7 +247,7 @@ public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
                 app.startRemoteCall();
                 SmapRemoteWebServiceTask task = new SmapRemoteWebServiceTask();
                 task.setSmapRemoteListener(app.getFormFillingActivity());
-                task.execute(urlString, timeoutValue, "true", null, null, "true");
+                task.execute(urlString, timeoutValue, "true", null, null, "true", mIdent);
             }
         } catch (Exception e) {
             Timber.e(e);
@@ -232,4 +257,57 @@ public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
 
     }
 
+    /*
+     * Search the data set imported from the form media using the same query as search().  Returns
+     * null if the data set is not on the device, has changed since it was imported or cannot
+     * answer the query, in which case the server is asked.
+     */
+    private List<SelectChoice> getLocalChoices(String dataSetName, Object[] args, EvaluationContext ec) {
+
+        String localName = dataSetName.toLowerCase(Locale.US);
+        if (localName.endsWith(".csv")) {
+            localName = localName.substring(0, localName.lastIndexOf(".csv"));
+        }
+        if (externalDataManager == null || !externalDataManager.hasCurrentDatabase(localName)) {
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            ExternalDataHandlerSearch localSearch = new ExternalDataHandlerSearch(externalDataManager,
+                    displayColumns, valueColumn, imageColumn);
+            @SuppressWarnings("unchecked")
+            List<SelectChoice> localChoices = (List<SelectChoice>) localSearch.eval(args, ec);
+            Timber.i("++++ Local Search: %s returned %d choices in %d ms", dataSetName, localChoices.size(),
+                    System.currentTimeMillis() - start);
+            return localChoices;
+        } catch (Exception e) {
+            Timber.w(e, "Local search of %s failed, asking the server", dataSetName);
+            return null;
+        }
+    }
+
+    /*
+     * Get choices saved from an earlier call to the server and add them to the in memory
+     * cache so the device is only checked once per submission.
+     */
+    private String getSavedData(String url) {
+        String data = null;
+        try {
+            data = new SmapLookupCacheDao().get(url);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to read the lookup cache");
+        }
+
+        if(data != null) {
+            SmapRemoteDataItem item = new SmapRemoteDataItem();
+            item.key = url;
+            item.data = data;
+            item.perSubmission = true;
+            item.choices = true;
+            Collect.getInstance().setRemoteItem(item);
+        }
+        return data;
+    }
+
 }
@@ -7,6 +7,7 @@ import com.google.firebase.crashlytics.FirebaseCrashlytics;
 
 import org.kxml2.io.KXmlParser;
 import au.smap.fieldTask.dao.InstancesDao;
+import au.smap.fieldTask.dao.SmapLocalDataDao;
 import au.smap.fieldTask.dao.SmapReferencesDao;
 import org.odk.collect.android.dynamicpreload.ExternalDataUtil;
 import org.odk.collect.android.dynamicpreload.ExternalSQLiteOpenHelper;
@@ -14,8 +15,10 @@ import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.storage.StoragePathProvider;
 import org.odk.collect.android.storage.StorageSubdirectory;
 import au.smap.fieldTask.models.LinkedInstance;
+import au.smap.fieldTask.models.LinkedInstanceData;
 import au.smap.fieldTask.models.LinkedSurvey;
 import org.odk.collect.android.tasks.FormLoaderTask;
+import org.odk.collect.forms.instances.Instance;
 import org.xmlpull.v1.XmlPullParser;
 
 import java.io.File;
@@ -24,6 +27,7 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
@@ -39,15 +43,26 @@ public class LocalDataManagerSmap {
         this.formLoaderTask = formLoaderTask;
     }
 
-    private class FormData {
-        String name;
-        ContentValues values = new ContentValues();
-        ArrayList<FormData> subForms = new ArrayList<> ();
+    /*
+     * Save the values of a finalized instance if other surveys search its data.  This is done once
+     * when the instance is saved so that opening the surveys that link to it does not need to read
+     * the instance.
+     */
+    public static void saveInstanceData(Instance instance) {
+        try {
+            String formId = instance.getFormId();
+            if (new SmapReferencesDao().isReferenced(formId)) {
+                String path = getInstancePath(instance.getInstanceFilePath());
+                File instanceFile = new File(path);
+                new SmapLocalDataDao().put(path, formId, instanceFile.lastModified(), readInstance(instanceFile));
+            }
+        } catch (Exception e) {
+            Timber.e(e);        // It will be read again when a survey that links to it is opened
+        }
     }
 
     public void loadLocalData(String surveyIdent, File formMediaDir) {
 
-        StoragePathProvider storagePathProvider = new StoragePathProvider();
         SmapReferencesDao refDao = new SmapReferencesDao();
         Map<String, String> columnNamesCache = new HashMap<>();
 
@@ -71,86 +86,48 @@ public class LocalDataManagerSmap {
                     externalSQLiteOpenHelper.deleteLocal(formLoaderTask);
                 }
 
-                // 3. Process each instance
-                if(instances.size() > 0) {
-                    for (LinkedInstance li : instances) {
+                // 3. Get the saved values of each instance, an instance is only read if it has changed since its values were saved
+                SmapLocalDataDao localDataDao = new SmapLocalDataDao();
+                HashMap<String, SmapLocalDataDao.Entry> savedData = localDataDao.getInstances(surveys.keySet());
+                int readCount = 0;
+                for (LinkedInstance li : instances) {
 
-                        // 3. Convert contents of instance into a record
-                        ArrayList<ContentValues> data = dataSets.get(li.survey.tableName);
-                        if (data == null) {
-                            data = new ArrayList<>();
-                            dataSets.put(li.survey.tableName, data);
-                        }
-
-                        // Accumulate data in a FormData structure
-                        FormData fd = new FormData();
-                        FormData currentForm = fd;
-                        currentForm.name = "main";
-                        Stack<FormData> formDataStack = new Stack<>();
-
-                        String absPath = getAbsoluteFilePath(storagePathProvider.getDirPath(StorageSubdirectory.INSTANCES), li.instanceFilePath);
-                        XmlPullParser parser = new KXmlParser();
-                        parser.setInput(new InputStreamReader(new FileInputStream(absPath), StandardCharsets.UTF_8));
-
-                        String tag;
-                        parser.nextTag();
-                        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
-                            tag = parser.getName();
-                            String value = parser.getText();
-
-                            Timber.i("@@@@@@@@: " + tag + " : " + parser.getEventType() + " : " + value);
-                            switch (parser.getEventType()) {
-                                case XmlPullParser.START_TAG:
-                                    parser.next();
-                                    value = parser.getText();
-
-                                    if(parser.getEventType() == XmlPullParser.TEXT) {
-                                        if (li.survey.columns.contains(tag)) {
-                                            String safeColumnName = ExternalDataUtil.toSafeColumnName(tag, columnNamesCache);
-                                            currentForm.values.put(safeColumnName, value);
-                                        }
-                                    } else if(parser.getEventType() == XmlPullParser.START_TAG) {
-                                        if (!tag.equals("main")) {   // Top level form main already has a form definition which is an entry point to the graph
-                                            FormData subFormData = new FormData();
-                                            formDataStack.push(currentForm);
-                                            currentForm = subFormData;
-                                            currentForm.name = tag;
-                                        }
-                                    }
-                                    break;
-
-                                case XmlPullParser.END_TAG:
-                                    if(tag.equals(currentForm.name) && !formDataStack.empty()) {
-                                        FormData completedForm = currentForm;
-                                        currentForm = formDataStack.pop();
-                                        if(completedForm.values.size() > 0 || completedForm.subForms.size() > 0) {  // Add if not empty
-                                            currentForm.subForms.add(completedForm);
-                                        }
-                                    }
-                                    parser.next();
-                                    break;
-                                default:
-                                    parser.next();
-                                    break;
-                            }
+                    ArrayList<ContentValues> data = dataSets.get(li.survey.tableName);
+                    if (data == null) {
+                        data = new ArrayList<>();
+                        dataSets.put(li.survey.tableName, data);
+                    }
 
-                        }
+                    File instanceFile = new File(li.instanceFilePath);
+                    SmapLocalDataDao.Entry saved = savedData.remove(li.instanceFilePath);
+                    LinkedInstanceData instanceData;
+                    if (saved != null && saved.modified == instanceFile.lastModified()) {
+                        instanceData = saved.data;
+                    } else {
+                        instanceData = readInstance(instanceFile);
+                        localDataDao.put(li.instanceFilePath, li.survey.referenceSurvey, instanceFile.lastModified(), instanceData);
+                        readCount++;
+                    }
 
-                        // Convert FormData structure into records
-                        addNode(data, fd, new ContentValues());
+                    // Convert the values of referenced columns into records
+                    addNode(data, instanceData, li.survey.columns, columnNamesCache, new ContentValues());
+                }
 
-                    }
+                // Anything left was saved for an instance that has since been submitted or deleted
+                if (!savedData.isEmpty()) {
+                    localDataDao.delete(savedData.keySet());
+                }
+                Timber.i("Local data from %d instances, %d read from the instance file", instances.size(), readCount);
 
-                    // 4. Write instance records to the database table
-                    for (String tableName: dataSets.keySet()) {
+                // 4. Write instance records to the database table
+                for (String tableName: dataSets.keySet()) {
 
-                        File dbFile = new File(formMediaDir.getAbsolutePath(), tableName + ".db");
-                        if (!dbFile.exists()) {
-                            FirebaseCrashlytics.getInstance().log("LocalCSV: csv table does not exist: " + dbFile.getAbsolutePath());
-                        }
-                        ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(dbFile);
-                        externalSQLiteOpenHelper.append(dataSets.get(tableName), formLoaderTask);
+                    File dbFile = new File(formMediaDir.getAbsolutePath(), tableName + ".db");
+                    if (!dbFile.exists()) {
+                        FirebaseCrashlytics.getInstance().log("LocalCSV: csv table does not exist: " + dbFile.getAbsolutePath());
                     }
+                    ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(dbFile);
+                    externalSQLiteOpenHelper.append(dataSets.get(tableName), formLoaderTask);
                 }
 
             }
@@ -178,7 +155,7 @@ public class LocalDataManagerSmap {
                     li.survey = surveys.get(surveyName);
                     if(li.survey != null) {
                         // Need to process this survey
-                        li.instanceFilePath = cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.INSTANCE_FILE_PATH));
+                        li.instanceFilePath = getInstancePath(cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.INSTANCE_FILE_PATH)));
                         instances.add(li);
                         Timber.d("Processing linked instance: %s", li.instanceFilePath);
                     } else {
@@ -192,21 +169,109 @@ public class LocalDataManagerSmap {
         return instances;
     }
 
+    private static String getInstancePath(String instanceFilePath) {
+        return getAbsoluteFilePath(new StoragePathProvider().getDirPath(StorageSubdirectory.INSTANCES), instanceFilePath);
+    }
+
     /*
-     * Recursively convert nodes into records
+     * Read the values in an instance
      */
-    private void addNode(ArrayList<ContentValues> data, FormData fd, ContentValues values) {
+    private static LinkedInstanceData readInstance(File instanceFile) throws Exception {
+
+        LinkedInstanceData fd = new LinkedInstanceData();
+        LinkedInstanceData currentForm = fd;
+        currentForm.name = "main";
+        Stack<LinkedInstanceData> formDataStack = new Stack<>();
+
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(instanceFile), StandardCharsets.UTF_8)) {
+            XmlPullParser parser = new KXmlParser();
+            parser.setInput(reader);
+
+            String tag;
+            parser.nextTag();
+            while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
+                tag = parser.getName();
+                String value;
+
+                switch (parser.getEventType()) {
+                    case XmlPullParser.START_TAG:
+                        parser.next();
+                        value = parser.getText();
+
+                        if (parser.getEventType() == XmlPullParser.TEXT) {
+                            currentForm.values.put(tag, value);
+                        } else if (parser.getEventType() == XmlPullParser.START_TAG) {
+                            if (!tag.equals("main")) {   // Top level form main already has a form definition which is an entry point to the graph
+                                LinkedInstanceData subFormData = new LinkedInstanceData();
+                                formDataStack.push(currentForm);
+                                currentForm = subFormData;
+                                currentForm.name = tag;
+                            }
+                        }
+                        break;
+
+                    case XmlPullParser.END_TAG:
+                        if (tag.equals(currentForm.name) && !formDataStack.empty()) {
+                            LinkedInstanceData completedForm = currentForm;
+                            currentForm = formDataStack.pop();
+                            if (completedForm.values.size() > 0 || completedForm.subForms.size() > 0) {  // Add if not empty
+                                currentForm.subForms.add(completedForm);
+                            }
+                        }
+                        parser.next();
+                        break;
+                    default:
+                        parser.next();
+                        break;
+                }
+            }
+        }
+        return fd;
+    }
+
+    /*
+     * Recursively convert nodes into records, only the referenced columns are included
+     */
+    private void addNode(ArrayList<ContentValues> data, LinkedInstanceData fd, List<String> columns,
+                         Map<String, String> columnNamesCache, ContentValues values) {
         ContentValues nodeValues = new ContentValues();
         nodeValues.putAll(values);      // Add what we have been passed
-        nodeValues.putAll(fd.values);   // Add the values in this node
+        for (Map.Entry<String, String> value : fd.values.entrySet()) {      // Add the values in this node
+            if (columns.contains(value.getKey())) {
+                nodeValues.put(ExternalDataUtil.toSafeColumnName(value.getKey(), columnNamesCache), value.getValue());
+            }
+        }
 
         // Process the subforms
-        if(fd.subForms.size() == 0) {
+        ArrayList<LinkedInstanceData> subForms = new ArrayList<>();
+        for (LinkedInstanceData sf : fd.subForms) {
+            if (hasColumns(sf, columns)) {
+                subForms.add(sf);
+            }
+        }
+        if(subForms.size() == 0) {
             data.add(nodeValues);   // Reached a leaf node we are done
         } else {
-            for(FormData sf : fd.subForms) {
-                addNode(data, sf, nodeValues);
+            for(LinkedInstanceData sf : subForms) {
+                addNode(data, sf, columns, columnNamesCache, nodeValues);
+            }
+        }
+    }
+
+    /*
+     * Return true if the node or one of its subforms has a value for a referenced column
+     */
+    private boolean hasColumns(LinkedInstanceData fd, List<String> columns) {
+        for (String name : fd.values.keySet()) {
+            if (columns.contains(name)) {
+                return true;
+            }
+        }
+        for (LinkedInstanceData sf : fd.subForms) {
+            if (hasColumns(sf, columns)) {
+                return true;
             }
         }
+        return false;
     }
 }
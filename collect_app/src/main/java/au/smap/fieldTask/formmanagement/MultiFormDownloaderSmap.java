@@ -17,6 +17,8 @@ import au.smap.fieldTask.listeners.FormDownloaderListener;
 import org.odk.collect.android.logic.FileReferenceFactory;
 import org.odk.collect.metadata.PropertyManager;
 import org.odk.collect.openrosa.forms.OpenRosaXmlFetcher;
+import org.odk.collect.openrosa.http.ConditionalGetCache;
+import org.odk.collect.openrosa.http.HttpGetResult;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.smap.openrosa.api.FormListApiSmap;
 import org.odk.collect.android.smap.openrosa.api.OpenRosaFormListApiSmap;
@@ -35,12 +37,23 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import timber.log.Timber;
 
@@ -50,18 +63,44 @@ import static org.odk.collect.android.utilities.FileUtils.deleteOldFile;
 import static org.odk.collect.android.utilities.FileUtils.write;
 import static org.odk.collect.androidshared.utils.PathUtils.getAbsoluteFilePath;
 
+/**
+ * Downloads forms and their media from the server.
+ *
+ * Several forms are downloaded at once, and the media of each form is fetched in parallel, but
+ * the number of connections open to the server at any time is limited to
+ * {@link #MAX_CONNECTIONS}.  Organisation media shared by several forms is only downloaded once
+ * per run.  A form is only saved to the forms repository after its XML and all of its media are
+ * in place.
+ *
+ * A file that is already on the device, and cannot be checked against a hash from the server, is
+ * fetched with a conditional request so that the server only sends it if it has changed.
+ */
 public class MultiFormDownloaderSmap {
 
     private static final String MD5_COLON_PREFIX = "md5:";
     private static final String TEMP_DOWNLOAD_EXTENSION = ".tempDownload";
 
+    static final int MAX_CONNECTIONS = 4;       // Across all the forms being downloaded
+    static final int MAX_FORMS = 3;             // Forms processed at the same time
+
+    // The reference manager is global so only one form definition can be parsed at a time
+    private static final Object REFERENCE_MANAGER_LOCK = new Object();
+
     private final FormListApiSmap formListApi;
+    private final OpenRosaXmlFetcher xmlFetcher;
     private final FormsRepository formsRepository;
     private final PropertyManager propertyManager;
 
+    private final Semaphore connections = new Semaphore(MAX_CONNECTIONS);
+    private final Object commitLock = new Object();
+    private final Object orgMediaLock = new Object();     // Held while an organisation media file is replaced or copied
+    private final ConcurrentHashMap<String, FutureTask<Boolean>> orgMediaDownloads = new ConcurrentHashMap<>();
+    private ExecutorService mediaExecutor;
+
     public MultiFormDownloaderSmap(OpenRosaXmlFetcher openRosaXmlFetcher, FormsRepository formsRepository, PropertyManager propertyManager) {
         this.formsRepository = formsRepository;
         this.formListApi = new OpenRosaFormListApiSmap(openRosaXmlFetcher);
+        this.xmlFetcher = openRosaXmlFetcher;
         this.propertyManager = propertyManager;
     }
 
@@ -88,23 +127,46 @@ public class MultiFormDownloaderSmap {
 
     public HashMap<ServerFormDetailsSmap, String> downloadForms(List<ServerFormDetailsSmap> toDownload, FormDownloaderListener stateListener) {
         int total = toDownload.size();
-        int count = 1;
 
         final HashMap<ServerFormDetailsSmap, String> result = new HashMap<>();
 
-        for (ServerFormDetailsSmap fd : toDownload) {
-            boolean downloaded = false;
-            try {
-                downloaded = processOneForm(total, count++, fd, stateListener);
-                if (downloaded) {
-                    result.put(fd, Collect.getInstance().getString(org.odk.collect.strings.R.string.success));
+        String deviceId = propertyManager.reload().getSingularProperty(PropertyManager.PROPMGR_DEVICE_ID);        // smap
+
+        orgMediaDownloads.clear();
+        ExecutorService formExecutor = Executors.newFixedThreadPool(MAX_FORMS);
+        mediaExecutor = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        try {
+            List<Future<Boolean>> downloads = new ArrayList<>();
+            int count = 1;
+            for (ServerFormDetailsSmap fd : toDownload) {
+                final int formCount = count++;
+                downloads.add(formExecutor.submit(() -> processOneForm(total, formCount, fd, deviceId, stateListener)));
+            }
+
+            // Wait for every form, even after a cancel, so nothing is still being written when this returns
+            boolean cancelled = false;
+            for (int i = 0; i < downloads.size(); i++) {
+                ServerFormDetailsSmap fd = toDownload.get(i);
+                try {
+                    if (downloads.get(i).get()) {
+                        result.put(fd, Collect.getInstance().getString(org.odk.collect.strings.R.string.success));
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof TaskCancelledException) {
+                        cancelled = true;
+                    } else if (!cancelled) {
+                        Timber.e(cause);
+                        result.put(fd, Collect.getInstance().getString(org.odk.collect.strings.R.string.error_occured) + ": " + cause.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
-            } catch (TaskCancelledException cd) {
-                break;
-            } catch(Exception e) {
-                Timber.e(e);
-                result.put(fd, Collect.getInstance().getString(org.odk.collect.strings.R.string.error_occured) + ": " + e.getMessage());
             }
+        } finally {
+            formExecutor.shutdown();
+            mediaExecutor.shutdown();
         }
 
         return result;
@@ -119,22 +181,21 @@ public class MultiFormDownloaderSmap {
      * @return an empty string for success, or a nonblank string with one or more error messages
      * @throws TaskCancelledException to signal that form downloading is to be canceled
      */
-    private boolean processOneForm(int total, int count, ServerFormDetailsSmap fd, FormDownloaderListener stateListener) throws Exception {
+    private boolean processOneForm(int total, int count, ServerFormDetailsSmap fd, String deviceId, FormDownloaderListener stateListener) throws Exception {
 
         if (stateListener != null && stateListener.isTaskCancelled()) {
             throw new TaskCancelledException();
         }
 
+        // Forms are downloaded at the same time so the time alone does not give a unique directory
         String tempMediaPath = new File(new StoragePathProvider().getDirPath(StorageSubdirectory.CACHE),
-                String.valueOf(System.currentTimeMillis())).getAbsolutePath();
+                System.currentTimeMillis() + "_" + count).getAbsolutePath();
         String orgTempMediaPath = new File(tempMediaPath + "_org").getAbsolutePath();      // smap
         String orgMediaPath = Utilities.getOrgMediaPath();  ;          // smap
         String finalMediaPath = null;
         FileResult fileResult = null;
 
         try {
-            String deviceId = propertyManager.reload().getSingularProperty(PropertyManager.PROPMGR_DEVICE_ID);        // smap
-
             // get the xml file - either download or use the existing one
             fileResult = downloadXform(fd.getProject(), fd.getFormName(), fd.getDownloadUrl() + "&deviceID=" +
                             URLEncoder.encode(deviceId != null ? deviceId : "", "UTF-8"),
@@ -144,8 +205,10 @@ public class MultiFormDownloaderSmap {
 
             if (fileResult == null || !fileResult.file.exists()) {
                 throw new Exception("Downloaded xml file does not exist");
-            } else {
+            }
 
+            Map<String, String> parsedFields;
+            synchronized (REFERENCE_MANAGER_LOCK) {
                 // Add a stub last-saved instance to the tmp media directory so it will be resolved
                 // when parsing a form definition with last-saved reference
                 File tmpLastSaved = new File(tempMediaPath, LAST_SAVED_FILENAME);
@@ -154,20 +217,12 @@ public class MultiFormDownloaderSmap {
                 ReferenceManager.instance().addReferenceFactory(new FileReferenceFactory(tempMediaPath));
                 ReferenceManager.instance().addSessionRootTranslator(new RootTranslator("jr://file-csv/", "jr://file/"));
 
-                Map<String, String> parsedFields = FileUtils.getMetadataFromFormDefinition(fileResult.file);
-
-                ReferenceManager.instance().reset();
-                FileUtils.deleteAndReport(tmpLastSaved);
-
-                /*
-                 * Store result in database
-                 */
-                UriResult uriResult = findExistingOrCreateNewUri(fileResult.file, parsedFields,
-                        STFileUtils.getSource(fd.getDownloadUrl()),
-                        fd.getTasksOnly(),
-                        fd.getReadOnly(),
-                        fd.getSearchLocalData(),
-                        fd.getProject());  // smap add source, tasks_only, searchLocalData,project
+                try {
+                    parsedFields = FileUtils.getMetadataFromFormDefinition(fileResult.file);
+                } finally {
+                    ReferenceManager.instance().reset();
+                    FileUtils.deleteAndReport(tmpLastSaved);
+                }
             }
 
             /*
@@ -187,11 +242,30 @@ public class MultiFormDownloaderSmap {
                 }
             }
 
+            if (stateListener != null && stateListener.isTaskCancelled()) {
+                throw new TaskCancelledException();
+            }
+
+            /*
+             * Store result in database, only now that the media is in place so a form is never
+             * listed without it
+             */
+            synchronized (commitLock) {
+                findExistingOrCreateNewUri(fileResult.file, parsedFields,
+                        STFileUtils.getSource(fd.getDownloadUrl()),
+                        fd.getTasksOnly(),
+                        fd.getReadOnly(),
+                        fd.getSearchLocalData(),
+                        fd.getProject());  // smap add source, tasks_only, searchLocalData,project
+            }
+
             cleanUp(null, null, null, tempMediaPath, orgTempMediaPath);     // clear temp directories only
 
         } catch (TaskCancelledException e) {
             Timber.i(e);
-            ReferenceManager.instance().reset();    // smap ensure reference manager reset after error
+            synchronized (REFERENCE_MANAGER_LOCK) {
+                ReferenceManager.instance().reset();    // smap ensure reference manager reset after error
+            }
             cleanUp(fileResult, null, finalMediaPath, tempMediaPath, orgTempMediaPath);             // clear all directories
             throw e;        // do not download additional forms.
         }
@@ -343,8 +417,17 @@ public class MultiFormDownloaderSmap {
             String path = storagePathProvider.getDirPath(StorageSubdirectory.FORMS) + File.separator + rootName + ".xml";
             f = new File(path);
 
-            InputStream file = formListApi.fetchForm(url, true);    // add credentials flag
-            writeFile(f, stateListener, file);
+            connections.acquire();
+            try {
+                // The file can be left from an earlier attempt that failed before the form was saved
+                HttpGetResult result = xmlFetcher.fetchIfModified(url, true, f);    // add credentials flag
+                if (result.getStatusCode() != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    writeFile(f, stateListener, result.getInputStream());
+                    xmlFetcher.saveValidators(url, result);
+                }
+            } finally {
+                connections.release();
+            }
 
             isNew = true;       // smap now declared outside
 
@@ -492,15 +575,19 @@ public class MultiFormDownloaderSmap {
 
         List<MediaFile> files = fd.getMediaFiles();
         if(files == null && fd.getManifestUrl() != null) {  // Old server - request files from the server
-            files = formListApi.fetchManifest(fd.getManifestUrl()).getMediaFiles();
+            connections.acquire();
+            try {
+                files = formListApi.fetchManifest(fd.getManifestUrl()).getMediaFiles();
+            } finally {
+                connections.release();
+            }
         }
 
         StringBuffer downloadMsg = new StringBuffer("");      //smap
 
         // OK we now have the full set of files to download...
-        Timber.i("Downloading %d media files.", files.size());
-        int mediaCount = 0;
         if (files != null && !files.isEmpty()) {
+            Timber.i("Downloading %d media files.", files.size());
             File tempMediaDir = new File(tempMediaPath);
             File finalMediaDir = new File(finalMediaPath);
             File orgTempMediaDir = new File(orgTempMediaPath);  // smap temp organisational media
@@ -511,80 +598,222 @@ public class MultiFormDownloaderSmap {
             FileUtils.checkMediaPath(orgTempMediaDir);          // smap
             FileUtils.checkMediaPath(orgMediaDir);              // smap
 
+            // The files are fetched in parallel, the connection limit is applied to each download
+            AtomicInteger mediaCount = new AtomicInteger();
+            int mediaTotal = files.size();
+            List<Future<?>> downloads = new ArrayList<>();
             for (MediaFile toDownload : files) {
+                downloads.add(mediaExecutor.submit(() -> {
+                    if (toDownload.getDownloadUrl().endsWith("organisation")) {
+                        downloadOrgMediaFile(toDownload, fd, count, total, mediaCount, mediaTotal,
+                                stateListener, orgTempMediaDir, orgMediaDir, finalMediaDir);
+                    } else {
+                        downloadMediaFile(toDownload, fd, count, total, mediaCount, mediaTotal,
+                                stateListener, tempMediaDir, finalMediaDir);
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(downloads);
+        }
+        if(downloadMsg.length() > 0) {      // smap
+            return downloadMsg.toString();
+        } else {
+            return null;
+        }
+    }
 
-                File finalMediaFile = null;
-                File tempMediaFile = null;
-                if(toDownload.getDownloadUrl().endsWith("organisation")) {
-                    finalMediaFile = new File(orgMediaDir, toDownload.getFilename());
-                    tempMediaFile = new File(orgTempMediaDir, toDownload.getFilename());
-                } else {
-                    finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
-                    tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
-                }
+    /**
+     * Download a media file used only by this form, unless the copy on the device is current
+     */
+    private void downloadMediaFile(MediaFile toDownload, ServerFormDetailsSmap fd, int count, int total,
+                                   AtomicInteger mediaCount, int mediaTotal, FormDownloaderListener stateListener,
+                                   File tempMediaDir, File finalMediaDir) throws Exception {
 
-                /*
-                 * Test to see if we need to re-download this file
-                 */
-                boolean needToDownload;
-                if (!finalMediaFile.exists()) {
-                    needToDownload = true;
-                } else {
-                    String currentFileHash = Md5.getMd5Hash(finalMediaFile);
-                    String downloadFileHash = getMd5Hash(toDownload.getHash());
-
-                    if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
-                        needToDownload = true;
-                    } else {
-                        needToDownload = false;
+        File finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
+        File tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
 
-                        // exists, and the hash is the same no need to download it again
-                        Timber.i("Skipping media file fetch -- file hashes identical: %s",
-                                finalMediaFile.getAbsolutePath());
-                    }
+        if (!needToDownload(toDownload, finalMediaFile)) {
+            return;
+        }
+
+        reportMediaProgress(fd, count, total, mediaCount, mediaTotal, stateListener);
+
+        if (!fetchMediaFile(toDownload, tempMediaFile, getLocalCopy(toDownload, finalMediaFile), stateListener)) {
+            return;     // Not modified
+        }
+
+        // Delete existing
+        if (finalMediaFile.exists()) {
+            FileUtils.deleteAndReport(finalMediaFile);
+        }
+
+        deleteOldFile(tempMediaFile.getName(), finalMediaDir);
+        org.apache.commons.io.FileUtils.moveFileToDirectory(tempMediaFile, finalMediaDir, true);
+    }
+
+    /**
+     * Organisation media is kept in a directory shared by all the forms and copied into the media
+     * directory of each form that uses it.  When several forms use the same file it is only
+     * checked and downloaded by the first of them, the others wait for that and then copy it.
+     *
+     * The downloads are keyed on the file they write so that only one is ever writing it.  Forms
+     * can list a file with different hashes, when one of their manifests is out of date.  A copy
+     * downloaded during this refresh is the server's latest whatever hash it was listed with, but
+     * if the first form found its hash matched the file on the device, the file is checked again
+     * against the hash of this form.
+     */
+    private void downloadOrgMediaFile(MediaFile toDownload, ServerFormDetailsSmap fd, int count, int total,
+                                      AtomicInteger mediaCount, int mediaTotal, FormDownloaderListener stateListener,
+                                      File orgTempMediaDir, File orgMediaDir, File finalMediaDir) throws Exception {
+
+        File orgMediaFile = new File(orgMediaDir, toDownload.getFilename());
+        String key = orgMediaFile.getAbsolutePath();
+
+        while (true) {
+            FutureTask<Boolean> update = new FutureTask<>(() -> {
+                if (!needToDownload(toDownload, orgMediaFile)) {
+                    return false;
                 }
+                reportMediaProgress(fd, count, total, mediaCount, mediaTotal, stateListener);
 
-                /*
-                 * Download the media
-                 */
-                if(needToDownload) {
-
-                    // Report progress
-                    ++mediaCount;
-                    if (stateListener != null) {
-                        stateListener.progressUpdate(
-                                Collect.getInstance().getString(org.odk.collect.strings.R.string.form_download_progress,
-                                        fd.getFormName(),
-                                        String.valueOf(mediaCount), String.valueOf(files.size())),
-                                String.valueOf(count), String.valueOf(total));
+                File tempMediaFile = new File(orgTempMediaDir, toDownload.getFilename());
+                if (!fetchMediaFile(toDownload, tempMediaFile, getLocalCopy(toDownload, orgMediaFile), stateListener)) {
+                    return false;       // Not modified
+                }
+                synchronized (orgMediaLock) {
+                    if (orgMediaFile.exists()) {
+                        FileUtils.deleteAndReport(orgMediaFile);
                     }
+                    org.apache.commons.io.FileUtils.moveFileToDirectory(tempMediaFile, orgMediaDir, true);
+                }
+                return true;
+            });
 
-                    // Delete existing
-                    if (finalMediaFile.exists()) {
-                        FileUtils.deleteAndReport(finalMediaFile);
-                    }
+            FutureTask<Boolean> existing = orgMediaDownloads.putIfAbsent(key, update);
+            if (existing == null) {
+                update.run();
+                existing = update;
+            }
 
-                    // Download
-                    InputStream mediaFile = formListApi.fetchMediaFile(toDownload.getDownloadUrl(), true);  // smap add credentials file
-                    writeFile(tempMediaFile, stateListener, mediaFile);
+            boolean downloaded;
+            try {
+                downloaded = existing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
 
-                    deleteOldFile(tempMediaFile.getName(), finalMediaDir);
-                    if (toDownload.getDownloadUrl().endsWith("organisation")) {
-                        org.apache.commons.io.FileUtils.copyFileToDirectory(tempMediaFile, finalMediaDir, false);
-                        org.apache.commons.io.FileUtils.moveFileToDirectory(tempMediaFile, orgMediaDir, true);  // Save copy in org directory
-                    } else {
-                        org.apache.commons.io.FileUtils.moveFileToDirectory(tempMediaFile, finalMediaDir, true);
+            if (existing == update || downloaded || !needToDownload(toDownload, orgMediaFile)) {
+                break;
+            }
+
+            // Checked against a different hash, check again for this one
+            Timber.i("Organisation media %s listed with hash %s by %s", toDownload.getFilename(), toDownload.getHash(), fd.getFormName());
+            orgMediaDownloads.remove(key, existing);
+        }
+
+        // Get latest copy of file in organisation shared directory
+        synchronized (orgMediaLock) {
+            deleteOldFile(toDownload.getFilename(), finalMediaDir);
+            org.apache.commons.io.FileUtils.copyFileToDirectory(orgMediaFile, finalMediaDir, false);
+        }
+    }
+
+    /*
+     * Test to see if we need to re-download this file
+     */
+    private boolean needToDownload(MediaFile toDownload, File finalMediaFile) {
+        if (!finalMediaFile.exists()) {
+            return true;
+        }
+
+        String currentFileHash = Md5.getCachedMd5Hash(finalMediaFile);
+        String downloadFileHash = getMd5Hash(toDownload.getHash());
+
+        if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
+            return true;
+        }
+
+        if (downloadFileHash == null && hasValidators(toDownload)) {
+            return true;        // Without a hash to check, ask the server whether it has changed
+        }
+
+        // exists, and the hash is the same no need to download it again
+        Timber.i("Skipping media file fetch -- file hashes identical: %s",
+                finalMediaFile.getAbsolutePath());
+        return false;
+    }
+
+    /**
+     * Download a media file into the temporary file
+     *
+     * @param localCopy the copy on the device if the file should only be sent when it has changed
+     * @return false if the server says the local copy has not changed
+     */
+    private boolean fetchMediaFile(MediaFile toDownload, File tempMediaFile, File localCopy,
+                                   FormDownloaderListener stateListener) throws Exception {
+        connections.acquire();
+        try {
+            String url = toDownload.getDownloadUrl();
+            HttpGetResult result = xmlFetcher.fetchIfModified(url, true, localCopy);  // smap add credentials file
+            if (result.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            }
+            writeFile(tempMediaFile, stateListener, result.getInputStream());
+            xmlFetcher.saveValidators(url, result);
+            return true;
+        } finally {
+            connections.release();
+        }
+    }
+
+    /**
+     * The copy on the device to make a conditional request for.  Only used when there is no hash
+     * from the server, if there is one and it differs the file has certainly changed.
+     */
+    private File getLocalCopy(MediaFile toDownload, File mediaFile) {
+        return mediaFile.exists() && getMd5Hash(toDownload.getHash()) == null ? mediaFile : null;
+    }
+
+    private boolean hasValidators(MediaFile toDownload) {
+        ConditionalGetCache cache = xmlFetcher.getConditionalGetCache();
+        return cache != null && !cache.getConditionalHeaders(toDownload.getDownloadUrl()).isEmpty();
+    }
+
+    private void reportMediaProgress(ServerFormDetailsSmap fd, int count, int total, AtomicInteger mediaCount,
+                                     int mediaTotal, FormDownloaderListener stateListener) {
+        int mediaIndex = mediaCount.incrementAndGet();
+        if (stateListener != null) {
+            stateListener.progressUpdate(
+                    Collect.getInstance().getString(org.odk.collect.strings.R.string.form_download_progress,
+                            fd.getFormName(),
+                            String.valueOf(mediaIndex), String.valueOf(mediaTotal)),
+                    String.valueOf(count), String.valueOf(total));
+        }
+    }
+
+    /**
+     * Wait for all the downloads to finish.  If one fails the ones that have not started are
+     * cancelled and its exception is thrown.
+     */
+    private static void awaitAll(List<Future<?>> downloads) throws Exception {
+        Exception failure = null;
+        for (Future<?> download : downloads) {
+            try {
+                download.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    for (Future<?> other : downloads) {
+                        other.cancel(false);
                     }
-                } else if (toDownload.getDownloadUrl().endsWith("organisation")) {
-                    // Get latest copy of file in organisation shared directory
-                    org.apache.commons.io.FileUtils.copyFileToDirectory(finalMediaFile, finalMediaDir, false);
                 }
+            } catch (CancellationException e) {
+                // Cancelled after an earlier failure
             }
         }
-        if(downloadMsg.length() > 0) {      // smap
-            return downloadMsg.toString();
-        } else {
-            return null;
+        if (failure != null) {
+            throw failure;
         }
     }
 
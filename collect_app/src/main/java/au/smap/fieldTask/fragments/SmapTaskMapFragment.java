@@ -46,10 +46,12 @@ import au.smap.fieldTask.loaders.PointEntry;
 import au.smap.fieldTask.loaders.SurveyData;
 import au.smap.fieldTask.loaders.TaskEntry;
 import org.odk.collect.androidshared.ui.FragmentFactoryBuilder;
+import org.odk.collect.async.Scheduler;
 import org.odk.collect.maps.LineDescription;
 import org.odk.collect.maps.MapFragment;
 import org.odk.collect.maps.MapFragmentFactory;
 import org.odk.collect.maps.MapPoint;
+import org.odk.collect.maps.markers.ClusteredMarkerLayer;
 import org.odk.collect.maps.markers.MarkerDescription;
 import org.odk.collect.maps.markers.MarkerIconDescription;
 import org.odk.collect.settings.keys.ProtectedProjectKeys;
@@ -63,6 +65,7 @@ import au.smap.fieldTask.utilities.Utilities;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -86,7 +89,8 @@ public class SmapTaskMapFragment extends Fragment {
     private MapLocationObserver mo = null;
     private MapFragment mapFragment;
     private int polyFeatureId = -1;
-    private Map<Integer, TaskEntry> markerTaskMap = new HashMap<>();
+    private ClusteredMarkerLayer taskLayer;     // Only adds the task markers in view, clustered when zoomed out
+    private Map<Long, TaskEntry> tasksById = new HashMap<>();
     private String currentBasemap = null;
 
     SurveyDataViewModel model;
@@ -94,6 +98,9 @@ public class SmapTaskMapFragment extends Fragment {
     @Inject
     MapFragmentFactory mapFragmentFactory;
 
+    @Inject
+    Scheduler scheduler;
+
     public static SmapTaskMapFragment newInstance() {
         return new SmapTaskMapFragment();
     }
@@ -140,6 +147,7 @@ public class SmapTaskMapFragment extends Fragment {
 
     private void initMap(MapFragment map) {
         this.mapFragment = map;
+        taskLayer = new ClusteredMarkerLayer(map, scheduler);
         currentBasemap = DaggerUtils.getComponent(getContext())
             .settingsProvider().getUnprotectedSettings()
             .getString(ProjectKeys.KEY_BASEMAP_SOURCE);
@@ -262,8 +270,9 @@ public class SmapTaskMapFragment extends Fragment {
 
     private void reinitializeMap() {
         mapFragment = null;
+        taskLayer = null;
         polyFeatureId = -1;
-        markerTaskMap.clear();
+        tasksById.clear();
         Fragment newMapFrag = (Fragment) mapFragmentFactory.createMapFragment();
         getChildFragmentManager()
             .beginTransaction()
@@ -275,16 +284,19 @@ public class SmapTaskMapFragment extends Fragment {
 
     private void clearTasks() {
         if (mapFragment == null) return;
-        for (int featureId : markerTaskMap.keySet()) {
-            mapFragment.removeFeature(featureId);
-        }
-        markerTaskMap.clear();
+        taskLayer.clear();
+        tasksById.clear();
     }
 
+    /*
+     * Hand the tasks to the marker layer which only changes the markers that differ from
+     * those already on the map
+     */
     private void showTasks(List<TaskEntry> data) {
         if (mapFragment == null) return;
-        clearTasks();
 
+        Map<Long, MarkerDescription> markers = new LinkedHashMap<>();
+        tasksById.clear();
         for (TaskEntry t : data) {
             if (t.type.equals("task")) {
                 MapPoint point = getTaskMapPoint(t);
@@ -294,25 +306,27 @@ public class SmapTaskMapFragment extends Fragment {
                         point, false, MapFragment.BOTTOM,
                         new MarkerIconDescription.DrawableResource(iconDrawable)
                     );
-                    int featureId = mapFragment.addMarker(desc);
-                    markerTaskMap.put(featureId, t);
+                    markers.put(t.id, desc);
+                    tasksById.put(t.id, t);
                 }
             }
         }
+        taskLayer.setItems(markers);
     }
 
     private void showPoints(List<PointEntry> data) {
         if (mapFragment == null) return;
-        if (polyFeatureId != -1) {
-            mapFragment.removeFeature(polyFeatureId);
-            polyFeatureId = -1;
-        }
         List<MapPoint> points = new ArrayList<>();
         // Add in reverse order
         for (int i = data.size() - 1; i >= 0; i--) {
             points.add(new MapPoint(data.get(i).lat, data.get(i).lon));
         }
-        polyFeatureId = mapFragment.addPolyLine(new LineDescription(points, null, null, false, false));
+        LineDescription line = new LineDescription(points, null, null, false, false);
+        if (polyFeatureId != -1) {
+            mapFragment.updatePolyLine(polyFeatureId, line);
+        } else {
+            polyFeatureId = mapFragment.addPolyLine(line);
+        }
     }
 
     public void updatePath(MapPoint point) {
@@ -361,8 +375,7 @@ public class SmapTaskMapFragment extends Fragment {
     private void onMapLongPress(MapPoint point) {
         TaskEntry nearest = null;
         double nearestMetres = Double.MAX_VALUE;
-        for (Map.Entry<Integer, TaskEntry> entry : markerTaskMap.entrySet()) {
-            TaskEntry t = entry.getValue();
+        for (TaskEntry t : tasksById.values()) {
             MapPoint tp = getTaskMapPoint(t);
             if (tp != null) {
                 float[] result = new float[1];
@@ -405,7 +418,12 @@ public class SmapTaskMapFragment extends Fragment {
     }
 
     private void onFeatureClick(int featureId) {
-        TaskEntry t = markerTaskMap.get(featureId);
+        if (taskLayer.onFeatureClick(featureId)) {
+            return;     // A cluster of tasks, which has been zoomed in to
+        }
+
+        Long taskId = taskLayer.getItemId(featureId);
+        TaskEntry t = taskId != null ? tasksById.get(taskId) : null;
         if (t != null) {
             String taskTime = Utilities.getTaskTime(t.taskStatus, t.actFinish, t.taskStart);
             String addressText = KeyValueJsonFns.getValues(t.taskAddress);
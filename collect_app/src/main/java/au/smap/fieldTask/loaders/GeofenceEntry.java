@@ -1,17 +1,19 @@
 package au.smap.fieldTask.loaders;
 
-import android.location.Location;
-
 /**
  * This class holds details on a geofence
  */
 public class GeofenceEntry {
+    public long id;                 // Instance id of the task
     public int showDist;
-    public Location location;
+    public double lat;
+    public double lon;
     public boolean in = false;      // Set true if the user is currently inside the geofence
 
-    public GeofenceEntry(int showDist, Location location) {
+    public GeofenceEntry(long id, int showDist, double lat, double lon) {
+        this.id = id;
         this.showDist = showDist;
-        this.location = location;
+        this.lat = lat;
+        this.lon = lon;
     }
 }
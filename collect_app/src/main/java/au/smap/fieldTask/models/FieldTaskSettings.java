@@ -46,5 +46,6 @@ public class FieldTaskSettings {
     public String ft_input_method;
     public int ft_im_ri;
     public int ft_im_acc;
+    public Integer ft_trail_tolerance;  // Metres, null if the server does not set it
     public boolean ft_offline_maps;     // Offline map layers are managed on the server
 }
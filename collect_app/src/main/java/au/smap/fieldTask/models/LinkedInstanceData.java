@@ -0,0 +1,13 @@
+package au.smap.fieldTask.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * The values in an instance of a linked survey, the sub forms hold the values of repeats
+ */
+public class LinkedInstanceData {
+    public String name;
+    public HashMap<String, String> values = new HashMap<>();
+    public ArrayList<LinkedInstanceData> subForms = new ArrayList<>();
+}
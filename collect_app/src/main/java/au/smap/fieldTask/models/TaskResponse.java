@@ -40,4 +40,12 @@ public class TaskResponse {
     public List<ReferenceSurvey> refSurveys;
     public List<OfflineLayer> offlineLayers;    // Offline map layers assigned to this user
     public List<Integer> offlineLayersHeld;     // Layer ids this device has downloaded, sent to the server
+
+    // Incremental refresh (version 2+), see TaskSyncToken
+    public String sync_token;                   // Send with the next refresh to get only what has changed
+    public boolean delta;                       // The response only holds changes since the token that was sent
+    public List<TaskResponseAssignment> removedAssignments;    // Delta: tasks, cases and references no longer assigned
+    public List<FormLocator> removedForms;      // Delta: forms no longer available to the user
+    public int total_assignments;               // Delta: number of assignments the user holds in total
+    public long full_size;                      // Delta: size in bytes of the equivalent full response
 }
@@ -15,21 +15,20 @@ import com.google.android.gms.location.LocationResult;
 import org.odk.collect.android.R;
 import au.smap.fieldTask.activities.NotificationActivity;
 import au.smap.fieldTask.activities.SmapMain;
+import au.smap.fieldTask.services.LocationService;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.injection.DaggerUtils;
-import au.smap.fieldTask.loaders.GeofenceEntry;
+import au.smap.fieldTask.utilities.GeofenceIndex;
+import au.smap.fieldTask.utilities.LocationPublisher;
 import org.odk.collect.android.notifications.NotificationManagerNotifier;
 import org.odk.collect.android.notifications.Notifier;
 import org.odk.collect.android.smap.utilities.LocationRegister;
 import org.odk.collect.android.utilities.ApplicationConstants;
 
-import java.util.ArrayList;
-
 import javax.inject.Inject;
 
 import timber.log.Timber;
 
-import static java.lang.StrictMath.abs;
 /*
  * Accept broadcast locations from a pending intent
  */
@@ -69,6 +68,7 @@ public class LocationReceiver extends BroadcastReceiver {
 
         if(isValidLocation(location) && isAccurateLocation(location)) {
 
+            LocationService.onLocation(location);     // smap - adjust how often fixes are requested
             Collect.getInstance().setLocation(location);
             Location lastLocation = Collect.getInstance().getSavedLocation();
 
@@ -79,26 +79,13 @@ public class LocationReceiver extends BroadcastReceiver {
                 /*
                  * Test for geofence change if the user has moved more than the minimum distance
                  */
-                ArrayList<GeofenceEntry> geofences = Collect.getInstance().getGeofences();
+                GeofenceIndex geofences = Collect.getInstance().getGeofences();
+                boolean refresh = false;
                 if (geofences.size() > 0) {
-                    boolean refresh = false;
-                    boolean notify = false;
-                    for (GeofenceEntry gfe : geofences) {
-                        double yDistance = abs(location.getLatitude() - gfe.location.getLatitude()) * 111111.1;     // lattitude difference in meters
-                        if (gfe.in) {                                                        // Currently inside
-                            if (location.distanceTo(gfe.location) > gfe.showDist) {         // detailed check only
-                                refresh = true;
-                            }
-                        } else {
-                            if (yDistance < gfe.showDist) {                                      // Currently outside do rough check first
-                                if (location.distanceTo(gfe.location) < gfe.showDist) {
-                                    refresh = true;
-                                    notify = true;
-                                    break;      // No need to check more we have a notify and a refresh
-                                }
-                            }
-                        }
-                    }
+                    // Only the geofences near the location and those the user is inside are checked
+                    GeofenceIndex.Change change = geofences.check(location.getLatitude(), location.getLongitude());
+                    refresh = change.entered || change.exited;
+                    boolean notify = change.entered;
                     if (refresh) {
                         Intent intent = new Intent("org.smap.smapTask.refresh");
                         LocalBroadcastManager.getInstance(Collect.getInstance()).sendBroadcast(intent);
@@ -130,6 +117,10 @@ public class LocationReceiver extends BroadcastReceiver {
                  */
                 LocationRegister lr = new LocationRegister();
                 lr.register(context, location);
+
+                if (refresh) {
+                    LocationPublisher.getInstance().flush();     // Geofence change, the server should know now
+                }
             }
 
         } else if(isValidLocation(location) && isMoreAccurateLocation(location, Collect.getInstance().getLocation())) { // smap
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.services;
+
+import org.odk.collect.android.utilities.ApplicationConstants;
+
+/**
+ * Samples less often when fewer fixes would not change the trail.
+ *
+ * A point is only added to the trail when the user has moved {@link ApplicationConstants#GPS_DISTANCE}
+ * from the last one, so:
+ * <ul>
+ *   <li>When the user has stayed within that distance for {@link #STATIONARY_TIME} they are
+ *   stationary.  Fixes are still taken every {@link ApplicationConstants#GPS_INTERVAL}, so moving
+ *   off is seen as quickly as before, but a fix is only delivered once it is
+ *   {@link #STATIONARY_DISTANCE} from the last one delivered, so the app isn't woken while the
+ *   user stays put.  That is half the trail distance so any fix that would be added to the
+ *   trail is delivered by the time the user is 1.5 times the trail distance from the last
+ *   point.  The first fix that is further away makes them moving again.</li>
+ *   <li>When moving slowly with good accuracy the interval is widened so that the user covers
+ *   about {@link #MOVING_STEP_DISTANCE} between fixes, up to {@link #MAX_MOVING_INTERVAL}, which
+ *   adds the same trail points as a fix every {@link ApplicationConstants#GPS_INTERVAL}.  With
+ *   poor accuracy, or at walking speed and above, fixes are taken every
+ *   {@link ApplicationConstants#GPS_INTERVAL}.</li>
+ * </ul>
+ * While moving slowly enough that the user covers no more than the trail distance in
+ * {@link #MOVING_BATCH} intervals, fixes are delivered in batches so the app is woken less often.
+ *
+ * The interval is one of a few fixed steps so that small changes in speed do not cause
+ * location updates to be requested again.
+ */
+public class AdaptiveSamplingPolicy implements SamplingPolicy {
+
+    static final long STATIONARY_TIME = 120000;
+    static final float STATIONARY_DISTANCE = ApplicationConstants.GPS_DISTANCE / 2;   // Metres
+    static final long MAX_MOVING_INTERVAL = 30000;
+    static final float GOOD_ACCURACY = 15;          // Metres
+    static final int MOVING_BATCH = 3;              // Intervals of fixes held before delivery
+    static final float MOVING_STEP_DISTANCE = ApplicationConstants.GPS_DISTANCE / 4;     // Metres
+
+    private static final long STEP = 10000;
+
+    private double anchorLat;
+    private double anchorLon;
+    private long anchorTime = -1;
+    private boolean stationary;
+
+    private double lastLat;
+    private double lastLon;
+    private long lastTime = -1;
+    private float speed = -1;       // Metres per second, -1 if not known
+    private float accuracy;
+
+    @Override
+    public synchronized void onFix(double lat, double lon, float accuracy, long time) {
+        if (stationary) {
+            speed = -1;     // The last fix delivered can be from long ago
+        } else if (lastTime >= 0 && time > lastTime) {
+            speed = (float) (distance(lastLat, lastLon, lat, lon) * 1000 / (time - lastTime));
+        }
+        lastLat = lat;
+        lastLon = lon;
+        lastTime = time;
+        this.accuracy = accuracy;
+
+        if (anchorTime < 0 || distance(anchorLat, anchorLon, lat, lon) > ApplicationConstants.GPS_DISTANCE) {
+            // Moved, start looking for a stop from here
+            anchorLat = lat;
+            anchorLon = lon;
+            anchorTime = time;
+            stationary = false;
+        } else if (time - anchorTime >= STATIONARY_TIME) {
+            stationary = true;
+        }
+    }
+
+    @Override
+    public synchronized Sampling getSampling() {
+        if (stationary) {
+            return new Sampling(ApplicationConstants.GPS_INTERVAL, ApplicationConstants.GPS_INTERVAL / 2, 0, STATIONARY_DISTANCE);
+        }
+
+        long interval = ApplicationConstants.GPS_INTERVAL;
+        if (speed > 0 && accuracy > 0 && accuracy <= GOOD_ACCURACY) {
+            // Time to cover the step distance, rounded down to a step
+            long toCover = (long) (MOVING_STEP_DISTANCE * 1000 / speed);
+            interval = Math.max(interval, Math.min(MAX_MOVING_INTERVAL, toCover / STEP * STEP));
+        }
+
+        long maxDelay = 0;
+        if (speed >= 0 && speed * interval * MOVING_BATCH / 1000 <= ApplicationConstants.GPS_DISTANCE) {
+            maxDelay = interval * MOVING_BATCH;     // The user is still near the trail when the batch is delivered
+        }
+        return new Sampling(interval, ApplicationConstants.GPS_INTERVAL / 2, maxDelay);
+    }
+
+    public synchronized boolean isStationary() {
+        return stationary;
+    }
+
+    /*
+     * Distance in metres
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double h = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+        return 2 * 6371000 * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+}
@@ -25,6 +25,7 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.location.Location;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -46,7 +47,6 @@ import org.odk.collect.settings.keys.ProjectKeys;
 import org.odk.collect.shared.settings.Settings;
 import au.smap.fieldTask.receivers.LocationReceiver;
 import au.smap.fieldTask.notifications.SmapNotificationChannels;
-import org.odk.collect.android.utilities.ApplicationConstants;
 
 import androidx.core.app.NotificationCompat;
 import timber.log.Timber;
@@ -67,6 +67,15 @@ public class LocationService extends Service implements GoogleApiClient.Connecti
     private static final long CHECK_INTERVAL_MS = 60000;  // smap - Check every 60 seconds
     private static final int LOCATION_SERVICE_NOTIFICATION_ID = 1;
 
+    // smap - How often to sample, fed with the fixes received by LocationReceiver
+    private static final SamplingPolicy samplingPolicy = new AdaptiveSamplingPolicy();
+    private static volatile Runnable samplingListener;
+
+    // smap - What location updates are currently requested with, so they are only requested again when something changes
+    private boolean updatesRequested = false;
+    private boolean hadPermission = false;
+    private SamplingPolicy.Sampling requestedSampling;
+
     public LocationService() {
         super();
     }
@@ -79,9 +88,8 @@ public class LocationService extends Service implements GoogleApiClient.Connecti
             Settings settings = DaggerUtils.getComponent(Collect.getInstance()).settingsProvider().getUnprotectedSettings();
             isRecordingLocation = settings.getBoolean(ProjectKeys.KEY_SMAP_ENABLE_GEOFENCE);
 
-            // Restart location monitoring - in case permission was disabled and then re-enabled
-            stopLocationUpdates();
-            requestLocationUpdates();
+            // Request location updates again only if the settings, permission or sampling have changed
+            updateLocationRequest();
 
             // Schedule next check
             mHandler.postDelayed(this, CHECK_INTERVAL_MS);
@@ -110,8 +118,7 @@ public class LocationService extends Service implements GoogleApiClient.Connecti
             // but the system's 5-second watchdog timer is only cleared by a *successful* startForeground() call.
             // A thrown exception does not clear it, causing ForegroundServiceDidNotStartInTimeException.
             // Fix: if no location permission, use the 2-arg startForeground() (always succeeds) then stop.
-            boolean hasLocation = ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED
-                    || ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+            boolean hasLocation = hasLocationPermission();
 
             try {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && hasLocation) {
@@ -141,11 +148,12 @@ public class LocationService extends Service implements GoogleApiClient.Connecti
         isRecordingLocation = settings.getBoolean(ProjectKeys.KEY_SMAP_ENABLE_GEOFENCE);
 
         // smap - Start periodic checks using Handler (replaces Timer)
-        mHandler.post(checkSettingsRunnable);
+        mHandler.removeCallbacks(checkSettingsRunnable);
+        mHandler.postDelayed(checkSettingsRunnable, CHECK_INTERVAL_MS);
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
-        createLocationRequest();
-        requestLocationUpdates();
+        samplingListener = () -> mHandler.post(this::updateLocationRequest);
+        updateLocationRequest();
 
         return START_STICKY;
     }
@@ -168,6 +176,7 @@ public class LocationService extends Service implements GoogleApiClient.Connecti
         Timber.i("======================= Destroy Location Service");
         // smap - Stop periodic checks
         mHandler.removeCallbacks(checkSettingsRunnable);
+        samplingListener = null;
         stopLocationUpdates();
         super.onDestroy();
     }
@@ -177,21 +186,65 @@ public class LocationService extends Service implements GoogleApiClient.Connecti
         return null;
     }
 
+    /*
+     * smap - Pass a fix received by LocationReceiver to the sampling policy.  If the policy now
+     * wants a different sampling the running service requests location updates again.
+     */
+    public static void onLocation(Location location) {
+        SamplingPolicy.Sampling before = samplingPolicy.getSampling();
+        samplingPolicy.onFix(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : 0, location.getTime());
+        Runnable listener = samplingListener;
+        if (listener != null && !samplingPolicy.getSampling().equals(before)) {
+            listener.run();
+        }
+    }
+
+    /*
+     * smap - Request location updates again only when something they depend on has changed
+     */
+    private void updateLocationRequest() {
+        boolean hasPermission = hasLocationPermission();
+        SamplingPolicy.Sampling sampling = samplingPolicy.getSampling();
+
+        if (!isRecordingLocation) {
+            if (updatesRequested) {
+                stopLocationUpdates();
+            }
+        } else if (!updatesRequested || (hasPermission && !hadPermission) || !sampling.equals(requestedSampling)) {
+            // Permission may have been disabled and then re-enabled
+            Timber.i("Location sampling: %s", sampling);
+            stopLocationUpdates();
+            createLocationRequest(sampling);
+            requestLocationUpdates();
+            requestedSampling = sampling;
+        }
+        hadPermission = hasPermission;
+    }
+
+    private boolean hasLocationPermission() {
+        return ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED
+                || ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+
     /*
      * Methods to support location broadcast receiver
      */
-    private void createLocationRequest() {
-        locationRequest = new LocationRequest.Builder(ApplicationConstants.GPS_INTERVAL)
-                .setMinUpdateIntervalMillis(ApplicationConstants.GPS_INTERVAL / 2)
+    private void createLocationRequest(SamplingPolicy.Sampling sampling) {
+        locationRequest = new LocationRequest.Builder(sampling.interval)
+                .setMinUpdateIntervalMillis(sampling.minInterval)
+                .setMaxUpdateDelayMillis(sampling.maxDelay)      // smap - deliver fixes in batches
+                .setMinUpdateDistanceMeters(sampling.minDistance)  // smap - not while stationary
                 .setPriority( Priority.PRIORITY_HIGH_ACCURACY)
                 .build();
     }
 
     private void requestLocationUpdates() {
-        if(isRecordingLocation) {
+        if(isRecordingLocation && locationRequest != null) {
             try {
                 Timber.i("+++++++ Requesting location updates");
                 fusedLocationClient.requestLocationUpdates(locationRequest, getPendingIntent());
+                updatesRequested = true;
             } catch (SecurityException e) {
                 Timber.i("%%%%%%%%%%%%%%%%%%%% location recording not permitted: ");
             }
@@ -205,6 +258,7 @@ public class LocationService extends Service implements GoogleApiClient.Connecti
         if(fusedLocationClient != null) {
             fusedLocationClient.removeLocationUpdates(getPendingIntent());
         }
+        updatesRequested = false;
     }
 
     private PendingIntent getPendingIntent() {
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.services;
+
+import org.odk.collect.android.utilities.ApplicationConstants;
+
+/**
+ * Decides how often the location service asks for fixes
+ */
+public interface SamplingPolicy {
+
+    /**
+     * Called with each fix that is delivered, oldest first
+     *
+     * @param accuracy in metres, 0 if not known
+     */
+    void onFix(double lat, double lon, float accuracy, long time);
+
+    /**
+     * The sampling that should be requested now
+     */
+    Sampling getSampling();
+
+    /**
+     * How location updates are requested.  Equal values need not be requested again.
+     */
+    final class Sampling {
+        public final long interval;         // Milli seconds between fixes
+        public final long minInterval;      // Fastest that fixes requested by other apps are accepted
+        public final long maxDelay;         // Fixes can be held and delivered together up to this long, 0 for each as it comes
+        public final float minDistance;     // Metres from the last fix delivered before another is delivered, 0 for any
+
+        public Sampling(long interval, long minInterval, long maxDelay) {
+            this(interval, minInterval, maxDelay, 0);
+        }
+
+        public Sampling(long interval, long minInterval, long maxDelay, float minDistance) {
+            this.interval = interval;
+            this.minInterval = minInterval;
+            this.maxDelay = maxDelay;
+            this.minDistance = minDistance;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Sampling)) {
+                return false;
+            }
+            Sampling other = (Sampling) o;
+            return interval == other.interval && minInterval == other.minInterval && maxDelay == other.maxDelay
+                    && minDistance == other.minDistance;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (31 * (31 * interval + minInterval) + maxDelay) + Float.floatToIntBits(minDistance);
+        }
+
+        @Override
+        public String toString() {
+            return "interval: " + interval + "ms, min interval: " + minInterval + "ms, max delay: " + maxDelay
+                    + "ms, min distance: " + minDistance + "m";
+        }
+    }
+
+    /**
+     * A fix every {@link ApplicationConstants#GPS_INTERVAL} whatever the user is doing
+     */
+    final class Fixed implements SamplingPolicy {
+
+        private static final Sampling SAMPLING = new Sampling(ApplicationConstants.GPS_INTERVAL,
+                ApplicationConstants.GPS_INTERVAL / 2, 0);
+
+        @Override
+        public void onFix(double lat, double lon, float accuracy, long time) {
+        }
+
+        @Override
+        public Sampling getSampling() {
+            return SAMPLING;
+        }
+    }
+}
@@ -39,6 +39,7 @@ import au.smap.fieldTask.activities.NotificationActivity;
 import org.odk.collect.android.application.Collect;
 import au.smap.fieldTask.dao.FormsDao;
 import au.smap.fieldTask.dao.InstancesDao;
+import au.smap.fieldTask.dao.SmapLookupCacheDao;
 import au.smap.fieldTask.dao.SmapReferencesDao;
 import au.smap.fieldTask.database.TrAssignment;
 import au.smap.fieldTask.database.TaskResponseAssignment;
@@ -46,6 +47,7 @@ import au.smap.fieldTask.database.TrTask;
 import au.smap.fieldTask.database.TraceUtilities;
 
 import org.odk.collect.android.backgroundwork.InstanceSubmitScheduler;
+import org.odk.collect.android.database.instances.DatabaseInstancesRepository;
 import org.odk.collect.android.projects.ProjectsDataService;
 import org.odk.collect.android.tasks.InstanceUploaderTask;
 import org.odk.collect.android.utilities.FormsRepositoryProvider;
@@ -55,7 +57,9 @@ import org.odk.collect.forms.instances.Instance;
 import org.odk.collect.forms.instances.InstancesRepository;
 import org.odk.collect.metadata.PropertyManager;
 import org.odk.collect.android.notifications.NotificationManagerNotifier;
+import org.odk.collect.openrosa.http.ConditionalGetCache;
 import org.odk.collect.openrosa.http.HttpCredentialsInterface;
+import org.odk.collect.openrosa.http.HttpGetResult;
 import org.odk.collect.openrosa.http.OpenRosaHttpInterface;
 import org.odk.collect.openrosa.forms.OpenRosaXmlFetcher;
 import org.odk.collect.settings.keys.ProtectedProjectKeys;
@@ -80,19 +84,31 @@ import au.smap.fieldTask.models.OfflineLayer;
 import au.smap.fieldTask.models.TaskCompletionInfo;
 import au.smap.fieldTask.models.TaskResponse;
 import org.odk.collect.android.utilities.ApplicationConstants;
+import au.smap.fieldTask.utilities.CompactTaskStatus;
+import au.smap.fieldTask.utilities.LocationPublisher;
 import au.smap.fieldTask.utilities.ManageForm;
 import au.smap.fieldTask.utilities.ManageForm.ManageFormDetails;
 import au.smap.fieldTask.utilities.ManageFormResponse;
 import au.smap.fieldTask.utilities.SubmissionAuthGate;
+import au.smap.fieldTask.utilities.TaskSyncToken;
 import au.smap.fieldTask.utilities.Utilities;
 import org.odk.collect.android.utilities.WebCredentialsUtils;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -126,15 +142,22 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
     HashMap<String, TaskStatus> taskMap = new HashMap<>();
     Gson gson = null;
     TaskResponse tr = null;                         // Data returned from the server
+    TaskAssignmentSpool spool = null;               // smap - assignments returned from the server
     String serverUrl = null;                        // Current server
     String source = null;                           // Server name
     String taskURL = null;                          // Url to get tasks
     int count;                                      // Record number of deletes
+    boolean isDelta = false;                        // smap - the response only holds changes since the last refresh
+    int statusFormat = 0;                           // smap - task status format the server accepts, 0 for JSON
+    TaskSyncToken syncToken = null;                 // smap - delta token, only advanced if the whole response is applied
 
     // smap - retry transient network failures on slow/flaky connections
     private static final int MAX_REFRESH_RETRIES = 3;           // total attempts
     private static final long INITIAL_RETRY_BACKOFF_MS = 2000;  // doubled each retry
 
+    private static final int LOOKUP_REFRESH_LIMIT = 200;        // smap - saved lookup() responses downloaded again per refresh
+    private static final String CONDITIONAL_GET_DIR = "conditional_get";   // smap - validators for conditional form and media requests
+
     @Inject
     OpenRosaHttpInterface httpInterface;
 
@@ -396,6 +419,8 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
 
                 Uri u = Uri.parse(taskURL);
 
+                LocationPublisher.getInstance().flush();     // Send any buffered locations while the connection is in use
+
                 HashMap<String, String> headers = new HashMap<String, String> ();
                 // Send location with request (if available and permitted)
                 LocationRegister lr = new LocationRegister();
@@ -418,17 +443,39 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                 headers.put("appversion", Collect.getInstance().getString(org.odk.collect.strings.R.string.app_version));
                 headers.put("Cache-Control", "no-cache");
 
+                /*
+                 * Ask for only the changes since the last refresh if the server gave us a token.
+                 * If nothing from the server is on the phone a full refresh costs no more, and
+                 * it recovers from local data having been cleared.
+                 */
+                syncToken = new TaskSyncToken(settingsProvider.getUnprotectedSettings());
+                String username = settingsProvider.getUnprotectedSettings().getString(ProjectKeys.KEY_USERNAME);
+                String token = tasks.isEmpty() ? null : syncToken.get(serverUrl, username);
+                if(token != null) {
+                    headers.put(TaskSyncToken.SYNC_TOKEN_HEADER, token);
+                }
+                headers.put(CompactTaskStatus.FORMAT_HEADER, String.valueOf(CompactTaskStatus.VERSION));     // Offer the compact status upload
+
                 URI uri = URI.create(taskURL);
-                String resp = getTasksWithRetry(uri, headers);
                 GsonBuilder gb = new GsonBuilder().registerTypeAdapter(Date.class, new DateDeserializer());
                 gson = gb.create();
 
-                if(resp.equals("Unauthorized")) {
-                    throw new Exception(resp);
-                }
-                tr = gson.fromJson(resp, TaskResponse.class);
+                /*
+                 * The assignments are streamed to a spool file as they are read, so neither the
+                 * response body nor the full list of assignments is held in memory
+                 */
+                spool = new TaskAssignmentSpool(new File(Collect.getInstance().getCacheDir(), "task_assignments.json"));
+                long received = getTasksWithRetry(uri, headers);
                 Timber.i("Message:%s", tr.message);
 
+                // A server that does not recognise the token sends a full response instead
+                isDelta = token != null && tr.delta && tr.version >= TaskSyncToken.DELTA_SYNC_VERSION;
+                if(isDelta) {
+                    reportDeltaSavings(received);
+                } else if(token != null) {
+                    Timber.i("Sync token not accepted by the server - applying full refresh");
+                }
+
                 // Report time difference
                 if(Math.abs(tr.time_difference) > 60000 ) {
                     String msg = Collect.getInstance().getString(R.string.smap_time_difference);
@@ -446,7 +493,8 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                  *  Get any forms the user does not currently have
                  *  Delete any forms that are no longer accessible to the user
                  */
-                Map<ServerFormDetailsSmap, String> outcome = synchroniseForms(tr.forms);
+                Map<ServerFormDetailsSmap, String> outcome = synchroniseForms(
+                        (isDelta && tr.forms == null) ? new ArrayList<>() : tr.forms);
                 if(outcome != null) {
                     for (ServerFormDetailsSmap key : outcome.keySet()) {
                         results.put(key.getFormName(), outcome.get(key));
@@ -462,6 +510,7 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                  */
                 addAndUpdateEntries();
                 getInitialDataForTask();
+                refreshLookupCache();
 
                 /*
                  * Record the offline map layers assigned to this user and ask for them to be
@@ -502,6 +551,13 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                 SmapReferencesDao refDao = new SmapReferencesDao();
                 refDao.updateReferences(tr.refSurveys);
 
+                /*
+                 * If everything in the response has been applied the next refresh only needs
+                 * what changes after this point, otherwise it has to be a full refresh
+                 */
+                syncToken.commit(serverUrl, username,
+                        tr.version >= TaskSyncToken.DELTA_SYNC_VERSION ? tr.sync_token : null);
+
 	        } catch(JsonSyntaxException e) {
 
 	        	Timber.e("JSON Syntax Error:" + " for URL " + taskURL);
@@ -521,7 +577,15 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
 	        	publishProgress(msg);
 	        	results.put(Collect.getInstance().getString(R.string.smap_error) + ":", msg );
 
-	        }
+	        } finally {
+                if(spool != null) {
+                    try {
+                        spool.close();      // Remove the spool file
+                    } catch (IOException e) {
+                        Timber.e(e);
+                    }
+                }
+            }
         }
     }
 
@@ -530,14 +594,26 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
      * exponential back-off. On slow/flaky connections the socket can be aborted
      * mid-transfer (e.g. "Software caused connection abort"); such IOExceptions are
      * retried. Non-network errors fail fast. Honours cancellation between attempts.
+     *
+     * The response is parsed as it arrives, assignments go to the spool and the rest of the
+     * response is set in tr.  Returns the number of bytes received.
      */
-    private String getTasksWithRetry(URI uri, HashMap<String, String> headers) throws Exception {
+    private long getTasksWithRetry(URI uri, HashMap<String, String> headers) throws Exception {
         HttpCredentialsInterface credentials = webCredentialsUtils.getCredentials(uri);
+        TaskResponseReader reader = new TaskResponseReader(gson);
         long backoff = INITIAL_RETRY_BACKOFF_MS;
         int attempt = 0;
         while (true) {
+            spool.reset();      // Discard anything from a failed attempt
             try {
-                return httpInterface.getRequest(uri, "application/json", credentials, headers);
+                HttpGetResult getResult = httpInterface.executeGetRequest(uri, credentials, headers);
+                statusFormat = parseStatusFormat(getResult.getHeader(CompactTaskStatus.FORMAT_HEADER));
+                try (CountingInputStream counter = new CountingInputStream(getResult.getInputStream());
+                     BufferedInputStream is = new BufferedInputStream(counter)) {
+                    checkAuthorised(is);
+                    tr = reader.read(new InputStreamReader(is, StandardCharsets.UTF_8), spool);
+                    return counter.getByteCount();
+                }
             } catch (IOException e) {
                 attempt++;
                 if (attempt >= MAX_REFRESH_RETRIES || isCancelled()) {
@@ -561,6 +637,54 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
         }
     }
 
+    /*
+     * The task status format the server accepts, 0 if it only accepts JSON
+     */
+    private int parseStatusFormat(String value) {
+        if(value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Timber.w("Invalid status format: %s", value);
+            return 0;
+        }
+    }
+
+    /*
+     * Old servers can return a plain text "Unauthorized" rather than a 401
+     */
+    private void checkAuthorised(InputStream is) throws Exception {
+        byte[] unauthorised = "Unauthorized".getBytes(StandardCharsets.UTF_8);
+        byte[] start = new byte[unauthorised.length];
+        is.mark(start.length);
+        int len = IOUtils.read(is, start);
+        is.reset();
+        if(len == start.length && Arrays.equals(start, unauthorised)) {
+            throw new Exception("Unauthorized");
+        }
+    }
+
+    /*
+     * smap - Record how much a delta refresh saved compared with the full response.  The server
+     * reports the size of the full response and the number of assignments the user holds.
+     */
+    private void reportDeltaSavings(long received) {
+        int receivedRecords = spool.size();
+        long recordsSaved = TaskSyncToken.saved(tr.total_assignments, receivedRecords);
+        long bytesSaved = TaskSyncToken.saved(tr.full_size, received);
+        int removed = tr.removedAssignments == null ? 0 : tr.removedAssignments.size();
+
+        Timber.i("Delta refresh: %d changed, %d removed, %d unchanged records and %d bytes not downloaded",
+                receivedRecords, removed, recordsSaved, bytesSaved);
+        if(recordsSaved > 0 || bytesSaved > 0) {
+            results.put(Collect.getInstance().getString(R.string.smap_delta_sync),
+                    Collect.getInstance().getString(R.string.smap_delta_sync_saved, recordsSaved,
+                            android.text.format.Formatter.formatShortFileSize(Collect.getInstance(), bytesSaved)));
+        }
+    }
+
     private void getInitialDataForTask() throws Exception {
         HashMap<String, String> headers = new HashMap<String, String> ();
         LocationRegister lr = new LocationRegister();
@@ -579,8 +703,9 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
         }
         headers.put("Cache-Control", "no-cache");
         InstancesDao dao = new InstancesDao();
-        if(tr.taskAssignments != null) {
-            for (TaskResponseAssignment ta : tr.taskAssignments) {
+        try (TaskAssignmentSpool.Cursor cursor = spool.read(gson)) {
+            TaskResponseAssignment ta;
+            while ((ta = cursor.next()) != null) {
                 if (ta.task.id > 0) { // A task not a case
                     String taskDetailsURL = serverUrl + "/api/v1/tasks/" + ta.task.id;
                     URI uri = URI.create(taskDetailsURL);
@@ -608,6 +733,32 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
         }
     }
 
+    /*
+     * Keep the lookup() responses that are in use available offline.  Responses for forms that
+     * are no longer on the device are removed and those that are close to expiring are downloaded
+     * again while there is a connection.
+     */
+    private void refreshLookupCache() {
+        try {
+            SmapLookupCacheDao lookupCache = new SmapLookupCacheDao();
+            lookupCache.clean(Utilities.getActiveFormIds());
+
+            Map<String, String> urls = lookupCache.getUrlsToRefresh(LOOKUP_REFRESH_LIMIT);
+            for (Map.Entry<String, String> entry : urls.entrySet()) {
+                if(isCancelled()) {
+                    return;
+                }
+                URI uri = URI.create(entry.getKey());
+                String data = httpInterface.getRequest(uri, "application/json", webCredentialsUtils.getCredentials(uri),
+                        new HashMap<>());
+                lookupCache.put(entry.getKey(), entry.getValue(), data);
+            }
+            Timber.i("Refreshed %d lookup responses", urls.size());
+        } catch (Exception e) {
+            Timber.e(e, "Failed to refresh the lookup cache");     // The saved responses are still used until they expire
+        }
+    }
+
     private InstanceUploaderTask.Outcome submitCompletedForms() {
 
         // smap - skip automatic submission while the server is rejecting our credentials. A manual
@@ -748,17 +899,6 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
             }
         }
 
-        /*
-         * Send user trail if enabled
-         */
-        boolean sendLocation = (Boolean) GeneralSharedPreferencesSmap.getInstance().get(ProjectKeys.KEY_SMAP_USER_LOCATION);
-        long lastTraceIdSent = 0;
-        if(sendLocation) {
-            // Get Points
-            updateResponse.userTrail = new ArrayList<>(100);
-            lastTraceIdSent = TraceUtilities.getPoints(updateResponse.userTrail, 10000, false);
-        }
-
         Collect.getInstance().setSavedLocation(null);
 
         /*
@@ -767,20 +907,55 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
          */
         updateResponse.offlineLayersHeld = getHeldOfflineLayers();
 
+        /*
+         * Send user trail if enabled.  A server that accepts the compact format is sent the
+         * trail straight from the database as deltas, otherwise it is added to the JSON.
+         * The trail is simplified before it is sent, the raw points stay in the database until
+         * the server has accepted them and are then compacted.
+         */
+        boolean sendLocation = (Boolean) GeneralSharedPreferencesSmap.getInstance().get(ProjectKeys.KEY_SMAP_USER_LOCATION);
+        Gson statusGson = new GsonBuilder().disableHtmlEscaping().setDateFormat("yyyy-MM-dd HH:mm").create();
+        int trailTolerance = settingsProvider.getUnprotectedSettings().getInt(ProjectKeys.KEY_SMAP_TRAIL_TOLERANCE);
+        long lastTraceIdSent = 0;
+        int trailSize = 0;
+        byte[] compactStatus = null;
+        if(statusFormat >= CompactTaskStatus.VERSION) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try (CompactTaskStatus writer = new CompactTaskStatus(os)) {
+                writer.writeStatus(statusGson.toJson(updateResponse));
+                if(sendLocation) {
+                    lastTraceIdSent = TraceUtilities.getPoints(writer, 10000, trailTolerance);
+                }
+                trailSize = writer.getPointCount();
+            }
+            compactStatus = os.toByteArray();
+        } else if(sendLocation) {
+            // Get Points
+            updateResponse.userTrail = new ArrayList<>(100);
+            lastTraceIdSent = TraceUtilities.getPoints(updateResponse.userTrail, 10000, false, false, trailTolerance);
+            trailSize = updateResponse.userTrail.size();
+        }
+
         if(updateResponse.taskAssignments.size() > 0 ||
                 (updateResponse.taskCompletionInfo != null && updateResponse.taskCompletionInfo.size() > 0) ||
-                (updateResponse.userTrail != null && updateResponse.userTrail.size() > 0) ||
+                trailSize > 0 ||
                 (updateResponse.offlineLayersHeld != null && updateResponse.offlineLayersHeld.size() > 0)) {
 
             publishProgress(Collect.getInstance().getString(R.string.smap_update_task_status));
 
             URI uri = URI.create(taskURL);
             try {
-                // OOM
-                // Serialize TaskResponse to JSON
-                Gson gson = new GsonBuilder().disableHtmlEscaping().setDateFormat("yyyy-MM-dd HH:mm").create();
-                String taskResponseJson = gson.toJson(updateResponse);
-                httpInterface.uploadTaskStatus(taskResponseJson, uri, webCredentialsUtils.getCredentials(uri));
+                if(compactStatus != null) {
+                    Timber.i("Sending task status and %d trail points in %d bytes", trailSize, compactStatus.length);
+                    // The version of the body that was written, the server may accept a later one
+                    httpInterface.uploadCompactTaskStatus(compactStatus, CompactTaskStatus.FORMAT_HEADER,
+                            CompactTaskStatus.VERSION, uri, webCredentialsUtils.getCredentials(uri));
+                } else {
+                    // OOM
+                    // Serialize TaskResponse to JSON
+                    String taskResponseJson = statusGson.toJson(updateResponse);
+                    httpInterface.uploadTaskStatus(taskResponseJson, uri, webCredentialsUtils.getCredentials(uri));
+                }
             } catch (Exception e) {
                 results.put(Collect.getInstance().getString(R.string.smap_get_tasks),
                         e.getMessage());
@@ -791,7 +966,11 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
             for (TaskResponseAssignment ta : updateResponse.taskAssignments) {
                 Utilities.setTaskSynchronized(ta.assignment.dbId);        // Mark the task status as synchronised
             }
-            TraceUtilities.deleteSource(lastTraceIdSent);
+            if(lastTraceIdSent > 0) {
+                TraceUtilities.compactSent(lastTraceIdSent, trailTolerance);
+            } else if(!sendLocation) {
+                TraceUtilities.deleteSource(0);
+            }
         }
 	}
 
@@ -799,12 +978,17 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
      * Loop through the entries from the source
      *   (1) Add entries that have a status of "new", "accepted" and are not already on the phone
      *   (2) Update the status of database entries where the source status is set to "cancelled"
+     * The changes to the database are made in a single transaction that is committed once they have all been made
      */
 	private void addAndUpdateEntries() throws Exception {
 
-    	if(tr.taskAssignments != null) {
-            int count = 1;
-        	for(TaskResponseAssignment ta : tr.taskAssignments) {
+        try (TaskBatch batch = new TaskBatch((DatabaseInstancesRepository) instancesRepository, formsRepository,
+                    Collect.getInstance().getContentResolver());
+                TaskInstanceDownloader downloader = new TaskInstanceDownloader(TaskInstanceDownloader.DEFAULT_CONNECTIONS,
+                    addDownloadedTasks(batch));
+                TaskAssignmentSpool.Cursor cursor = spool.read(gson)) {
+            TaskResponseAssignment ta;
+        	while((ta = cursor.next()) != null) {
 
                 if(isCancelled()) { throw new CancelException("cancelled"); };		// Return if the user cancels
 
@@ -855,26 +1039,12 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                         }
                         Timber.i("Instance url: %s", ta.task.initial_data);
 
-                        // Add instance data
-                        ManageForm mf = new ManageForm();
-                        ManageFormResponse mfr = mf.insertInstance(ta, assignment.assignment_id, source, serverUrl, tr.version);
-                        if(!mfr.isError) {
-                            results.put(ta.task.title, Collect.getInstance().getString(R.string.smap_created));
-                            publishProgress(ta.task.title, Integer.valueOf(count).toString(), Integer.valueOf(tr.taskAssignments.size())
-                                    .toString());
-                        } else if(ts == null) {
-                            // A record the phone does not yet have failed to download - report it
-                            publishProgress(ta.task.title + " : Failed", Integer.valueOf(count).toString(), Integer.valueOf(tr.taskAssignments.size())
-                                    .toString());
-                            results.put(ta.task.title, "Creation failed: " + mfr.statusMsg );
-                        } else {
-                            // Re-download of an already-present case/reference failed (usually a
-                            // transient network error). The existing copy is preserved, so keep
-                            // it quietly and retry on the next refresh instead of alarming the user.
-                            Timber.w("Will retry next refresh - failed to update existing record %s: %s",
-                                    ta.task.title, mfr.statusMsg);
+                        // Download the instance data in the background, it is added once all of its files have been downloaded
+                        final TaskResponseAssignment newTask = ta;
+                        if(!downloader.submit(ta, ts == null, () -> new ManageForm().downloadInstance(newTask,
+                                newTask.assignment.assignment_id, source, serverUrl, tr.version))) {
+                            throw new CancelException("cancelled");		// Return if the user cancels
                         }
-
                     }
                 } else {        	// Existing task
                     Timber.i("Existing Task: " + assignment.assignment_id + " : " + assignment.assignment_status);
@@ -882,18 +1052,28 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                     // Update the task if its status is not incomplete and it has not beeen rejected
                     if(assignment.assignment_status.equals(Utilities.STATUS_T_CANCELLED) && !ts.status.equals(Utilities.STATUS_T_CANCELLED)
                             && !ts.status.equals(Utilities.STATUS_T_REJECTED)) {
-                        Utilities.setStatusForAssignment(assignment.assignment_id, assignment.assignment_status);
+                        Utilities.setStatusForAssignment(batch, assignment.assignment_id, assignment.assignment_status);
                         results.put(ta.task.title, assignment.assignment_status);
                     }
-                    Utilities.updateParametersForAssignment(assignment.assignment_id, ta);
+                    Utilities.updateParametersForAssignment(batch, assignment.assignment_id, ta);
 
                 }
             }// end tasks loop
-    	}
 
-        // Remove any tasks that have been deleted from the server
-        Utilities.rejectObsoleteTasks(tr.taskAssignments);
-        Utilities.deleteUnassignedCases(tr.taskAssignments);
+            if(!downloader.awaitAll()) { throw new CancelException("cancelled"); }		// Return if the user cancels
+
+            // Remove any tasks that have been deleted from the server
+            if(isDelta) {
+                // Only changes were sent, so anything not in the response is unchanged rather than obsolete
+                Utilities.rejectRemovedTasks(batch, tr.removedAssignments);
+            } else {
+                Utilities.rejectObsoleteTasks(batch, spool.getKeys());
+                Utilities.deleteUnassignedCases(batch, spool.getKeys());
+            }
+
+            batch.commit();
+            downloader.commit();
+    	}
 
     	// Clean up the history table and remove old deleted instances
         Utilities.cleanHistory();
@@ -901,6 +1081,51 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
     	return;
 	}
 
+    /*
+     * Add each new task to the batch as its download finishes.  Progress is reported as each
+     * download finishes, the download is not kept once its task has been added.
+     */
+    private TaskInstanceDownloader.Listener addDownloadedTasks(TaskBatch batch) {
+
+        ManageForm mf = new ManageForm();
+        return new TaskInstanceDownloader.Listener() {
+            @Override
+            public void onDownloaded(TaskInstanceDownloader.Download download, int count, int total) {
+                TaskResponseAssignment ta = download.ta;
+                ManageFormResponse mfr = download.response.isError ? download.response : mf.addInstance(download.response, ta, batch);
+                if(!mfr.isError) {
+                    publishProgress(ta.task.title, Integer.valueOf(count).toString(), Integer.valueOf(total)
+                            .toString());
+                    results.put(ta.task.title, Collect.getInstance().getString(R.string.smap_created));
+                    return;
+                }
+
+                if(!download.response.isError) {
+                    TaskInstanceDownloader.deleteInstanceFolder(download.response.instancePath);     // Downloaded but not added
+                }
+                if(download.isNew) {
+                    // A record the phone does not yet have failed to download - report it
+                    publishProgress(ta.task.title + " : Failed", Integer.valueOf(count).toString(), Integer.valueOf(total)
+                            .toString());
+                    results.put(ta.task.title, "Creation failed: " + mfr.statusMsg );
+                    syncToken.markIncomplete("task " + ta.assignment.assignment_id);
+                } else {
+                    // Re-download of an already-present case/reference failed (usually a
+                    // transient network error). The existing copy is preserved, so keep
+                    // it quietly and retry on the next refresh instead of alarming the user.
+                    Timber.w("Will retry next refresh - failed to update existing record %s: %s",
+                            ta.task.title, mfr.statusMsg);
+                    syncToken.markIncomplete("task " + ta.assignment.assignment_id);
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return DownloadTasksTask.this.isCancelled();
+            }
+        };
+    }
+
 	/*
      * Synchronise the forms on the server with those on the phone
      *   (1) Download forms on the server that are not on the phone
@@ -964,10 +1189,21 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
 
             // Delete any forms no longer required
             Timber.i("=================================  delete forms");
-            mf.deleteForms(formMap, results);
+            if(isDelta) {
+                // Forms not in a delta response are unchanged, only delete those that were removed or replaced
+                mf.deleteRemovedForms(forms, tr.removedForms, results);
+            } else {
+                mf.deleteForms(formMap, results);
+            }
+
+            // Files already on the device are only sent again if they have changed
+            OpenRosaXmlFetcher xmlFetcher = new OpenRosaXmlFetcher(httpInterface, webCredentialsUtils);
+            ConditionalGetCache conditionalGetCache = new ConditionalGetCache(new File(
+                    storagePathProvider.getOdkDirPath(StorageSubdirectory.METADATA), CONDITIONAL_GET_DIR));
+            xmlFetcher.setConditionalGetCache(conditionalGetCache);
 
             MultiFormDownloaderSmap multiFormDownloader = new MultiFormDownloaderSmap(
-                    new OpenRosaXmlFetcher(httpInterface, webCredentialsUtils),
+                    xmlFetcher,
                     formsRepository,
                     propertyManager);
             Timber.i("Downloading " + toDownload.size() + " forms");
@@ -977,6 +1213,22 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
 
                 downloadFormsTask.setDownloaderListener((DownloadFormsTaskListenerSmap) mStateListener);
                 dfResults = downloadFormsTask.doInBackground(toDownload);   // Not in background as called directly
+
+                String success = Collect.getInstance().getString(org.odk.collect.strings.R.string.success);
+                for (ServerFormDetailsSmap fd : toDownload) {
+                    String formResult = dfResults == null ? null : dfResults.get(fd);
+                    if (formResult != null && !formResult.equals(success)) {
+                        syncToken.markIncomplete("form " + fd.getFormId());
+                    }
+                }
+            }
+            int notModified = conditionalGetCache.getNotModifiedCount();
+            long bytesNotDownloaded = conditionalGetCache.getBytesSaved();
+            Timber.i("Not modified: %d files, %d bytes not downloaded", notModified, bytesNotDownloaded);
+            if(notModified > 0) {
+                results.put(Collect.getInstance().getString(R.string.smap_not_modified),
+                        Collect.getInstance().getString(R.string.smap_not_modified_saved, notModified,
+                                android.text.format.Formatter.formatShortFileSize(Collect.getInstance(), bytesNotDownloaded)));
             }
 
         	processSharedFiles();   // Remove shared files no longer used, load shared sql files
@@ -1096,7 +1348,16 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
     private void updateOfflineLayers() {
 
         try {
-            boolean enabled = tr.settings != null && tr.settings.ft_offline_maps;
+            boolean enabled;
+            if(isDelta && tr.settings == null) {
+                // Settings are unchanged since the last refresh
+                enabled = settingsProvider.getUnprotectedSettings().getBoolean(ProjectKeys.KEY_SMAP_OFFLINE_MAPS);
+            } else {
+                enabled = tr.settings != null && tr.settings.ft_offline_maps;
+            }
+            if(isDelta && enabled && tr.offlineLayers == null) {
+                return;     // Layers are unchanged since the last refresh
+            }
             List<OfflineLayer> layers = enabled ? tr.offlineLayers : null;
 
             OfflineLayerDownloader.saveManifest(settingsProvider, layers);
@@ -1183,6 +1444,13 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                 settings.save(ProjectKeys.KEY_SMAP_INPUT_METHOD, "not set");
             }
 
+            /*
+             * Override the tolerance used to simplify the user trail if this is set from the server
+             */
+            if(tr.settings.ft_trail_tolerance != null && tr.settings.ft_trail_tolerance >= 0) {
+                settings.save(ProjectKeys.KEY_SMAP_TRAIL_TOLERANCE, tr.settings.ft_trail_tolerance);
+            }
+
             /*
              * Override the delete after send setting if this is set from the server
              */
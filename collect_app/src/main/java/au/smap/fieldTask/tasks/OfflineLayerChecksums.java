@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.tasks;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+
+import timber.log.Timber;
+
+/**
+ * Remembers the offline layer files whose checksum has already been verified, so that checking
+ * whether a layer is on the device does not hash a file that can be gigabytes in size.
+ *
+ * An entry only counts while the file has the same size and modified time as when it was
+ * verified.  Damage that changes neither is not detected, which is why the user can still ask
+ * for every layer to be verified again.
+ */
+public class OfflineLayerChecksums {
+
+    static final String FILE_NAME = "offline_layer_checksums.json";
+
+    private final File store;
+    private HashMap<String, Entry> entries;     // Loaded on first use
+
+    public OfflineLayerChecksums(File dir) {
+        store = new File(dir, FILE_NAME);
+    }
+
+    /**
+     * True if the file was verified to have this checksum and has not changed since
+     */
+    public synchronized boolean isVerified(@NonNull File f, String md5) {
+        Entry entry = getEntries().get(f.getAbsolutePath());
+        return entry != null
+                && md5 != null
+                && md5.equalsIgnoreCase(entry.md5)
+                && entry.size == f.length()
+                && entry.modified == f.lastModified();
+    }
+
+    /**
+     * Record that the file has been verified to have the checksum
+     */
+    public synchronized void put(@NonNull File f, @NonNull String md5) {
+        Entry entry = new Entry();
+        entry.size = f.length();
+        entry.modified = f.lastModified();
+        entry.md5 = md5;
+        getEntries().put(f.getAbsolutePath(), entry);
+        save();
+    }
+
+    public synchronized void remove(@NonNull File f) {
+        if (getEntries().remove(f.getAbsolutePath()) != null) {
+            save();
+        }
+    }
+
+    private HashMap<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            if (store.exists()) {
+                try (Reader reader = new FileReader(store)) {
+                    HashMap<String, Entry> saved = new Gson().fromJson(reader,
+                            new TypeToken<HashMap<String, Entry>>() {}.getType());
+                    if (saved != null) {
+                        entries = saved;
+                    }
+                } catch (Exception e) {
+                    // Layers will be hashed again, nothing is lost
+                    Timber.e(e, "Invalid offline layer checksums");
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void save() {
+        // Write a copy and then replace the store so a partly written file is never read
+        File temp = new File(store.getParentFile(), FILE_NAME + ".tmp");
+        try (Writer writer = new FileWriter(temp)) {
+            new Gson().toJson(entries, writer);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to save offline layer checksums");
+            return;
+        }
+        if (!temp.renameTo(store)) {
+            Timber.e("Failed to replace offline layer checksums");
+        }
+    }
+
+    private static class Entry {
+        long size;
+        long modified;
+        String md5;
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.tasks;
+
+import androidx.annotation.NonNull;
+
+import org.odk.collect.openrosa.http.HttpGetResult;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+import timber.log.Timber;
+
+/**
+ * Downloads a layer as a set of byte ranges fetched over several connections at once.  A single
+ * stream over a high latency link, such as a satellite connection, only uses a fraction of the
+ * bandwidth available.
+ *
+ * The part file is created at its full size and each range is written into its place.  The
+ * ranges that have been completed are recorded in a small sidecar file so that an interrupted
+ * download only fetches the ranges that were not finished.
+ *
+ * MD5 has to be calculated in order, so the checksum is advanced over the completed ranges at
+ * the start of the file as they finish, while they are still in the page cache, rather than by
+ * reading the whole file again at the end.  After a resume the ranges already on the device
+ * are read once to bring the checksum up to date.
+ */
+class OfflineLayerChunkedDownload {
+
+    static final String CHUNKS_SUFFIX = ".chunks";
+    static final long CHUNK_SIZE = 4 * 1024 * 1024;
+    static final int CONNECTIONS = 4;
+
+    /**
+     * Layers smaller than this are not worth splitting
+     */
+    static final long MIN_SIZE = 2 * CHUNK_SIZE;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final File part;
+    private final File chunksFile;
+    private final long size;
+    private final long chunkSize;
+    private final int connections;
+    private final RangeSource source;
+
+    private final int chunkCount;
+    private final BitSet done;          // Guarded by this
+
+    private final ReentrantLock hashLock = new ReentrantLock();
+    private MessageDigest digest;       // Guarded by hashLock
+    private int hashed;                 // Chunks included in the digest, guarded by hashLock
+
+    private FileChannel channel;
+    private volatile boolean failed;    // Stops further ranges being started once one has failed
+
+    OfflineLayerChunkedDownload(File part, File chunksFile, long size, RangeSource source) {
+        this(part, chunksFile, size, source, CHUNK_SIZE, CONNECTIONS);
+    }
+
+    OfflineLayerChunkedDownload(File part, File chunksFile, long size, RangeSource source,
+                                long chunkSize, int connections) {
+        this.part = part;
+        this.chunksFile = chunksFile;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.connections = connections;
+        this.source = source;
+        this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        this.done = new BitSet(chunkCount);
+    }
+
+    /**
+     * Fetch the ranges that are not yet on the device.
+     *
+     * @return the MD5 of the complete file or null if the download was stopped, in which case
+     * the completed ranges are kept for the next run
+     * @throws RangesNotSupportedException if the server sends the whole file rather than a range
+     * @throws IOException if a range fails for any other reason, the completed ranges are kept
+     */
+    String run(OfflineLayerDownloader.Supplier isStopped) throws Exception {
+
+        prepare();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, connections));
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            channel = file.getChannel();
+            digest = MessageDigest.getInstance("MD5");
+            hashed = 0;
+
+            advanceHash(true);      // Catch up with any ranges from an earlier run
+
+            List<Future<?>> pending = new ArrayList<>();
+            for (int i = 0; i < chunkCount; i++) {
+                if (!isDone(i)) {
+                    final int chunk = i;
+                    pending.add(executor.submit(() -> {
+                        try {
+                            fetchChunk(chunk, isStopped);
+                        } catch (Exception e) {
+                            failed = true;
+                            throw e;
+                        }
+                        return null;
+                    }));
+                }
+            }
+
+            for (Future<?> f : pending) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    executor.shutdownNow();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+            }
+
+            advanceHash(true);
+
+            hashLock.lock();
+            try {
+                if (hashed < chunkCount) {
+                    return null;        // Stopped before all the ranges were fetched
+                }
+                return toHex(digest.digest());
+            } finally {
+                hashLock.unlock();
+            }
+        } finally {
+            executor.shutdownNow();
+            channel = null;
+        }
+    }
+
+    /**
+     * Remove the part file and the record of its completed ranges
+     */
+    void discard() {
+        part.delete();
+        chunksFile.delete();
+    }
+
+    /**
+     * The number of bytes recorded as downloaded in a chunks file, or -1 if there isn't one.
+     * The part file has its full length from the start so its size says nothing about progress.
+     */
+    static long getCompletedBytes(File chunksFile) {
+        Progress progress = readProgress(chunksFile);
+        if (progress == null) {
+            return -1;
+        }
+        long bytes = 0;
+        for (int i = progress.done.nextSetBit(0); i >= 0; i = progress.done.nextSetBit(i + 1)) {
+            bytes += Math.min(progress.chunkSize, progress.size - i * progress.chunkSize);
+        }
+        return bytes;
+    }
+
+    /**
+     * Work out which ranges are already on the device and make sure the part file has its full
+     * length
+     */
+    private void prepare() throws IOException {
+
+        Progress progress = readProgress(chunksFile);
+        if (progress != null && progress.size == size && progress.chunkSize == chunkSize
+                && part.exists() && part.length() == size) {
+            done.or(progress.done);
+        } else if (progress == null && part.exists() && part.length() <= size) {
+            // A part file left by a single stream download, the whole ranges in it can be kept
+            int complete = (int) (part.length() / chunkSize);
+            if (part.length() == size) {
+                complete = chunkCount;
+            }
+            done.set(0, complete);
+        } else {
+            part.delete();
+        }
+        if (done.length() > chunkCount) {
+            done.clear(chunkCount, done.length());
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            if (file.length() != size) {
+                file.setLength(size);
+            }
+        }
+        saveProgress();
+    }
+
+    private void fetchChunk(int chunk, OfflineLayerDownloader.Supplier isStopped) throws Exception {
+
+        if (failed || (isStopped != null && isStopped.get())) {
+            return;
+        }
+
+        long start = chunk * chunkSize;
+        long end = Math.min(start + chunkSize, size) - 1;
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Range", "bytes=" + start + "-" + end);
+        HttpGetResult result = source.get(headers);
+
+        int status = result.getStatusCode();
+        if (status == 200) {
+            // The whole file was sent, close the response without reading it
+            close(result);
+            throw new RangesNotSupportedException();
+        } else if (status != 206) {
+            // Some other failure, the ranges already completed are kept for the next attempt
+            close(result);
+            throw new IOException("Range " + start + "-" + end + " failed with status " + status);
+        }
+
+        String contentRange = result.getHeader("Content-Range");
+        if (!matchesRange(contentRange, start, end, size)) {
+            close(result);
+            throw new IOException("Range " + start + "-" + end + " answered with " + contentRange);
+        }
+
+        long position = start;
+        try (InputStream is = result.getInputStream()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytes;
+            while (position <= end && (bytes = is.read(buffer, 0, (int) Math.min(buffer.length, end + 1 - position))) != -1) {
+                if (isStopped != null && isStopped.get()) {
+                    return;     // This range is fetched again on the next run
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, bytes);
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+            }
+        }
+
+        if (position != end + 1) {
+            throw new IOException("Range " + start + "-" + end + " ended after " + (position - start) + " bytes");
+        }
+
+        // The bytes must be on disk before the range is recorded as done
+        channel.force(false);
+        markDone(chunk);
+        advanceHash(false);
+    }
+
+    /**
+     * Check that the Content-Range of a response, "bytes start-end/total", is the range that was
+     * asked for in a file of the expected size.  The total can be "*" if the server does not know it.
+     */
+    static boolean matchesRange(String contentRange, long start, long end, long size) {
+        if (contentRange == null || !contentRange.trim().startsWith("bytes ")) {
+            return false;
+        }
+        String[] parts = contentRange.trim().substring("bytes ".length()).trim().split("/");
+        if (parts.length != 2) {
+            return false;
+        }
+        String[] bounds = parts[0].split("-");
+        try {
+            return bounds.length == 2
+                    && Long.parseLong(bounds[0].trim()) == start
+                    && Long.parseLong(bounds[1].trim()) == end
+                    && (parts[1].trim().equals("*") || Long.parseLong(parts[1].trim()) == size);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Close the response without reading the body
+     */
+    private static void close(HttpGetResult result) throws IOException {
+        InputStream is = result.getInputStream();
+        if (is != null) {
+            is.close();
+        }
+    }
+
+    /**
+     * Add the completed ranges at the start of the file to the checksum.  Unless asked to wait,
+     * a thread that finds another already doing this goes back to downloading, the ranges it
+     * completed are picked up by the thread that is hashing or by the final wait.
+     */
+    private void advanceHash(boolean wait) throws IOException {
+        if (wait) {
+            hashLock.lock();
+        } else if (!hashLock.tryLock()) {
+            return;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (hashed < chunkCount && isDone(hashed)) {
+                long position = hashed * chunkSize;
+                long end = Math.min(position + chunkSize, size);
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int bytes = channel.read(buffer, position);
+                    if (bytes < 0) {
+                        throw new IOException("Part file is shorter than expected");
+                    }
+                    digest.update(buffer.array(), 0, bytes);
+                    position += bytes;
+                }
+                hashed++;
+            }
+        } finally {
+            hashLock.unlock();
+        }
+    }
+
+    private synchronized boolean isDone(int chunk) {
+        return done.get(chunk);
+    }
+
+    private synchronized void markDone(int chunk) throws IOException {
+        done.set(chunk);
+        saveProgress();
+    }
+
+    /**
+     * Record the completed ranges.  Written to a copy that then replaces the file so that an
+     * interruption never leaves a record of ranges that were not written.
+     */
+    private synchronized void saveProgress() throws IOException {
+        File temp = new File(chunksFile.getParentFile(), chunksFile.getName() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new FileOutputStream(temp))) {
+            os.writeLong(size);
+            os.writeLong(chunkSize);
+            byte[] bits = done.toByteArray();
+            os.writeInt(bits.length);
+            os.write(bits);
+        }
+        if (!temp.renameTo(chunksFile)) {
+            throw new IOException("Failed to save download progress to " + chunksFile.getName());
+        }
+    }
+
+    private static Progress readProgress(File chunksFile) {
+        if (!chunksFile.exists()) {
+            return null;
+        }
+        try (DataInputStream is = new DataInputStream(new FileInputStream(chunksFile))) {
+            Progress progress = new Progress();
+            progress.size = is.readLong();
+            progress.chunkSize = is.readLong();
+            byte[] bits = new byte[is.readInt()];
+            is.readFully(bits);
+            progress.done = BitSet.valueOf(bits);
+            return progress.chunkSize > 0 ? progress : null;
+        } catch (Exception e) {
+            Timber.e(e, "Invalid download progress in %s", chunksFile.getName());
+            return null;
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder md5 = new StringBuilder(new BigInteger(1, hash).toString(16));
+        while (md5.length() < 32) {
+            md5.insert(0, "0");
+        }
+        return md5.toString();
+    }
+
+    private static class Progress {
+        long size;
+        long chunkSize;
+        BitSet done;
+    }
+
+    /**
+     * Makes the request for a range of the layer, the headers hold the Range header
+     */
+    interface RangeSource {
+        @NonNull
+        HttpGetResult get(HashMap<String, String> headers) throws Exception;
+    }
+
+    /**
+     * The server answered a range request with the whole file, so the layer has to be
+     * downloaded as a single stream
+     */
+    static class RangesNotSupportedException extends IOException {
+        RangesNotSupportedException() {
+            super("Server does not support range requests");
+        }
+    }
+}
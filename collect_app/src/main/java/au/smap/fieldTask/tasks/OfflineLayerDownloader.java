@@ -50,7 +50,11 @@ import timber.log.Timber;
  *
  * These files are large and devices are often on poor connections, so a download that is
  * interrupted is resumed from where it stopped using a byte range request rather than being
- * started again.  A layer whose checksum already matches the file on the device is skipped.
+ * started again.  Large layers are fetched as several byte ranges at once, see
+ * {@link OfflineLayerChunkedDownload}.  A layer whose checksum already matches the file on the
+ * device is skipped.
+ * The checksum is only calculated once for each downloaded file, after that the result is looked
+ * up in {@link OfflineLayerChecksums} unless {@link #verifyAll} is asked to check them again.
  *
  * Layers are written to a directory that only the server manages.  Anything in there that the
  * server no longer assigns to the user is deleted, so unassigning a layer removes it from the
@@ -68,6 +72,7 @@ public class OfflineLayerDownloader {
     private final WebCredentialsUtils webCredentialsUtils;
     private final StoragePathProvider storagePathProvider;
     private final SettingsProvider settingsProvider;
+    private final OfflineLayerChecksums checksums;
 
     public OfflineLayerDownloader(OpenRosaHttpInterface httpInterface,
                                   WebCredentialsUtils webCredentialsUtils,
@@ -77,6 +82,8 @@ public class OfflineLayerDownloader {
         this.webCredentialsUtils = webCredentialsUtils;
         this.storagePathProvider = storagePathProvider;
         this.settingsProvider = settingsProvider;
+        this.checksums = new OfflineLayerChecksums(
+                new File(storagePathProvider.getOdkDirPath(StorageSubdirectory.METADATA)));
     }
 
     /**
@@ -137,6 +144,11 @@ public class OfflineLayerDownloader {
         if (complete.exists()) {
             return complete.length();
         }
+        long chunked = OfflineLayerChunkedDownload.getCompletedBytes(
+                new File(getServerLayerDir(), layer.fileName + PART_SUFFIX + OfflineLayerChunkedDownload.CHUNKS_SUFFIX));
+        if (chunked >= 0) {
+            return chunked;
+        }
         File part = new File(getServerLayerDir(), layer.fileName + PART_SUFFIX);
         return part.exists() ? part.length() : 0;
     }
@@ -191,10 +203,42 @@ public class OfflineLayerDownloader {
                 return true;
             }
             // The layer has been replaced on the server, start again
+            checksums.remove(target);
             target.delete();
         }
 
         File part = new File(dir, layer.fileName + PART_SUFFIX);
+        File chunks = new File(dir, part.getName() + OfflineLayerChunkedDownload.CHUNKS_SUFFIX);
+
+        URI uri = URI.create(layer.url);
+        HttpCredentialsInterface credentials = webCredentialsUtils.getCredentials(uri);
+
+        if (layer.size >= OfflineLayerChunkedDownload.MIN_SIZE) {
+            OfflineLayerChunkedDownload chunked = new OfflineLayerChunkedDownload(part, chunks, layer.size,
+                    rangeHeaders -> httpInterface.executeGetRequest(uri, credentials, rangeHeaders));
+            try {
+                String hash = chunked.run(isStopped);
+                if (hash == null) {
+                    return false;       // Stopped, the completed ranges are kept for the next run
+                }
+                if (!hash.equalsIgnoreCase(layer.md5)) {
+                    Timber.e("Checksum mismatch for offline layer %s, discarding", layer.name);
+                    chunked.discard();
+                    return false;
+                }
+                chunks.delete();
+                return complete(layer, part, target);
+            } catch (OfflineLayerChunkedDownload.RangesNotSupportedException e) {
+                Timber.i("Server did not honour the range request for %s, downloading as one stream", layer.name);
+                chunked.discard();
+            }
+        } else if (chunks.exists()) {
+            // Left by a chunked download of an earlier version of the layer, the part file has
+            // gaps so it cannot be resumed as a single stream
+            part.delete();
+            chunks.delete();
+        }
+
         long have = part.exists() ? part.length() : 0;
 
         if (have > layer.size && layer.size > 0) {
@@ -208,9 +252,6 @@ public class OfflineLayerDownloader {
             headers.put("Range", "bytes=" + have + "-");
         }
 
-        URI uri = URI.create(layer.url);
-        HttpCredentialsInterface credentials = webCredentialsUtils.getCredentials(uri);
-
         HttpGetResult result = httpInterface.executeGetRequest(uri, credentials, headers);
 
         // If the server ignored the range and sent the whole file, start from the beginning
@@ -234,16 +275,24 @@ public class OfflineLayerDownloader {
             }
         }
 
-        if (!matches(part, layer.md5)) {
+        if (!hashMatches(part, layer.md5)) {
             Timber.e("Checksum mismatch for offline layer %s, discarding", layer.name);
             part.delete();
             return false;
         }
 
+        return complete(layer, part, target);
+    }
+
+    /**
+     * Move a part file whose checksum has been verified into place
+     */
+    private boolean complete(@NonNull OfflineLayer layer, File part, File target) {
         if (!part.renameTo(target)) {
             Timber.e("Failed to move downloaded layer into place: %s", layer.name);
             return false;
         }
+        checksums.put(target, layer.md5);
 
         Timber.i("Downloaded offline layer %s", layer.name);
         selectIfNoneSelected(layer);
@@ -279,6 +328,7 @@ public class OfflineLayerDownloader {
             for (OfflineLayer layer : layers) {
                 keep.add(layer.fileName);
                 keep.add(layer.fileName + PART_SUFFIX);
+                keep.add(layer.fileName + PART_SUFFIX + OfflineLayerChunkedDownload.CHUNKS_SUFFIX);
             }
         }
 
@@ -288,6 +338,7 @@ public class OfflineLayerDownloader {
                 if (f.isFile() && !keep.contains(f.getName())) {
                     Timber.i("Removing unassigned offline layer %s", f.getName());
                     clearIfSelected(f.getName());
+                    checksums.remove(f);
                     f.delete();
                 }
             }
@@ -306,7 +357,50 @@ public class OfflineLayerDownloader {
         }
     }
 
+    /**
+     * Hash every layer on the device again rather than trusting the saved checksums.  A layer
+     * that no longer matches is deleted so that the next download fetches it again.
+     *
+     * @return the number of layers that were damaged
+     */
+    public int verifyAll(List<OfflineLayer> layers) {
+        int damaged = 0;
+        if (layers != null) {
+            for (OfflineLayer layer : layers) {
+                File f = new File(getServerLayerDir(), layer.fileName);
+                if (!f.exists()) {
+                    continue;
+                }
+                if (hashMatches(f, layer.md5)) {
+                    checksums.put(f, layer.md5);
+                } else {
+                    Timber.w("Offline layer %s is damaged, it will be downloaded again", layer.name);
+                    damaged++;
+                    clearIfSelected(f.getName());
+                    checksums.remove(f);
+                    f.delete();
+                }
+            }
+        }
+        return damaged;
+    }
+
+    /**
+     * Check a layer file against the checksum from the server, only hashing it if it has not
+     * already been verified since it last changed
+     */
     private boolean matches(File f, String md5) {
+        if (checksums.isVerified(f, md5)) {
+            return true;
+        }
+        if (hashMatches(f, md5)) {
+            checksums.put(f, md5);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean hashMatches(File f, String md5) {
         if (md5 == null) {
             return false;
         }
@@ -4,6 +4,7 @@ package au.smap.fieldTask.tasks;
 import android.os.AsyncTask;
 
 import org.odk.collect.android.application.Collect;
+import au.smap.fieldTask.dao.SmapLookupCacheDao;
 import au.smap.fieldTask.external.handler.SmapRemoteDataItem;
 import au.smap.fieldTask.listeners.SmapRemoteListener;
 import org.odk.collect.openrosa.http.OpenRosaHttpInterface;
@@ -26,6 +27,7 @@ import timber.log.Timber;
 public class SmapRemoteWebServiceTask extends AsyncTask<String, Void, SmapRemoteDataItem> {
 
     private SmapRemoteListener remoteListener;
+    private long started;           // smap - time taken for the response to be shown
 
     @Inject
     OpenRosaHttpInterface httpInterface;
@@ -36,6 +38,11 @@ public class SmapRemoteWebServiceTask extends AsyncTask<String, Void, SmapRemote
     public SmapRemoteWebServiceTask(){
         Collect.getInstance().getComponent().inject(this);};
 
+    @Override
+    protected void onPreExecute() {
+        started = System.currentTimeMillis();
+    }
+
     @Override
     protected SmapRemoteDataItem doInBackground(String... params) {
 
@@ -45,6 +52,7 @@ public class SmapRemoteWebServiceTask extends AsyncTask<String, Void, SmapRemote
         String imagePath = params[3];
         String imageName = params[4];
         String creds = params[5];
+        String cacheIdent = params.length > 6 ? params[6] : null;      // smap - save the response for use offline
 
         int timeout = 0;
         try {
@@ -88,6 +96,9 @@ public class SmapRemoteWebServiceTask extends AsyncTask<String, Void, SmapRemote
                 item.data = imageName;
             } else {
                 item.data = httpInterface.getRequest(uri, "application/json", webCredentialsUtils.getCredentials(uri), headers);
+                if(cacheIdent != null) {
+                    saveToLookupCache(lookupUrl, cacheIdent, item.data);
+                }
             }
 
         } catch (Exception e) {
@@ -104,6 +115,7 @@ public class SmapRemoteWebServiceTask extends AsyncTask<String, Void, SmapRemote
 
     @Override
     protected void onPostExecute(SmapRemoteDataItem data) {
+        Timber.i("Remote call %s completed in %d ms", data.key, System.currentTimeMillis() - started);
         synchronized (this) {
             try {
                 if (remoteListener != null) {
@@ -119,6 +131,17 @@ public class SmapRemoteWebServiceTask extends AsyncTask<String, Void, SmapRemote
         }
     }
 
+    /*
+     * Keep a successful response on the device so the lookup can be answered when offline
+     */
+    private void saveToLookupCache(String url, String ident, String data) {
+        try {
+            new SmapLookupCacheDao().put(url, ident, data);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to save lookup response");
+        }
+    }
+
     public void setSmapRemoteListener(SmapRemoteListener sl) {
         synchronized (this) {
             remoteListener = sl;
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2025 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.tasks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import au.smap.fieldTask.database.TaskResponseAssignment;
+import au.smap.fieldTask.database.TrAssignment;
+import au.smap.fieldTask.database.TrTask;
+
+/**
+ * smap - Holds the assignments from a task refresh on disk until they can be applied.
+ *
+ * Assignments arrive before the forms they need have been downloaded so they cannot be applied
+ * as they are read.  Each one is written to a file, one JSON object per line, and read back one
+ * at a time once the forms are on the device.  Only the identifiers needed to find obsolete tasks
+ * are kept in memory.
+ */
+public class TaskAssignmentSpool implements TaskResponseReader.AssignmentSink, Closeable {
+
+    private final File file;
+    private Writer writer;
+    private int size;
+    private final ArrayList<TaskResponseAssignment> keys = new ArrayList<>();
+
+    public TaskAssignmentSpool(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void accept(JsonObject assignment) throws IOException {
+        if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        }
+        writer.write(assignment.toString());
+        writer.write('\n');
+        keys.add(getKey(assignment));
+        size++;
+    }
+
+    /*
+     * The number of assignments held
+     */
+    public int size() {
+        return size;
+    }
+
+    /*
+     * The type, update id and assignment id of each assignment, enough to find the
+     * tasks and cases on the phone that are no longer assigned
+     */
+    public List<TaskResponseAssignment> getKeys() {
+        return keys;
+    }
+
+    /*
+     * Discard anything written, for example when a download is retried
+     */
+    public void reset() throws IOException {
+        closeWriter();
+        file.delete();
+        keys.clear();
+        size = 0;
+    }
+
+    /*
+     * Read the assignments back in the order they were received
+     */
+    public Cursor read(Gson gson) throws IOException {
+        closeWriter();
+        return new Cursor(size > 0 ? file : null, gson);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reset();
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private TaskResponseAssignment getKey(JsonObject assignment) {
+        TaskResponseAssignment key = new TaskResponseAssignment();
+        key.task = new TrTask();
+        key.assignment = new TrAssignment();
+
+        JsonObject task = getObject(assignment, "task");
+        if (task != null) {
+            key.task.id = getInt(task, "id");
+            key.task.type = getString(task, "type");
+            key.task.update_id = getString(task, "update_id");
+        }
+        JsonObject a = getObject(assignment, "assignment");
+        if (a != null) {
+            key.assignment.assignment_id = getInt(a, "assignment_id");
+        }
+        return key;
+    }
+
+    private static JsonObject getObject(JsonObject o, String name) {
+        JsonElement e = o.get(name);
+        return (e != null && e.isJsonObject()) ? e.getAsJsonObject() : null;
+    }
+
+    private static String getString(JsonObject o, String name) {
+        JsonElement e = o.get(name);
+        return (e != null && e.isJsonPrimitive()) ? e.getAsString() : null;
+    }
+
+    private static int getInt(JsonObject o, String name) {
+        JsonElement e = o.get(name);
+        return (e != null && e.isJsonPrimitive()) ? e.getAsInt() : 0;
+    }
+
+    public static class Cursor implements Closeable {
+
+        private final BufferedReader reader;
+        private final Gson gson;
+
+        Cursor(File file, Gson gson) throws IOException {
+            this.reader = file == null ? null :
+                    new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            this.gson = gson;
+        }
+
+        /*
+         * The next assignment or null when there are no more
+         */
+        public TaskResponseAssignment next() throws IOException {
+            String line = reader == null ? null : reader.readLine();
+            return line == null ? null : gson.fromJson(line, TaskResponseAssignment.class);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+}
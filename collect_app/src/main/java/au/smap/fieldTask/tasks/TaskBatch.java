@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2025 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.tasks;
+
+import static android.provider.BaseColumns._ID;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.odk.collect.android.database.DatabaseConstants;
+import org.odk.collect.android.database.instances.DatabaseInstanceColumns;
+import org.odk.collect.android.database.instances.DatabaseInstancesRepository;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.forms.Form;
+import org.odk.collect.forms.FormsRepository;
+import org.odk.collect.forms.instances.Instance;
+import org.odk.collect.shared.files.FileExt;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * smap - Changes to the instances table made during a task refresh.
+ *
+ * The inserts, status changes, parameter updates and rejections for the assignments are written
+ * straight to the instances database, rather than each one going through the content resolver
+ * and being committed on its own.  They are all made in one transaction that is started when the
+ * batch is created and only committed once the whole refresh has been applied, so a refresh that
+ * fails part way through leaves the table as it was.  As each change is written as it is made,
+ * a refresh with many assignments does not hold them in memory.  Other writes to the instances
+ * database wait until the batch is committed or closed.
+ *
+ * Deleting an instance removes its files as well, which a rollback cannot restore.  The files of
+ * the instances deleted by the batch are therefore only removed once it has been committed.
+ */
+public class TaskBatch implements AutoCloseable {
+
+    private final DatabaseInstancesRepository instancesRepository;
+    private final FormsRepository formsRepository;
+    private final ContentResolver resolver;
+    private final SQLiteDatabase db;
+
+    private final List<Instance> deleted = new ArrayList<>();     // Files removed once committed
+    private final long start = System.currentTimeMillis();
+    private int changes;
+    private boolean open;
+
+    public TaskBatch(DatabaseInstancesRepository instancesRepository, FormsRepository formsRepository,
+                     ContentResolver resolver) {
+        this.instancesRepository = instancesRepository;
+        this.formsRepository = formsRepository;
+        this.resolver = resolver;
+
+        db = instancesRepository.getRawWritableDatabase();
+        db.beginTransaction();
+        open = true;
+    }
+
+    public void insert(ContentValues values) {
+        instancesRepository.rawInsert(values);
+        changes++;
+    }
+
+    public void update(ContentValues values, String selection, String[] selectionArgs) {
+        instancesRepository.rawUpdate(values, selection, selectionArgs);
+        changes++;
+    }
+
+    /*
+     * Delete the instances that match the selection.  As with InstanceDeleter an instance that
+     * has been submitted is kept with a deleted date, others are removed from the table.
+     */
+    public void delete(String selection, String[] selectionArgs) {
+        List<Long> ids = new ArrayList<>();
+        try (Cursor c = instancesRepository.rawQuery(new String[] {_ID}, selection, selectionArgs, null, null)) {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        }
+
+        for (Long id : ids) {
+            Instance instance = instancesRepository.get(id);
+            String[] idArgs = {String.valueOf(id)};
+            if (Instance.STATUS_SUBMITTED.equals(instance.getStatus())) {
+                ContentValues values = new ContentValues();
+                values.putNull(DatabaseInstanceColumns.GEOMETRY);
+                values.putNull(DatabaseInstanceColumns.GEOMETRY_TYPE);
+                values.put(InstanceColumns.DELETED_DATE, System.currentTimeMillis());
+                instancesRepository.rawUpdate(values, _ID + "=?", idArgs);
+            } else {
+                db.delete(DatabaseConstants.INSTANCES_TABLE_NAME, _ID + "=?", idArgs);
+            }
+            deleted.add(instance);
+            changes++;
+        }
+    }
+
+    /*
+     * The number of changes made
+     */
+    public int size() {
+        return changes;
+    }
+
+    /*
+     * Commit the changes, then remove the files of the deleted instances and any deleted form
+     * that no longer has instances
+     */
+    public void commit() {
+        db.setTransactionSuccessful();
+        db.endTransaction();
+        open = false;
+        Timber.i("Applied %d task changes in %d ms", changes, System.currentTimeMillis() - start);
+
+        for (Instance instance : deleted) {
+            FileExt.deleteDirectory(new File(instance.getInstanceFilePath()).getParentFile());
+
+            Form form = formsRepository.getLatestByFormIdAndVersion(instance.getFormId(), instance.getFormVersion());
+            if (form != null && form.isDeleted()
+                    && instancesRepository.getAllNotDeletedByFormIdAndVersion(form.getFormId(), form.getVersion()).isEmpty()) {
+                formsRepository.delete(form.getDbId());
+            }
+        }
+        deleted.clear();
+
+        resolver.notifyChange(InstanceColumns.CONTENT_URI, null);
+    }
+
+    /*
+     * Roll back the changes if the batch has not been committed
+     */
+    @Override
+    public void close() {
+        if (open) {
+            db.endTransaction();
+            open = false;
+            deleted.clear();
+            Timber.i("Rolled back %d task changes", changes);
+        }
+    }
+}
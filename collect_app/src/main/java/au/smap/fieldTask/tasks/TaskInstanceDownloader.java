@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2025 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import au.smap.fieldTask.database.TaskResponseAssignment;
+import au.smap.fieldTask.utilities.ManageFormResponse;
+import timber.log.Timber;
+
+/**
+ * smap - Downloads the initial data and media of new tasks, several at a time.
+ *
+ * Each task is downloaded by a single job, which fetches its instance and then each of its
+ * media files.  The jobs only write files.  As each one finishes it is handed to the listener,
+ * which adds the instance to the database, so a task does not appear until every one of its
+ * files is on the device.  Only a few downloads are queued at a time and a download is not kept
+ * once the listener has it, so a refresh with many new tasks does not hold them all in memory.
+ *
+ * The instance folders written are deleted when the downloader is closed unless they have been
+ * committed to the database, including those of downloads that finish after it is closed.
+ */
+public class TaskInstanceDownloader implements AutoCloseable {
+
+    /*
+     * The number of tasks downloaded at the same time when no other limit is given
+     */
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    private static final long POLL_MS = 500;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    public interface Listener {
+        /*
+         * Called on the submitting thread as each download finishes, in the order they finish
+         */
+        void onDownloaded(Download download, int count, int total) throws Exception;
+
+        boolean isCancelled();
+    }
+
+    public static class Download {
+        public final TaskResponseAssignment ta;
+        public final boolean isNew;                 // The task is not already on the phone
+        public final ManageFormResponse response;
+
+        Download(TaskResponseAssignment ta, boolean isNew, ManageFormResponse response) {
+            this.ta = ta;
+            this.isNew = isNew;
+            this.response = response;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final ExecutorCompletionService<Download> completionService;
+    private final Listener listener;
+    private final int maxQueued;
+    private int submitted;
+    private int finished;
+
+    // Instances written that have not been committed, deleted when the downloader is closed
+    private final Object lock = new Object();
+    private final List<String> written = new ArrayList<>();
+    private boolean closed;
+
+    public TaskInstanceDownloader(int connections, Listener listener) {
+        executor = Executors.newFixedThreadPool(Math.max(1, connections));
+        completionService = new ExecutorCompletionService<>(executor);
+        this.listener = listener;
+        maxQueued = Math.max(1, connections) * 2;
+    }
+
+    /*
+     * Queue the download of a task.  An exception thrown by the job is returned as an error
+     * response for that task rather than stopping the other downloads.  When enough downloads
+     * are already queued this first waits for some to finish and hands them to the listener.
+     * Returns false if the listener reports that the refresh has been cancelled.
+     */
+    public boolean submit(TaskResponseAssignment ta, boolean isNew, Callable<ManageFormResponse> job) throws Exception {
+        if (!await(maxQueued - 1)) {
+            return false;
+        }
+
+        submitted++;
+        completionService.submit(() -> {
+            ManageFormResponse response;
+            try {
+                response = job.call();
+            } catch (Exception e) {
+                Timber.e(e, "Failed to download task %s", ta.task.title);
+                response = new ManageFormResponse();
+                response.isError = true;
+                response.statusMsg = e.getMessage();
+            }
+            if (!response.isError && response.instancePath != null) {
+                synchronized (lock) {
+                    if (closed) {
+                        deleteInstanceFolder(response.instancePath);     // Finished after the refresh ended
+                    } else {
+                        written.add(response.instancePath);
+                    }
+                }
+            }
+            return new Download(ta, isNew, response);
+        });
+        return true;
+    }
+
+    /*
+     * Wait for every queued download to finish and hand it to the listener.  Returns false if
+     * the listener reports that the refresh has been cancelled.
+     */
+    public boolean awaitAll() throws Exception {
+        return await(0);
+    }
+
+    private boolean await(int queued) throws Exception {
+        while (submitted - finished > queued) {
+            if (listener.isCancelled()) {
+                return false;
+            }
+            Future<Download> done = completionService.poll(POLL_MS, TimeUnit.MILLISECONDS);
+            if (done != null) {
+                finished++;
+                listener.onDownloaded(done.get(), finished, submitted);
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The instances handed to the listener have been committed to the database, they are kept
+     * when the downloader is closed
+     */
+    public void commit() {
+        synchronized (lock) {
+            written.clear();
+        }
+    }
+
+    /*
+     * Stop the downloads, wait for them to finish and then delete the instances written that
+     * have not been committed.  A download still running after the wait deletes its own
+     * instance when it finishes.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Timber.w("Task downloads still running after %d seconds", CLOSE_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (lock) {
+            closed = true;
+            for (String instancePath : written) {
+                deleteInstanceFolder(instancePath);
+            }
+            written.clear();
+        }
+    }
+
+    /*
+     * Best-effort removal of a downloaded instance folder that will not be added to the
+     * database, so a failed or cancelled download does not leave orphan files behind.  The
+     * folder is newly created for the download and not yet referenced by the instances database.
+     */
+    public static void deleteInstanceFolder(String instancePath) {
+        try {
+            File dir = new File(instancePath).getParentFile();
+            if (dir != null && dir.exists()) {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File child : files) {
+                        child.delete();
+                    }
+                }
+                dir.delete();
+            }
+        } catch (Exception e) {
+            Timber.e("Failed to clean up partial instance download: %s", e.getMessage());
+        }
+    }
+}
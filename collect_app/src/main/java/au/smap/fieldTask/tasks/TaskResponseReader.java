@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2025 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.tasks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import au.smap.fieldTask.models.TaskResponse;
+
+/**
+ * smap - Streaming reader for the response to a task refresh.
+ *
+ * The assignment list can run to thousands of entries.  Rather than reading the whole body into
+ * a String and then building the complete object graph, each assignment is handed to a sink as
+ * soon as it has been read.  Only the remaining parts of the response (forms, settings etc) are
+ * kept, in the returned TaskResponse, whose taskAssignments are left null.
+ */
+public class TaskResponseReader {
+
+    private static final String ASSIGNMENTS = "data";       // Serialised name of TaskResponse.taskAssignments
+
+    public interface AssignmentSink {
+        void accept(JsonObject assignment) throws IOException;
+    }
+
+    private final Gson gson;
+
+    public TaskResponseReader(Gson gson) {
+        this.gson = gson;
+    }
+
+    /*
+     * Read the response.  Network failures are thrown as IOExceptions so that the caller can
+     * retry, a response that is not valid JSON throws a JsonSyntaxException.
+     */
+    public TaskResponse read(Reader in, AssignmentSink sink) throws IOException {
+
+        JsonReader reader = new JsonReader(in);
+        JsonObject header = new JsonObject();
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (ASSIGNMENTS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        JsonElement assignment = JsonParser.parseReader(reader);
+                        if (assignment.isJsonObject()) {
+                            sink.accept(assignment.getAsJsonObject());
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    header.add(name, JsonParser.parseReader(reader));
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+
+        return gson.fromJson(header, TaskResponse.class);
+    }
+}
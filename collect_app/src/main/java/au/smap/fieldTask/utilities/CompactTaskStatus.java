@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.utilities;
+
+import au.smap.fieldTask.database.TraceUtilities;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * smap - Compact encoding of the task status sent to the server after a refresh.
+ *
+ * The JSON form carries the user trail as up to 10,000 objects with full precision doubles,
+ * and is then form encoded.  In this form the trail is a list of differences between
+ * consecutive points, which are small for a trail recorded every few seconds, written as
+ * variable length integers and the whole body is gzipped.  The trail is written straight from
+ * the database cursor, so it is never held as a list.
+ *
+ * The body, before compression:
+ * <pre>
+ *   varint   format version, {@link #VERSION}
+ *   varint   length of the status JSON in bytes, followed by the UTF-8 JSON without the trail
+ *   varint   number of trail points
+ *   for each point, the difference from the previous point (the first from zero) as zig-zag varints:
+ *            latitude in 1e-7 degrees, longitude in 1e-7 degrees, time in milliseconds
+ * </pre>
+ * 1e-7 degrees is about a centimetre, well below the accuracy of the recorded positions.
+ *
+ * A server that accepts this form says so by returning {@link #FORMAT_HEADER} with a version of
+ * at least {@link #VERSION} when the tasks are fetched, otherwise the JSON form is sent.
+ */
+public class CompactTaskStatus implements TraceUtilities.PointWriter, Closeable {
+
+    public static final String FORMAT_HEADER = "X-Smap-Status-Format";
+    public static final int VERSION = 2;
+
+    static final double E7 = 1e7;
+
+    private final OutputStream os;
+
+    private boolean trailStarted;
+    private int expectedPoints;
+    private int pointCount;
+    private long lastLat;
+    private long lastLon;
+    private long lastTime;
+
+    public CompactTaskStatus(OutputStream os) throws IOException {
+        this.os = new BufferedOutputStream(new GZIPOutputStream(os));
+        writeVarint(VERSION);
+    }
+
+    /**
+     * Write the task status, which must come before the trail
+     */
+    public void writeStatus(String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        os.write(bytes);
+    }
+
+    @Override
+    public void begin(int count) throws IOException {
+        if (trailStarted) {
+            throw new IOException("The trail has already been started");
+        }
+        trailStarted = true;
+        expectedPoints = count;
+        writeVarint(count);
+    }
+
+    @Override
+    public void write(double lat, double lon, long time) throws IOException {
+        if (pointCount >= expectedPoints) {
+            throw new IOException("More trail points than the " + expectedPoints + " expected");
+        }
+
+        long latE7 = Math.round(lat * E7);
+        long lonE7 = Math.round(lon * E7);
+        writeSigned(latE7 - lastLat);
+        writeSigned(lonE7 - lastLon);
+        writeSigned(time - lastTime);
+        lastLat = latE7;
+        lastLon = lonE7;
+        lastTime = time;
+        pointCount++;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Finish the body.  A status without a trail is given an empty one.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!trailStarted) {
+            begin(0);
+        }
+        if (pointCount != expectedPoints) {
+            os.close();
+            throw new IOException("Trail has " + pointCount + " points, " + expectedPoints + " expected");
+        }
+        os.close();
+    }
+
+    private void writeSigned(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63));     // Zig-zag so small negative numbers stay small
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            os.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        os.write((int) value);
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.utilities;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import au.smap.fieldTask.loaders.GeofenceEntry;
+
+/**
+ * Grid index over the geofenced tasks so that checking a location fix only looks at the
+ * geofences near it rather than at every task.
+ *
+ * The world is divided into cells of {@link #CELL_DEGREES}.  Each geofence is added to every
+ * cell its circle overlaps, so the geofences that may contain a location are those in its
+ * cell, and to the cell of its centre, which is searched outwards from a location to find the
+ * nearest.  A geofence whose circle would cover more than {@link #MAX_CELLS} cells is kept in
+ * a short list that is always checked.  Cells do not wrap at the antimeridian.
+ *
+ * Updates are incremental, a geofence that has not moved or changed its distance keeps its place.
+ */
+public class GeofenceIndex {
+
+    static final double CELL_DEGREES = 0.005;          // About 550m of latitude
+    static final int MAX_CELLS = 256;
+    private static final double METRES_PER_DEGREE = 111111.1;
+
+    private final Map<Long, GeofenceEntry> byId = new HashMap<>();
+    private final Map<Long, List<GeofenceEntry>> coverage = new HashMap<>();
+    private final Map<Long, List<GeofenceEntry>> centres = new HashMap<>();
+    private final List<GeofenceEntry> large = new ArrayList<>();
+    private final Set<GeofenceEntry> inside = new HashSet<>();
+
+    // Bounds of the cells holding centres, they can be larger than needed after a removal
+    private int minRow = Integer.MAX_VALUE;
+    private int maxRow = Integer.MIN_VALUE;
+    private int minCol = Integer.MAX_VALUE;
+    private int maxCol = Integer.MIN_VALUE;
+
+    private final float[] results = new float[1];
+
+    /**
+     * The result of checking a location against the geofences
+     */
+    public static class Change {
+        public boolean entered;     // The location is inside a geofence that the user was outside
+        public boolean exited;      // The location is outside a geofence that the user was inside
+    }
+
+    private static class Candidate {
+        final float distance;
+        final GeofenceEntry entry;
+
+        Candidate(float distance, GeofenceEntry entry) {
+            this.distance = distance;
+            this.entry = entry;
+        }
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    public synchronized GeofenceEntry get(long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Replace the geofences with these, only those that have changed are re-indexed
+     */
+    public synchronized void update(Collection<GeofenceEntry> entries) {
+        Set<Long> current = new HashSet<>();
+        for (GeofenceEntry entry : entries) {
+            current.add(entry.id);
+            put(entry);
+        }
+        for (Long id : new ArrayList<>(byId.keySet())) {
+            if (!current.contains(id)) {
+                remove(id);
+            }
+        }
+    }
+
+    public synchronized void put(GeofenceEntry entry) {
+        GeofenceEntry existing = byId.get(entry.id);
+        if (existing != null) {
+            if (existing.lat == entry.lat && existing.lon == entry.lon && existing.showDist == entry.showDist) {
+                setIn(existing, entry.in);
+                if (existing != entry) {
+                    byId.put(entry.id, entry);
+                    replace(existing, entry);
+                }
+                return;
+            }
+            remove(entry.id);
+        }
+
+        byId.put(entry.id, entry);
+        setIn(entry, entry.in);
+        add(centres, cell(entry.lat, entry.lon), entry);
+        minRow = Math.min(minRow, row(entry.lat));
+        maxRow = Math.max(maxRow, row(entry.lat));
+        minCol = Math.min(minCol, col(entry.lon));
+        maxCol = Math.max(maxCol, col(entry.lon));
+
+        int[] range = range(entry.lat, entry.lon, entry.showDist);
+        if ((long) (range[1] - range[0] + 1) * (range[3] - range[2] + 1) > MAX_CELLS) {
+            large.add(entry);
+        } else {
+            for (int row = range[0]; row <= range[1]; row++) {
+                for (int col = range[2]; col <= range[3]; col++) {
+                    add(coverage, key(row, col), entry);
+                }
+            }
+        }
+    }
+
+    public synchronized void remove(long id) {
+        GeofenceEntry entry = byId.remove(id);
+        if (entry == null) {
+            return;
+        }
+        inside.remove(entry);
+        removeFrom(centres, cell(entry.lat, entry.lon), entry);
+        if (!large.remove(entry)) {
+            int[] range = range(entry.lat, entry.lon, entry.showDist);
+            for (int row = range[0]; row <= range[1]; row++) {
+                for (int col = range[2]; col <= range[3]; col++) {
+                    removeFrom(coverage, key(row, col), entry);
+                }
+            }
+        }
+        if (byId.isEmpty()) {
+            minRow = Integer.MAX_VALUE;
+            maxRow = Integer.MIN_VALUE;
+            minCol = Integer.MAX_VALUE;
+            maxCol = Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * The geofences whose show distance includes the location
+     */
+    public synchronized List<GeofenceEntry> within(double lat, double lon) {
+        List<GeofenceEntry> found = new ArrayList<>();
+        for (GeofenceEntry entry : candidates(lat, lon)) {
+            if (distance(lat, lon, entry) < entry.showDist) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Check whether a location has crossed the edge of any geofence.  The in state of the
+     * geofences is not changed, that is done when the tasks are reloaded.
+     */
+    public synchronized Change check(double lat, double lon) {
+        Change change = new Change();
+        for (GeofenceEntry entry : inside) {
+            if (distance(lat, lon, entry) > entry.showDist) {
+                change.exited = true;
+                break;
+            }
+        }
+        for (GeofenceEntry entry : candidates(lat, lon)) {
+            if (!entry.in && distance(lat, lon, entry) < entry.showDist) {
+                change.entered = true;
+                break;
+            }
+        }
+        return change;
+    }
+
+    /**
+     * The k geofences whose centres are nearest to the location, nearest first
+     */
+    public synchronized List<GeofenceEntry> nearest(double lat, double lon, int k) {
+        List<GeofenceEntry> found = new ArrayList<>();
+        if (k <= 0 || byId.isEmpty()) {
+            return found;
+        }
+
+        // Furthest of the best k so far at the head
+        PriorityQueue<Candidate> best = new PriorityQueue<>(k, (a, b) -> Float.compare(b.distance, a.distance));
+        int row = row(lat);
+        int col = col(lon);
+        int maxRing = maxRing(row, col);
+
+        if ((long) (2 * maxRing + 1) * (2 * maxRing + 1) > 4L * centres.size()) {
+            // The geofences are spread out or far away, searching the cells would take longer than checking each
+            for (GeofenceEntry entry : byId.values()) {
+                offer(best, k, lat, lon, entry);
+            }
+        } else {
+            // A centre not yet seen after ring n is more than n cells away
+            double cellMetres = CELL_DEGREES * METRES_PER_DEGREE * Math.max(Math.cos(Math.toRadians(Math.abs(lat) + CELL_DEGREES * maxRing)), 0.01);
+            for (int ring = 0; ring <= maxRing; ring++) {
+                for (int r = row - ring; r <= row + ring; r++) {
+                    boolean edgeRow = Math.abs(r - row) == ring;
+                    for (int c = col - ring; c <= col + ring; c += edgeRow ? 1 : 2 * ring) {
+                        List<GeofenceEntry> entries = centres.get(key(r, c));
+                        if (entries != null) {
+                            for (GeofenceEntry entry : entries) {
+                                offer(best, k, lat, lon, entry);
+                            }
+                        }
+                    }
+                }
+
+                if (best.size() == k && best.peek().distance <= ring * cellMetres) {
+                    break;
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(best);
+        sorted.sort((a, b) -> Float.compare(a.distance, b.distance));
+        for (Candidate candidate : sorted) {
+            found.add(candidate.entry);
+        }
+        return found;
+    }
+
+    /**
+     * Distance in metres from the location to the centre of the geofence
+     */
+    public synchronized float distance(double lat, double lon, GeofenceEntry entry) {
+        Location.distanceBetween(lat, lon, entry.lat, entry.lon, results);
+        return results[0];
+    }
+
+    private List<GeofenceEntry> candidates(double lat, double lon) {
+        List<GeofenceEntry> candidates = new ArrayList<>(large);
+        List<GeofenceEntry> entries = coverage.get(cell(lat, lon));
+        if (entries != null) {
+            candidates.addAll(entries);
+        }
+        return candidates;
+    }
+
+    private void setIn(GeofenceEntry entry, boolean in) {
+        entry.in = in;
+        if (in) {
+            inside.add(entry);
+        } else {
+            inside.remove(entry);
+        }
+    }
+
+    /*
+     * Swap in a new object for an entry that has not moved
+     */
+    private void replace(GeofenceEntry existing, GeofenceEntry entry) {
+        if (inside.remove(existing)) {
+            inside.add(entry);
+        }
+        replaceIn(centres.get(cell(existing.lat, existing.lon)), existing, entry);
+        int index = large.indexOf(existing);
+        if (index >= 0) {
+            large.set(index, entry);
+        } else {
+            int[] range = range(existing.lat, existing.lon, existing.showDist);
+            for (int row = range[0]; row <= range[1]; row++) {
+                for (int col = range[2]; col <= range[3]; col++) {
+                    replaceIn(coverage.get(key(row, col)), existing, entry);
+                }
+            }
+        }
+    }
+
+    private static void replaceIn(List<GeofenceEntry> entries, GeofenceEntry existing, GeofenceEntry entry) {
+        if (entries != null) {
+            int index = entries.indexOf(existing);
+            if (index >= 0) {
+                entries.set(index, entry);
+            }
+        }
+    }
+
+    private void offer(PriorityQueue<Candidate> best, int k, double lat, double lon, GeofenceEntry entry) {
+        float d = distance(lat, lon, entry);
+        if (best.size() < k) {
+            best.add(new Candidate(d, entry));
+        } else if (d < best.peek().distance) {
+            best.poll();
+            best.add(new Candidate(d, entry));
+        }
+    }
+
+    /*
+     * The number of rings of cells around a cell that covers every centre
+     */
+    private int maxRing(int row, int col) {
+        return (int) Math.max(
+                Math.max(Math.abs((long) minRow - row), Math.abs((long) maxRow - row)),
+                Math.max(Math.abs((long) minCol - col), Math.abs((long) maxCol - col)));
+    }
+
+    /*
+     * Rows and columns of the cells that a circle overlaps: first row, last row, first column, last column
+     */
+    private static int[] range(double lat, double lon, int radius) {
+        double dLat = radius / METRES_PER_DEGREE;
+        double dLon = radius / (METRES_PER_DEGREE * Math.max(Math.cos(Math.toRadians(lat)), 0.01));
+        return new int[]{row(lat - dLat), row(lat + dLat), col(lon - dLon), col(lon + dLon)};
+    }
+
+    private static long cell(double lat, double lon) {
+        return key(row(lat), col(lon));
+    }
+
+    private static int row(double lat) {
+        return (int) Math.floor(lat / CELL_DEGREES);
+    }
+
+    private static int col(double lon) {
+        return (int) Math.floor(lon / CELL_DEGREES);
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    private static void add(Map<Long, List<GeofenceEntry>> cells, long key, GeofenceEntry entry) {
+        List<GeofenceEntry> entries = cells.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>(2);
+            cells.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static void removeFrom(Map<Long, List<GeofenceEntry>> cells, long key, GeofenceEntry entry) {
+        List<GeofenceEntry> entries = cells.get(key);
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+    }
+}
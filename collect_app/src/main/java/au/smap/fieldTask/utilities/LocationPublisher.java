@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.utilities;
+
+import com.google.gson.Gson;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.injection.DaggerUtils;
+import org.odk.collect.android.injection.config.AppDependencyComponent;
+import org.odk.collect.openrosa.http.HttpPostResult;
+import org.odk.collect.settings.keys.ProjectKeys;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.smap.fieldTask.loaders.PointEntry;
+import timber.log.Timber;
+
+/**
+ * Publishes the live location of the user to the server.
+ *
+ * Sending every fix as it arrives wakes the radio for each one.  Instead fixes are buffered and
+ * sent together in one request when the first of them is {@link #MAX_DELAY} old, when
+ * {@link #MAX_BATCH} have been buffered, when the user has moved {@link #MAX_DISTANCE} metres
+ * since the last location sent or when {@link #flush()} is called, as it is after a geofence
+ * event and when the tasks are refreshed so that the fixes go while the radio is awake anyway.
+ *
+ * Requests go through the shared {@link org.odk.collect.openrosa.http.OpenRosaHttpInterface} so
+ * they use the same connection pool as the rest of the sync traffic.  A batch that fails is
+ * kept for the next flush.  The trail itself is recorded in the trace database and sent with
+ * the task status, so if the buffer is full the oldest fixes are dropped.
+ */
+public class LocationPublisher {
+
+    static final long MAX_DELAY = 60000;       // Milli seconds
+    static final int MAX_BATCH = 20;
+    static final double MAX_DISTANCE = 250;    // Metres
+    static final int MAX_BUFFERED = 500;
+
+    private static final String LOCATION_PATH = "/api/v1/users/location";
+
+    private static LocationPublisher instance;
+
+    private final Sender sender;
+    private final ScheduledExecutorService executor;
+    private final long maxDelay;
+
+    private final ArrayDeque<PointEntry> buffer = new ArrayDeque<>();
+    private PointEntry lastSent;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean retrying;                   // The last batch failed, wait for the retry rather than trying with each fix
+    private boolean sending;                    // A flush is queued or in flight, fixes wait for it rather than starting another
+
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    public interface Sender {
+        /**
+         * Send the fixes, oldest first, in one request
+         */
+        void send(List<PointEntry> fixes) throws Exception;
+    }
+
+    public static synchronized LocationPublisher getInstance() {
+        if (instance == null) {
+            instance = new LocationPublisher(new ServerSender(), Executors.newSingleThreadScheduledExecutor(), MAX_DELAY);
+        }
+        return instance;
+    }
+
+    LocationPublisher(Sender sender, ScheduledExecutorService executor, long maxDelay) {
+        this.sender = sender;
+        this.executor = executor;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Buffer a fix, it is sent when the next batch is flushed.  Fixes at (0, 0) are invalid
+     * and are ignored.
+     */
+    public void publish(double lat, double lon, long time) {
+        if (lat == 0.0 && lon == 0.0) {
+            return;
+        }
+
+        PointEntry fix = new PointEntry();
+        fix.lat = lat;
+        fix.lon = lon;
+        fix.time = time;
+
+        boolean flushNow;
+        synchronized (this) {
+            add(fix);
+            buffered.incrementAndGet();
+
+            flushNow = !retrying && !sending && (buffer.size() >= MAX_BATCH
+                    || lastSent == null
+                    || distance(lastSent, fix) >= MAX_DISTANCE);
+            if (flushNow) {
+                sending = true;
+            } else if (scheduledFlush == null) {
+                scheduledFlush = executor.schedule(this::send, maxDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            executor.execute(this::send);
+        }
+    }
+
+    /**
+     * Send whatever has been buffered now rather than waiting
+     */
+    public void flush() {
+        executor.execute(this::send);
+    }
+
+    public long getBufferedCount() {
+        return buffered.get();
+    }
+
+    public long getFlushedCount() {
+        return flushed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /*
+     * Only called on the executor so batches are sent one at a time and in order
+     */
+    private void send() {
+        List<PointEntry> batch;
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (buffer.isEmpty()) {
+                sending = false;
+                return;
+            }
+            batch = new ArrayList<>(buffer);
+            buffer.clear();
+        }
+
+        try {
+            requests.incrementAndGet();
+            sender.send(batch);
+            flushed.addAndGet(batch.size());
+            synchronized (this) {
+                lastSent = batch.get(batch.size() - 1);
+                retrying = false;
+                sending = buffer.size() >= MAX_BATCH;     // Filled up while this batch was being sent
+                if (sending) {
+                    executor.execute(this::send);
+                }
+            }
+            Timber.i("Published %d locations, buffered: %d, flushed: %d, dropped: %d",
+                    batch.size(), buffered.get(), flushed.get(), dropped.get());
+        } catch (Exception e) {
+            Timber.w("Failed to publish %d locations: %s", batch.size(), e.getMessage());
+            synchronized (this) {
+                // Put the batch back in front of anything that arrived while it was being sent
+                ArrayDeque<PointEntry> newer = new ArrayDeque<>(buffer);
+                buffer.clear();
+                for (PointEntry fix : batch) {
+                    add(fix);
+                }
+                for (PointEntry fix : newer) {
+                    add(fix);
+                }
+                retrying = true;
+                sending = false;
+                if (scheduledFlush == null) {
+                    scheduledFlush = executor.schedule(this::send, maxDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private void add(PointEntry fix) {
+        if (buffer.size() >= MAX_BUFFERED) {
+            buffer.removeFirst();
+            dropped.incrementAndGet();
+        }
+        buffer.addLast(fix);
+    }
+
+    /*
+     * Distance in metres, close enough at the scale of a flush
+     */
+    static double distance(PointEntry a, PointEntry b) {
+        double lat1 = Math.toRadians(a.lat);
+        double lat2 = Math.toRadians(b.lat);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians(b.lon - a.lon);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * 6371000 * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /*
+     * Send the batch to the location API of the current server
+     */
+    private static class ServerSender implements Sender {
+
+        private final Gson gson = new Gson();
+
+        @Override
+        public void send(List<PointEntry> fixes) throws Exception {
+            AppDependencyComponent component = DaggerUtils.getComponent(Collect.getInstance());
+            String server = component.settingsProvider().getUnprotectedSettings().getString(ProjectKeys.KEY_SERVER_URL);
+            URI uri = URI.create(server + LOCATION_PATH);
+
+            PointEntry latest = fixes.get(fixes.size() - 1);
+            HttpPostResult result = component.openRosaHttpInterface().uploadLocations(
+                    String.valueOf(latest.lat),
+                    String.valueOf(latest.lon),
+                    gson.toJson(fixes),
+                    uri,
+                    component.webCredentialsUtils().getCredentials(uri));
+            if (result.getResponseCode() != 200 && result.getResponseCode() != 204) {
+                throw new IOException("Location upload failed: " + result.getResponseCode());
+            }
+        }
+    }
+}
@@ -22,6 +22,9 @@ import android.net.Uri;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import au.smap.fieldTask.database.TaskResponseAssignment;
+import au.smap.fieldTask.models.FormLocator;
+import au.smap.fieldTask.tasks.TaskBatch;
+import au.smap.fieldTask.tasks.TaskInstanceDownloader;
 import org.odk.collect.forms.instances.Instance;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
@@ -35,6 +38,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
 
 import timber.log.Timber;
 
@@ -239,6 +243,52 @@ public class ManageForm {
 
     }
 
+    /*
+     * smap - Delete forms after a delta refresh.  Only changed forms are in the response so
+     * every form on the device is kept except those the server removed and older versions of
+     * forms that have been replaced.
+     */
+    public void deleteRemovedForms(List<FormLocator> changed, List<FormLocator> removed, HashMap <String, String> results) {
+
+        HashMap<String, String> removedIdents = new HashMap<>();
+        if(removed != null) {
+            for(FormLocator form : removed) {
+                removedIdents.put(form.ident, form.ident);
+            }
+        }
+        HashMap<String, String> changedVersions = new HashMap<>();
+        if(changed != null) {
+            for(FormLocator form : changed) {
+                changedVersions.put(form.ident, String.valueOf(form.version));
+            }
+        }
+
+        HashMap<String, String> formMap = new HashMap<>();
+        String [] proj = {FormsColumns.JR_FORM_ID, FormsColumns.JR_VERSION};
+        String selectClause = FormsColumns.SOURCE + "=? or " + FormsColumns.SOURCE + " is null";
+        String [] selectArgs = {Utilities.getSource()};
+
+        try (Cursor c = Collect.getInstance().getContentResolver().query(FormsColumns.CONTENT_URI,
+                proj, selectClause, selectArgs, null)) {
+            if(c != null) {
+                while(c.moveToNext()) {
+                    String formId = c.getString(c.getColumnIndexOrThrow(FormsColumns.JR_FORM_ID));
+                    String version = c.getString(c.getColumnIndexOrThrow(FormsColumns.JR_VERSION));
+                    String changedVersion = changedVersions.get(formId);
+                    if(removedIdents.get(formId) == null && (changedVersion == null || changedVersion.equals(version))) {
+                        String entryHash = formId + "_v_" + version;
+                        formMap.put(entryHash, entryHash);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            Timber.e("ManageForm Error: %s", e.getMessage());
+            return;     // Delete nothing rather than everything
+        }
+
+        deleteForms(formMap, results);
+    }
+
     /*
 	 * Parameters
 	 *   formId:  	Stored as jrFormId in the forms database.
@@ -249,9 +299,8 @@ public class ManageForm {
 	 *   			Not stored
 	 *
 	 */
-    public ManageFormResponse insertInstance(TaskResponseAssignment ta, long assignmentId, String source, String serverUrl, int version) {
+    public ManageFormResponse downloadInstance(TaskResponseAssignment ta, long assignmentId, String source, String serverUrl, int version) {
 
-        int formVersion = ta.task.form_version;
         String initialDataURL = ta.task.initial_data;
 
         String instancePath = null;
@@ -264,15 +313,12 @@ public class ManageForm {
             return mfResponse;
         }
 
-        boolean isCaseOrReference = ta.task.type != null
-                && (ta.task.type.equals("case") || ta.task.type.equals("reference"));
-
         // Get the instance path - a new, timestamped folder
         instancePath = getInstancePath(fd.formPath, assignmentId, ta.task.update_id);
 
-        // Download the instance data to the NEW path first.  Only once it succeeds do we
-        // delete any existing case / reference for this record, so a failed download on a
-        // slow link never destroys the copy already on the phone.
+        // Download the instance data to the NEW path.  Any existing case / reference for this
+        // record is only replaced when the new one is added, so a failed download on a slow
+        // link never destroys the copy already on the phone.
         if(instancePath != null && initialDataURL != null) {
             File f = new File(instancePath);
             try {
@@ -280,7 +326,7 @@ public class ManageForm {
                 smapUtilities.downloadInstanceFile(f, initialDataURL, serverUrl, ta.task.form_id, version);
             } catch (Exception e) {
                 e.printStackTrace();
-                deleteInstanceFolder(instancePath);     // remove the partial download; leave the existing record intact
+                TaskInstanceDownloader.deleteInstanceFolder(instancePath);     // remove the partial download; leave the existing record intact
                 mfResponse.isError = true;
                 mfResponse.statusMsg = getLocalizedString(Collect.getInstance(), R.string.smap_media_download, initialDataURL, instancePath)
                         + " " + e.getMessage();
@@ -288,57 +334,49 @@ public class ManageForm {
             }
         }
 
-        // Download succeeded (or none required) - replace any existing case / reference for
-        // this record.  deleteOldCase matches on update_id so it removes just the old version.
-        if(isCaseOrReference) {
-            Utilities.deleteOldCase(ta.task.update_id);
-        }
-
         if(ta.task.title == null) {
             ta.task.title = "local: " + STFileUtils.getName(fd.formPath);
         }
 
-        // Write the new instance entry into the instance content provider
-        try {
-            mfResponse.mUri = writeInstanceDatabase(ta.task.form_id, fd.version, fd.formName, fd.submissionUri,
-                    instancePath, ta, fd.formPath);
-        } catch (Throwable e) {
-            e.printStackTrace();
-            mfResponse.isError = true;
-            mfResponse.statusMsg = "Unable to insert instance " + ta.task.form_id + " into instance database.";
-            return mfResponse;
-        }
-
         mfResponse.isError = false;
+        mfResponse.formDetails = fd;
         mfResponse.formPath = fd.formPath;
         mfResponse.instancePath = instancePath;
         return mfResponse;
     }
 
     /*
-     * Best-effort removal of a partially-downloaded instance folder so a failed download
-     * does not leave orphan files behind. The folder is newly created for this download and
-     * not yet referenced by the instances database.
+     * Add an instance whose data has been downloaded by downloadInstance to the batch
      */
-    private void deleteInstanceFolder(String instancePath) {
+    public ManageFormResponse addInstance(ManageFormResponse mfResponse, TaskResponseAssignment ta, TaskBatch batch) {
+
+        ManageFormDetails fd = mfResponse.formDetails;
+        boolean isCaseOrReference = ta.task.type != null
+                && (ta.task.type.equals("case") || ta.task.type.equals("reference"));
+
+        ContentValues values;
         try {
-            File dir = new File(instancePath).getParentFile();
-            if (dir != null && dir.exists()) {
-                File[] files = dir.listFiles();
-                if (files != null) {
-                    for (File child : files) {
-                        child.delete();
-                    }
-                }
-                dir.delete();
-            }
-        } catch (Exception e) {
-            Timber.e("Failed to clean up partial instance download: %s", e.getMessage());
+            values = getInstanceValues(ta.task.form_id, fd.version, fd.formName, fd.submissionUri,
+                    mfResponse.instancePath, ta, fd.formPath);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            mfResponse.isError = true;
+            mfResponse.statusMsg = "Unable to insert instance " + ta.task.form_id + " into instance database.";
+            return mfResponse;
         }
+
+        // Replace any existing case / reference for this record.  deleteOldCase matches on
+        // update_id so it removes just the old version.  Both the delete and the insert are
+        // committed with the rest of the batch.
+        if(isCaseOrReference) {
+            Utilities.deleteOldCase(batch, ta.task.update_id);
+        }
+        batch.insert(values);
+        return mfResponse;
     }
 
-    private Uri writeInstanceDatabase(String jrformid, String jrVersion, String formName,
-                                      String submissionUri, String instancePath, TaskResponseAssignment ta, String formPath) throws Throwable {
+    private ContentValues getInstanceValues(String jrformid, String jrVersion, String formName,
+                                            String submissionUri, String instancePath, TaskResponseAssignment ta, String formPath) throws Throwable {
 
     	ContentValues values = new ContentValues();
 
@@ -398,8 +436,7 @@ public class ManageForm {
         values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(true));
         values.put(InstanceColumns.CAN_DELETE_BEFORE_SEND, Boolean.toString(true));
 
-    	return Collect.getInstance().getContentResolver()
-    			.insert(InstanceColumns.CONTENT_URI, values);
+        return values;
     }
 
     /*
@@ -9,4 +9,5 @@ public class ManageFormResponse {
 	public String formPath;
 	public String instancePath;
 	public int deletedFormCount;
+	public ManageForm.ManageFormDetails formDetails;		// smap - form used by a downloaded instance
 }
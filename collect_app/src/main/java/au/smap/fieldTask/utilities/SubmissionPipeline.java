@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.utilities;
+
+import android.net.Uri;
+
+import org.odk.collect.android.upload.FormUploadAuthRequestedException;
+import org.odk.collect.android.upload.FormUploadException;
+import org.odk.collect.android.upload.InstanceUploader;
+import org.odk.collect.forms.instances.Instance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import timber.log.Timber;
+
+/**
+ * smap - Submits a batch of instances with a few in flight at once.  Sent one at a time, the
+ * link sits idle during each instance's round trips, which adds up over the end of a field day
+ * with a hundred or more finalized instances.
+ *
+ * Instances are started in the order given and each still has its status updated by the
+ * uploader as it is sent.  The first authentication request from the server stops any more
+ * instances being started, those already in flight are allowed to finish.  Results are returned
+ * in the order of the instances, whatever order they complete in.
+ */
+public class SubmissionPipeline {
+
+    public static final int MAX_IN_FLIGHT = 3;
+
+    private final InstanceUploader uploader;
+    private final int maxInFlight;
+
+    public SubmissionPipeline(InstanceUploader uploader) {
+        this(uploader, MAX_IN_FLIGHT);
+    }
+
+    public SubmissionPipeline(InstanceUploader uploader, int maxInFlight) {
+        this.uploader = uploader;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Send the instances.  Those not attempted, because of an authentication request or
+     * cancellation, are left out of the result's messages so that they are tried again.
+     */
+    public Result submit(List<Instance> instances, Callbacks callbacks) {
+        Result result = new Result();
+        String[] messages = new String[instances.size()];
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, maxInFlight));
+        Semaphore inFlight = new Semaphore(Math.max(1, maxInFlight));
+        List<Future<?>> pending = new ArrayList<>();
+        try {
+            for (int i = 0; i < instances.size(); i++) {
+                inFlight.acquire();
+                if (result.isStopped() || callbacks.isCancelled()) {
+                    inFlight.release();
+                    result.cancelled = !result.isStopped();
+                    break;
+                }
+
+                final int position = i;
+                final Instance instance = instances.get(i);
+                callbacks.onStarted(position + 1, instances.size());
+                pending.add(executor.submit(() -> {
+                    try {
+                        messages[position] = send(instance, callbacks, result);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+
+            for (Future<?> f : pending) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    // Not an upload failure, those are caught by send().  The instance is left marked failed.
+                    Timber.e(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancelled = true;
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0; i < instances.size(); i++) {
+            if (messages[i] != null) {
+                result.messagesByInstanceId.put(instances.get(i).getDbId().toString(), messages[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the message to show for the instance or null if it needs to be tried again
+     */
+    private String send(Instance instance, Callbacks callbacks, Result result) {
+        if (result.isStopped()) {
+            return null;
+        }
+
+        try {
+            String customMessage = uploader.uploadOneSubmission(instance, callbacks.getUrlToSubmitTo(instance));
+            callbacks.onSubmitted(instance);
+            return customMessage != null ? customMessage : callbacks.getSuccessMessage();
+        } catch (FormUploadAuthRequestedException e) {
+            result.stop(e.getAuthRequestingServer());
+            return null;
+        } catch (FormUploadException e) {
+            return e.getMessage();
+        }
+    }
+
+    public interface Callbacks {
+
+        String getUrlToSubmitTo(Instance instance);
+
+        String getSuccessMessage();
+
+        /**
+         * Called in order, before each instance is sent, with its position in the batch
+         */
+        void onStarted(int position, int total);
+
+        /**
+         * Called on the thread that sent the instance once it has been accepted
+         */
+        void onSubmitted(Instance instance);
+
+        boolean isCancelled();
+    }
+
+    public static class Result {
+
+        /**
+         * Messages for the instances that were attempted, in the order the instances were given
+         */
+        public final LinkedHashMap<String, String> messagesByInstanceId = new LinkedHashMap<>();
+
+        public boolean cancelled;
+
+        private volatile boolean stopped;
+        private Uri authRequestingServer;
+
+        /**
+         * The server that asked for authentication, if the batch was stopped by one
+         */
+        public synchronized Uri getAuthRequestingServer() {
+            return authRequestingServer;
+        }
+
+        private synchronized void stop(Uri server) {
+            if (!stopped) {
+                authRequestingServer = server;
+                stopped = true;
+            }
+        }
+
+        private boolean isStopped() {
+            return stopped;
+        }
+    }
+}
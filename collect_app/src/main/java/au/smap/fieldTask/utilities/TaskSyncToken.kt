@@ -0,0 +1,111 @@
+package au.smap.fieldTask.utilities
+
+import org.odk.collect.settings.keys.ProjectKeys
+import org.odk.collect.shared.settings.Settings
+import timber.log.Timber
+
+/**
+ * smap - Change token for incremental (delta) task refresh.
+ *
+ * Servers that support version [DELTA_SYNC_VERSION] of the task service return an opaque
+ * token with each response. Sending it back on the next refresh lets the server return only
+ * the assignments and forms that were added, changed or removed since that token was issued,
+ * rather than everything assigned to the user. A server that no longer recognises the token
+ * simply answers with a full response, which the device applies as it always has.
+ *
+ * The token is tied to the server and user it was issued for, so changing either one falls
+ * back to a full refresh.
+ */
+class TaskSyncToken(private val settings: Settings) {
+
+    private var incomplete = false
+
+    /**
+     * The token to send with the next refresh, or null if a full refresh is required.
+     */
+    fun get(server: String?, user: String?): String? {
+        val token = settings.getString(ProjectKeys.KEY_SMAP_SYNC_TOKEN)
+        if (token.isNullOrEmpty()) {
+            return null
+        }
+
+        if (settings.getString(ProjectKeys.KEY_SMAP_SYNC_TOKEN_OWNER) != owner(server, user)) {
+            Timber.i("Sync token was issued for a different server or user - full refresh")
+            clear()
+            return null
+        }
+
+        return token
+    }
+
+    /**
+     * Record the token from a response that has been completely applied. Saving it any
+     * earlier would lose the changes that were not applied.
+     */
+    fun save(server: String?, user: String?, token: String?) {
+        if (token.isNullOrEmpty()) {
+            clear()
+        } else {
+            settings.save(ProjectKeys.KEY_SMAP_SYNC_TOKEN, token)
+            settings.save(ProjectKeys.KEY_SMAP_SYNC_TOKEN_OWNER, owner(server, user))
+        }
+    }
+
+    /**
+     * Record that part of the response being applied, a task or a form, could not be. The
+     * server will not send it again after a delta from the new token, so [commit] does not
+     * advance the token past it.
+     */
+    fun markIncomplete(reason: String) {
+        Timber.w("Refresh incomplete, next refresh will be a full one: %s", reason)
+        incomplete = true
+    }
+
+    fun isComplete(): Boolean {
+        return !incomplete
+    }
+
+    /**
+     * Record the token from a response at the end of applying it. If any part of the
+     * response was not applied the stored token is cleared instead, so that the next refresh
+     * is a full one and the server sends what was missed again.
+     */
+    fun commit(server: String?, user: String?, token: String?) {
+        if (incomplete) {
+            clear()
+        } else {
+            save(server, user, token)
+        }
+    }
+
+    fun clear() {
+        settings.save(ProjectKeys.KEY_SMAP_SYNC_TOKEN, "")
+        settings.save(ProjectKeys.KEY_SMAP_SYNC_TOKEN_OWNER, "")
+    }
+
+    private fun owner(server: String?, user: String?): String {
+        return "${server ?: ""}|${user ?: ""}"
+    }
+
+    companion object {
+        /**
+         * Task service version from which the server understands sync tokens and may return
+         * a delta response.
+         */
+        const val DELTA_SYNC_VERSION = 2
+
+        /**
+         * Request header used to send the token to the server.
+         */
+        const val SYNC_TOKEN_HEADER = "synctoken"
+
+        /**
+         * The amount a delta response saved compared with the full response the server
+         * reported it would otherwise have sent. Never negative.
+         */
+        @JvmStatic
+        fun saved(full: Long, received: Long): Long {
+            return if (full > received) full - received else 0
+        }
+    }
+}
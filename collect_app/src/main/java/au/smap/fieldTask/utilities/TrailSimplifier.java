@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2026 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package au.smap.fieldTask.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import au.smap.fieldTask.loaders.PointEntry;
+
+/**
+ * Removes points from a user trail that do not change its shape by more than a tolerance.
+ *
+ * <ol>
+ *   <li>Points within the tolerance of the last point kept are dropped, this removes the
+ *   jitter while the user is standing still.  A point is still kept at least every
+ *   {@link #MAX_GAP} so the trail shows when the user was there.</li>
+ *   <li>Between those time anchors the remaining points are reduced with Douglas-Peucker so
+ *   that a straight walk or drive becomes its end points.</li>
+ * </ol>
+ * The first and last points are always kept.  Distances are measured in metres on a flat
+ * projection around the first point which is close enough over the length of a trail.
+ */
+public class TrailSimplifier {
+
+    public static final long MAX_GAP = 5 * 60 * 1000;  // Milli seconds
+
+    private static final double EARTH_RADIUS = 6371000;
+
+    private TrailSimplifier() {
+    }
+
+    /**
+     * Simplify the points held in the first count elements of the arrays, which can be
+     * oldest or newest first.
+     *
+     * @param tolerance in metres, points are all kept if this is 0 or less
+     * @return the points that are kept
+     */
+    public static boolean[] simplify(double[] lat, double[] lon, long[] time, int count, double tolerance, long maxGap) {
+        boolean[] keep = new boolean[count];
+        if (count <= 2 || tolerance <= 0) {
+            for (int i = 0; i < count; i++) {
+                keep[i] = true;
+            }
+            return keep;
+        }
+
+        // Project onto a plane in metres
+        double scale = Math.toRadians(1) * EARTH_RADIUS;
+        double lonScale = scale * Math.cos(Math.toRadians(lat[0]));
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = (lon[i] - lon[0]) * lonScale;
+            y[i] = (lat[i] - lat[0]) * scale;
+        }
+
+        // Drop points near the last one kept, marking where a point has to be kept for time
+        boolean[] anchor = new boolean[count];
+        anchor[0] = true;
+        anchor[count - 1] = true;
+        keep[0] = true;
+        keep[count - 1] = true;
+        int last = 0;
+        long anchorTime = time[0];
+        double toleranceSq = tolerance * tolerance;
+        for (int i = 1; i < count - 1; i++) {
+            boolean moved = distanceSq(x[i], y[i], x[last], y[last]) > toleranceSq;
+            if (Math.abs(time[i] - anchorTime) >= maxGap) {
+                anchor[i] = true;
+                anchorTime = time[i];
+            }
+            if (moved || anchor[i]) {
+                keep[i] = true;
+                last = i;
+            }
+        }
+
+        // Douglas-Peucker between each pair of anchors on the points still kept
+        int[] stack = new int[2 * count];
+        int start = 0;
+        for (int end = 1; end < count; end++) {
+            if (!anchor[end]) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = start;
+            stack[top++] = end;
+            while (top > 0) {
+                int b = stack[--top];
+                int a = stack[--top];
+
+                int furthest = -1;
+                double furthestSq = toleranceSq;
+                for (int i = a + 1; i < b; i++) {
+                    if (keep[i]) {
+                        double d = segmentDistanceSq(x[i], y[i], x[a], y[a], x[b], y[b]);
+                        if (d > furthestSq) {
+                            furthestSq = d;
+                            furthest = i;
+                        }
+                    }
+                }
+
+                if (furthest < 0) {
+                    for (int i = a + 1; i < b; i++) {
+                        keep[i] = false;
+                    }
+                } else {
+                    stack[top++] = a;
+                    stack[top++] = furthest;
+                    stack[top++] = furthest;
+                    stack[top++] = b;
+                }
+            }
+            start = end;
+        }
+
+        return keep;
+    }
+
+    /**
+     * Simplify a list of points, returning the points kept in the same order
+     */
+    public static List<PointEntry> simplify(List<PointEntry> points, double tolerance, long maxGap) {
+        int count = points.size();
+        double[] lat = new double[count];
+        double[] lon = new double[count];
+        long[] time = new long[count];
+        for (int i = 0; i < count; i++) {
+            PointEntry point = points.get(i);
+            lat[i] = point.lat;
+            lon[i] = point.lon;
+            time[i] = point.time;
+        }
+
+        boolean[] keep = simplify(lat, lon, time, count, tolerance, maxGap);
+        List<PointEntry> kept = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                kept.add(points.get(i));
+            }
+        }
+        return kept;
+    }
+
+    private static double distanceSq(double x1, double y1, double x2, double y2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return dx * dx + dy * dy;
+    }
+
+    /*
+     * Square of the distance from the point to the segment a b
+     */
+    private static double segmentDistanceSq(double x, double y, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        if (lengthSq == 0) {
+            return distanceSq(x, y, ax, ay);
+        }
+        double t = ((x - ax) * dx + (y - ay) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        return distanceSq(x, y, ax + t * dx, ay + t * dy);
+    }
+}
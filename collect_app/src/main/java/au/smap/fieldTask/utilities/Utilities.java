@@ -18,13 +18,13 @@ import static org.odk.collect.android.provider.InstanceProviderAPI.InstanceColum
 import static org.odk.collect.android.utilities.FileUtils.LAST_SAVED_FILENAME;
 import static org.odk.collect.android.utilities.FileUtils.STUB_XML;
 import static org.odk.collect.android.utilities.FileUtils.write;
-import static java.lang.StrictMath.abs;
 
 import org.odk.collect.android.utilities.ApplicationConstants;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.location.Location;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -52,6 +52,7 @@ import org.odk.collect.android.storage.StoragePathProvider;
 import org.odk.collect.android.storage.StorageSubdirectory;
 import au.smap.fieldTask.models.InstanceXML;
 import au.smap.fieldTask.tasks.SmapRegisterForMessagingTask;
+import au.smap.fieldTask.tasks.TaskBatch;
 import org.odk.collect.android.utilities.FileUtils;
 
 import java.io.File;
@@ -71,6 +72,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
@@ -372,12 +374,9 @@ public class Utilities {
                                 throw e;
                             }
                             InputStream isMedia = httpInterface.executeGetRequest(uri, null, webCredentialsUtils.getCredentials(uri)).getInputStream();
-                            try {
-                                File f = new File(mediaPath);
-                                fd.downloadFile(f, isMedia, mediaUrl);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
+                            // A task is only added once all of its media is on the device
+                            File f = new File(mediaPath);
+                            fd.downloadFile(f, isMedia, mediaUrl);
                         }
                     } else if (instance.files != null && instance.files.size() > 0) {       // Deprecate instance.files
                         for (String media : instance.files) {
@@ -394,12 +393,8 @@ public class Utilities {
                                 throw e;
                             }
                             InputStream isMedia = httpInterface.executeGetRequest(uri, null, webCredentialsUtils.getCredentials(uri)).getInputStream();
-                            try {
-                                File f = new File(mediaPath);
-                                fd.downloadFile(f, isMedia, mediaUrl);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
+                            File f = new File(mediaPath);
+                            fd.downloadFile(f, isMedia, mediaUrl);
                         }
                     }
                 }
@@ -562,7 +557,9 @@ public class Utilities {
             Location collectLocation = Collect.getInstance().getLocation();
             final Location location = collectLocation != null ? collectLocation
                     : new SystemLocationProvider(Collect.getInstance()).getLastLocation();
+            GeofenceIndex geofenceIndex = Collect.getInstance().getGeofences();
             ArrayList<GeofenceEntry> geofences = new ArrayList<>();
+            Set<TaskEntry> geofenced = Collections.newSetFromMap(new IdentityHashMap<>());     // Only shown if within their geofence
 
             c.moveToFirst();
             while (!c.isAfterLast()) {
@@ -615,25 +612,9 @@ public class Utilities {
                 if (useGeofenceFilter && location != null) {
                     if (entry.showDist > 0 && entry.schedLat != 0.0 && entry.schedLon != 0.0) {
 
-                        Location taskLocation = new Location("");
-                        taskLocation.setLatitude(entry.schedLat);
-                        taskLocation.setLongitude(entry.schedLon);
-
-                        float distance = location.distanceTo(taskLocation);
-
-                        /*
-                         * Do a quick check on latitude before the slower check on longitude
-                         */
-                        GeofenceEntry gfe = new GeofenceEntry(entry.showDist, taskLocation);
-                        double yDistance = abs(location.getLatitude() - gfe.location.getLatitude()) * 111111.1;     // lattitude difference in meters
-                        if (yDistance < entry.showDist) {            // rough check
-                            if (distance < entry.showDist) {        // detailed check
-                                tasks.add(entry);
-                                gfe.in = true;
-                            }
-                        }
-
-                        geofences.add(gfe);
+                        geofences.add(new GeofenceEntry(entry.id, entry.showDist, entry.schedLat, entry.schedLon));
+                        geofenced.add(entry);
+                        tasks.add(entry);
                     } else {
                         tasks.add(entry);
                     }
@@ -643,30 +624,25 @@ public class Utilities {
 
                 c.moveToNext();
             }
-            Collect.getInstance().setGeofences(geofences);
+            geofenceIndex.update(geofences);     // Only the geofences that have changed are re-indexed
+
+            if (!geofenced.isEmpty()) {
+                // Look up the geofences around the location in the index rather than checking each task
+                Set<Long> within = new HashSet<>();
+                for (GeofenceEntry gfe : geofenceIndex.within(location.getLatitude(), location.getLongitude())) {
+                    gfe.in = true;
+                    geofenceIndex.put(gfe);
+                    within.add(gfe.id);
+                }
+                tasks.removeIf(t -> geofenced.contains(t) && !within.contains(t.id));
+            }
 
             if (sortOrder == ApplicationConstants.SortingOrder.BY_DISTANCE_ASC || sortOrder == ApplicationConstants.SortingOrder.BY_DISTANCE_DESC) {
                 if (location != null) {
-                    Collections.sort(tasks, (t1, t2) -> {
-                        Location location1 = new Location("");
-                        Location location2 = new Location("");
-                        location1.setLatitude(t1.schedLat);
-                        location1.setLongitude(t1.schedLon);
-                        location2.setLatitude(t2.schedLat);
-                        location2.setLongitude(t2.schedLon);
-
-                        float distanceFromTask1 = location.distanceTo(location1);
-                        float distanceFromTask2 = location.distanceTo(location2);
-
-                        switch (sortOrder) {
-                            case ApplicationConstants.SortingOrder.BY_DISTANCE_ASC:
-                                return (int) (distanceFromTask1 - distanceFromTask2);
-                            case ApplicationConstants.SortingOrder.BY_DISTANCE_DESC:
-                                return (int) (distanceFromTask2 - distanceFromTask1);
-                            default:
-                                throw new IllegalStateException("must be one of BY_DISTANCE_ASC or BY_DISTANCE_DESC");
-                        }
-                    });
+                    sortByDistance(tasks, geofenced, geofenceIndex, location);
+                    if (sortOrder == ApplicationConstants.SortingOrder.BY_DISTANCE_DESC) {
+                        Collections.reverse(tasks);
+                    }
                 }
             }
 
@@ -675,6 +651,78 @@ public class Utilities {
         }
     }
 
+    /*
+     * Sort the tasks nearest first.  The geofenced tasks are in the geofence index, which finds
+     * the nearest of them without checking each one, so they are taken from it in order and
+     * merged with the other tasks, whose distances are each worked out once.
+     */
+    private static void sortByDistance(ArrayList<TaskEntry> tasks, Set<TaskEntry> geofenced,
+                                       GeofenceIndex geofenceIndex, Location location) {
+        double lat = location.getLatitude();
+        double lon = location.getLongitude();
+
+        HashMap<Long, TaskEntry> fenced = new HashMap<>();
+        List<TaskEntry> others = new ArrayList<>();
+        for (TaskEntry t : tasks) {
+            if (geofenced.contains(t)) {
+                fenced.put(t.id, t);
+            } else {
+                others.add(t);
+            }
+        }
+
+        // Ask for more of the nearest geofences until all of those shown have been found
+        List<TaskEntry> nearest = new ArrayList<>();
+        List<Float> nearestDistances = new ArrayList<>();
+        int k = fenced.size();
+        while (k > 0) {
+            nearest.clear();
+            nearestDistances.clear();
+            List<GeofenceEntry> found = geofenceIndex.nearest(lat, lon, k);
+            for (GeofenceEntry gfe : found) {
+                TaskEntry t = fenced.get(gfe.id);
+                if (t != null) {
+                    nearest.add(t);
+                    nearestDistances.add(geofenceIndex.distance(lat, lon, gfe));
+                }
+            }
+            if (nearest.size() == fenced.size() || found.size() < k) {
+                break;
+            }
+            k *= 2;
+        }
+        if (nearest.size() < fenced.size()) {
+            // Not in the index, sort them with the other tasks
+            Set<TaskEntry> indexed = Collections.newSetFromMap(new IdentityHashMap<>());
+            indexed.addAll(nearest);
+            for (TaskEntry t : fenced.values()) {
+                if (!indexed.contains(t)) {
+                    others.add(t);
+                }
+            }
+        }
+
+        // Work out each distance once rather than in every comparison
+        IdentityHashMap<TaskEntry, Float> distances = new IdentityHashMap<>();
+        float[] results = new float[1];
+        for (TaskEntry t : others) {
+            Location.distanceBetween(lat, lon, t.schedLat, t.schedLon, results);
+            distances.put(t, results[0]);
+        }
+        others.sort((t1, t2) -> Float.compare(distances.get(t1), distances.get(t2)));
+
+        tasks.clear();
+        int i = 0;
+        int j = 0;
+        while (i < nearest.size() || j < others.size()) {
+            if (j >= others.size() || (i < nearest.size() && nearestDistances.get(i) <= distances.get(others.get(j)))) {
+                tasks.add(nearest.get(i++));
+            } else {
+                tasks.add(others.get(j++));
+            }
+        }
+    }
+
     /*
      * Mark closed any tasks with the matching status
      * Only mark closed if the task status has been successfully synchronised with the server or
@@ -703,29 +751,22 @@ public class Utilities {
      * Reject any tasks with that are not in the array of assignment identifiers
      * This can be used to remove tasks that have been removed from the server
      * (Do not reject repeating tasks?????? is this comment valid)
+     * The identifiers are written into the statement rather than bound as arguments as there
+     * can be more of them than SQLite allows arguments.
      */
-    public static int rejectObsoleteTasks(List<TaskResponseAssignment> assignmentsToKeep) {
+    public static void rejectObsoleteTasks(TaskBatch batch, List<TaskResponseAssignment> assignmentsToKeep) {
 
-        List<TaskResponseAssignment> tasksToKeep = new ArrayList<>();
+        List<Long> tasksToKeep = new ArrayList<>();
 
         if (assignmentsToKeep != null && assignmentsToKeep.size() > 0) {
             for (TaskResponseAssignment ta : assignmentsToKeep) {
                 if (ta.task.type != null && !ta.task.type.equals("case")) {
-                    tasksToKeep.add(ta);
+                    tasksToKeep.add((long) ta.assignment.assignment_id);
                 }
             }
         }
 
-        Uri dbUri = InstanceColumns.CONTENT_URI;
-        int nIds = 0;
-        if (tasksToKeep != null) {
-            nIds = tasksToKeep.size();
-        }
-
-        String[] selectArgs = new String[nIds + 1];
-        selectArgs[0] = Utilities.getSource();
-
-        StringBuffer selectClause = new StringBuffer(InstanceColumns.T_ASS_ID + " is not null and " + InstanceColumns.SOURCE + " = ?");
+        StringBuilder selectClause = new StringBuilder(InstanceColumns.T_ASS_ID + " is not null and " + InstanceColumns.SOURCE + " = ?");
         selectClause.append(" and " + InstanceColumns.DELETED_DATE + " is null");
         selectClause.append(" and " + InstanceColumns.T_TASK_TYPE + " != 'case'");
 
@@ -733,22 +774,57 @@ public class Utilities {
         selectClause.append(" and (" + InstanceColumns.T_TASK_STATUS + " == '" + STATUS_T_ACCEPTED + "' " +
                 " or " + InstanceColumns.T_TASK_STATUS + " == '" + STATUS_T_NEW + "' ) ");
 
-        if (nIds > 0) {
-            selectClause.append(" and " + InstanceColumns.T_ASS_ID + " not in (");
-            for (int i = 0; i < nIds; i++) {
-                if (i > 0) {
-                    selectClause.append(",");
+        if (tasksToKeep.size() > 0) {
+            selectClause.append(" and " + InstanceColumns.T_ASS_ID + " not in ");
+            appendIds(selectClause, tasksToKeep);
+        }
+
+        ContentValues cv = new ContentValues();
+        cv.put(T_TASK_STATUS, Utilities.STATUS_T_REJECTED);
+        batch.update(cv, selectClause.toString(), new String[] {Utilities.getSource()});
+    }
+
+    /*
+     * smap - Remove the tasks, cases and references listed as removed in a delta refresh.
+     * Tasks are rejected and cases / references cancelled, as they would be by
+     * rejectObsoleteTasks and deleteUnassignedCases after a full refresh.
+     */
+    public static void rejectRemovedTasks(TaskBatch batch, List<TaskResponseAssignment> removed) {
+
+        if (removed == null || removed.isEmpty()) {
+            return;
+        }
+
+        List<Long> taskIds = new ArrayList<>();
+        for (TaskResponseAssignment ta : removed) {
+            String type = ta.task == null ? null : ta.task.type;
+            if (type != null && (type.equals("case") || type.equals("reference"))) {
+                if (ta.task.update_id != null) {
+                    markOldRecordCancelled(batch, ta.task.update_id, type);
                 }
-                selectClause.append("?");
-                selectArgs[i + 1] = String.valueOf(tasksToKeep.get(i).assignment.assignment_id);
+            } else if (ta.assignment != null) {
+                taskIds.add((long) ta.assignment.assignment_id);
             }
-            selectClause.append(")");
         }
 
+        if (taskIds.isEmpty()) {
+            return;
+        }
+
+        StringBuilder selectClause = new StringBuilder(InstanceColumns.SOURCE + " = ?");
+        selectClause.append(" and " + InstanceColumns.DELETED_DATE + " is null");
+        selectClause.append(" and " + InstanceColumns.T_TASK_TYPE + " != 'case'");
+
+        // Only reject tasks that are still active
+        selectClause.append(" and (" + InstanceColumns.T_TASK_STATUS + " == '" + STATUS_T_ACCEPTED + "' " +
+                " or " + InstanceColumns.T_TASK_STATUS + " == '" + STATUS_T_NEW + "' ) ");
+
+        selectClause.append(" and " + InstanceColumns.T_ASS_ID + " in ");
+        appendIds(selectClause, taskIds);
+
         ContentValues cv = new ContentValues();
         cv.put(T_TASK_STATUS, Utilities.STATUS_T_REJECTED);
-
-        return Collect.getInstance().getContentResolver().update(dbUri, cv, selectClause.toString(), selectArgs);
+        batch.update(cv, selectClause.toString(), new String[] {Utilities.getSource()});
     }
 
     /*
@@ -759,63 +835,64 @@ public class Utilities {
      * The status is not flagged for sync, so the record is left untouched on the server -
      * the change can be temporary (e.g. the user changed organisation).
      */
-    public static void deleteUnassignedCases(List<TaskResponseAssignment> assignmentsToKeep) {
-        cancelUnassignedRecords(assignmentsToKeep, "case");
-        cancelUnassignedRecords(assignmentsToKeep, "reference");
+    public static void deleteUnassignedCases(TaskBatch batch, List<TaskResponseAssignment> assignmentsToKeep) {
+        cancelUnassignedRecords(batch, assignmentsToKeep, "case");
+        cancelUnassignedRecords(batch, assignmentsToKeep, "reference");
     }
 
-    private static void cancelUnassignedRecords(List<TaskResponseAssignment> assignmentsToKeep, String taskType) {
+    private static void cancelUnassignedRecords(TaskBatch batch, List<TaskResponseAssignment> assignmentsToKeep, String taskType) {
 
-        List<TaskResponseAssignment> toKeep = new ArrayList<>();
+        List<String> toKeep = new ArrayList<>();
 
         if (assignmentsToKeep != null && !assignmentsToKeep.isEmpty()) {
             for (TaskResponseAssignment ta : assignmentsToKeep) {
-                if (ta.task.type != null && ta.task.type.equals(taskType)) {
-                    toKeep.add(ta);
+                if (ta.task.type != null && ta.task.type.equals(taskType) && ta.task.update_id != null) {
+                    toKeep.add(ta.task.update_id);
                 }
             }
         }
 
-        Uri dbUri = InstanceColumns.CONTENT_URI;
-
         StringBuilder where = new StringBuilder(InstanceColumns.T_TASK_TYPE + " = ? and "
                 + InstanceColumns.SOURCE + " = ?");
         where.append(" and " + InstanceColumns.DELETED_DATE + " is null");
         where.append(" and " + T_TASK_STATUS + " != ?");
-
-        String[] whereArgs = new String[toKeep.size() + 3];
-        int idx = 0;
-        whereArgs[idx++] = taskType;
-        whereArgs[idx++] = Utilities.getSource();
-        whereArgs[idx++] = Utilities.STATUS_T_CLOSED;
+        where.append(" and " + InstanceColumns.T_UPDATEID + " is not null");
         if (toKeep.size() > 0) {
-            where.append(" and " + InstanceColumns.T_UPDATEID + " not in (");
-            for (int i = 0; i < toKeep.size(); i++) {
-                if (i > 0) {
-                    where.append(",");
-                }
-                where.append("?");
-                whereArgs[idx++] = toKeep.get(i).task.update_id;
-            }
-            where.append(")");
+            where.append(" and " + InstanceColumns.T_UPDATEID + " not in ");
+            appendStrings(where, toKeep);
         }
 
-        String obsoleteUpdateId;
-        Cursor c = null;
-        try {
-            c = Collect.getInstance().getContentResolver().query(dbUri, null, where.toString(), whereArgs, null);
-            if (c != null && c.getCount() > 0) {
-                c.moveToFirst();
-                do {
-                    obsoleteUpdateId = c.getString(c.getColumnIndexOrThrow(InstanceColumns.T_UPDATEID));
-                    markOldRecordCancelled(obsoleteUpdateId, taskType);
-                } while (c.moveToNext());
+        ContentValues cv = new ContentValues();
+        cv.put(T_TASK_STATUS, Utilities.STATUS_T_CANCELLED);
+        batch.update(cv, where.toString(), new String[] {taskType, Utilities.getSource(), Utilities.STATUS_T_CLOSED});
+    }
+
+    /*
+     * Append a bracketed list of identifiers to a where clause
+     */
+    private static void appendIds(StringBuilder clause, List<Long> ids) {
+        clause.append("(");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                clause.append(",");
             }
-        } finally {
-            if (c != null) {
-                c.close();
+            clause.append(ids.get(i));
+        }
+        clause.append(")");
+    }
+
+    /*
+     * Append a bracketed list of escaped string literals to a where clause
+     */
+    private static void appendStrings(StringBuilder clause, List<String> values) {
+        clause.append("(");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                clause.append(",");
             }
+            DatabaseUtils.appendEscapedSQLString(clause, values.get(i));
         }
+        clause.append(")");
     }
 
     /*
@@ -910,34 +987,24 @@ public class Utilities {
      * Mark a case or reference cancelled. The status is not flagged for sync so the record
      * is hidden/closed locally but left in place on the server.
      */
-    public static void markOldRecordCancelled(String updateId, String taskType) {
-
-        Uri dbUri = InstanceColumns.CONTENT_URI;
+    public static void markOldRecordCancelled(TaskBatch batch, String updateId, String taskType) {
 
         String selectClause = InstanceColumns.T_TASK_TYPE + " = ? and "
                 + InstanceColumns.DELETED_DATE + " is null and "
                 + InstanceColumns.T_UPDATEID + " = ? and "
                 + InstanceColumns.SOURCE + " = ?";
 
-        ArrayList<String> selectArgsList = new ArrayList<>();
-        selectArgsList.add(taskType);
-        selectArgsList.add(updateId);
-        selectArgsList.add(Utilities.getSource());
-        String[] selectArgs = new String[selectArgsList.size()];
-        selectArgs = selectArgsList.toArray(selectArgs);
+        String[] selectArgs = {taskType, updateId, Utilities.getSource()};
 
         ContentValues cv = new ContentValues();
         cv.put(T_TASK_STATUS, Utilities.STATUS_T_CANCELLED);
-
-        Collect.getInstance().getContentResolver().update(dbUri, cv, selectClause, selectArgs);
+        batch.update(cv, selectClause, selectArgs);
     }
 
     /*
      * Delete the previous copy of a case that has been replaced
      */
-    public static void deleteOldCase(String updateId) {
-
-        Uri dbUri = InstanceColumns.CONTENT_URI;
+    public static void deleteOldCase(TaskBatch batch, String updateId) {
 
         // Match cases and references (both have assignment id 0 and a unique update id).  Including
         // 'reference' also clears any case row whose type was previously corrupted to 'reference'.
@@ -946,40 +1013,31 @@ public class Utilities {
                 + InstanceColumns.T_UPDATEID + " = ? and "
                 + InstanceColumns.SOURCE + " = ?";
 
-        ArrayList<String> selectArgsList = new ArrayList<>();
-        selectArgsList.add(updateId);
-        selectArgsList.add(Utilities.getSource());
-        String[] selectArgs = new String[selectArgsList.size()];
-        selectArgs = selectArgsList.toArray(selectArgs);
-        Collect.getInstance().getContentResolver().delete(dbUri, selectClause, selectArgs);
+        String[] selectArgs = {updateId, Utilities.getSource()};
+
+        batch.delete(selectClause, selectArgs);
     }
 
     /*
      * Set the status for the provided assignment id
      */
-    public static void setStatusForAssignment(long assId, String status) {
-
-        Uri dbUri = InstanceColumns.CONTENT_URI;
+    public static void setStatusForAssignment(TaskBatch batch, long assId, String status) {
 
         String selectClause = InstanceColumns.T_ASS_ID + " = " + assId + " and "
                 + InstanceColumns.SOURCE + " = ?";
 
-        String[] selectArgs = {""};
-        selectArgs[0] = Utilities.getSource();
+        String[] selectArgs = {Utilities.getSource()};
 
         ContentValues values = new ContentValues();
         values.put(InstanceColumns.T_TASK_STATUS, status);
-
-        Collect.getInstance().getContentResolver().update(dbUri, values, selectClause, selectArgs);
+        batch.update(values, selectClause, selectArgs);
 
     }
 
     /*
      * Update parameters for the provided assignment id
      */
-    public static void updateParametersForAssignment(long assId, TaskResponseAssignment ta) {
-
-        Uri dbUri = InstanceColumns.CONTENT_URI;
+    public static void updateParametersForAssignment(TaskBatch batch, long assId, TaskResponseAssignment ta) {
 
         String selectClause;
         String[] selectArgs;
@@ -1036,7 +1094,7 @@ public class Utilities {
             values.put(InstanceColumns.GEOMETRY_TYPE, ta.location.geometry.type);
         }
 
-        Collect.getInstance().getContentResolver().update(dbUri, values, selectClause, selectArgs);
+        batch.update(values, selectClause, selectArgs);
 
     }
 
@@ -8,6 +8,7 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.settings.keys.ProjectKeys;
 import org.odk.collect.shared.settings.Settings;
 import au.smap.fieldTask.database.TraceUtilities;
 import au.smap.fieldTask.loaders.PointEntry;
@@ -48,6 +49,7 @@ public class SurveyDataViewModel extends ViewModel {
     public void loadData() {
 
         int taskSortOrder = getTaskSortingOrder();
+        int trailTolerance = settings.getInt(ProjectKeys.KEY_SMAP_TRAIL_TOLERANCE);
         SurveyData data = new SurveyData();
 
         ExecutorService service = Executors.newSingleThreadExecutor();
@@ -58,7 +60,7 @@ public class SurveyDataViewModel extends ViewModel {
                 // Create corresponding array of entries and load their labels.
                 data.points = new ArrayList<PointEntry>(100);
                 data.tasks = new ArrayList<TaskEntry>(10);
-                TraceUtilities.getPoints(data.points, 500, true);
+                TraceUtilities.getPoints(data.points, TraceUtilities.MAP_POINTS, true, true, trailTolerance);
                 getForms(data.tasks);
                 Utilities.getTasks(data.tasks, false, taskSortOrder, filter.toString(), false, true, false);
 
@@ -99,7 +99,7 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Stack;
 
-import au.smap.fieldTask.loaders.GeofenceEntry;
+import au.smap.fieldTask.utilities.GeofenceIndex;
 import au.smap.fieldTask.external.handler.SmapRemoteDataItem;
 import au.smap.fieldTask.models.FormLaunchDetail;
 import au.smap.fieldTask.models.FormRestartDetails;
@@ -139,7 +139,7 @@ public class Collect extends Application implements
     // Smap-specific fields
     private Location location = null;
     private Location savedLocation = null;
-    private ArrayList<GeofenceEntry> geofences = new ArrayList<GeofenceEntry>();
+    private final GeofenceIndex geofences = new GeofenceIndex();     // smap
     private boolean tasksDownloading = false;
     private org.odk.collect.android.activities.FormFillingActivity formFillingActivity = null;
     private HashMap<String, SmapRemoteDataItem> remoteCache = null;
@@ -442,11 +442,7 @@ public class Collect extends Application implements
         return savedLocation;
     }
 
-    public void setGeofences(ArrayList<GeofenceEntry> geofences) {
-        this.geofences = geofences;
-    }
-
-    public ArrayList<GeofenceEntry> getGeofences() {
+    public GeofenceIndex getGeofences() {
         return geofences;
     }
 
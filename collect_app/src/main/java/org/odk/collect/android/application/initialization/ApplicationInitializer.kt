@@ -18,7 +18,10 @@ import org.odk.collect.metadata.PropertyManager
 import org.odk.collect.projects.ProjectDependencyFactory
 import org.odk.collect.projects.ProjectsRepository
 import org.odk.collect.settings.SettingsProvider
+import org.odk.collect.shared.strings.FileHashCache
+import org.odk.collect.shared.strings.Md5
 import timber.log.Timber
+import java.io.File
 import java.util.Locale
 
 class ApplicationInitializer(
@@ -60,6 +63,10 @@ class ApplicationInitializer(
 
     private fun initializeFrameworks() {
         ToastUtils.setApplication(context)
+        // smap - form media and images are hashed repeatedly, remember the hashes of unchanged files
+        Md5.fileHashCache = FileHashCache(File(context.cacheDir, FILE_HASH_CACHE_DIR)).also {
+            scheduler.immediate { it.pruneIfDue() }
+        }
         initializeLogging()
         AppInitializer.getInstance(context).initializeComponent(JodaTimeInitializer::class.java)
         AppCompatDelegate.setCompatVectorFromResourcesEnabled(true)
@@ -76,4 +83,9 @@ class ApplicationInitializer(
             Timber.plant(Timber.DebugTree())
         }
     }
+
+    companion object {
+        // smap
+        private const val FILE_HASH_CACHE_DIR = "file_hashes"
+    }
 }
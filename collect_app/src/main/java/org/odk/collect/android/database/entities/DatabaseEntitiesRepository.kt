@@ -5,6 +5,7 @@ import android.content.Context
 import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteException
+import android.database.sqlite.SQLiteStatement
 import android.provider.BaseColumns._ID
 import org.odk.collect.db.sqlite.CursorExt.first
 import org.odk.collect.db.sqlite.CursorExt.foldAndClose
@@ -15,6 +16,7 @@ import org.odk.collect.db.sqlite.CursorExt.getString
 import org.odk.collect.db.sqlite.CursorExt.getStringOrNull
 import org.odk.collect.db.sqlite.CursorExt.rowToMap
 import org.odk.collect.db.sqlite.MigrationListDatabaseMigrator
+import org.odk.collect.db.sqlite.RowNumbers.appendRowNumbers
 import org.odk.collect.db.sqlite.RowNumbers.invalidateRowNumbers
 import org.odk.collect.db.sqlite.RowNumbers.rawQueryWithRowNumber
 import org.odk.collect.db.sqlite.SQLiteColumns.ROW_NUMBER
@@ -28,7 +30,6 @@ import org.odk.collect.entities.storage.EntitiesRepository
 import org.odk.collect.entities.storage.Entity
 import org.odk.collect.entities.storage.EntityList
 import org.odk.collect.entities.storage.QueryException
-import org.odk.collect.entities.storage.getListNames
 import org.odk.collect.shared.Query
 import org.odk.collect.shared.mapColumns
 
@@ -73,66 +74,26 @@ class DatabaseEntitiesRepository(context: Context, dbPath: String, private val c
             createList(list)
         }
 
-        updatePropertyColumns(list, entities.first())
+        updatePropertyColumns(list, entities)
 
+        var inserted = false
         databaseConnection.transaction {
-            entities.forEach { entity ->
-                val existing = if (listExists) {
-                    query(
-                        quote(list),
-                        "${EntitiesTable.COLUMN_ID} = ?",
-                        arrayOf(entity.id)
-                    ).first { mapCursorRowToEntity(it, 0) }
-                } else {
-                    null
-                }
-
-                if (existing != null) {
-                    val state = if (existing.state == Entity.State.OFFLINE) {
-                        entity.state
-                    } else {
-                        Entity.State.ONLINE
-                    }
-
-                    val contentValues = ContentValues().also {
-                        it.put(EntitiesTable.COLUMN_ID, entity.id)
-                        it.put(EntitiesTable.COLUMN_LABEL, entity.label ?: existing.label)
-                        it.put(EntitiesTable.COLUMN_VERSION, entity.version)
-                        it.put(EntitiesTable.COLUMN_TRUNK_VERSION, entity.trunkVersion)
-                        it.put(EntitiesTable.COLUMN_BRANCH_ID, entity.branchId)
-                        it.put(EntitiesTable.COLUMN_STATE, convertStateToInt(state))
-
-                        addPropertiesToContentValues(it, entity)
-                    }
-
-                    update(
-                        quote(list),
-                        contentValues,
-                        "${EntitiesTable.COLUMN_ID} = ?",
-                        arrayOf(entity.id)
-                    )
-                } else {
-                    val contentValues = ContentValues().also {
-                        it.put(EntitiesTable.COLUMN_ID, entity.id)
-                        it.put(EntitiesTable.COLUMN_LABEL, entity.label)
-                        it.put(EntitiesTable.COLUMN_VERSION, entity.version)
-                        it.put(EntitiesTable.COLUMN_TRUNK_VERSION, entity.trunkVersion)
-                        it.put(EntitiesTable.COLUMN_BRANCH_ID, entity.branchId)
-                        it.put(EntitiesTable.COLUMN_STATE, convertStateToInt(entity.state))
-
-                        addPropertiesToContentValues(it, entity)
+            val statements = SaveStatements(this, list)
+            try {
+                entities.forEach { entity ->
+                    if (!listExists || !statements.update(entity)) {
+                        statements.insert(entity)
+                        inserted = true
                     }
-
-                    insertOrThrow(
-                        quote(list),
-                        null,
-                        contentValues
-                    )
                 }
+            } finally {
+                statements.close()
             }
         }
 
-        invalidateRowNumbers()
+        if (inserted) {
+            databaseConnection.appendRowNumbers(list)
+        }
     }
 
     override fun getLists(): List<EntityList> {
@@ -196,7 +157,7 @@ class DatabaseEntitiesRepository(context: Context, dbPath: String, private val c
     override fun addList(list: String) {
         if (!listExists(list)) {
             createList(list)
-            invalidateRowNumbers()
+            databaseConnection.invalidateRowNumbers(list)
         }
     }
 
@@ -205,7 +166,40 @@ class DatabaseEntitiesRepository(context: Context, dbPath: String, private val c
             writableDatabase.delete(quote(list), "${EntitiesTable.COLUMN_ID} = ?", arrayOf(id))
         }
 
-        invalidateRowNumbers()
+        databaseConnection.invalidateRowNumbers(list)
+    }
+
+    override fun deleteOnlineExcept(list: String, ids: Sequence<String>) {
+        if (!listExists(list)) {
+            return
+        }
+
+        var deleted = 0
+        databaseConnection.transaction {
+            execSQL("CREATE TEMP TABLE IF NOT EXISTS $KEEP_IDS_TABLE (${EntitiesTable.COLUMN_ID} text PRIMARY KEY)")
+            execSQL("DELETE FROM $KEEP_IDS_TABLE")
+
+            compileStatement("INSERT OR IGNORE INTO $KEEP_IDS_TABLE (${EntitiesTable.COLUMN_ID}) VALUES (?)").use { statement ->
+                ids.forEach {
+                    statement.bindString(1, it)
+                    statement.executeInsert()
+                }
+            }
+
+            deleted = compileStatement(
+                """
+                DELETE FROM ${quote(list)}
+                WHERE ${EntitiesTable.COLUMN_STATE} = ${convertStateToInt(Entity.State.ONLINE)}
+                AND ${EntitiesTable.COLUMN_ID} NOT IN (SELECT ${EntitiesTable.COLUMN_ID} FROM $KEEP_IDS_TABLE)
+                """.trimIndent()
+            ).use { it.executeUpdateDelete() }
+
+            execSQL("DROP TABLE $KEEP_IDS_TABLE")
+        }
+
+        if (deleted > 0) {
+            databaseConnection.invalidateRowNumbers(list)
+        }
     }
 
     override fun query(list: String, query: Query?): List<Entity.Saved> {
@@ -232,6 +226,52 @@ class DatabaseEntitiesRepository(context: Context, dbPath: String, private val c
         return queryWithAttachedRowNumber(list, query).firstOrNull()
     }
 
+    override fun createIndexes(list: String, properties: Set<String>) {
+        if (!listExists(list)) {
+            return
+        }
+
+        val columnNames = databaseConnection.withConnection {
+            readableDatabase.getColumnNames(quote(list))
+        }
+
+        val missingIndexes = properties
+            .mapNotNull {
+                when (it) {
+                    EntitySchema.ID -> null // Already indexed
+                    EntitySchema.LABEL -> EntitiesTable.COLUMN_LABEL
+                    EntitySchema.VERSION -> EntitiesTable.COLUMN_VERSION
+                    else -> EntitiesTable.getPropertyColumn(it)
+                }
+            }
+            .mapNotNull { column -> columnNames.firstOrNull { it.equals(column, ignoreCase = true) } }
+            .distinct()
+            .filterNot { indexExists(getIndexName(list, it)) }
+
+        if (missingIndexes.isNotEmpty()) {
+            databaseConnection.resetTransaction {
+                missingIndexes.forEach {
+                    execSQL(
+                        """
+                        CREATE INDEX IF NOT EXISTS "${getIndexName(list, it)}" ON "$list" ("$it");
+                        """.trimIndent()
+                    )
+                }
+            }
+        }
+    }
+
+    private fun indexExists(index: String): Boolean {
+        return databaseConnection.withConnection {
+            readableDatabase.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                arrayOf(index)
+            ).use { it.count > 0 }
+        }
+    }
+
+    private fun getIndexName(list: String, column: String) = "${list}_${column}_index"
+
     private fun queryWithAttachedRowNumber(list: String, query: Query?): List<Entity.Saved> {
         try {
             val cursorMapper = { cursor: Cursor ->
@@ -256,12 +296,6 @@ class DatabaseEntitiesRepository(context: Context, dbPath: String, private val c
         }
     }
 
-    private fun invalidateRowNumbers() {
-        getListNames().forEach {
-            databaseConnection.invalidateRowNumbers(it)
-        }
-    }
-
     private fun listExists(list: String): Boolean {
         return databaseConnection.withConnection {
             readableDatabase
@@ -305,13 +339,13 @@ class DatabaseEntitiesRepository(context: Context, dbPath: String, private val c
         }
     }
 
-    private fun updatePropertyColumns(list: String, entity: Entity) {
+    private fun updatePropertyColumns(list: String, entities: Array<out Entity>) {
         val columnNames = databaseConnection.withConnection {
             readableDatabase.getColumnNames(quote(list))
         }
 
-        val missingColumns = entity.properties
-            .map { EntitiesTable.getPropertyColumn(it.first) }
+        val missingColumns = entities
+            .flatMap { entity -> entity.properties.map { EntitiesTable.getPropertyColumn(it.first) } }
             .distinctBy { it.lowercase() }
             .filterNot { columnName ->
                 columnNames.any {
@@ -335,12 +369,6 @@ class DatabaseEntitiesRepository(context: Context, dbPath: String, private val c
         }
     }
 
-    private fun addPropertiesToContentValues(contentValues: ContentValues, entity: Entity) {
-        entity.properties.forEach { (name, value) ->
-            contentValues.put(quote(EntitiesTable.getPropertyColumn(name)), value)
-        }
-    }
-
     private fun mapCursorRowToEntityList(cursor: Cursor): EntityList {
         return EntityList(
             cursor.getString(ListsTable.COLUMN_NAME),
@@ -399,8 +427,120 @@ class DatabaseEntitiesRepository(context: Context, dbPath: String, private val c
 
     private fun quote(text: String) = "\"$text\""
 
+    /**
+     * Compiled statements for saving entities to a list. Entities from the same list almost
+     * always have the same properties so the statements are compiled once for each set of
+     * property names and then only need their values bound for each entity.
+     *
+     * SQLite on older devices doesn't support upserts (`ON CONFLICT DO UPDATE`) so existing
+     * entities are updated and new ones are inserted if the update doesn't change any rows.
+     */
+    private inner class SaveStatements(private val database: SQLiteDatabase, private val list: String) {
+
+        private val updateStatements = mutableMapOf<List<String>, SQLiteStatement>()
+        private val insertStatements = mutableMapOf<List<String>, SQLiteStatement>()
+
+        /**
+         * Updates the entity if it is already in the list. The label is only replaced if the
+         * new one isn't null and an entity that is already online stays online.
+         *
+         * @return true if the entity was updated
+         */
+        fun update(entity: Entity): Boolean {
+            val propertyNames = entity.properties.map { it.first }
+            val statement = updateStatements.getOrPut(propertyNames) {
+                val propertyAssignments = propertyNames.joinToString("") {
+                    ", ${quote(EntitiesTable.getPropertyColumn(it))} = ?"
+                }
+
+                database.compileStatement(
+                    """
+                    UPDATE ${quote(list)} SET
+                        ${EntitiesTable.COLUMN_LABEL} = IFNULL(?, ${EntitiesTable.COLUMN_LABEL}),
+                        ${EntitiesTable.COLUMN_VERSION} = ?,
+                        ${EntitiesTable.COLUMN_TRUNK_VERSION} = ?,
+                        ${EntitiesTable.COLUMN_BRANCH_ID} = ?,
+                        ${EntitiesTable.COLUMN_STATE} = CASE WHEN ${EntitiesTable.COLUMN_STATE} = ${convertStateToInt(Entity.State.OFFLINE)} THEN ? ELSE ${convertStateToInt(Entity.State.ONLINE)} END
+                        $propertyAssignments
+                    WHERE ${EntitiesTable.COLUMN_ID} = ?
+                    """.trimIndent()
+                )
+            }
+
+            statement.clearBindings()
+            bindNullableString(statement, 1, entity.label)
+            statement.bindLong(2, entity.version.toLong())
+            bindNullableLong(statement, 3, entity.trunkVersion?.toLong())
+            statement.bindString(4, entity.branchId)
+            statement.bindLong(5, convertStateToInt(entity.state).toLong())
+            entity.properties.forEachIndexed { index, (_, value) ->
+                statement.bindString(6 + index, value)
+            }
+            statement.bindString(6 + entity.properties.size, entity.id)
+
+            return statement.executeUpdateDelete() > 0
+        }
+
+        fun insert(entity: Entity) {
+            val propertyNames = entity.properties.map { it.first }
+            val statement = insertStatements.getOrPut(propertyNames) {
+                val columns = listOf(
+                    EntitiesTable.COLUMN_ID,
+                    EntitiesTable.COLUMN_LABEL,
+                    EntitiesTable.COLUMN_VERSION,
+                    EntitiesTable.COLUMN_TRUNK_VERSION,
+                    EntitiesTable.COLUMN_BRANCH_ID,
+                    EntitiesTable.COLUMN_STATE
+                ) + propertyNames.map { quote(EntitiesTable.getPropertyColumn(it)) }
+
+                database.compileStatement(
+                    """
+                    INSERT INTO ${quote(list)} (${columns.joinToString(", ")})
+                    VALUES (${columns.joinToString(", ") { "?" }})
+                    """.trimIndent()
+                )
+            }
+
+            statement.clearBindings()
+            statement.bindString(1, entity.id)
+            bindNullableString(statement, 2, entity.label)
+            statement.bindLong(3, entity.version.toLong())
+            bindNullableLong(statement, 4, entity.trunkVersion?.toLong())
+            statement.bindString(5, entity.branchId)
+            statement.bindLong(6, convertStateToInt(entity.state).toLong())
+            entity.properties.forEachIndexed { index, (_, value) ->
+                statement.bindString(7 + index, value)
+            }
+
+            statement.executeInsert()
+        }
+
+        fun close() {
+            updateStatements.values.forEach { it.close() }
+            insertStatements.values.forEach { it.close() }
+        }
+
+        private fun bindNullableString(statement: SQLiteStatement, index: Int, value: String?) {
+            if (value == null) {
+                statement.bindNull(index)
+            } else {
+                statement.bindString(index, value)
+            }
+        }
+
+        private fun bindNullableLong(statement: SQLiteStatement, index: Int, value: Long?) {
+            if (value == null) {
+                statement.bindNull(index)
+            } else {
+                statement.bindLong(index, value)
+            }
+        }
+    }
+
     companion object {
         const val DATABASE_VERSION = 4
+
+        private const val KEEP_IDS_TABLE = "temp.keep_ids"
     }
 }
 
@@ -281,6 +281,11 @@ public final class DatabaseInstancesRepository implements InstancesRepository {
         );
     }
 
+    // smap - the database used by rawInsert and rawUpdate, so that a batch of them can share a transaction
+    public SQLiteDatabase getRawWritableDatabase() {
+        return databaseConnection.getWritableDatabase();
+    }
+
     // smap - raw insert to preserve all ContentValues columns (including smap task fields)
     public long rawInsert(ContentValues values) {
         // Set default status if not provided
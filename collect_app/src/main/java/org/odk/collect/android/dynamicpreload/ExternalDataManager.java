@@ -39,5 +39,14 @@ public interface ExternalDataManager {
      */
     ExternalSQLiteOpenHelper getDatabase(String dataSetName, boolean required);
 
+    /**
+     * smap - Returns true if the .csv has been imported into a local database and the .csv in
+     * the form media has not changed since, so the database holds the same data as the server
+     * sent with the form
+     *
+     * @param dataSetName the name of the imported .csv
+     */
+    boolean hasCurrentDatabase(String dataSetName);
+
     void close();
 }
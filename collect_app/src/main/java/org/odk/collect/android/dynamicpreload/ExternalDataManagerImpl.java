@@ -37,6 +37,7 @@ import static org.odk.collect.strings.localization.LocalizedApplicationKt.getLoc
 public class ExternalDataManagerImpl implements ExternalDataManager {
 
     private final Map<String, ExternalSQLiteOpenHelper> dbMap = new HashMap<>();
+    private final Map<String, Boolean> currentDatabases = new HashMap<>();     // smap
 
     private final File mediaFolder;
 
@@ -64,6 +65,36 @@ public class ExternalDataManagerImpl implements ExternalDataManager {
         return sqLiteOpenHelper;
     }
 
+    @Override
+    public boolean hasCurrentDatabase(String dataSetName) {     // smap
+        if (mediaFolder == null) {
+            return false;
+        }
+        Boolean current = currentDatabases.get(dataSetName);
+        if (current == null) {
+            current = isCurrent(dataSetName);
+            currentDatabases.put(dataSetName, current);
+        }
+        return current;
+    }
+
+    /*
+     * smap - The same check that decides whether the .csv has to be imported again
+     */
+    private boolean isCurrent(String dataSetName) {
+        File dbFile = new File(mediaFolder, dataSetName + ".db");
+        File dataSetFile = new File(mediaFolder, dataSetName + ".csv");
+        if (!dbFile.exists() || !dataSetFile.exists()) {
+            return false;
+        }
+        try {
+            return !ExternalSQLiteOpenHelper.shouldUpdateDBforDataSet(dbFile, dataSetFile);
+        } catch (Exception e) {
+            Timber.w(e, "Unable to check the import of %s", dataSetName);
+            return false;
+        }
+    }
+
     @Override
     public void close() {
         if (dbMap != null) {
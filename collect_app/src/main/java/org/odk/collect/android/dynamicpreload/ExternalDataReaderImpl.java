@@ -67,6 +67,10 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
         if (dbFile.exists()) {
             // Determine if we need to reimport
             if (ExternalSQLiteOpenHelper.shouldUpdateDBforDataSet(dbFile, dataSetFile)) {
+                // smap - apply just the rows that have changed if possible
+                if (new ExternalSQLiteOpenHelper(dbFile).importChangesFromCSV(dataSetFile, isCancelled, progressReporter)) {
+                    return !isCancelled.get();
+                }
                 boolean deleted = dbFile.delete();
                 if (!deleted) {
                     Timber.e(new Error(dataSetFile.getName() + " has changed but we could not delete the previous DB at " + dbFile.getAbsolutePath()));
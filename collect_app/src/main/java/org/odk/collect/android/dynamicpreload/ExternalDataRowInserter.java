@@ -0,0 +1,143 @@
+package org.odk.collect.android.dynamicpreload;
+
+import static org.odk.collect.strings.localization.LocalizedApplicationKt.getLocalizedString;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.exception.ExternalDataException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts the rows of a CSV data set into its table with one compiled statement. The table
+ * column for each CSV column is worked out once from the header row so each row only needs its
+ * values bound.
+ * <p>
+ * A hash of the values is saved with each row so that when the CSV is updated the rows that
+ * have not changed can be kept.
+ */
+class ExternalDataRowInserter {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final SQLiteStatement statement;
+    private final List<String> tableColumns = new ArrayList<>();
+    private final int[] csvColumns;         // The CSV column bound to each parameter
+    private final int sortParameter;        // The parameter holding the sort column from the CSV, or -1 if it is generated
+
+    ExternalDataRowInserter(SQLiteDatabase db, String tableName, String[] headerRow, Map<String, String> columnNamesCache) {
+        List<Integer> columns = new ArrayList<>();
+        int sortIndex = -1;
+
+        for (int i = 0; i < headerRow.length; i++) {
+            String columnName = headerRow[i].trim();
+            if (columnName.length() == 0) {
+                continue;
+            }
+            String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName, columnNamesCache);
+            if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                sortIndex = columns.size();
+            }
+            tableColumns.add(safeColumnName);
+            columns.add(i);
+        }
+        if (sortIndex < 0) {
+            tableColumns.add(ExternalDataUtil.SORT_COLUMN_NAME);
+        }
+        tableColumns.add(ExternalDataUtil.ROW_HASH_COLUMN_NAME);
+
+        csvColumns = new int[columns.size()];
+        for (int i = 0; i < csvColumns.length; i++) {
+            csvColumns[i] = columns.get(i);
+        }
+        sortParameter = sortIndex;
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName)
+                .append(" (").append(String.join(", ", tableColumns)).append(") VALUES (");
+        for (int i = 0; i < tableColumns.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        statement = db.compileStatement(sql.toString());
+    }
+
+    /**
+     * The columns the rows are inserted into, including the generated sort and hash columns
+     */
+    List<String> getTableColumns() {
+        return tableColumns;
+    }
+
+    /**
+     * Returns true if the CSV has its own sort column, otherwise rows are sorted by their
+     * position in the file.
+     */
+    boolean hasSortColumn() {
+        return sortParameter >= 0;
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the values that would be inserted for the row
+     */
+    long getRowHash(String[] row) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int csvColumn : csvColumns) {
+            String value = csvColumn < row.length ? row[csvColumn] : "";
+            if (value == null) {
+                hash = (hash ^ 0xff) * FNV_PRIME;
+            } else {
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+                    hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+                }
+            }
+            hash = (hash ^ 0xfe) * FNV_PRIME;       // Separates the values
+        }
+        return hash;
+    }
+
+    /**
+     * Inserts a row. Values missing from the end of a short row are inserted as empty strings.
+     *
+     * @param rowNumber used to sort the rows when the CSV does not have a sort column
+     */
+    void insert(String[] row, int rowNumber) {
+        insert(row, rowNumber, getRowHash(row));
+    }
+
+    void insert(String[] row, int rowNumber, long rowHash) {
+        for (int i = 0; i < csvColumns.length; i++) {
+            int csvColumn = csvColumns[i];
+            String value = csvColumn < row.length ? row[csvColumn] : "";
+
+            if (i == sortParameter) {
+                try {
+                    statement.bindDouble(i + 1, Double.parseDouble(value));
+                } catch (NumberFormatException | NullPointerException e) {
+                    throw new ExternalDataException(getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_sortBy_numeric_error, value));
+                }
+            } else if (value == null) {
+                statement.bindNull(i + 1);
+            } else {
+                statement.bindString(i + 1, value);
+            }
+        }
+        int next = csvColumns.length + 1;
+        if (sortParameter < 0) {
+            statement.bindDouble(next++, rowNumber);
+        }
+        statement.bindLong(next, rowHash);
+        statement.executeInsert();
+    }
+
+    void close() {
+        statement.close();
+    }
+}
@@ -63,6 +63,7 @@ public final class ExternalDataUtil {
     public static final String EXTERNAL_METADATA_TABLE_NAME = "externalMetadata";
     public static final String SORT_COLUMN_NAME = "c_sortby";
     public static final String LOCAL_COLUMN_NAME = "_local";     // smap
+    public static final String ROW_HASH_COLUMN_NAME = "_row_hash";     // smap - identifies unchanged rows when a CSV is updated
     public static final String COLUMN_DATASET_FILENAME = "dataSetFilename";
     public static final String COLUMN_MD5_HASH = "md5Hash";
 
@@ -212,7 +213,7 @@ public final class ExternalDataUtil {
                                         value, imageColumn));
                     } else if (xpathfuncexpr.id.name.equalsIgnoreCase(au.smap.fieldTask.external.handler.SmapRemoteDataHandlerSearch.HANDLER_NAME)){       // smap
                         evaluationContext.addFunctionHandler(
-                                new au.smap.fieldTask.external.handler.SmapRemoteDataHandlerSearch(Collect.getInstance().getFormId(), displayColumns,
+                                new au.smap.fieldTask.external.handler.SmapRemoteDataHandlerSearch(externalDataManager, Collect.getInstance().getFormId(), displayColumns,
                                         value, imageColumn));
                     }
 
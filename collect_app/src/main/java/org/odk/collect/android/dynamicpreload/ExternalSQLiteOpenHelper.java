@@ -25,6 +25,7 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReader;
@@ -62,6 +63,7 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
     private static final char DELIMITING_CHAR = ",".charAt(0);
     private static final char QUOTE_CHAR = "\"".charAt(0);
     private static final char ESCAPE_CHAR = "\0".charAt(0);
+    private static final int PROGRESS_INTERVAL = 1000;     // smap - records imported between progress updates
 
     private File dataSetFile;
     private ExternalDataReader externalDataReader;
@@ -122,13 +124,7 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
 
         CSVReader reader = null;
         try {
-            reader = new CSVReaderBuilder(new FileReader(dataSetFile))
-                    .withCSVParser(new CSVParserBuilder()
-                            .withSeparator(DELIMITING_CHAR)
-                            .withQuoteChar(QUOTE_CHAR)
-                            .withEscapeChar(ESCAPE_CHAR)
-                            .build())
-                    .build();
+            reader = openCsv();
             String[] headerRow = reader.readNext();
 
             if (!ExternalDataUtil.containsAnyData(headerRow)) {
@@ -186,6 +182,7 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
                 sb.append(", ");
                 sb.append(ExternalDataUtil.SORT_COLUMN_NAME).append(" real ");
             }
+            sb.append(", ").append(ExternalDataUtil.ROW_HASH_COLUMN_NAME).append(" integer ");      // smap
 
             sb.append(" );");
             String sql = sb.toString();
@@ -207,53 +204,32 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
             }
 
             // populate the database
-            String[] row = reader.readNext();
-            int rowCount = 0;
-            while (row != null && !isCancelled()) {
-                // SCTO-894 - first we should make sure that this is not an empty line
-                if (!ExternalDataUtil.containsAnyData(row)) {
-                    // yes, that is an empty row, ignore it
-                    row = reader.readNext();
-                    continue;
-                }
-
-                // SCTO-894 - then check if the row contains less values than the header
-                // we should not ignore the existing values in the row,
-                // we will just fill up the rest with empty strings
-                if (row.length < headerRow.length) {
-                    row = ExternalDataUtil.fillUpNullValues(row, headerRow);
-                }
-
-                ContentValues values = new ContentValues();
-                if (!sortColumnAlreadyPresent) {
-                    values.put(ExternalDataUtil.SORT_COLUMN_NAME, rowCount + 1);
-                }
-
-                for (int i = 0; i < row.length && i < headerRow.length; i++) {
-                    String columnName = headerRow[i].trim();
-                    String columnValue = row[i];
-                    if (columnName.length() == 0) {
+            // onCreate() runs in a transaction so all of the rows are committed together
+            ExternalDataRowInserter inserter = new ExternalDataRowInserter(db, tableName, headerRow, columnNamesCache);
+            try {
+                String[] row = reader.readNext();
+                int rowCount = 0;
+                while (row != null && !isCancelled()) {
+                    // SCTO-894 - first we should make sure that this is not an empty line
+                    if (!ExternalDataUtil.containsAnyData(row)) {
+                        // yes, that is an empty row, ignore it
+                        row = reader.readNext();
                         continue;
                     }
-                    String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName,
-                            columnNamesCache);
-                    if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
-                        try {
-                            values.put(safeColumnName, Double.parseDouble(columnValue));
-                        } catch (NumberFormatException e) {
-                            throw new ExternalDataException(getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_sortBy_numeric_error, columnValue));
-                        }
-                    } else {
-                        values.put(safeColumnName, columnValue);
+
+                    // SCTO-894 - if the row contains less values than the header the rest are
+                    // filled up with empty strings
+                    inserter.insert(row, rowCount + 1);
+                    row = reader.readNext();
+                    rowCount++;
+                    if (rowCount % PROGRESS_INTERVAL == 0) {
+                        onProgress(getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_import_progress_message,
+                                dataSetFile.getName(), " (" + rowCount + " records so far)"));
                     }
                 }
-                db.insertOrThrow(tableName, null, values);
-                row = reader.readNext();
-                rowCount++;
-                if (rowCount % 100 == 0) {
-                    onProgress(getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_import_progress_message,
-                            dataSetFile.getName(), " (" + rowCount + " records so far)"));
-                }
+                Timber.i("Inserted %d records from %s", rowCount, dataSetFile.getName());
+            } finally {
+                inserter.close();
             }
 
             if (isCancelled()) {
@@ -268,6 +244,7 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
                     Timber.w(createIndexCommand);
                     db.execSQL(createIndexCommand);
                 }
+                db.execSQL(createRowHashIndex(tableName));      // smap
 
                 Timber.w("Read all data from %s", dataSetFile.toString());
                 onProgress(getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_import_completed_message));
@@ -287,6 +264,229 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
         return isCancelled.get();
     }
 
+    private CSVReader openCsv() throws IOException {
+        return new CSVReaderBuilder(new FileReader(dataSetFile))
+                .withCSVParser(new CSVParserBuilder()
+                        .withSeparator(DELIMITING_CHAR)
+                        .withQuoteChar(QUOTE_CHAR)
+                        .withEscapeChar(ESCAPE_CHAR)
+                        .build())
+                .build();
+    }
+
+    /**
+     * smap - Update an existing import of a CSV that has changed by applying only the rows that
+     * have been added, changed or removed.  Returns false if the table has to be created again,
+     * which is the case if the columns have changed, the table was imported by an older version
+     * or so many rows have changed that a new import will be quicker.
+     */
+    boolean importChangesFromCSV(File dataSetFile, Supplier<Boolean> isCancelled,
+                                 Consumer<Function<Resources, String>> progressReporter) {
+        this.dataSetFile = dataSetFile;
+        this.isCancelled = isCancelled;
+        this.progressReporter = progressReporter;
+
+        SQLiteDatabase db = null;
+        try {
+            db = getWritableDatabase();
+            return importChanges(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.EXTERNAL_METADATA_TABLE_NAME);
+        } catch (Exception e) {
+            Timber.w(e, "Could not apply the changes to %s, it will be imported again", dataSetFile.getName());
+            return false;
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+        }
+    }
+
+    private boolean importChanges(SQLiteDatabase db, String tableName, String metadataTableName) throws Exception {
+
+        if (!SQLiteUtils.doesTableExist(db, tableName) || !SQLiteUtils.doesTableExist(db, metadataTableName)) {
+            return false;
+        }
+
+        try (CSVReader reader = openCsv()) {
+            String[] headerRow = reader.readNext();
+            if (!ExternalDataUtil.containsAnyData(headerRow)) {
+                return false;
+            }
+            headerRow[0] = removeByteOrderMark(headerRow[0]);
+            List<String> conflictingColumns = ExternalDataUtil.findMatchingColumnsAfterSafeningNames(headerRow);
+            if (conflictingColumns != null && !conflictingColumns.isEmpty()) {
+                return false;
+            }
+
+            ExternalDataRowInserter inserter = new ExternalDataRowInserter(db, tableName, headerRow, new HashMap<>());
+            ExistingRows existing = null;
+            db.beginTransaction();
+            try {
+                // The columns must be the same as those of a new import, local data may have been added
+                List<String> existingColumns = new ArrayList<>(SQLiteUtils.getColumnNames(db, tableName));
+                existingColumns.remove(ExternalDataUtil.LOCAL_COLUMN_NAME);
+                if (existingColumns.size() != inserter.getTableColumns().size()
+                        || !existingColumns.containsAll(inserter.getTableColumns())) {
+                    Timber.i("The columns in %s have changed", dataSetFile.getName());
+                    return false;
+                }
+
+                db.execSQL(createRowHashIndex(tableName));     // Tables imported before it was created
+                existing = new ExistingRows(db, tableName);
+                int maxChanges = existing.size() / 2;
+                int changes = 0;
+                int moved = 0;
+
+                onProgress(getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_import_progress_message,
+                        dataSetFile.getName(), ""));
+
+                String[] row = reader.readNext();
+                int rowCount = 0;
+                while (row != null) {
+                    if (isCancelled()) {
+                        return true;        // Keep the previous import, the changes will be applied next time
+                    }
+                    if (!ExternalDataUtil.containsAnyData(row)) {
+                        row = reader.readNext();
+                        continue;
+                    }
+                    rowCount++;
+
+                    long rowHash = inserter.getRowHash(row);
+                    long rowId = existing.take(rowHash);
+                    if (rowId < 0) {
+                        inserter.insert(row, rowCount, rowHash);
+                        if (++changes > maxChanges) {
+                            Timber.i("Too many rows in %s have changed", dataSetFile.getName());
+                            return false;
+                        }
+                    } else if (!inserter.hasSortColumn() && existing.move(rowId, rowCount)) {
+                        // The row has not changed but rows before it have been added or removed
+                        moved++;
+                    }
+                    row = reader.readNext();
+                }
+
+                // Rows that were not found in the updated CSV have been removed or changed
+                int removed = existing.deleteNotTaken();
+
+                db.delete(metadataTableName, null, null);
+                ContentValues metadata = new ContentValues();
+                metadata.put(ExternalDataUtil.COLUMN_DATASET_FILENAME, dataSetFile.getName());
+                metadata.put(ExternalDataUtil.COLUMN_MD5_HASH, Md5.getCachedMd5Hash(dataSetFile));     // smap
+                db.insertOrThrow(metadataTableName, null, metadata);
+
+                existing.close();
+                existing = null;
+                db.setTransactionSuccessful();
+                Timber.i("Updated %s: %d rows added, %d removed, %d moved", dataSetFile.getName(), changes, removed, moved);
+                onProgress(getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_import_completed_message));
+                return true;
+            } finally {
+                if (existing != null) {
+                    existing.close();
+                }
+                db.endTransaction();
+                inserter.close();
+            }
+        }
+    }
+
+    /**
+     * smap - The rows from an earlier import of a CSV, found by the hash of their values using
+     * the index on it.  The rows that have been matched are recorded in a table rather than in
+     * memory, so that updating a very large CSV does not need memory for each of its rows.
+     * Rows with the same values are matched in the order they were inserted, each only once.
+     */
+    private static class ExistingRows implements AutoCloseable {
+        private static final String MATCHED_TABLE_NAME = "externalData_matched";
+
+        private final SQLiteDatabase db;
+        private final int count;
+        private final SQLiteStatement find;
+        private final SQLiteStatement match;
+        private final SQLiteStatement updateSort;
+        private final SQLiteStatement delete;
+
+        ExistingRows(SQLiteDatabase db, String tableName) {
+            this.db = db;
+
+            // Local rows are not from the CSV and the rows inserted by this update are after the last one
+            String fromCsv = ExternalDataUtil.ROW_HASH_COLUMN_NAME + " IS NOT NULL";
+            long lastRowId;
+            try (Cursor cursor = db.rawQuery("SELECT count(*), coalesce(max(rowid), 0) FROM " + tableName
+                    + " WHERE " + fromCsv, null)) {
+                cursor.moveToFirst();
+                count = cursor.getInt(0);
+                lastRowId = cursor.getLong(1);
+            }
+            String notMatched = "NOT EXISTS (SELECT 1 FROM " + MATCHED_TABLE_NAME + " WHERE row_id = "
+                    + tableName + ".rowid)";
+            String notTaken = fromCsv + " AND rowid <= " + lastRowId + " AND " + notMatched;
+
+            db.execSQL("DROP TABLE IF EXISTS " + MATCHED_TABLE_NAME);
+            db.execSQL("CREATE TABLE " + MATCHED_TABLE_NAME + " (row_id integer primary key)");
+
+            find = db.compileStatement("SELECT coalesce((SELECT rowid FROM " + tableName
+                    + " WHERE " + ExternalDataUtil.ROW_HASH_COLUMN_NAME + " = ? AND " + notTaken
+                    + " ORDER BY rowid LIMIT 1), -1)");
+            match = db.compileStatement("INSERT INTO " + MATCHED_TABLE_NAME + " (row_id) VALUES (?)");
+            updateSort = db.compileStatement("UPDATE " + tableName + " SET " + ExternalDataUtil.SORT_COLUMN_NAME
+                    + " = ? WHERE rowid = ? AND " + ExternalDataUtil.SORT_COLUMN_NAME + " IS NOT ?");
+            delete = db.compileStatement("DELETE FROM " + tableName + " WHERE " + notTaken);
+        }
+
+        int size() {
+            return count;
+        }
+
+        /**
+         * Returns the rowid of a row with the hash that has not already been matched, or -1
+         */
+        long take(long rowHash) {
+            find.bindLong(1, rowHash);
+            long rowId = find.simpleQueryForLong();
+            if (rowId >= 0) {
+                match.bindLong(1, rowId);
+                match.executeInsert();
+            }
+            return rowId;
+        }
+
+        /**
+         * Sets the sort value of a matched row, returns false if it already had that value
+         */
+        boolean move(long rowId, int sortValue) {
+            updateSort.bindDouble(1, sortValue);
+            updateSort.bindLong(2, rowId);
+            updateSort.bindDouble(3, sortValue);
+            return updateSort.executeUpdateDelete() > 0;
+        }
+
+        /**
+         * Deletes the rows that have not been matched and returns how many there were
+         */
+        int deleteNotTaken() {
+            return delete.executeUpdateDelete();
+        }
+
+        @Override
+        public void close() {
+            find.close();
+            match.close();
+            updateSort.close();
+            delete.close();
+            db.execSQL("DROP TABLE IF EXISTS " + MATCHED_TABLE_NAME);
+        }
+    }
+
+    /*
+     * smap - The index used to find the rows of an earlier import that have not changed
+     */
+    private static String createRowHashIndex(String tableName) {
+        return "CREATE INDEX IF NOT EXISTS " + ExternalDataUtil.ROW_HASH_COLUMN_NAME + "_idx ON " + tableName
+                + " (" + ExternalDataUtil.ROW_HASH_COLUMN_NAME + ");";
+    }
+
     // Create a metadata table with a single column that keeps track of the date of the last import
     // of this data set.
     static void createAndPopulateMetadataTable(SQLiteDatabase db, String metadataTableName, File dataSetFile) {
@@ -301,7 +501,7 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
 
         ContentValues metadata = new ContentValues();
         metadata.put(ExternalDataUtil.COLUMN_DATASET_FILENAME, dataSetFile.getName());
-        metadata.put(ExternalDataUtil.COLUMN_MD5_HASH, Md5.getMd5Hash(dataSetFile));
+        metadata.put(ExternalDataUtil.COLUMN_MD5_HASH, Md5.getCachedMd5Hash(dataSetFile));     // smap
         db.insertOrThrow(metadataTableName, null, metadata);
     }
 
@@ -325,7 +525,11 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
 
     static boolean shouldUpdateDBforDataSet(File dbFile, File dataSetFile) {
         SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
-        return shouldUpdateDBforDataSet(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.EXTERNAL_METADATA_TABLE_NAME, dataSetFile);
+        try {
+            return shouldUpdateDBforDataSet(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.EXTERNAL_METADATA_TABLE_NAME, dataSetFile);
+        } finally {
+            db.close();     // smap
+        }
     }
 
     static boolean shouldUpdateDBforDataSet(SQLiteDatabase db, String dataTableName, String metadataTableName, File dataSetFile) {
@@ -337,7 +541,7 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
         }
         // Import if the CSV file has been updated
         String priorImportMd5 = getLastMd5Hash(db, metadataTableName, dataSetFile);
-        String newFileMd5 = Md5.getMd5Hash(dataSetFile);
+        String newFileMd5 = Md5.getCachedMd5Hash(dataSetFile);     // smap
         return newFileMd5 == null || !newFileMd5.equals(priorImportMd5);
     }
 
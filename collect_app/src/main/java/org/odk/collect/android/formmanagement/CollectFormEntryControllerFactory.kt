@@ -23,6 +23,7 @@ import org.odk.collect.androidshared.ui.ToastUtils
 import org.odk.collect.entities.javarosa.filter.LocalEntitiesFilterStrategy
 import org.odk.collect.entities.javarosa.filter.PullDataFunctionHandler
 import org.odk.collect.entities.javarosa.finalization.EntityFormFinalizationProcessor
+import org.odk.collect.entities.javarosa.parse.EntityFilterExtra
 import org.odk.collect.entities.storage.EntitiesRepository
 import org.odk.collect.forms.instances.Instance
 import org.odk.collect.geo.javarosa.IntersectsFunctionHandler
@@ -45,6 +46,11 @@ class CollectFormEntryControllerFactory(
             Collect.getInstance().externalDataManager = it
         }
 
+        // Index the entity list properties that selects filter on before they are first filtered
+        formDef.extras.get(EntityFilterExtra::class.java)?.filteredChildren?.forEach { (list, children) ->
+            entitiesRepository.createIndexes(list, children)
+        }
+
         return FormEntryController(FormEntryModel(formDef)).also {
             val externalDataHandlerPull = ExternalDataHandlerPull(externalDataManager)
             it.addFunctionHandler(
@@ -17,6 +17,7 @@ import org.odk.collect.forms.FormSourceException
 import org.odk.collect.forms.FormsRepository
 import org.odk.collect.forms.ManifestFile
 import org.odk.collect.forms.MediaFile
+import org.odk.collect.shared.strings.Md5.getCachedMd5Hash
 import org.odk.collect.shared.strings.Md5.getMd5Hash
 import timber.log.Timber
 import java.io.File
@@ -216,7 +217,7 @@ object ServerFormUseCases {
             } else {
                 val existingFile = searchForExistingMediaFile(currentOrLastFormVersion, mediaFile)
                 if (existingFile != null) {
-                    val existingFileHash = existingFile.getMd5Hash()
+                    val existingFileHash = existingFile.getCachedMd5Hash() // smap
 
                     if (existingFileHash.contentEquals(mediaFile.hash)) {
                         if (formToDownload.type != ServerFormDetails.Type.UpdatedMedia) {
@@ -317,7 +318,7 @@ object ServerFormUseCases {
         }
 
         val localMediaHashes = FormUtils.getMediaFiles(existingForm)
-            .map { it.getMd5Hash() }
+            .map { it.getCachedMd5Hash() } // smap
             .toSet()
 
         return newMediaFiles.any {
@@ -90,6 +90,7 @@ object Defaults {
             hashMap[ProjectKeys.KEY_SMAP_INPUT_METHOD] = "not set"
             hashMap[ProjectKeys.KEY_SMAP_IM_RI] = 3
             hashMap[ProjectKeys.KEY_SMAP_IM_ACC] = 3
+            hashMap[ProjectKeys.KEY_SMAP_TRAIL_TOLERANCE] = 10
             hashMap[ProjectKeys.KEY_SMAP_REQUEST_LOCATION_DONE] = "no"
             return hashMap
         }
@@ -128,6 +128,7 @@ class MapsPreferencesFragment : BaseProjectPreferencesFragment(), Preference.OnP
             summary = getLayerName()
         }
         initServerLayersPref()
+        initVerifyServerLayersPref()
     }
 
     /**
@@ -149,7 +150,7 @@ class MapsPreferencesFragment : BaseProjectPreferencesFragment(), Preference.OnP
         pref.setOnPreferenceClickListener {
             val layers = OfflineLayerDownloader.getManifest(settingsProvider)
 
-            // Checking a layer hashes the whole file, too slow to do on the main thread
+            // A layer that has not been checked before is hashed, too slow for the main thread
             scheduler.immediate(
                 background = {
                     val downloader = OfflineLayerDownloader.create()
@@ -175,6 +176,49 @@ class MapsPreferencesFragment : BaseProjectPreferencesFragment(), Preference.OnP
         }
     }
 
+    /**
+     * smap - Layers are only hashed once after they download.  This hashes them all again so
+     * that a layer damaged on the device is found and downloaded again.
+     */
+    private fun initVerifyServerLayersPref() {
+        val pref = findPreference<Preference>(SMAP_VERIFY_SERVER_LAYERS_KEY) ?: return
+
+        if (!settingsProvider.getUnprotectedSettings().getBoolean(ProjectKeys.KEY_SMAP_OFFLINE_MAPS)) {
+            pref.isVisible = false
+            return
+        }
+
+        pref.isVisible = true
+        pref.setOnPreferenceClickListener {
+            val layers = OfflineLayerDownloader.getManifest(settingsProvider)
+            pref.summary = getString(org.odk.collect.android.R.string.smap_verify_server_layers_running)
+            pref.isEnabled = false
+
+            scheduler.immediate(
+                background = {
+                    OfflineLayerDownloader.create().verifyAll(layers)
+                },
+                foreground = { damaged ->
+                    pref.isEnabled = true
+                    pref.summary = null
+                    if (damaged == 0) {
+                        ToastUtils.showLongToast(org.odk.collect.android.R.string.smap_verify_server_layers_ok)
+                    } else if (isAdded) {
+                        ToastUtils.showLongToast(
+                            getString(org.odk.collect.android.R.string.smap_verify_server_layers_damaged)
+                                .replace("%s1", damaged.toString())
+                        )
+                    }
+                    if (isAdded) {
+                        findPreference<Preference>(SMAP_SERVER_LAYERS_KEY)?.let { updateServerLayersSummary(it) }
+                        findPreference<Preference>(ProjectKeys.KEY_REFERENCE_LAYER)?.summary = getLayerName()
+                    }
+                }
+            )
+            true
+        }
+    }
+
     private fun downloadServerLayers(pref: Preference, layers: List<OfflineLayer>) {
         pref.summary = getString(org.odk.collect.android.R.string.smap_server_layers_downloading)
         pref.isEnabled = false
@@ -208,7 +252,7 @@ class MapsPreferencesFragment : BaseProjectPreferencesFragment(), Preference.OnP
             return
         }
 
-        // Checking a layer hashes the whole file, too slow to do on the main thread
+        // A layer that has not been checked before is hashed, too slow for the main thread
         pref.summary = getString(org.odk.collect.android.R.string.smap_server_layers_checking)
         scheduler.immediate(
             background = {
@@ -277,5 +321,6 @@ class MapsPreferencesFragment : BaseProjectPreferencesFragment(), Preference.OnP
     companion object {
         // smap - preference showing the download state of the layers supplied by the server
         private const val SMAP_SERVER_LAYERS_KEY = "smap_server_layers"
+        private const val SMAP_VERIFY_SERVER_LAYERS_KEY = "smap_verify_server_layers"
     }
 }
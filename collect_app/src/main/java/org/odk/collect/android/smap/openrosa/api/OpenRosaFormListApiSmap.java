@@ -81,7 +81,7 @@ public class OpenRosaFormListApiSmap implements FormListApiSmap {
             return null;
         }
 
-        DocumentFetchResult result = openRosaXMLFetcher.getXML(manifestURL);
+        DocumentFetchResult result = openRosaXMLFetcher.getXMLIfModified(manifestURL);     // smap only sent if it has changed
 
         if (result.errorMessage != null) {
             throw new FormApiExceptionSmap(FETCH_ERROR);
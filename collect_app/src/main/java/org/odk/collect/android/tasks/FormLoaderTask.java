@@ -403,7 +403,7 @@ public class FormLoaderTask extends SchedulerAsyncTaskMimic<Void, String, FormLo
         final File csv = new File(formMediaDir.getAbsolutePath() + "/" + ITEMSETS_CSV);
         String csvmd5;
         if (csv.exists()) {
-            csvmd5 = Md5.getMd5Hash(csv);
+            csvmd5 = Md5.getCachedMd5Hash(csv);     // smap
             boolean readFile = false;
             final ItemsetDbAdapter ida = new ItemsetDbAdapter();
             ida.open();
@@ -21,6 +21,7 @@ import android.net.Uri;
 import android.os.AsyncTask;
 
 import au.smap.fieldTask.utilities.SubmissionAuthGate;
+import au.smap.fieldTask.utilities.SubmissionPipeline;
 
 import org.odk.collect.analytics.Analytics;
 import org.odk.collect.android.analytics.AnalyticsEvents;
@@ -45,6 +46,7 @@ import org.odk.collect.settings.keys.ProjectKeys;
 
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -123,34 +125,48 @@ public class InstanceUploaderTask extends AsyncTask<Long, Integer, InstanceUploa
             }
         }
 
-        for (int i = 0; i < instancesToUpload.size(); i++) {
-            if (isCancelled()) {
-                return outcome;
+        // smap - send a few instances at once rather than leaving the link idle between them
+        SubmissionPipeline.Result result = new SubmissionPipeline(uploader).submit(instancesToUpload, new SubmissionPipeline.Callbacks() {
+            @Override
+            public String getUrlToSubmitTo(Instance instance) {
+                return uploader.getUrlToSubmitTo(instance, deviceId, completeDestinationUrl, null);
             }
-            Instance instance = instancesToUpload.get(i);
 
-            publishProgress(i + 1, instancesToUpload.size());
-
-            if (completeDestinationUrl != null) {
-                Analytics.log(AnalyticsEvents.INSTANCE_UPLOAD_CUSTOM_SERVER, "label", referrer != null ? referrer : "");
+            @Override
+            public String getSuccessMessage() {
+                return getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.success);
             }
 
-            try {
-                String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, completeDestinationUrl, null);
-                String customMessage = uploader.uploadOneSubmission(instance, destinationUrl);
-                outcome.messagesByInstanceId.put(instance.getDbId().toString(),
-                        customMessage != null ? customMessage : getLocalizedString(Collect.getInstance(), org.odk.collect.strings.R.string.success));
+            @Override
+            public void onStarted(int position, int total) {
+                publishProgress(position, total);
+
+                if (completeDestinationUrl != null) {
+                    Analytics.log(AnalyticsEvents.INSTANCE_UPLOAD_CUSTOM_SERVER, "label", referrer != null ? referrer : "");
+                }
+            }
 
+            @Override
+            public void onSubmitted(Instance instance) {
                 Analytics.log(SUBMISSION, "HTTP", Collect.getFormIdentifierHash(instance.getFormId(), instance.getFormVersion()));
-            } catch (FormUploadAuthRequestedException e) {
-                outcome.authRequestingServer = e.getAuthRequestingServer();
-                // Don't add the instance that caused an auth request to the map because we want to
-                // retry. Items present in the map are considered already attempted and won't be
-                // retried.
-            } catch (FormUploadException e) {
-                outcome.messagesByInstanceId.put(instance.getDbId().toString(),
-                        e.getMessage());
             }
+
+            @Override
+            public boolean isCancelled() {
+                return InstanceUploaderTask.this.isCancelled();
+            }
+        });
+
+        // Don't add the instances that were stopped by an auth request to the map because we want
+        // to retry them. Items present in the map are considered already attempted and won't be
+        // retried.
+        outcome.messagesByInstanceId.putAll(result.messagesByInstanceId);
+        if (result.getAuthRequestingServer() != null) {
+            authGate.recordAuthFailure();   // smap - the rest of the batch was abandoned
+            outcome.authRequestingServer = result.getAuthRequestingServer();
+        }
+        if (result.cancelled) {
+            return outcome;
         }
 
         // Delete instances that were successfully sent and that need to be deleted
@@ -294,6 +310,6 @@ public class InstanceUploaderTask extends AsyncTask<Long, Integer, InstanceUploa
          * TODO: Consider mapping to something machine-readable like a message ID or status ID
          * instead of a mix of localized and non-localized user-facing strings.
          */
-        public HashMap<String, String> messagesByInstanceId = new HashMap<>();
+        public HashMap<String, String> messagesByInstanceId = new LinkedHashMap<>();     // smap - in the order the forms were sent
     }
 }
@@ -143,6 +143,11 @@ public class SaveFormToDisk {
 
             Instance instance = exportData(shouldFinalize, progressListener, validationResult);
 
+            // smap - save the values for surveys that search the data of this one
+            if (shouldFinalize && instance != null) {
+                au.smap.fieldTask.formmanagement.LocalDataManagerSmap.saveInstanceData(instance);
+            }
+
             if (formController.getInstanceFile() != null) {
                 removeIndexFile(formController.getInstanceFile().getName());
             }
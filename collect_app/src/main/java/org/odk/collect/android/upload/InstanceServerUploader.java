@@ -39,9 +39,9 @@ import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -54,12 +54,12 @@ public class InstanceServerUploader extends InstanceUploader {
     private final OpenRosaHttpInterface httpInterface;
     private final WebCredentialsUtils webCredentialsUtils;
     private final Settings generalSettings;
-    private final Map<Uri, Uri> uriRemap = new HashMap<>();
+    private final Map<Uri, Uri> uriRemap = new ConcurrentHashMap<>();     // smap - shared by concurrent submissions
 
     // smap - content length accepted by the server, learned from the HEAD response. Held across
     // the batch so instances that skip their own HEAD (because the URL is already resolved)
     // still use the server's value rather than the default.
-    private long acceptContentLength = DEFAULT_CONTENT_LENGTH;
+    private volatile long acceptContentLength = DEFAULT_CONTENT_LENGTH;
 
     public InstanceServerUploader(OpenRosaHttpInterface httpInterface,
                                   WebCredentialsUtils webCredentialsUtils,
@@ -0,0 +1,80 @@
+package au.smap.fieldTask.dao;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.not;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.support.CollectHelpers;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import au.smap.fieldTask.models.LinkedInstanceData;
+
+/**
+ * Tests for SmapLocalDataDao - values of finalized instances searched by linked surveys
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SmapLocalDataDaoTest {
+
+    private SmapLocalDataDao localData;
+
+    @Before
+    public void setup() {
+        CollectHelpers.setupDemoProject();
+        localData = new SmapLocalDataDao();
+    }
+
+    @Test
+    public void savedValuesAreReturnedForTheSurvey() {
+        LinkedInstanceData repeat = data("visit", "date", "2025-01-01");
+        LinkedInstanceData main = data("main", "name", "Bob");
+        main.subForms.add(repeat);
+        localData.put("/instances/a.xml", "s1", 100, main);
+        localData.put("/instances/b.xml", "s2", 200, data("main", "name", "Alice"));
+
+        HashMap<String, SmapLocalDataDao.Entry> instances = localData.getInstances(Collections.singleton("s1"));
+
+        assertThat(instances.keySet(), equalTo(Collections.singleton("/instances/a.xml")));
+        SmapLocalDataDao.Entry entry = instances.get("/instances/a.xml");
+        assertThat(entry.modified, equalTo(100L));
+        assertThat(entry.data.values.get("name"), equalTo("Bob"));
+        assertThat(entry.data.subForms.get(0).values.get("date"), equalTo("2025-01-01"));
+    }
+
+    @Test
+    public void savingAnInstanceAgainReplacesItsValues() {
+        localData.put("/instances/a.xml", "s1", 100, data("main", "name", "Bob"));
+        localData.put("/instances/a.xml", "s1", 300, data("main", "name", "Robert"));
+
+        SmapLocalDataDao.Entry entry = localData.getInstances(Collections.singleton("s1")).get("/instances/a.xml");
+
+        assertThat(entry.modified, equalTo(300L));
+        assertThat(entry.data.values.get("name"), equalTo("Robert"));
+    }
+
+    @Test
+    public void deletedInstancesAreNotReturned() {
+        localData.put("/instances/a.xml", "s1", 100, data("main", "name", "Bob"));
+        localData.put("/instances/b.xml", "s1", 100, data("main", "name", "Alice"));
+
+        localData.delete(Collections.singleton("/instances/a.xml"));
+
+        HashMap<String, SmapLocalDataDao.Entry> instances = localData.getInstances(Arrays.asList("s1", "s2"));
+        assertThat(instances, not(hasKey("/instances/a.xml")));
+        assertThat(instances, hasKey("/instances/b.xml"));
+    }
+
+    private static LinkedInstanceData data(String name, String column, String value) {
+        LinkedInstanceData data = new LinkedInstanceData();
+        data.name = name;
+        data.values.put(column, value);
+        return data;
+    }
+}
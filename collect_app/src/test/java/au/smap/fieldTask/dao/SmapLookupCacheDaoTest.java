@@ -0,0 +1,95 @@
+package au.smap.fieldTask.dao;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.support.CollectHelpers;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+
+/**
+ * Tests for SmapLookupCacheDao - offline responses to lookup()
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SmapLookupCacheDaoTest {
+
+    private static final long TTL = 1000;
+    private static final String RECORD = "{\"name\":\"Bob\"}";
+
+    private long now = 10000;
+    private SmapLookupCacheDao cache;
+
+    @Before
+    public void setup() {
+        CollectHelpers.setupDemoProject();
+        cache = new SmapLookupCacheDao(TTL, 30, () -> now);
+        cache.clear();
+    }
+
+    @Test
+    public void savedResponseIsReturnedUntilItExpires() {
+        cache.put("https://server/lookup/s1/a", "s1", RECORD);
+
+        now += TTL - 1;
+        assertThat(cache.get("https://server/lookup/s1/a"), equalTo(RECORD));
+
+        now += 1;
+        assertThat(cache.get("https://server/lookup/s1/a"), nullValue());
+    }
+
+    @Test
+    public void responsesThatAreNotRecordsAreNotSaved() {
+        cache.put("https://server/lookup/s1/a", "s1", "Not Found");
+
+        assertThat(cache.get("https://server/lookup/s1/a"), nullValue());
+    }
+
+    @Test
+    public void listsOfChoicesAreSaved() {
+        String choices = "[{\"value\":\"a\"}]";
+        cache.put("https://server/lookup/choices/s1/ds/v/l", "s1", choices);
+
+        assertThat(cache.get("https://server/lookup/choices/s1/ds/v/l"), equalTo(choices));
+    }
+
+    @Test
+    public void leastRecentlyUsedResponsesAreEvictedWhenTheCacheIsFull() {
+        cache.put("a", "s1", RECORD);
+        now += TTL / 2;
+        cache.put("b", "s1", RECORD);
+        now += TTL / 4;
+        cache.get("a");
+        cache.put("c", "s1", RECORD);
+
+        assertThat(cache.get("a"), equalTo(RECORD));
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("c"), equalTo(RECORD));
+    }
+
+    @Test
+    public void responsesForFormsNoLongerOnTheDeviceAreRemoved() {
+        cache.put("a", "s1", RECORD);
+        cache.put("b", "s2", RECORD);
+
+        cache.clean(Collections.singleton("s1"));
+
+        assertThat(cache.get("a"), equalTo(RECORD));
+        assertThat(cache.get("b"), nullValue());
+    }
+
+    @Test
+    public void recentlyUsedResponsesCloseToExpiringAreRefreshed() {
+        cache.put("old", "s1", RECORD);
+        now += TTL / 2 + 1;
+        cache.put("new", "s1", RECORD);
+
+        assertThat(cache.getUrlsToRefresh(10).keySet(), contains("old"));
+        assertThat(cache.getUrlsToRefresh(10).get("old"), equalTo("s1"));
+    }
+}
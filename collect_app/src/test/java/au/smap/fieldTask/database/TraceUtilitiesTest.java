@@ -0,0 +1,111 @@
+package au.smap.fieldTask.database;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.support.CollectHelpers;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import au.smap.fieldTask.database.TraceProviderAPI.TraceColumns;
+import au.smap.fieldTask.loaders.PointEntry;
+import au.smap.fieldTask.providers.TraceProvider;
+import au.smap.fieldTask.utilities.Utilities;
+
+/**
+ * Tests for compacting the user trail once it has been sent
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TraceUtilitiesTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Before
+    public void setup() {
+        CollectHelpers.setupDemoProject();
+        Robolectric.setupContentProvider(TraceProvider.class, TraceProviderAPI.AUTHORITY);
+        TraceProvider.recreateDatabaseHelper();
+        TraceUtilities.deleteSource(0);
+    }
+
+    @Test
+    public void pointsRecordedAfterThoseSentAreKeptAsTheyWere() {
+        long lastSent = walk(0, 100);
+        walk(100, 40);
+
+        TraceUtilities.compactSent(lastSent, 10);
+
+        List<PointEntry> notSent = new ArrayList<>();
+        TraceUtilities.getPoints(notSent, 10000, false, false);
+        assertThat(notSent.size(), equalTo(40));
+        assertThat(notSent.get(0).time, equalTo(START + 100 * 1000));
+    }
+
+    @Test
+    public void sentPointsOnTheMapAreReplacedByTheSimplifiedTrail() {
+        long lastSent = walk(0, 100);
+
+        TraceUtilities.compactSent(lastSent, 10);
+
+        List<PointEntry> map = new ArrayList<>();
+        TraceUtilities.getPoints(map, TraceUtilities.MAP_POINTS, true, true);
+        assertThat(map.size(), lessThan(10));
+        assertThat(map.get(0).time, equalTo(START + 99 * 1000));
+        assertThat(map.get(map.size() - 1).time, equalTo(START));
+
+        List<PointEntry> notSent = new ArrayList<>();
+        TraceUtilities.getPoints(notSent, 10000, false, false);
+        assertThat(notSent.size(), equalTo(0));
+    }
+
+    @Test
+    public void sentPointsOlderThanThoseOnTheMapAreDeleted() {
+        long lastSent = walk(0, TraceUtilities.MAP_POINTS + 200);
+
+        TraceUtilities.compactSent(lastSent, 0);
+
+        List<PointEntry> all = new ArrayList<>();
+        TraceUtilities.getPoints(all, 10000, false, true);
+        assertThat(all.size(), equalTo(TraceUtilities.MAP_POINTS));
+        assertThat(all.get(0).time, equalTo(START + 200 * 1000));
+    }
+
+    @Test
+    public void pointsThatHaveNotBeenSentAreKeptEvenWhenOlderThanThoseOnTheMap() {
+        walk(0, TraceUtilities.MAP_POINTS + 200);
+
+        TraceUtilities.compactSent(0, 10);
+
+        List<PointEntry> notSent = new ArrayList<>();
+        TraceUtilities.getPoints(notSent, 10000, false, false);
+        assertThat(notSent.size(), equalTo(TraceUtilities.MAP_POINTS + 200));
+    }
+
+    /*
+     * Record a straight walk north, one point a second about a metre apart, returning the id of
+     * the last point
+     */
+    private static long walk(int from, int count) {
+        long id = 0;
+        for (int i = from; i < from + count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(TraceColumns.LAT, -33.0 + i * 0.00001);
+            values.put(TraceColumns.LON, 151.0);
+            values.put(TraceColumns.TIME, START + i * 1000L);
+            values.put(TraceColumns.SOURCE, Utilities.getSource());
+            id = ContentUris.parseId(Collect.getInstance().getContentResolver().insert(TraceColumns.CONTENT_URI, values));
+        }
+        return id;
+    }
+}
@@ -0,0 +1,86 @@
+package au.smap.fieldTask.external.handler;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.javarosa.core.model.SelectChoice;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dynamicpreload.ExternalDataManagerImpl;
+import org.odk.collect.android.dynamicpreload.ExternalDataReaderImpl;
+import org.odk.collect.android.support.CollectHelpers;
+import org.odk.collect.shared.TempFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class SmapRemoteDataHandlerSearchTest {
+
+    private static final Object[] SEARCH = {"fruits", "contains", "label", "App"};
+
+    private final File mediaDir = TempFiles.createTempDir();
+    private final File csv = new File(mediaDir, "fruits.csv");
+
+    private SmapRemoteDataHandlerSearch handler;
+
+    @Before
+    public void setup() throws Exception {
+        CollectHelpers.setupDemoProject();
+
+        writeCsv("name,label\napple,Apple\nbanana,Banana\n");
+        new ExternalDataReaderImpl(() -> false, mock()).doImport(Collections.singletonMap("fruits", csv));
+
+        handler = new SmapRemoteDataHandlerSearch(new ExternalDataManagerImpl(mediaDir),
+                "ident", "label", "name", null);
+
+        // What the server would return, so it is clear which copy answered
+        SmapRemoteDataItem item = new SmapRemoteDataItem();
+        item.key = handler.mServerUrlBase + "fruits/name/" + URLEncoder.encode("label", "UTF-8")
+                + "?search_type=contains&q_column=label&q_value=App";
+        item.data = "[]";
+        item.perSubmission = true;
+        item.choices = true;
+        Collect.getInstance().setRemoteItem(item);
+    }
+
+    @Test
+    public void theDataSetImportedFromTheFormMediaIsSearchedOnTheDevice() {
+        List<SelectChoice> choices = search();
+
+        assertThat(choices.size(), equalTo(1));
+        assertThat(choices.get(0).getValue(), equalTo("apple"));
+    }
+
+    @Test
+    public void theServerIsAskedWhenTheDataSetHasChangedSinceItWasImported() throws Exception {
+        writeCsv("name,label\napple,Apple\napricot,Apricot\n");
+
+        assertThat(search().size(), equalTo(0));
+    }
+
+    @Test
+    public void theServerIsAskedWhenTheDataSetHasNotBeenImported() {
+        new File(mediaDir, "fruits.db").delete();
+
+        assertThat(search().size(), equalTo(0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<SelectChoice> search() {
+        return (List<SelectChoice>) handler.eval(SEARCH, null);
+    }
+
+    private void writeCsv(String contents) throws IOException {
+        org.apache.commons.io.FileUtils.writeStringToFile(csv, contents, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,138 @@
+package au.smap.fieldTask.formmanagement;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.odk.collect.formstest.FormUtils.createXFormBody;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.support.CollectHelpers;
+import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.forms.Form;
+import org.odk.collect.forms.FormsRepository;
+import org.odk.collect.forms.MediaFile;
+import org.odk.collect.formstest.InMemFormsRepository;
+import org.odk.collect.metadata.PropertyManager;
+import org.odk.collect.openrosa.forms.OpenRosaXmlFetcher;
+import org.odk.collect.openrosa.http.HttpGetResult;
+import org.odk.collect.shared.strings.Md5;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(AndroidJUnit4.class)
+public class MultiFormDownloaderSmapTest {
+
+    private static final String LOGO_URL = "http://server/media/logo.png/organisation";
+    private static final String LOGO = "logo";
+
+    private final OpenRosaXmlFetcher fetcher = mock(OpenRosaXmlFetcher.class);
+    private final PropertyManager propertyManager = mock(PropertyManager.class);
+    private final FormsRepository formsRepository = new InMemFormsRepository();
+    private final Map<String, String> responses = new HashMap<>();
+
+    private MultiFormDownloaderSmap downloader;
+
+    @Before
+    public void setup() throws Exception {
+        CollectHelpers.setupDemoProject();
+
+        when(propertyManager.reload()).thenReturn(propertyManager);
+        when(propertyManager.getSingularProperty(PropertyManager.PROPMGR_DEVICE_ID)).thenReturn("device");
+        when(fetcher.fetchIfModified(anyString(), anyBoolean(), any())).thenAnswer(invocation -> {
+            String url = invocation.getArgument(0);
+            for (Map.Entry<String, String> response : responses.entrySet()) {
+                if (url.startsWith(response.getKey())) {
+                    if (response.getValue() == null) {
+                        throw new IOException("Failed to fetch " + url);
+                    }
+                    byte[] body = response.getValue().getBytes(StandardCharsets.UTF_8);
+                    return new HttpGetResult(new ByteArrayInputStream(body), Collections.emptyMap(), "", 200);
+                }
+            }
+            throw new IOException("Unexpected request " + url);
+        });
+
+        downloader = new MultiFormDownloaderSmap(fetcher, formsRepository, propertyManager);
+    }
+
+    @Test
+    public void organisationMediaSharedByFormsIsDownloadedOnceAndCopiedToEach() throws Exception {
+        String hash = "md5:" + Md5.getMd5Hash(LOGO);
+        List<ServerFormDetailsSmap> forms = Arrays.asList(
+                form("one", new MediaFile("logo.png", hash, LOGO_URL)),
+                form("two", new MediaFile("logo.png", hash, LOGO_URL)),
+                form("three", new MediaFile("logo.png", hash, LOGO_URL)));
+
+        Map<ServerFormDetailsSmap, String> result = downloader.downloadForms(forms, null);
+
+        verify(fetcher, times(1)).fetchIfModified(eq(LOGO_URL), anyBoolean(), any());
+        assertThat(result.size(), equalTo(3));
+        assertThat(formsRepository.getAll().size(), equalTo(3));
+        for (Form form : formsRepository.getAll()) {
+            assertThat(readMedia(form, "logo.png"), equalTo(LOGO));
+        }
+    }
+
+    @Test
+    public void organisationMediaListedWithDifferentHashesIsOnlyDownloadedOnce() throws Exception {
+        List<ServerFormDetailsSmap> forms = Arrays.asList(
+                form("one", new MediaFile("logo.png", "md5:" + Md5.getMd5Hash(LOGO), LOGO_URL)),
+                form("two", new MediaFile("logo.png", "md5:" + Md5.getMd5Hash("old logo"), LOGO_URL)));
+
+        downloader.downloadForms(forms, null);
+
+        verify(fetcher, times(1)).fetchIfModified(eq(LOGO_URL), anyBoolean(), any());
+        assertThat(formsRepository.getAll().size(), equalTo(2));
+        for (Form form : formsRepository.getAll()) {
+            assertThat(readMedia(form, "logo.png"), equalTo(LOGO));
+        }
+    }
+
+    @Test
+    public void aFormIsNotSavedWhenItsMediaFailsToDownload() throws Exception {
+        responses.put("http://server/media/broken.csv", null);
+        ServerFormDetailsSmap broken = form("broken", new MediaFile("broken.csv", "md5:1234", "http://server/media/broken.csv"));
+        ServerFormDetailsSmap working = form("working", new MediaFile("logo.png", "md5:" + Md5.getMd5Hash(LOGO), LOGO_URL));
+
+        Map<ServerFormDetailsSmap, String> result = downloader.downloadForms(Arrays.asList(broken, working), null);
+
+        assertThat(result.get(broken), startsWith(Collect.getInstance().getString(org.odk.collect.strings.R.string.error_occured)));
+        assertThat(result.get(working), equalTo(Collect.getInstance().getString(org.odk.collect.strings.R.string.success)));
+        assertThat(formsRepository.getAll().size(), equalTo(1));
+        assertThat(formsRepository.getAll().get(0).getFormId(), equalTo("working"));
+    }
+
+    private ServerFormDetailsSmap form(String formId, MediaFile... mediaFiles) {
+        String url = "http://server/formXML?key=" + formId;
+        responses.put(url, createXFormBody(formId, "1", formId));
+        responses.put(LOGO_URL, LOGO);
+        return new ServerFormDetailsSmap(formId, url, formId, "1", null, false,
+                Arrays.asList(mediaFiles), null, false, false, false, false, null, "project", null);
+    }
+
+    private static String readMedia(Form form, String name) throws IOException {
+        File file = new File(FileUtils.constructMediaPath(form.getFormFilePath()), name);
+        return org.apache.commons.io.FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+    }
+}
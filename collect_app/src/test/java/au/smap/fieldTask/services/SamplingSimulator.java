@@ -0,0 +1,169 @@
+package au.smap.fieldTask.services;
+
+import org.odk.collect.android.utilities.ApplicationConstants;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays a track through a sampling policy the way the fused location provider delivers fixes,
+ * so that policies can be compared on the same movements.
+ *
+ * Fixes are taken at the requested interval and held until the max delay is reached, then
+ * delivered together and passed to the policy.  A fix closer than the min distance to the last
+ * fix delivered is dropped.  When the policy wants a different sampling,
+ * location updates are requested again.  The fixes delivered are filtered as LocationReceiver
+ * does to find the points that would be added to the trail.
+ *
+ * The battery cost is a rough estimate from a cost per fix and a cost per delivery, enough to
+ * compare policies but not a measurement.
+ *
+ * A recorded track can be replayed with {@link #readCsv(Reader)}.
+ */
+public class SamplingSimulator {
+
+    static final double MAH_PER_FIX = 0.05;         // GPS on long enough to get a fix
+    static final double MAH_PER_DELIVERY = 0.02;    // Waking the app to handle a batch
+
+    public static class TrackPoint {
+        final long time;
+        final double lat;
+        final double lon;
+        final float accuracy;
+
+        public TrackPoint(long time, double lat, double lon, float accuracy) {
+            this.time = time;
+            this.lat = lat;
+            this.lon = lon;
+            this.accuracy = accuracy;
+        }
+    }
+
+    public static class Report {
+        String policy;
+        int fixes;
+        int deliveries;
+        int requests;
+        int trailPoints;
+        double maxDistanceFromTrail;    // Furthest the user got from the last point sent to the trail, metres
+        double estimatedMah;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-10s fixes: %6d  deliveries: %6d  requests: %4d  trail points: %5d  "
+                            + "max distance from trail: %6.0fm  estimated: %6.1fmAh",
+                    policy, fixes, deliveries, requests, trailPoints, maxDistanceFromTrail, estimatedMah);
+        }
+    }
+
+    /**
+     * Read a track of lines "time in milliseconds,latitude,longitude,accuracy" in time order
+     */
+    public static List<TrackPoint> readCsv(Reader reader) throws IOException {
+        List<TrackPoint> track = new ArrayList<>();
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] values = line.trim().split(",");
+            if (values.length < 4 || values[0].isEmpty() || !Character.isDigit(values[0].charAt(0))) {
+                continue;       // Header or blank
+            }
+            track.add(new TrackPoint(Long.parseLong(values[0]), Double.parseDouble(values[1]),
+                    Double.parseDouble(values[2]), Float.parseFloat(values[3])));
+        }
+        return track;
+    }
+
+    public static Report run(String name, SamplingPolicy policy, List<TrackPoint> track) {
+        Report report = new Report();
+        report.policy = name;
+        if (track.isEmpty()) {
+            return report;
+        }
+
+        long start = track.get(0).time;
+        long end = track.get(track.size() - 1).time;
+
+        SamplingPolicy.Sampling sampling = policy.getSampling();
+        report.requests = 1;
+
+        List<TrackPoint> batch = new ArrayList<>();
+        long batchStart = -1;
+        TrackPoint lastTrailPoint = null;
+        TrackPoint lastDelivered = null;
+        int cursor = 0;         // Track points up to here have been measured against the trail
+
+        for (long time = start; time <= end; time += sampling.interval) {
+            TrackPoint fix = pointAt(track, time);
+            report.fixes++;
+            if (lastDelivered == null || sampling.minDistance <= 0
+                    || AdaptiveSamplingPolicy.distance(fix.lat, fix.lon, lastDelivered.lat, lastDelivered.lon) >= sampling.minDistance) {
+                batch.add(fix);
+                lastDelivered = fix;
+                if (batchStart < 0) {
+                    batchStart = time;
+                }
+            }
+
+            if (batch.isEmpty()) {
+                continue;       // Nothing to deliver
+            }
+
+            boolean last = time + sampling.interval > end;
+            if (last || sampling.maxDelay <= sampling.interval || time + sampling.interval - batchStart > sampling.maxDelay) {
+                // How far the user got from the trail before this delivery
+                while (cursor < track.size() && track.get(cursor).time <= time) {
+                    TrackPoint p = track.get(cursor++);
+                    if (lastTrailPoint != null) {
+                        report.maxDistanceFromTrail = Math.max(report.maxDistanceFromTrail,
+                                AdaptiveSamplingPolicy.distance(p.lat, p.lon, lastTrailPoint.lat, lastTrailPoint.lon));
+                    }
+                }
+
+                report.deliveries++;
+                for (TrackPoint p : batch) {
+                    if (p.accuracy < ApplicationConstants.GPS_ACCURACY) {
+                        policy.onFix(p.lat, p.lon, p.accuracy, p.time);
+                        if (lastTrailPoint == null || AdaptiveSamplingPolicy.distance(p.lat, p.lon,
+                                lastTrailPoint.lat, lastTrailPoint.lon) > ApplicationConstants.GPS_DISTANCE) {
+                            lastTrailPoint = p;
+                            report.trailPoints++;
+                        }
+                    }
+                }
+                batch.clear();
+                batchStart = -1;
+
+                SamplingPolicy.Sampling now = policy.getSampling();
+                if (!now.equals(sampling)) {
+                    sampling = now;
+                    report.requests++;
+                }
+            }
+        }
+
+        report.estimatedMah = report.fixes * MAH_PER_FIX + report.deliveries * MAH_PER_DELIVERY;
+        return report;
+    }
+
+    /*
+     * The last point of the track at or before the time
+     */
+    private static TrackPoint pointAt(List<TrackPoint> track, long time) {
+        int low = 0;
+        int high = track.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (track.get(mid).time <= time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return track.get(low);
+    }
+}
@@ -0,0 +1,135 @@
+package au.smap.fieldTask.services;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import org.junit.Test;
+import org.odk.collect.android.utilities.ApplicationConstants;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import au.smap.fieldTask.services.SamplingSimulator.Report;
+import au.smap.fieldTask.services.SamplingSimulator.TrackPoint;
+
+public class SamplingSimulatorTest {
+
+    private static final double METRE = 1 / 111_111.1;     // Degrees of latitude
+    private static final long MINUTE = 60_000;
+
+    @Test
+    public void adaptiveSamplingWakesTheAppLessOftenOverAWorkingDay() {
+        List<TrackPoint> track = workingDay();
+
+        Report fixed = SamplingSimulator.run("fixed", new SamplingPolicy.Fixed(), track);
+        Report adaptive = SamplingSimulator.run("adaptive", new AdaptiveSamplingPolicy(), track);
+
+        assertThat(adaptive.fixes, lessThanOrEqualTo(fixed.fixes));
+        assertThat(adaptive.deliveries, lessThan(fixed.deliveries / 5));
+        assertThat(adaptive.estimatedMah, lessThan(fixed.estimatedMah * 0.8));
+        assertThat(fixed.requests, equalTo(1));
+
+        // The trail is recorded as it is with a fixed interval
+        assertThat(adaptive.trailPoints, greaterThanOrEqualTo(fixed.trailPoints * 95 / 100));
+        assertThat(adaptive.maxDistanceFromTrail, lessThan(fixed.maxDistanceFromTrail + ApplicationConstants.GPS_DISTANCE));
+    }
+
+    @Test
+    public void drivingOffAfterBeingStationaryIsRecordedAsWithAFixedInterval() {
+        List<TrackPoint> track = stay(new ArrayList<>(), 0, 0, 0, 10 * MINUTE, new Random(3));
+        move(track, 10 * MINUTE, 10 * MINUTE, 15, 0);
+
+        Report fixed = SamplingSimulator.run("fixed", new SamplingPolicy.Fixed(), track);
+        Report adaptive = SamplingSimulator.run("adaptive", new AdaptiveSamplingPolicy(), track);
+
+        assertThat(adaptive.trailPoints, greaterThanOrEqualTo(fixed.trailPoints - 1));
+        assertThat(adaptive.maxDistanceFromTrail, lessThan(fixed.maxDistanceFromTrail + ApplicationConstants.GPS_DISTANCE));
+    }
+
+    @Test
+    public void aStationaryUserIsOnlyWokenWhenTheyMove() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy();
+        Report report = SamplingSimulator.run("adaptive", policy, stay(new ArrayList<>(), 0, 0, 0, 60 * MINUTE, new Random(1)));
+
+        assertThat(policy.isStationary(), equalTo(true));
+        assertThat(policy.getSampling().interval, equalTo((long) ApplicationConstants.GPS_INTERVAL));
+        assertThat(policy.getSampling().minDistance, equalTo(AdaptiveSamplingPolicy.STATIONARY_DISTANCE));
+        assertThat(report.deliveries, lessThan(30));
+        assertThat(report.requests, lessThan(5));
+    }
+
+    @Test
+    public void movingAgainReturnsToTheUsualInterval() {
+        List<TrackPoint> track = stay(new ArrayList<>(), 0, 0, 0, 10 * MINUTE, new Random(2));
+        move(track, 10 * MINUTE, 10 * MINUTE, 15, 0);
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy();
+
+        SamplingSimulator.run("adaptive", policy, track);
+
+        assertThat(policy.isStationary(), equalTo(false));
+        assertThat(policy.getSampling().interval, equalTo((long) ApplicationConstants.GPS_INTERVAL));
+    }
+
+    @Test
+    public void aRecordedTrackCanBeReplayed() throws Exception {
+        String csv = "time,lat,lon,accuracy\n"
+                + "0,-33.8688,151.2093,5\n"
+                + "10000,-33.8689,151.2093,5\n"
+                + "20000,-33.8690,151.2093,5\n";
+
+        List<TrackPoint> track = SamplingSimulator.readCsv(new StringReader(csv));
+        Report report = SamplingSimulator.run("fixed", new SamplingPolicy.Fixed(), track);
+
+        assertThat(track.size(), equalTo(3));
+        assertThat(report.fixes, equalTo(3));
+    }
+
+    /*
+     * At a site, walk to the next, work there, drive to another and work there
+     */
+    private static List<TrackPoint> workingDay() {
+        Random random = new Random(42);
+        List<TrackPoint> track = new ArrayList<>();
+        long time = 0;
+        double north = 0;
+
+        stay(track, time, north, 0, 120 * MINUTE, random);
+        time += 120 * MINUTE;
+        north = move(track, time, 30 * MINUTE, 1.4, north);
+        time += 30 * MINUTE;
+        stay(track, time, north, 0, 60 * MINUTE, random);
+        time += 60 * MINUTE;
+        north = move(track, time, 20 * MINUTE, 15, north);
+        time += 20 * MINUTE;
+        stay(track, time, north, 0, 60 * MINUTE, random);
+        return track;
+    }
+
+    /*
+     * A point a second at a site, with a few metres of error
+     */
+    private static List<TrackPoint> stay(List<TrackPoint> track, long start, double north, double east, long duration, Random random) {
+        for (long t = 0; t < duration; t += 1000) {
+            track.add(new TrackPoint(start + t,
+                    (north + random.nextGaussian() * 4) * METRE,
+                    (east + random.nextGaussian() * 4) * METRE,
+                    8));
+        }
+        return track;
+    }
+
+    /*
+     * A point a second moving north at a speed in metres a second, returns where it ends
+     */
+    private static double move(List<TrackPoint> track, long start, long duration, double speed, double north) {
+        for (long t = 0; t < duration; t += 1000) {
+            track.add(new TrackPoint(start + t, (north + speed * t / 1000) * METRE, 0, 8));
+        }
+        return north + speed * duration / 1000;
+    }
+}
@@ -0,0 +1,104 @@
+package au.smap.fieldTask.tasks;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class OfflineLayerChecksumsTest {
+
+    private static final String MD5 = "0cc175b9c0f1b6a831c399e269772661";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void aFileIsOnlyVerifiedOnceItHasBeenPut() throws Exception {
+        OfflineLayerChecksums checksums = new OfflineLayerChecksums(temporaryFolder.getRoot());
+        File layer = createLayer("a.mbtiles", "a");
+
+        assertThat(checksums.isVerified(layer, MD5), equalTo(false));
+
+        checksums.put(layer, MD5);
+        assertThat(checksums.isVerified(layer, MD5), equalTo(true));
+        assertThat(checksums.isVerified(layer, MD5.toUpperCase()), equalTo(true));
+        assertThat(checksums.isVerified(layer, "other"), equalTo(false));
+        assertThat(checksums.isVerified(layer, null), equalTo(false));
+    }
+
+    @Test
+    public void aFileThatChangesIsNoLongerVerified() throws Exception {
+        OfflineLayerChecksums checksums = new OfflineLayerChecksums(temporaryFolder.getRoot());
+        File layer = createLayer("a.mbtiles", "a");
+        checksums.put(layer, MD5);
+
+        try (FileWriter writer = new FileWriter(layer, true)) {
+            writer.write("more");
+        }
+        assertThat(checksums.isVerified(layer, MD5), equalTo(false));
+    }
+
+    @Test
+    public void aFileWithANewModifiedTimeIsNoLongerVerified() throws Exception {
+        OfflineLayerChecksums checksums = new OfflineLayerChecksums(temporaryFolder.getRoot());
+        File layer = createLayer("a.mbtiles", "a");
+        checksums.put(layer, MD5);
+
+        layer.setLastModified(layer.lastModified() - 60000);
+        assertThat(checksums.isVerified(layer, MD5), equalTo(false));
+    }
+
+    @Test
+    public void checksumsAreReadBackBySomethingElse() throws Exception {
+        File layer = createLayer("a.mbtiles", "a");
+        new OfflineLayerChecksums(temporaryFolder.getRoot()).put(layer, MD5);
+
+        OfflineLayerChecksums reloaded = new OfflineLayerChecksums(temporaryFolder.getRoot());
+        assertThat(reloaded.isVerified(layer, MD5), equalTo(true));
+    }
+
+    @Test
+    public void removedFilesAreNoLongerVerified() throws Exception {
+        File layer = createLayer("a.mbtiles", "a");
+        File other = createLayer("b.mbtiles", "a");
+        OfflineLayerChecksums checksums = new OfflineLayerChecksums(temporaryFolder.getRoot());
+        checksums.put(layer, MD5);
+        checksums.put(other, MD5);
+
+        checksums.remove(layer);
+        assertThat(checksums.isVerified(layer, MD5), equalTo(false));
+        assertThat(checksums.isVerified(other, MD5), equalTo(true));
+
+        OfflineLayerChecksums reloaded = new OfflineLayerChecksums(temporaryFolder.getRoot());
+        assertThat(reloaded.isVerified(layer, MD5), equalTo(false));
+        assertThat(reloaded.isVerified(other, MD5), equalTo(true));
+    }
+
+    @Test
+    public void anUnreadableStoreMeansNothingIsVerified() throws Exception {
+        File layer = createLayer("a.mbtiles", "a");
+        try (FileWriter writer = new FileWriter(new File(temporaryFolder.getRoot(), OfflineLayerChecksums.FILE_NAME))) {
+            writer.write("{not json");
+        }
+
+        OfflineLayerChecksums checksums = new OfflineLayerChecksums(temporaryFolder.getRoot());
+        assertThat(checksums.isVerified(layer, MD5), equalTo(false));
+
+        checksums.put(layer, MD5);
+        assertThat(new OfflineLayerChecksums(temporaryFolder.getRoot()).isVerified(layer, MD5), equalTo(true));
+    }
+
+    private File createLayer(String name, String contents) throws IOException {
+        File f = new File(temporaryFolder.getRoot(), name);
+        try (FileWriter writer = new FileWriter(f)) {
+            writer.write(contents);
+        }
+        return f;
+    }
+}
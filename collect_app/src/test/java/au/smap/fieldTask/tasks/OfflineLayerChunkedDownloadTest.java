@@ -0,0 +1,259 @@
+package au.smap.fieldTask.tasks;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.odk.collect.openrosa.http.HttpGetResult;
+import org.odk.collect.shared.strings.Md5;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class OfflineLayerChunkedDownloadTest {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final byte[] layer = createLayer(10_500);
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void everyRangeIsFetchedAndTheChecksumIsOfTheWholeFile() throws Exception {
+        File part = temporaryFolder.newFile("layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+
+        String hash = create(part, chunks, new RangeServer()).run(null);
+
+        assertThat(hash, equalTo(Md5.getMd5Hash(new ByteArrayInputStream(layer))));
+        assertThat(Files.readAllBytes(part.toPath()), equalTo(layer));
+        assertThat(requests.size(), equalTo(11));
+        assertThat(requests.contains("bytes=10000-10499"), equalTo(true));
+    }
+
+    @Test
+    public void aStoppedDownloadOnlyFetchesTheMissingRangesWhenResumed() throws Exception {
+        File part = new File(temporaryFolder.getRoot(), "layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+
+        String hash = create(part, chunks, new RangeServer(), 1).run(() -> requests.size() > 4);
+        assertThat(hash, nullValue());
+        assertThat(OfflineLayerChunkedDownload.getCompletedBytes(chunks), equalTo(4000L));
+
+        requests.clear();
+        hash = create(part, chunks, new RangeServer(), 1).run(null);
+
+        assertThat(hash, equalTo(Md5.getMd5Hash(new ByteArrayInputStream(layer))));
+        assertThat(requests, equalTo(Arrays.asList(
+                "bytes=4000-4999", "bytes=5000-5999", "bytes=6000-6999", "bytes=7000-7999",
+                "bytes=8000-8999", "bytes=9000-9999", "bytes=10000-10499")));
+        assertThat(Files.readAllBytes(part.toPath()), equalTo(layer));
+    }
+
+    @Test
+    public void theWholeRangesOfASingleStreamPartFileAreKept() throws Exception {
+        File part = new File(temporaryFolder.getRoot(), "layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+        try (FileOutputStream os = new FileOutputStream(part)) {
+            os.write(layer, 0, 2500);
+        }
+
+        String hash = create(part, chunks, new RangeServer()).run(null);
+
+        assertThat(hash, equalTo(Md5.getMd5Hash(new ByteArrayInputStream(layer))));
+        assertThat(requests.contains("bytes=1000-1999"), equalTo(false));
+        assertThat(requests.contains("bytes=2000-2999"), equalTo(true));
+        assertThat(requests.size(), equalTo(9));
+    }
+
+    @Test
+    public void progressForADifferentSizeOfLayerIsDiscarded() throws Exception {
+        File part = new File(temporaryFolder.getRoot(), "layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+        create(part, chunks, new RangeServer(), 1).run(() -> requests.size() > 4);
+
+        byte[] bigger = createLayer(12_000);
+        requests.clear();
+        String hash = new OfflineLayerChunkedDownload(part, chunks, bigger.length,
+                new RangeServer(bigger), CHUNK_SIZE, 2).run(null);
+
+        assertThat(hash, equalTo(Md5.getMd5Hash(new ByteArrayInputStream(bigger))));
+        assertThat(requests.size(), equalTo(12));
+    }
+
+    @Test
+    public void aServerThatIgnoresRangesIsReported() throws Exception {
+        File part = new File(temporaryFolder.getRoot(), "layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+
+        OfflineLayerChunkedDownload download = create(part, chunks, headers -> {
+            requests.add(headers.get("Range"));
+            return new HttpGetResult(new ByteArrayInputStream(layer), new HashMap<>(), "", 200);
+        });
+
+        assertThrows(OfflineLayerChunkedDownload.RangesNotSupportedException.class, () -> download.run(null));
+    }
+
+    @Test
+    public void aRangeThatIsCutShortIsNotRecordedAsDone() throws Exception {
+        File part = new File(temporaryFolder.getRoot(), "layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+
+        RangeServer server = new RangeServer();
+        OfflineLayerChunkedDownload download = create(part, chunks, headers -> {
+            if (headers.get("Range").equals("bytes=3000-3999")) {
+                return new HttpGetResult(new ByteArrayInputStream(new byte[10]), contentRange(3000, 3999), "", 206);
+            }
+            return server.get(headers);
+        }, 1);
+
+        assertThrows(IOException.class, () -> download.run(null));
+        assertThat(OfflineLayerChunkedDownload.getCompletedBytes(chunks), equalTo(3000L));
+    }
+
+    @Test
+    public void aServerErrorKeepsTheRangesAlreadyCompleted() throws Exception {
+        File part = new File(temporaryFolder.getRoot(), "layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+
+        RangeServer server = new RangeServer();
+        OfflineLayerChunkedDownload download = create(part, chunks, headers -> {
+            if (headers.get("Range").equals("bytes=3000-3999")) {
+                return new HttpGetResult(new ByteArrayInputStream(new byte[0]), new HashMap<>(), "", 503);
+            }
+            return server.get(headers);
+        }, 1);
+
+        IOException e = assertThrows(IOException.class, () -> download.run(null));
+        assertThat(e instanceof OfflineLayerChunkedDownload.RangesNotSupportedException, equalTo(false));
+        assertThat(OfflineLayerChunkedDownload.getCompletedBytes(chunks), equalTo(3000L));
+
+        requests.clear();
+        String hash = create(part, chunks, new RangeServer(), 1).run(null);
+        assertThat(hash, equalTo(Md5.getMd5Hash(new ByteArrayInputStream(layer))));
+        assertThat(requests.contains("bytes=2000-2999"), equalTo(false));
+    }
+
+    @Test
+    public void aResponseForADifferentRangeIsNotRecordedAsDone() throws Exception {
+        File part = new File(temporaryFolder.getRoot(), "layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+
+        RangeServer server = new RangeServer();
+        OfflineLayerChunkedDownload download = create(part, chunks, headers -> {
+            if (headers.get("Range").equals("bytes=3000-3999")) {
+                return new HttpGetResult(new ByteArrayInputStream(layer, 0, 1000), contentRange(0, 999), "", 206);
+            }
+            return server.get(headers);
+        }, 1);
+
+        IOException e = assertThrows(IOException.class, () -> download.run(null));
+        assertThat(e instanceof OfflineLayerChunkedDownload.RangesNotSupportedException, equalTo(false));
+        assertThat(OfflineLayerChunkedDownload.getCompletedBytes(chunks), equalTo(3000L));
+    }
+
+    @Test
+    public void contentRangeMustBeTheRequestedRangeOfAFileOfTheExpectedSize() {
+        assertThat(OfflineLayerChunkedDownload.matchesRange("bytes 1000-1999/10500", 1000, 1999, 10_500), equalTo(true));
+        assertThat(OfflineLayerChunkedDownload.matchesRange("bytes 1000-1999/*", 1000, 1999, 10_500), equalTo(true));
+        assertThat(OfflineLayerChunkedDownload.matchesRange("bytes 0-999/10500", 1000, 1999, 10_500), equalTo(false));
+        assertThat(OfflineLayerChunkedDownload.matchesRange("bytes 1000-1999/12000", 1000, 1999, 10_500), equalTo(false));
+        assertThat(OfflineLayerChunkedDownload.matchesRange("bytes */10500", 1000, 1999, 10_500), equalTo(false));
+        assertThat(OfflineLayerChunkedDownload.matchesRange(null, 1000, 1999, 10_500), equalTo(false));
+    }
+
+    @Test
+    public void completedBytesIsMinusOneWithoutAChunksFile() {
+        File chunks = new File(temporaryFolder.getRoot(), "missing.chunks");
+        assertThat(OfflineLayerChunkedDownload.getCompletedBytes(chunks), equalTo(-1L));
+    }
+
+    @Test
+    public void rangesAreFetchedOverSeveralConnections() throws Exception {
+        File part = new File(temporaryFolder.getRoot(), "layer.mbtiles.part");
+        File chunks = new File(temporaryFolder.getRoot(), "layer.mbtiles.part.chunks");
+
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        RangeServer server = new RangeServer();
+        create(part, chunks, headers -> {
+            threads.add(Thread.currentThread().getName());
+            Thread.sleep(20);
+            return server.get(headers);
+        }, 4).run(null);
+
+        assertThat(new HashSet<>(threads).size(), equalTo(4));
+        assertThat(requests, containsInAnyOrder(
+                "bytes=0-999", "bytes=1000-1999", "bytes=2000-2999", "bytes=3000-3999",
+                "bytes=4000-4999", "bytes=5000-5999", "bytes=6000-6999", "bytes=7000-7999",
+                "bytes=8000-8999", "bytes=9000-9999", "bytes=10000-10499"));
+    }
+
+    private OfflineLayerChunkedDownload create(File part, File chunks, OfflineLayerChunkedDownload.RangeSource source) {
+        return create(part, chunks, source, 3);
+    }
+
+    private OfflineLayerChunkedDownload create(File part, File chunks, OfflineLayerChunkedDownload.RangeSource source,
+                                               int connections) {
+        return new OfflineLayerChunkedDownload(part, chunks, layer.length, source, CHUNK_SIZE, connections);
+    }
+
+    private HashMap<String, String> contentRange(int start, int end) {
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Content-Range", "bytes " + start + "-" + end + "/" + layer.length);
+        return headers;
+    }
+
+    private static byte[] createLayer(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Serves the requested range of a layer like a server that supports range requests
+     */
+    private class RangeServer implements OfflineLayerChunkedDownload.RangeSource {
+
+        private final byte[] contents;
+
+        RangeServer() {
+            this(layer);
+        }
+
+        RangeServer(byte[] contents) {
+            this.contents = contents;
+        }
+
+        @Override
+        public HttpGetResult get(HashMap<String, String> headers) {
+            String range = headers.get("Range");
+            requests.add(range);
+
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Integer.parseInt(bounds[1]);
+            HashMap<String, String> responseHeaders = new HashMap<>();
+            responseHeaders.put("Content-Range", "bytes " + start + "-" + end + "/" + contents.length);
+            return new HttpGetResult(new ByteArrayInputStream(contents, start, end + 1 - start),
+                    responseHeaders, "", 206);
+        }
+    }
+}
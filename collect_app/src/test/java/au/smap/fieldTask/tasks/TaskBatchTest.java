@@ -0,0 +1,141 @@
+package au.smap.fieldTask.tasks;
+
+import static android.provider.BaseColumns._ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.odk.collect.formstest.InstanceUtils.buildInstance;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.database.instances.DatabaseInstancesRepository;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.formstest.InMemFormsRepository;
+import org.odk.collect.forms.instances.Instance;
+import org.odk.collect.shared.TempFiles;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class TaskBatchTest {
+
+    private final File instancesDir = TempFiles.createTempDir();
+    private final DatabaseInstancesRepository instancesRepository = new DatabaseInstancesRepository(
+            ApplicationProvider.getApplicationContext(),
+            TempFiles.createTempDir().getAbsolutePath(),
+            instancesDir.getAbsolutePath(),
+            System::currentTimeMillis
+    );
+    private final ContentResolver resolver = mock(ContentResolver.class);
+
+    @Test
+    public void changesAreKeptWhenTheBatchIsCommitted() {
+        Instance existing = saveInstance(Instance.STATUS_INCOMPLETE);
+
+        try (TaskBatch batch = newBatch()) {
+            batch.insert(values("new"));
+            batch.update(status(Instance.STATUS_COMPLETE), _ID + "=?", idOf(existing));
+            assertThat(batch.size(), equalTo(2));
+            batch.commit();
+        }
+
+        assertThat(instancesRepository.getAll().size(), equalTo(2));
+        assertThat(instancesRepository.get(existing.getDbId()).getStatus(), equalTo(Instance.STATUS_COMPLETE));
+        verify(resolver).notifyChange(InstanceColumns.CONTENT_URI, null);
+    }
+
+    @Test
+    public void changesAreRolledBackWhenTheBatchIsClosedWithoutBeingCommitted() {
+        Instance existing = saveInstance(Instance.STATUS_INCOMPLETE);
+
+        try (TaskBatch batch = newBatch()) {
+            batch.insert(values("new"));
+            batch.update(status(Instance.STATUS_COMPLETE), _ID + "=?", idOf(existing));
+        }
+
+        assertThat(instancesRepository.getAll().size(), equalTo(1));
+        assertThat(instancesRepository.get(existing.getDbId()).getStatus(), equalTo(Instance.STATUS_INCOMPLETE));
+        verify(resolver, never()).notifyChange(any(), any());
+    }
+
+    @Test
+    public void theFilesOfADeletedInstanceAreOnlyRemovedOnceTheBatchIsCommitted() {
+        Instance instance = saveInstance(Instance.STATUS_INCOMPLETE);
+        File instanceDir = new File(instance.getInstanceFilePath()).getParentFile();
+
+        try (TaskBatch batch = newBatch()) {
+            batch.delete(_ID + "=?", idOf(instance));
+            assertThat(instanceDir.exists(), equalTo(true));
+
+            batch.commit();
+        }
+
+        assertThat(instancesRepository.get(instance.getDbId()), nullValue());
+        assertThat(instanceDir.exists(), equalTo(false));
+    }
+
+    @Test
+    public void aDeleteThatIsRolledBackKeepsTheInstanceAndItsFiles() {
+        Instance instance = saveInstance(Instance.STATUS_INCOMPLETE);
+        File instanceDir = new File(instance.getInstanceFilePath()).getParentFile();
+
+        try (TaskBatch batch = newBatch()) {
+            batch.delete(_ID + "=?", idOf(instance));
+        }
+
+        assertThat(instancesRepository.get(instance.getDbId()), notNullValue());
+        assertThat(instanceDir.exists(), equalTo(true));
+    }
+
+    @Test
+    public void aDeletedInstanceThatHasBeenSubmittedIsKeptWithADeletedDate() {
+        Instance instance = saveInstance(Instance.STATUS_SUBMITTED);
+
+        try (TaskBatch batch = newBatch()) {
+            batch.delete(_ID + "=?", idOf(instance));
+            batch.commit();
+        }
+
+        assertThat(instancesRepository.get(instance.getDbId()).getDeletedDate(), notNullValue());
+        assertThat(new File(instance.getInstanceFilePath()).getParentFile().exists(), equalTo(false));
+    }
+
+    private TaskBatch newBatch() {
+        return new TaskBatch(instancesRepository, new InMemFormsRepository(), resolver);
+    }
+
+    private Instance saveInstance(String status) {
+        return instancesRepository.save(buildInstance("form", "1", instancesDir.getAbsolutePath())
+                .status(status)
+                .build());
+    }
+
+    private static String[] idOf(Instance instance) {
+        return new String[] {String.valueOf(instance.getDbId())};
+    }
+
+    private static ContentValues values(String formId) {
+        ContentValues values = new ContentValues();
+        values.put(InstanceColumns.JR_FORM_ID, formId);
+        values.put(InstanceColumns.DISPLAY_NAME, formId);
+        values.put(InstanceColumns.INSTANCE_FILE_PATH, formId + "/" + formId + ".xml");
+        return values;
+    }
+
+    private static ContentValues status(String status) {
+        ContentValues values = new ContentValues();
+        values.put(InstanceColumns.STATUS, status);
+        return values;
+    }
+}
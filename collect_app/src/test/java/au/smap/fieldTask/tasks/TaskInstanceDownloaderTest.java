@@ -0,0 +1,185 @@
+package au.smap.fieldTask.tasks;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import au.smap.fieldTask.database.TaskResponseAssignment;
+import au.smap.fieldTask.database.TrTask;
+import au.smap.fieldTask.utilities.ManageFormResponse;
+
+public class TaskInstanceDownloaderTest {
+
+    private final List<TaskInstanceDownloader.Download> downloaded = new ArrayList<>();
+    private final CountDownLatch firstDownloaded = new CountDownLatch(1);
+    private boolean cancelled;
+
+    private final TaskInstanceDownloader downloader = new TaskInstanceDownloader(2, new TaskInstanceDownloader.Listener() {
+        @Override
+        public void onDownloaded(TaskInstanceDownloader.Download download, int count, int total) {
+            downloaded.add(download);
+            firstDownloaded.countDown();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    });
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void close() {
+        downloader.close();
+    }
+
+    @Test
+    public void downloadsAreHandedToTheListenerInTheOrderTheyFinish() throws Exception {
+        downloader.submit(task("first"), true, () -> {
+            firstDownloaded.await();
+            return response("first");
+        });
+        downloader.submit(task("second"), true, () -> response("second"));
+
+        assertThat(downloader.awaitAll(), equalTo(true));
+        assertThat(titles(), contains("second", "first"));
+    }
+
+    @Test
+    public void aFailedDownloadIsReturnedAsAnErrorForThatTaskOnly() throws Exception {
+        downloader.submit(task("broken"), true, () -> {
+            throw new Exception("Not found");
+        });
+        downloader.submit(task("ok"), false, () -> {
+            firstDownloaded.await();
+            return response("ok");
+        });
+
+        downloader.awaitAll();
+
+        assertThat(downloaded.get(0).response.isError, equalTo(true));
+        assertThat(downloaded.get(0).response.statusMsg, equalTo("Not found"));
+        assertThat(downloaded.get(0).isNew, equalTo(true));
+        assertThat(downloaded.get(1).response.isError, equalTo(false));
+        assertThat(downloaded.get(1).isNew, equalTo(false));
+    }
+
+    @Test
+    public void finishedDownloadsAreHandedToTheListenerBeforeMoreAreQueued() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            downloader.submit(task("task" + i), true, () -> response("instance"));
+            assertThat(i + 1 - downloaded.size(), lessThanOrEqualTo(4));
+        }
+
+        downloader.awaitAll();
+        assertThat(downloaded.size(), equalTo(20));
+    }
+
+    @Test
+    public void submitAndAwaitAllReturnFalseWhenCancelled() throws Exception {
+        CountDownLatch never = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            downloader.submit(task("slow"), true, () -> {
+                never.await();
+                return response("slow");
+            });
+        }
+
+        cancelled = true;
+        assertThat(downloader.submit(task("more"), true, () -> response("more")), equalTo(false));
+        assertThat(downloader.awaitAll(), equalTo(false));
+    }
+
+    @Test
+    public void closingDeletesTheInstancesThatWereNotCommitted() throws Exception {
+        File instance = instanceFile("done");
+        downloader.submit(task("done"), true, () -> response(instance.getAbsolutePath()));
+        downloader.awaitAll();
+
+        downloader.close();
+
+        assertThat(instance.getParentFile().exists(), equalTo(false));
+    }
+
+    @Test
+    public void closingKeepsTheInstancesThatWereCommitted() throws Exception {
+        File instance = instanceFile("done");
+        downloader.submit(task("done"), true, () -> response(instance.getAbsolutePath()));
+        downloader.awaitAll();
+        downloader.commit();
+
+        downloader.close();
+
+        assertThat(instance.getParentFile().exists(), equalTo(true));
+    }
+
+    @Test
+    public void closingWaitsForRunningDownloadsAndDeletesTheirInstances() throws Exception {
+        File instance = instanceFile("late");
+        CountDownLatch release = new CountDownLatch(1);
+        downloader.submit(task("late"), true, () -> {
+            // Ignore the interrupt, as a download blocked in a socket read would
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Keep waiting
+                }
+            }
+            return response(instance.getAbsolutePath());
+        });
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                // Release now
+            }
+            release.countDown();
+        }).start();
+        downloader.close();
+
+        assertThat(instance.getParentFile().exists(), equalTo(false));
+    }
+
+    private List<String> titles() {
+        List<String> titles = new ArrayList<>();
+        for (TaskInstanceDownloader.Download download : downloaded) {
+            titles.add(download.ta.task.title);
+        }
+        return titles;
+    }
+
+    private File instanceFile(String name) throws Exception {
+        File dir = temporaryFolder.newFolder(name);
+        File instance = new File(dir, name + ".xml");
+        instance.createNewFile();
+        return instance;
+    }
+
+    private static TaskResponseAssignment task(String title) {
+        TaskResponseAssignment ta = new TaskResponseAssignment();
+        ta.task = new TrTask();
+        ta.task.title = title;
+        return ta;
+    }
+
+    private static ManageFormResponse response(String instancePath) {
+        ManageFormResponse response = new ManageFormResponse();
+        response.instancePath = instancePath;
+        return response;
+    }
+}
@@ -0,0 +1,100 @@
+package au.smap.fieldTask.tasks;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringReader;
+
+import au.smap.fieldTask.database.TaskResponseAssignment;
+import au.smap.fieldTask.models.TaskResponse;
+
+public class TaskResponseReaderTest {
+
+    private static final String RESPONSE = "{"
+            + "\"message\":\"ok\","
+            + "\"version\":1,"
+            + "\"data\":["
+            + "{\"task\":{\"id\":5,\"title\":\"First\\nline\",\"type\":\"task\"},\"assignment\":{\"assignment_id\":10,\"assignment_status\":\"accepted\"}},"
+            + "{\"task\":{\"id\":0,\"title\":\"Case\",\"type\":\"case\",\"update_id\":\"uuid:1\"},\"assignment\":{\"assignment_id\":0,\"assignment_status\":\"accepted\"}}"
+            + "],"
+            + "\"forms\":[{\"ident\":\"s1_1\",\"version\":3}],"
+            + "\"current_org\":\"Org\""
+            + "}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void assignmentsAreSpooledAndTheRestOfTheResponseIsReturned() throws Exception {
+        TaskAssignmentSpool spool = new TaskAssignmentSpool(new File(temporaryFolder.getRoot(), "spool.json"));
+
+        TaskResponse tr = new TaskResponseReader(gson).read(new StringReader(RESPONSE), spool);
+
+        assertThat(tr.message, equalTo("ok"));
+        assertThat(tr.version, equalTo(1));
+        assertThat(tr.forms.size(), equalTo(1));
+        assertThat(tr.forms.get(0).ident, equalTo("s1_1"));
+        assertThat(tr.current_org, equalTo("Org"));
+        assertThat(tr.taskAssignments, nullValue());
+        assertThat(spool.size(), equalTo(2));
+    }
+
+    @Test
+    public void spooledAssignmentsAreReadBackInOrder() throws Exception {
+        TaskAssignmentSpool spool = new TaskAssignmentSpool(new File(temporaryFolder.getRoot(), "spool.json"));
+        new TaskResponseReader(gson).read(new StringReader(RESPONSE), spool);
+
+        try (TaskAssignmentSpool.Cursor cursor = spool.read(gson)) {
+            TaskResponseAssignment first = cursor.next();
+            assertThat(first.task.title, equalTo("First\nline"));
+            assertThat(first.assignment.assignment_id, equalTo(10));
+
+            TaskResponseAssignment second = cursor.next();
+            assertThat(second.task.update_id, equalTo("uuid:1"));
+
+            assertThat(cursor.next(), nullValue());
+        }
+    }
+
+    @Test
+    public void spoolKeysHoldTheIdentifiersOfEachAssignment() throws Exception {
+        TaskAssignmentSpool spool = new TaskAssignmentSpool(new File(temporaryFolder.getRoot(), "spool.json"));
+        new TaskResponseReader(gson).read(new StringReader(RESPONSE), spool);
+
+        assertThat(spool.getKeys().get(0).assignment.assignment_id, equalTo(10));
+        assertThat(spool.getKeys().get(0).task.type, equalTo("task"));
+        assertThat(spool.getKeys().get(1).task.type, equalTo("case"));
+        assertThat(spool.getKeys().get(1).task.update_id, equalTo("uuid:1"));
+    }
+
+    @Test
+    public void resetDiscardsSpooledAssignments() throws Exception {
+        TaskAssignmentSpool spool = new TaskAssignmentSpool(new File(temporaryFolder.getRoot(), "spool.json"));
+        new TaskResponseReader(gson).read(new StringReader(RESPONSE), spool);
+
+        spool.reset();
+
+        assertThat(spool.size(), equalTo(0));
+        assertThat(spool.getKeys().size(), equalTo(0));
+        try (TaskAssignmentSpool.Cursor cursor = spool.read(gson)) {
+            assertThat(cursor.next(), nullValue());
+        }
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void invalidJsonThrowsJsonSyntaxException() throws Exception {
+        TaskAssignmentSpool spool = new TaskAssignmentSpool(new File(temporaryFolder.getRoot(), "spool.json"));
+        new TaskResponseReader(gson).read(new StringReader("<html>proxy login</html>"), spool);
+    }
+}
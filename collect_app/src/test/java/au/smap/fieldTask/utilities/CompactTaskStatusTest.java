@@ -0,0 +1,156 @@
+package au.smap.fieldTask.utilities;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+public class CompactTaskStatusTest {
+
+    @Test
+    public void theStatusAndTrailCanBeReadBack() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (CompactTaskStatus writer = new CompactTaskStatus(os)) {
+            writer.writeStatus("{\"taskAssignments\":[]}");
+            writer.begin(3);
+            writer.write(-33.8688197, 151.2092955, 1_700_000_000_000L);
+            writer.write(-33.8688301, 151.2093012, 1_700_000_005_000L);
+            writer.write(-33.8687950, 151.2092801, 1_700_000_010_000L);
+        }
+
+        Decoder decoder = new Decoder(os.toByteArray());
+        assertThat(decoder.readVarint(), equalTo((long) CompactTaskStatus.VERSION));
+        assertThat(decoder.readString(), equalTo("{\"taskAssignments\":[]}"));
+        assertThat(decoder.readVarint(), equalTo(3L));
+
+        double[][] expected = {
+                {-33.8688197, 151.2092955, 1_700_000_000_000L},
+                {-33.8688301, 151.2093012, 1_700_000_005_000L},
+                {-33.8687950, 151.2092801, 1_700_000_010_000L}
+        };
+        long lat = 0;
+        long lon = 0;
+        long time = 0;
+        for (double[] point : expected) {
+            lat += decoder.readSigned();
+            lon += decoder.readSigned();
+            time += decoder.readSigned();
+            assertThat(lat / CompactTaskStatus.E7, closeTo(point[0], 1e-7));
+            assertThat(lon / CompactTaskStatus.E7, closeTo(point[1], 1e-7));
+            assertThat(time, equalTo((long) point[2]));
+        }
+        assertThat(decoder.is.read(), equalTo(-1));
+    }
+
+    @Test
+    public void pointsCloseTogetherTakeAFewBytesEach() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        int count = 1000;
+        try (CompactTaskStatus writer = new CompactTaskStatus(os)) {
+            writer.writeStatus("{}");
+            writer.begin(count);
+            for (int i = 0; i < count; i++) {
+                writer.write(-33.86 + i * 0.00001, 151.20 - i * 0.00002, 1_700_000_000_000L + i * 5000L);
+            }
+            assertThat(writer.getPointCount(), equalTo(count));
+        }
+
+        // Before compression each point is at most a few bytes per value
+        assertThat(new Decoder(os.toByteArray()).length(), lessThan(20 + count * 9));
+    }
+
+    @Test
+    public void aStatusWithoutATrailHasAnEmptyOne() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (CompactTaskStatus writer = new CompactTaskStatus(os)) {
+            writer.writeStatus("{}");
+        }
+
+        Decoder decoder = new Decoder(os.toByteArray());
+        decoder.readVarint();
+        decoder.readString();
+        assertThat(decoder.readVarint(), equalTo(0L));
+        assertThat(decoder.is.read(), equalTo(-1));
+    }
+
+    @Test
+    public void fewerPointsThanPromisedIsAnError() throws Exception {
+        CompactTaskStatus writer = new CompactTaskStatus(new ByteArrayOutputStream());
+        writer.writeStatus("{}");
+        writer.begin(2);
+        writer.write(1, 1, 1);
+
+        assertThrows(IOException.class, writer::close);
+    }
+
+    @Test
+    public void morePointsThanPromisedIsAnError() throws Exception {
+        CompactTaskStatus writer = new CompactTaskStatus(new ByteArrayOutputStream());
+        writer.writeStatus("{}");
+        writer.begin(1);
+        writer.write(1, 1, 1);
+
+        assertThrows(IOException.class, () -> writer.write(2, 2, 2));
+    }
+
+    private static class Decoder {
+
+        private final byte[] bytes;
+        final InputStream is;
+
+        Decoder(byte[] gzipped) throws IOException {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try (InputStream gis = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = gis.read(buffer)) > 0) {
+                    os.write(buffer, 0, count);
+                }
+            }
+            bytes = os.toByteArray();
+            is = new ByteArrayInputStream(bytes);
+        }
+
+        int length() {
+            return bytes.length;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = is.read();
+                if (b < 0) {
+                    throw new IOException("Unexpected end");
+                }
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        long readSigned() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() throws IOException {
+            byte[] string = new byte[(int) readVarint()];
+            if (is.read(string) != string.length) {
+                throw new IOException("Unexpected end");
+            }
+            return new String(string, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package au.smap.fieldTask.utilities;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import au.smap.fieldTask.loaders.GeofenceEntry;
+
+@RunWith(RobolectricTestRunner.class)
+public class GeofenceIndexTest {
+
+    private static final double LAT = -33.8688;
+    private static final double LON = 151.2093;
+    private static final double METRE = 1 / 111_111.1;     // Degrees of latitude
+
+    private final GeofenceIndex index = new GeofenceIndex();
+
+    @Test
+    public void withinFindsTheSameGeofencesAsCheckingEachOne() {
+        List<GeofenceEntry> entries = createEntries(2000, new Random(1));
+        index.update(entries);
+
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            double lat = LAT + (random.nextDouble() - 0.5) * 0.1;
+            double lon = LON + (random.nextDouble() - 0.5) * 0.1;
+
+            Set<Long> expected = new HashSet<>();
+            for (GeofenceEntry entry : entries) {
+                if (index.distance(lat, lon, entry) < entry.showDist) {
+                    expected.add(entry.id);
+                }
+            }
+            assertThat(ids(index.within(lat, lon)), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void nearestFindsTheSameGeofencesAsCheckingEachOne() {
+        List<GeofenceEntry> entries = createEntries(2000, new Random(3));
+        index.update(entries);
+
+        Random random = new Random(4);
+        for (int i = 0; i < 100; i++) {
+            double lat = LAT + (random.nextDouble() - 0.5) * 0.2;
+            double lon = LON + (random.nextDouble() - 0.5) * 0.2;
+
+            List<GeofenceEntry> sorted = new ArrayList<>(entries);
+            sorted.sort(Comparator.comparingDouble(entry -> index.distance(lat, lon, entry)));
+            List<GeofenceEntry> nearest = index.nearest(lat, lon, 5);
+
+            assertThat(nearest.size(), equalTo(5));
+            for (int j = 0; j < 5; j++) {
+                assertThat(index.distance(lat, lon, nearest.get(j)), equalTo(index.distance(lat, lon, sorted.get(j))));
+            }
+        }
+    }
+
+    @Test
+    public void nearestFromFarAwayStillFindsTheGeofences() {
+        index.update(createEntries(50, new Random(5)));
+
+        assertThat(index.nearest(51.5, -0.12, 3).size(), equalTo(3));
+        assertThat(index.nearest(LAT, LON, 100).size(), equalTo(50));
+    }
+
+    @Test
+    public void enteringAGeofenceIsAChange() {
+        index.update(Arrays.asList(new GeofenceEntry(1, 100, LAT, LON)));
+
+        assertThat(index.check(LAT + 150 * METRE, LON).entered, equalTo(false));
+        assertThat(index.check(LAT + 50 * METRE, LON).entered, equalTo(true));
+    }
+
+    @Test
+    public void leavingAGeofenceIsAChange() {
+        GeofenceEntry entry = new GeofenceEntry(1, 100, LAT, LON);
+        entry.in = true;
+        index.update(Arrays.asList(entry));
+
+        assertThat(index.check(LAT + 50 * METRE, LON).exited, equalTo(false));
+        assertThat(index.check(LAT + 150 * METRE, LON).exited, equalTo(true));
+        assertThat(index.check(LAT + 50 * METRE, LON).entered, equalTo(false));     // Already inside
+    }
+
+    @Test
+    public void aGeofenceFoundWithinAndPutBackAsInIsCheckedForLeaving() {
+        index.update(Arrays.asList(new GeofenceEntry(1, 100, LAT, LON)));
+
+        GeofenceEntry found = index.within(LAT + 50 * METRE, LON).get(0);
+        found.in = true;
+        index.put(found);
+
+        assertThat(index.check(LAT + 50 * METRE, LON).entered, equalTo(false));
+        assertThat(index.check(LAT + 150 * METRE, LON).exited, equalTo(true));
+    }
+
+    @Test
+    public void aGeofenceCoveringManyCellsIsStillFound() {
+        index.update(Arrays.asList(new GeofenceEntry(1, 50_000, LAT, LON)));
+
+        assertThat(index.within(LAT + 40_000 * METRE, LON).size(), equalTo(1));
+        assertThat(index.within(LAT + 60_000 * METRE, LON).size(), equalTo(0));
+    }
+
+    @Test
+    public void updatingOnlyReindexesGeofencesThatChanged() {
+        GeofenceEntry moving = new GeofenceEntry(1, 100, LAT, LON);
+        GeofenceEntry staying = new GeofenceEntry(2, 100, LAT + 0.05, LON);
+        GeofenceEntry removed = new GeofenceEntry(3, 100, LAT - 0.05, LON);
+        index.update(Arrays.asList(moving, staying, removed));
+
+        GeofenceEntry moved = new GeofenceEntry(1, 100, LAT + 0.02, LON);
+        GeofenceEntry stayed = new GeofenceEntry(2, 100, LAT + 0.05, LON);
+        index.update(Arrays.asList(moved, stayed));
+
+        assertThat(index.size(), equalTo(2));
+        assertThat(index.get(2), sameInstance(stayed));
+        assertThat(index.within(LAT, LON).size(), equalTo(0));
+        assertThat(index.within(LAT + 0.02, LON).get(0), sameInstance(moved));
+        assertThat(index.within(LAT + 0.05, LON).get(0), sameInstance(stayed));
+        assertThat(index.within(LAT - 0.05, LON).size(), equalTo(0));
+    }
+
+    private static List<GeofenceEntry> createEntries(int count, Random random) {
+        List<GeofenceEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new GeofenceEntry(i,
+                    20 + random.nextInt(980),
+                    LAT + (random.nextDouble() - 0.5) * 0.1,
+                    LON + (random.nextDouble() - 0.5) * 0.1));
+        }
+        return entries;
+    }
+
+    private static Set<Long> ids(List<GeofenceEntry> entries) {
+        Set<Long> ids = new HashSet<>();
+        for (GeofenceEntry entry : entries) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+}
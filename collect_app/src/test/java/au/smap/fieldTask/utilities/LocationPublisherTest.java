@@ -0,0 +1,203 @@
+package au.smap.fieldTask.utilities;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import au.smap.fieldTask.loaders.PointEntry;
+
+public class LocationPublisherTest {
+
+    private static final double LAT = -33.8688;
+    private static final double LON = 151.2093;
+    private static final double METRE = 1 / 111_111.1;     // Degrees of latitude
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final List<List<PointEntry>> batches = new CopyOnWriteArrayList<>();
+    private volatile boolean failing;
+    private volatile CountDownLatch sendStarted;
+    private volatile CountDownLatch sendFinished;
+
+    private final LocationPublisher publisher = new LocationPublisher(fixes -> {
+        CountDownLatch finished = sendFinished;
+        if (finished != null) {
+            sendStarted.countDown();
+            finished.await();
+        }
+        if (failing) {
+            throw new IOException("offline");
+        }
+        batches.add(fixes);
+    }, executor, 200);
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void theFirstFixIsSentStraightAway() throws Exception {
+        publisher.publish(LAT, LON, 1000);
+        drain();
+
+        assertThat(batches.size(), equalTo(1));
+        assertThat(batches.get(0).get(0).time, equalTo(1000L));
+    }
+
+    @Test
+    public void fixesAtZeroZeroAreIgnored() throws Exception {
+        publisher.publish(0.0, 0.0, 1000);
+        drain();
+
+        assertThat(batches.size(), equalTo(0));
+        assertThat(publisher.getBufferedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void fixesWhileTheFirstIsBeingSentWaitForTheDelay() throws Exception {
+        sendStarted = new CountDownLatch(1);
+        sendFinished = new CountDownLatch(1);
+        publisher.publish(LAT, LON, 0);
+        sendStarted.await();
+
+        for (int i = 1; i <= 4; i++) {
+            publisher.publish(LAT, LON, i);
+        }
+        sendFinished.countDown();
+        sendFinished = null;
+        drain();
+        assertThat(batches.size(), equalTo(1));
+        assertThat(publisher.getRequestCount(), equalTo(1L));
+
+        Thread.sleep(400);
+        drain();
+        assertThat(batches.size(), equalTo(2));
+        assertThat(batches.get(1).size(), equalTo(4));
+    }
+
+    @Test
+    public void fixesCloseTogetherAreSentInOneRequestAfterTheDelay() throws Exception {
+        publisher.publish(LAT, LON, 0);
+        drain();
+
+        for (int i = 1; i <= 5; i++) {
+            publisher.publish(LAT + i * 10 * METRE, LON, i * 10_000L);
+        }
+        drain();
+        assertThat(batches.size(), equalTo(1));
+
+        Thread.sleep(400);
+        drain();
+        assertThat(batches.size(), equalTo(2));
+        assertThat(batches.get(1).size(), equalTo(5));
+        assertThat(batches.get(1).get(4).time, equalTo(50_000L));
+        assertThat(publisher.getRequestCount(), equalTo(2L));
+    }
+
+    @Test
+    public void aFullBatchIsSentWithoutWaiting() throws Exception {
+        publisher.publish(LAT, LON, 0);
+        drain();
+
+        for (int i = 1; i <= LocationPublisher.MAX_BATCH; i++) {
+            publisher.publish(LAT, LON, i);
+        }
+        drain();
+
+        assertThat(batches.size(), equalTo(2));
+        assertThat(batches.get(1).size(), equalTo(LocationPublisher.MAX_BATCH));
+    }
+
+    @Test
+    public void movingAwayFromTheLastLocationSentFlushes() throws Exception {
+        publisher.publish(LAT, LON, 0);
+        drain();
+
+        publisher.publish(LAT + 10 * METRE, LON, 1);
+        publisher.publish(LAT + (LocationPublisher.MAX_DISTANCE + 10) * METRE, LON, 2);
+        drain();
+
+        assertThat(batches.size(), equalTo(2));
+        assertThat(batches.get(1).size(), equalTo(2));
+    }
+
+    @Test
+    public void flushSendsWhatIsBuffered() throws Exception {
+        publisher.publish(LAT, LON, 0);
+        drain();
+        publisher.publish(LAT, LON, 1);
+
+        publisher.flush();
+        drain();
+
+        assertThat(batches.size(), equalTo(2));
+    }
+
+    @Test
+    public void aFailedBatchIsKeptForTheNextFlush() throws Exception {
+        failing = true;
+        publisher.publish(LAT, LON, 0);
+        drain();
+        publisher.publish(LAT, LON, 1);
+        drain();
+        assertThat(publisher.getRequestCount(), equalTo(1L));       // No retry for each fix
+
+        failing = false;
+        publisher.flush();
+        drain();
+
+        assertThat(batches.size(), equalTo(1));
+        assertThat(batches.get(0).size(), equalTo(2));
+        assertThat(batches.get(0).get(0).time, equalTo(0L));
+        assertThat(publisher.getBufferedCount(), equalTo(2L));
+        assertThat(publisher.getFlushedCount(), equalTo(2L));
+        assertThat(publisher.getDroppedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void theOldestFixesAreDroppedWhenTheBufferIsFull() throws Exception {
+        failing = true;
+        int count = LocationPublisher.MAX_BUFFERED + 10;
+        for (int i = 0; i < count; i++) {
+            publisher.publish(LAT, LON, i);
+        }
+        drain();
+
+        failing = false;
+        publisher.flush();
+        drain();
+
+        assertThat(publisher.getDroppedCount(), equalTo(10L));
+        assertThat(batches.get(0).size(), equalTo(LocationPublisher.MAX_BUFFERED));
+        assertThat(batches.get(0).get(0).time, equalTo(10L));
+    }
+
+    @Test
+    public void distanceIsInMetres() {
+        PointEntry a = new PointEntry();
+        a.lat = LAT;
+        a.lon = LON;
+        PointEntry b = new PointEntry();
+        b.lat = LAT + 100 * METRE;
+        b.lon = LON;
+
+        assertThat(LocationPublisher.distance(a, b), closeTo(100, 1));
+    }
+
+    /*
+     * Wait for everything already given to the executor
+     */
+    private void drain() throws Exception {
+        executor.submit(() -> { }).get();
+    }
+}
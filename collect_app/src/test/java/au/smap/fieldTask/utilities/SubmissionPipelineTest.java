@@ -0,0 +1,179 @@
+package au.smap.fieldTask.utilities;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import android.net.Uri;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.upload.FormUploadAuthRequestedException;
+import org.odk.collect.android.upload.FormUploadException;
+import org.odk.collect.android.upload.InstanceUploader;
+import org.odk.collect.forms.instances.Instance;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public class SubmissionPipelineTest {
+
+    private final List<Integer> started = new CopyOnWriteArrayList<>();
+    private final List<Long> submitted = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    @Test
+    public void resultsAreInTheOrderOfTheInstancesNotTheOrderTheyFinish() {
+        List<Instance> instances = createInstances(6);
+
+        // Earlier instances take longer so they finish last
+        SubmissionPipeline.Result result = new SubmissionPipeline(new FakeUploader(instance -> {
+            Thread.sleep(10 * (7 - instance.getDbId()));
+            return "sent " + instance.getDbId();
+        })).submit(instances, new FakeCallbacks());
+
+        assertThat(new ArrayList<>(result.messagesByInstanceId.keySet()), equalTo(Arrays.asList("1", "2", "3", "4", "5", "6")));
+        assertThat(result.messagesByInstanceId.get("4"), equalTo("sent 4"));
+        assertThat(started, equalTo(Arrays.asList(1, 2, 3, 4, 5, 6)));
+        assertThat(submitted.size(), equalTo(6));
+    }
+
+    @Test
+    public void noMoreThanTheLimitAreSentAtOnce() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        new SubmissionPipeline(new FakeUploader(instance -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return null;
+        }), 3).submit(createInstances(10), new FakeCallbacks());
+
+        assertThat(maxInFlight.get(), lessThanOrEqualTo(3));
+        assertThat(submitted.size(), equalTo(10));
+    }
+
+    @Test
+    public void anInstanceWithoutACustomMessageGetsTheSuccessMessage() {
+        SubmissionPipeline.Result result = new SubmissionPipeline(new FakeUploader(instance -> null))
+                .submit(createInstances(1), new FakeCallbacks());
+
+        assertThat(result.messagesByInstanceId.get("1"), equalTo("success"));
+    }
+
+    @Test
+    public void failuresAreReportedAgainstEachInstance() {
+        SubmissionPipeline.Result result = new SubmissionPipeline(new FakeUploader(instance -> {
+            if (instance.getDbId() == 2) {
+                throw new FormUploadException("Error: 500");
+            }
+            return null;
+        })).submit(createInstances(3), new FakeCallbacks());
+
+        assertThat(result.messagesByInstanceId.get("1"), equalTo("success"));
+        assertThat(result.messagesByInstanceId.get("2"), equalTo("Error: 500"));
+        assertThat(result.messagesByInstanceId.get("3"), equalTo("success"));
+        assertThat(result.getAuthRequestingServer(), nullValue());
+    }
+
+    @Test
+    public void anAuthRequestStopsTheBatchAndLeavesTheRestToBeRetried() {
+        Uri server = Uri.parse("https://example.com/submission");
+
+        SubmissionPipeline.Result result = new SubmissionPipeline(new FakeUploader(instance -> {
+            if (instance.getDbId() == 1) {
+                throw new FormUploadAuthRequestedException("auth", server);
+            }
+            return null;
+        }), 1).submit(createInstances(5), new FakeCallbacks());
+
+        assertThat(result.getAuthRequestingServer(), equalTo(server));
+        assertThat(result.messagesByInstanceId.isEmpty(), equalTo(true));
+        assertThat(started, equalTo(Arrays.asList(1)));
+        assertThat(result.cancelled, equalTo(false));
+    }
+
+    @Test
+    public void cancellingStopsMoreInstancesBeingStarted() {
+        SubmissionPipeline.Result result = new SubmissionPipeline(new FakeUploader(instance -> {
+            cancelled = true;
+            return null;
+        }), 1).submit(createInstances(5), new FakeCallbacks());
+
+        assertThat(result.cancelled, equalTo(true));
+        assertThat(new ArrayList<>(result.messagesByInstanceId.keySet()), equalTo(Arrays.asList("1")));
+    }
+
+    private static List<Instance> createInstances(int count) {
+        List<Instance> instances = new ArrayList<>();
+        for (long i = 1; i <= count; i++) {
+            instances.add(new Instance.Builder().dbId(i).formId("form").build());
+        }
+        return instances;
+    }
+
+    private interface Send {
+        String send(Instance instance) throws Exception;
+    }
+
+    private static class FakeUploader extends InstanceUploader {
+
+        private final Send send;
+
+        FakeUploader(Send send) {
+            super(null);
+            this.send = send;
+        }
+
+        @Override
+        public String uploadOneSubmission(Instance instance, String destinationUrl) throws FormUploadException {
+            try {
+                return send.send(instance);
+            } catch (FormUploadException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new FormUploadException(e);
+            }
+        }
+
+        @Override
+        public String getUrlToSubmitTo(Instance currentInstance, String deviceId, String overrideURL, String urlFromSettings) {
+            return "https://example.com/submission";
+        }
+    }
+
+    private class FakeCallbacks implements SubmissionPipeline.Callbacks {
+
+        @Override
+        public String getUrlToSubmitTo(Instance instance) {
+            return "https://example.com/submission";
+        }
+
+        @Override
+        public String getSuccessMessage() {
+            return "success";
+        }
+
+        @Override
+        public void onStarted(int position, int total) {
+            started.add(position);
+        }
+
+        @Override
+        public void onSubmitted(Instance instance) {
+            submitted.add(instance.getDbId());
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
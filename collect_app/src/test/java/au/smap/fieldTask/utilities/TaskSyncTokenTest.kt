@@ -0,0 +1,85 @@
+package au.smap.fieldTask.utilities
+
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.nullValue
+import org.junit.Test
+import org.odk.collect.shared.settings.InMemSettings
+
+class TaskSyncTokenTest {
+
+    private val settings = InMemSettings()
+    private val syncToken = TaskSyncToken(settings)
+
+    @Test
+    fun `there is no token before the first refresh`() {
+        assertThat(syncToken.get("https://server", "user"), nullValue())
+    }
+
+    @Test
+    fun `a saved token is returned for the same server and user`() {
+        syncToken.save("https://server", "user", "abc")
+        assertThat(syncToken.get("https://server", "user"), equalTo("abc"))
+    }
+
+    @Test
+    fun `a token is not returned for a different user`() {
+        syncToken.save("https://server", "user", "abc")
+        assertThat(syncToken.get("https://server", "other"), nullValue())
+    }
+
+    @Test
+    fun `a token is not returned for a different server`() {
+        syncToken.save("https://server", "user", "abc")
+        assertThat(syncToken.get("https://other", "user"), nullValue())
+    }
+
+    @Test
+    fun `a token for a different owner is discarded`() {
+        syncToken.save("https://server", "user", "abc")
+        syncToken.get("https://server", "other")
+
+        assertThat(syncToken.get("https://server", "user"), nullValue())
+    }
+
+    @Test
+    fun `saving an empty token clears the stored one`() {
+        syncToken.save("https://server", "user", "abc")
+        syncToken.save("https://server", "user", null)
+
+        assertThat(syncToken.get("https://server", "user"), nullValue())
+    }
+
+    @Test
+    fun `commit advances the token when the whole response was applied`() {
+        syncToken.save("https://server", "user", "abc")
+        syncToken.commit("https://server", "user", "def")
+
+        assertThat(syncToken.isComplete(), equalTo(true))
+        assertThat(syncToken.get("https://server", "user"), equalTo("def"))
+    }
+
+    @Test
+    fun `a task that failed to download is requested again by the next refresh`() {
+        syncToken.save("https://server", "user", "abc")
+
+        // A delta refresh in which one new task fails to download
+        val refresh = TaskSyncToken(settings)
+        assertThat(refresh.get("https://server", "user"), equalTo("abc"))
+        refresh.markIncomplete("task 42")
+        refresh.commit("https://server", "user", "def")
+
+        // The next refresh sends no token so the server returns every assignment, including the failed one
+        val nextRefresh = TaskSyncToken(settings)
+        assertThat(nextRefresh.get("https://server", "user"), nullValue())
+
+        nextRefresh.commit("https://server", "user", "ghi")
+        assertThat(TaskSyncToken(settings).get("https://server", "user"), equalTo("ghi"))
+    }
+
+    @Test
+    fun `saved is never negative`() {
+        assertThat(TaskSyncToken.saved(1000, 200), equalTo(800L))
+        assertThat(TaskSyncToken.saved(0, 200), equalTo(0L))
+    }
+}
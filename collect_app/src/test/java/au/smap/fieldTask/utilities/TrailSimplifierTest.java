@@ -0,0 +1,169 @@
+package au.smap.fieldTask.utilities;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import au.smap.fieldTask.loaders.PointEntry;
+
+public class TrailSimplifierTest {
+
+    private static final double LAT = -33.8688;
+    private static final double LON = 151.2093;
+    private static final double METRE = 1 / 111_111.1;     // Degrees of latitude
+    private static final long MINUTE = 60_000;
+
+    @Test
+    public void aStraightLineBecomesItsEnds() {
+        List<PointEntry> points = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            points.add(point(i * 50, 0, i * 10_000));
+        }
+
+        List<PointEntry> kept = TrailSimplifier.simplify(points, 10, TrailSimplifier.MAX_GAP);
+
+        assertThat(kept.size(), lessThanOrEqualTo(5));     // Ends and one a gap
+        assertThat(kept.get(0), sameInstance(points.get(0)));
+        assertThat(kept.get(kept.size() - 1), sameInstance(points.get(99)));
+    }
+
+    @Test
+    public void aCornerIsKept() {
+        List<PointEntry> points = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            points.add(point(i * 50, 0, i * 10_000));
+        }
+        for (int i = 1; i <= 10; i++) {
+            points.add(point(500, i * 50, (10 + i) * 10_000));
+        }
+
+        List<PointEntry> kept = TrailSimplifier.simplify(points, 10, TrailSimplifier.MAX_GAP);
+
+        assertThat(kept.size(), equalTo(3));
+        assertThat(kept.get(1), sameInstance(points.get(10)));
+    }
+
+    @Test
+    public void jitterWhileStandingStillIsRemovedButAPointIsKeptEveryGap() {
+        Random random = new Random(1);
+        List<PointEntry> points = new ArrayList<>();
+        for (long t = 0; t < 60 * MINUTE; t += 10_000) {
+            points.add(point(random.nextGaussian() * 3, random.nextGaussian() * 3, t));
+        }
+
+        List<PointEntry> kept = TrailSimplifier.simplify(points, 20, TrailSimplifier.MAX_GAP);
+
+        assertThat(kept.size(), lessThan(points.size() / 20));
+        for (int i = 1; i < kept.size(); i++) {
+            assertThat(kept.get(i).time - kept.get(i - 1).time, lessThanOrEqualTo(TrailSimplifier.MAX_GAP));
+        }
+    }
+
+    @Test
+    public void noPointDroppedIsFurtherThanTheToleranceFromTheTrail() {
+        List<PointEntry> points = shift(new Random(2));
+        double tolerance = 10;
+
+        List<PointEntry> kept = TrailSimplifier.simplify(points, tolerance, TrailSimplifier.MAX_GAP);
+
+        assertThat(kept.size(), lessThan(points.size() / 5));
+        int next = 0;
+        for (int i = 1; i < kept.size(); i++) {
+            PointEntry a = kept.get(i - 1);
+            PointEntry b = kept.get(i);
+            while (points.get(next) != b) {
+                // Points dropped near the last kept are within the tolerance of it, others of the segment
+                assertThat(segmentDistance(points.get(next), a, b), lessThanOrEqualTo(tolerance * 2 + 0.01));
+                next++;
+            }
+        }
+    }
+
+    @Test
+    public void theNewestFirstOrderIsKept() {
+        List<PointEntry> points = shift(new Random(3));
+        List<PointEntry> oldestFirst = TrailSimplifier.simplify(points, 10, TrailSimplifier.MAX_GAP);
+
+        Collections.reverse(points);
+        List<PointEntry> newestFirst = TrailSimplifier.simplify(points, 10, TrailSimplifier.MAX_GAP);
+
+        assertThat(newestFirst.get(0), sameInstance(points.get(0)));
+        for (int i = 1; i < newestFirst.size(); i++) {
+            assertThat(newestFirst.get(i).time, lessThan(newestFirst.get(i - 1).time));
+        }
+        assertThat(Math.abs(newestFirst.size() - oldestFirst.size()), lessThan(oldestFirst.size() / 5));
+    }
+
+    @Test
+    public void aToleranceOfZeroKeepsEveryPoint() {
+        List<PointEntry> points = shift(new Random(4));
+
+        assertThat(TrailSimplifier.simplify(points, 0, TrailSimplifier.MAX_GAP).size(), equalTo(points.size()));
+    }
+
+    @Test
+    public void shortTrailsAreKept() {
+        assertThat(TrailSimplifier.simplify(new ArrayList<>(), 10, TrailSimplifier.MAX_GAP).size(), equalTo(0));
+        List<PointEntry> points = new ArrayList<>();
+        points.add(point(0, 0, 0));
+        points.add(point(1, 0, 1000));
+        assertThat(TrailSimplifier.simplify(points, 10, TrailSimplifier.MAX_GAP).size(), equalTo(2));
+    }
+
+    /*
+     * Points as they would be recorded, at least 40m apart, over a few hours of walking a
+     * winding route between sites with some time at each
+     */
+    private static List<PointEntry> shift(Random random) {
+        List<PointEntry> points = new ArrayList<>();
+        double north = 0;
+        double east = 0;
+        double heading = 0;
+        long time = 0;
+        for (int site = 0; site < 6; site++) {
+            for (int i = 0; i < 100; i++) {
+                heading += random.nextGaussian() * 0.05;
+                north += Math.cos(heading) * 40;
+                east += Math.sin(heading) * 40;
+                time += 30_000;
+                points.add(point(north + random.nextGaussian() * 3, east + random.nextGaussian() * 3, time));
+            }
+            for (int i = 0; i < 20; i++) {
+                time += 60_000;
+                points.add(point(north + random.nextGaussian() * 5, east + random.nextGaussian() * 5, time));
+            }
+        }
+        return points;
+    }
+
+    private static PointEntry point(double north, double east, long time) {
+        PointEntry point = new PointEntry();
+        point.lat = LAT + north * METRE;
+        point.lon = LON + east * METRE / Math.cos(Math.toRadians(LAT));
+        point.time = time;
+        return point;
+    }
+
+    /*
+     * Metres from the point to the segment a b
+     */
+    private static double segmentDistance(PointEntry p, PointEntry a, PointEntry b) {
+        double scale = Math.cos(Math.toRadians(LAT)) / METRE;
+        double x = (p.lon - a.lon) * scale;
+        double y = (p.lat - a.lat) / METRE;
+        double bx = (b.lon - a.lon) * scale;
+        double by = (b.lat - a.lat) / METRE;
+        double lengthSq = bx * bx + by * by;
+        double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, (x * bx + y * by) / lengthSq));
+        return Math.hypot(x - t * bx, y - t * by);
+    }
+}
@@ -0,0 +1,61 @@
+package org.odk.collect.android.benchmark
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.lessThanOrEqualTo
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.odk.collect.android.dynamicpreload.ExternalDataReaderImpl
+import org.odk.collect.android.support.CollectHelpers
+import org.odk.collect.shared.TempFiles
+import org.odk.collect.shared.TimeInMs
+import java.io.File
+import kotlin.system.measureTimeMillis
+
+/**
+ * Benchmarks importing the CSV data sets used by pulldata() and search() into their databases,
+ * which happens the first time a form is opened after its media has changed. The CSVs are
+ * generated with a key column (so an index is created) and a few text columns. This runs the
+ * same import as ExternalDataReaderTest under Robolectric so it runs on CI. The targets are
+ * generous and are there to catch work that grows faster than the number of rows.
+ */
+@RunWith(AndroidJUnit4::class)
+class CsvImportBenchmarkTest {
+
+    @Before
+    fun setup() {
+        CollectHelpers.setupDemoProject()
+    }
+
+    @Test
+    fun importingCsv() {
+        val dir = TempFiles.createTempDir()
+
+        listOf(
+            Pair(10_000, 5L),
+            Pair(100_000, 30L)
+        ).forEach { (rows, target) ->
+            val csv = createCsv(dir, "facilities_$rows", rows)
+            benchmark("Importing $rows rows", target) {
+                ExternalDataReaderImpl({ false }, { }).doImport(mapOf(csv.nameWithoutExtension to csv))
+            }
+        }
+    }
+
+    private fun createCsv(dir: File, name: String, rows: Int): File {
+        val csv = File(dir, "$name.csv")
+        csv.bufferedWriter().use { writer ->
+            writer.write("name,label,facility_key,district,\"type, level\"\n")
+            for (i in 1..rows) {
+                writer.write("facility_$i,Facility $i,$i,District ${i % 50},\"Clinic, ${i % 3}\"\n")
+            }
+        }
+        return csv
+    }
+
+    private fun benchmark(name: String, target: Long, action: () -> Unit) {
+        val time = measureTimeMillis(action) / TimeInMs.ONE_SECOND
+        assertThat("\"$name\" took ${time}s!", time, lessThanOrEqualTo(target))
+    }
+}
@@ -0,0 +1,85 @@
+package org.odk.collect.android.benchmark
+
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.lessThanOrEqualTo
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.odk.collect.android.database.entities.DatabaseEntitiesRepository
+import org.odk.collect.entities.storage.Entity
+import org.odk.collect.shared.TempFiles
+import org.odk.collect.shared.TimeInMs
+import kotlin.system.measureTimeMillis
+
+/**
+ * A JVM version of the sync benchmark in [EntitiesBenchmarkTest] that measures syncing a 50k
+ * entity list into [DatabaseEntitiesRepository] under Robolectric, so it runs on CI without a
+ * device or server. The targets are generous as they need to pass on CI machines and are there to
+ * catch work that grows with the size of the list (like a query per entity or renumbering every
+ * row) rather than to measure small changes.
+ */
+@RunWith(AndroidJUnit4::class)
+class EntitiesSyncBenchmarkTest {
+
+    private val repository = DatabaseEntitiesRepository(
+        ApplicationProvider.getApplicationContext(),
+        TempFiles.createTempDir().absolutePath,
+        System::currentTimeMillis
+    )
+
+    @Test
+    fun fiftyThousandEntitySync() {
+        val entities = (1..ENTITY_COUNT).map { createEntity(it, 1) }
+        benchmark("Saving new list", 60) {
+            repository.save("people", *entities.toTypedArray())
+        }
+
+        benchmark("Numbering rows", 10) {
+            repository.getByIndex("people", 0)
+        }
+
+        val updated = entities.map { createEntity(it.id.toInt(), 2) }
+        benchmark("Saving updated list", 60) {
+            repository.save("people", *updated.toTypedArray())
+        }
+
+        val added = (ENTITY_COUNT + 1..ENTITY_COUNT + 1000).map { createEntity(it, 1) }
+        benchmark("Saving new entities to numbered list", 10) {
+            repository.save("people", *added.toTypedArray())
+        }
+
+        benchmark("Getting entities by index", 10) {
+            (0 until 1000).forEach { repository.getByIndex("people", it * 50) }
+        }
+
+        assertThat(repository.getCount("people"), equalTo(ENTITY_COUNT + 1000))
+        assertThat(repository.getByIndex("people", ENTITY_COUNT)!!.id, equalTo("${ENTITY_COUNT + 1}"))
+        assertThat(repository.getByIndex("people", 0)!!.version, equalTo(2))
+    }
+
+    private fun createEntity(id: Int, version: Int): Entity.New {
+        return Entity.New(
+            id.toString(),
+            "Person $id",
+            version = version,
+            properties = listOf(
+                Pair("age", (id % 90).toString()),
+                Pair("village", "Village ${id % 200}"),
+                Pair("status", if (version == 1) "new" else "visited")
+            ),
+            state = Entity.State.ONLINE,
+            trunkVersion = version
+        )
+    }
+
+    private fun benchmark(name: String, target: Long, action: () -> Unit) {
+        val time = measureTimeMillis(action) / TimeInMs.ONE_SECOND
+        assertThat("\"$name\" took ${time}s!", time, lessThanOrEqualTo(target))
+    }
+
+    companion object {
+        private const val ENTITY_COUNT = 50_000
+    }
+}
@@ -215,6 +215,113 @@ public class ExternalDataReaderTest {
         assertThat("expected zero rows of data after reimporting unchanged file", cursor.getCount(), is(0));
     }
 
+    @Test
+    public void doImport_fillsUpShortRowsAndSortsRowsInFileOrder() throws IOException {
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name,label,extra\ncherry,Cherry,1\n\nbanana,Banana\n");
+        }
+
+        ExternalDataReader externalDataReader = new ExternalDataReaderImpl(() -> false, mock());
+        externalDataReader.doImport(formDefToCsvMedia);
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        Cursor cursor = db.rawQuery("SELECT c_name, c_extra FROM " + EXTERNAL_DATA_TABLE_NAME
+                + " ORDER BY " + ExternalDataUtil.SORT_COLUMN_NAME, null);
+        assertThat(cursor.getCount(), is(2));
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0), is("cherry"));
+        assertThat(cursor.getString(1), is("1"));
+        cursor.moveToNext();
+        assertThat(cursor.getString(0), is("banana"));
+        assertThat(cursor.getString(1), is(""));
+        cursor.close();
+        db.close();
+    }
+
+    @Test
+    public void doImport_whenFewRowsChange_onlyAppliesTheChangedRows() throws IOException {
+        writeFruits("apple", "banana", "cherry", "damson", "elderberry", "fig", "grape", "honeydew");
+        new ExternalDataReaderImpl(() -> false, mock()).doImport(formDefToCsvMedia);
+        long appleRowId = getRowId("apple");
+
+        writeFruits("apricot", "apple", "banana", "cherry", "elderberry", "fig", "grapefruit", "honeydew");
+        new ExternalDataReaderImpl(() -> false, mock()).doImport(formDefToCsvMedia);
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        Cursor cursor = db.rawQuery("SELECT c_name FROM " + EXTERNAL_DATA_TABLE_NAME
+                + " ORDER BY " + ExternalDataUtil.SORT_COLUMN_NAME, null);
+        StringBuilder names = new StringBuilder();
+        while (cursor.moveToNext()) {
+            names.append(cursor.getString(0)).append(" ");
+        }
+        cursor.close();
+        db.close();
+
+        assertThat(names.toString(), is("apricot apple banana cherry elderberry fig grapefruit honeydew "));
+        assertThat("apple should not have been inserted again", getRowId("apple"), is(appleRowId));
+        assertThat("grape should have been removed", getRowId("grape"), is(-1L));
+    }
+
+    @Test
+    public void doImport_whenRowsAreRepeated_matchesEachExistingRowOnlyOnce() throws IOException {
+        writeFruits("apple", "apple", "banana", "cherry", "damson", "elderberry");
+        new ExternalDataReaderImpl(() -> false, mock()).doImport(formDefToCsvMedia);
+
+        writeFruits("apple", "banana", "cherry", "damson", "elderberry", "apple", "apple");
+        new ExternalDataReaderImpl(() -> false, mock()).doImport(formDefToCsvMedia);
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        Cursor cursor = db.rawQuery("SELECT c_name FROM " + EXTERNAL_DATA_TABLE_NAME
+                + " ORDER BY " + ExternalDataUtil.SORT_COLUMN_NAME, null);
+        StringBuilder names = new StringBuilder();
+        while (cursor.moveToNext()) {
+            names.append(cursor.getString(0)).append(" ");
+        }
+        cursor.close();
+        boolean matchedTableKept = SQLiteUtils.doesTableExist(db, EXTERNAL_DATA_TABLE_NAME + "_matched");
+        db.close();
+
+        assertThat(names.toString(), is("apple banana cherry damson elderberry apple apple "));
+        assertThat(matchedTableKept, is(false));
+    }
+
+    @Test
+    public void doImport_whenColumnsChange_importsTheWholeCsv() throws IOException {
+        writeFruits("apple", "banana");
+        new ExternalDataReaderImpl(() -> false, mock()).doImport(formDefToCsvMedia);
+
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name,label,colour\napple,Apple,red\nbanana,Banana,yellow\n");
+        }
+        new ExternalDataReaderImpl(() -> false, mock()).doImport(formDefToCsvMedia);
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        Cursor cursor = db.rawQuery("SELECT c_colour FROM " + EXTERNAL_DATA_TABLE_NAME
+                + " ORDER BY " + ExternalDataUtil.SORT_COLUMN_NAME, null);
+        cursor.moveToFirst();
+        assertThat(cursor.getString(0), is("red"));
+        cursor.close();
+        db.close();
+    }
+
+    private static void writeFruits(String... names) throws IOException {
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name,label\n");
+            for (String name : names) {
+                out.write(name + "," + name.toUpperCase() + "\n");
+            }
+        }
+    }
+
+    private static long getRowId(String name) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try (Cursor cursor = db.rawQuery("SELECT rowid FROM " + EXTERNAL_DATA_TABLE_NAME + " WHERE c_name = ?", new String[]{name})) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            db.close();
+        }
+    }
+
     private static Map<String, File> makeExternalDataMap() {
         Map<String, File> externalDataMap = new HashMap<>();
         externalDataMap.put(SIMPLE_SEARCH_EXTERNAL_CSV_NAME, csvFile);
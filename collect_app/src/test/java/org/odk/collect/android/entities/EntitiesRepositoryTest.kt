@@ -428,6 +428,43 @@ abstract class EntitiesRepositoryTest {
         assertThat(wines[2].index, equalTo(2))
     }
 
+    @Test
+    fun `#deleteOnlineExcept removes online entities that are not in ids`() {
+        val repository = buildSubject()
+
+        val leoville = Entity.New("1", "Léoville Barton 2008", state = Entity.State.ONLINE)
+        val canet = Entity.New("2", "Pontet-Canet 2014", state = Entity.State.ONLINE)
+        val gloria = Entity.New("3", "Chateau Gloria 2016", state = Entity.State.OFFLINE)
+        repository.save("wines", leoville, canet, gloria)
+
+        repository.deleteOnlineExcept("wines", sequenceOf("2"))
+
+        assertThat(
+            repository.query("wines"),
+            containsInAnyOrder(sameEntityAs(canet), sameEntityAs(gloria))
+        )
+    }
+
+    @Test
+    fun `#deleteOnlineExcept updates index values so that they are always in sequence and start at 0`() {
+        val repository = buildSubject()
+
+        val leoville = Entity.New("1", "Léoville Barton 2008", state = Entity.State.ONLINE)
+        val canet = Entity.New("2", "Pontet-Canet 2014", state = Entity.State.ONLINE)
+        repository.save("wines", leoville, canet)
+
+        repository.deleteOnlineExcept("wines", sequenceOf("2"))
+        assertThat(repository.getByIndex("wines", 0)!!.id, equalTo("2"))
+    }
+
+    @Test
+    fun `#deleteOnlineExcept does nothing when the list does not exist`() {
+        val repository = buildSubject()
+
+        repository.deleteOnlineExcept("wines", sequenceOf("1"))
+        assertThat(repository.getLists().isEmpty(), equalTo(true))
+    }
+
     @Test
     fun `#getCount returns 0 when a list is empty`() {
         val repository = buildSubject()
@@ -598,6 +635,84 @@ abstract class EntitiesRepositoryTest {
         assertThat(wines, containsInAnyOrder(sameEntityAs(canet)))
     }
 
+    @Test
+    fun `#query returns entities matching any of the values in an in query`() {
+        val repository = buildSubject()
+
+        val leoville = Entity.New("1", "Léoville Barton 2008")
+        val canet = Entity.New("2", "Pontet-Canet 2014")
+        val gloria = Entity.New("3", "Chateau Gloria 2016")
+        repository.save("wines", leoville, canet, gloria)
+
+        val wines = repository.query("wines", Query.StringIn("name", listOf("1", "3", "4")))
+        assertThat(wines, containsInAnyOrder(sameEntityAs(leoville), sameEntityAs(gloria)))
+    }
+
+    @Test
+    fun `#query returns entities with property values in a numeric range`() {
+        val repository = buildSubject()
+
+        val leoville = Entity.New("1", "Léoville Barton 2008", properties = listOf("vintage" to "2008"))
+        val canet = Entity.New("2", "Pontet-Canet 2014", properties = listOf("vintage" to "2014"))
+        val gloria = Entity.New("3", "Chateau Gloria 2016", properties = listOf("vintage" to "2016"))
+        val unknown = Entity.New("4", "Unknown", properties = listOf("vintage" to ""))
+        repository.save("wines", leoville, canet, gloria, unknown)
+
+        val wines = repository.query(
+            "wines",
+            Query.And(
+                Query.NumericGreaterThan("vintage", 2008.0),
+                Query.NumericLessThan("vintage", 2016.0, inclusive = true)
+            )
+        )
+        assertThat(wines, containsInAnyOrder(sameEntityAs(canet), sameEntityAs(gloria)))
+    }
+
+    @Test
+    fun `#query does not return entities with non-numeric property values for a numeric range`() {
+        val repository = buildSubject()
+
+        val leoville = Entity.New("1", "Léoville Barton 2008", properties = listOf("vintage" to "2008"))
+        val unknown = Entity.New("2", "Unknown", properties = listOf("vintage" to "unknown"))
+        val partial = Entity.New("3", "Partial", properties = listOf("vintage" to "2008abc"))
+        repository.save("wines", leoville, unknown, partial)
+
+        val before = repository.query("wines", Query.NumericLessThan("vintage", 2010.0))
+        assertThat(before, containsInAnyOrder(sameEntityAs(leoville)))
+
+        val after = repository.query("wines", Query.NumericGreaterThan("vintage", -1.0))
+        assertThat(after, containsInAnyOrder(sameEntityAs(leoville)))
+    }
+
+    @Test
+    fun `#query returns entities with property values starting with a prefix`() {
+        val repository = buildSubject()
+
+        val leoville = Entity.New("1", "Léoville Barton 2008", properties = listOf("region" to "Saint-Julien"))
+        val canet = Entity.New("2", "Pontet-Canet 2014", properties = listOf("region" to "Pauillac"))
+        val estephe = Entity.New("3", "Calon-Ségur 2010", properties = listOf("region" to "Saint-Estèphe"))
+        val lower = Entity.New("4", "Unknown", properties = listOf("region" to "saint"))
+        repository.save("wines", leoville, canet, estephe, lower)
+
+        val wines = repository.query("wines", Query.StringStartsWith("region", "Saint"))
+        assertThat(wines, containsInAnyOrder(sameEntityAs(leoville), sameEntityAs(estephe)))
+    }
+
+    @Test
+    fun `#query returns the same entities after indexes are created`() {
+        val repository = buildSubject()
+
+        val leoville = Entity.New("1", "Léoville Barton 2008", properties = listOf("vintage" to "2008"))
+        val canet = Entity.New("2", "Pontet-Canet 2014", properties = listOf("vintage" to "2014"))
+        repository.save("wines", leoville, canet)
+
+        repository.createIndexes("wines", setOf("vintage", "label", "doesNotExist"))
+        repository.createIndexes("doesNotExist", setOf("vintage"))
+
+        val wines = repository.query("wines", Query.StringEq("vintage", "2014"))
+        assertThat(wines, containsInAnyOrder(sameEntityAs(canet)))
+    }
+
     @Test
     fun `#query returns empty list when there are no matches`() {
         val repository = buildSubject()
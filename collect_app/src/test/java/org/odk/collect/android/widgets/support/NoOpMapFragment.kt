@@ -2,6 +2,7 @@ package org.odk.collect.android.widgets.support
 
 import androidx.fragment.app.Fragment
 import org.odk.collect.maps.LineDescription
+import org.odk.collect.maps.MapBounds
 import org.odk.collect.maps.MapFragment
 import org.odk.collect.maps.MapPoint
 import org.odk.collect.maps.PolygonDescription
@@ -106,6 +107,13 @@ class NoOpMapFragment : Fragment(), MapFragment {
     override fun setDragEndListener(listener: MapFragment.FeatureListener?) {
     }
 
+    override fun getVisibleBounds(): MapBounds? {
+        return null
+    }
+
+    override fun setCameraIdleListener(listener: MapFragment.CameraIdleListener?) {
+    }
+
     override fun setGpsLocationEnabled(enabled: Boolean) {
     }
 
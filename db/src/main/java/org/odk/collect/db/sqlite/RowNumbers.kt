@@ -42,6 +42,10 @@ object RowNumbers {
     }
 
     fun SynchronizedDatabaseConnection.invalidateRowNumbers(table: String) {
+        if (!rowIdTableExists(table)) {
+            return
+        }
+
         this.resetTransaction {
             execSQL(
                 """
@@ -51,7 +55,39 @@ object RowNumbers {
         }
     }
 
+    /**
+     * Numbers rows that have been inserted since the row numbers were last calculated, rather
+     * than calculating them all again. This is only correct if no rows have been deleted since
+     * and the new rows have a higher `_id` than existing ones. Use [invalidateRowNumbers] otherwise.
+     */
+    fun SynchronizedDatabaseConnection.appendRowNumbers(table: String) {
+        if (!rowIdTableExists(table)) {
+            return
+        }
+
+        this.transaction {
+            execSQL(
+                """
+                INSERT INTO "${getRowIdTableName(table)}" (_id)
+                SELECT _id FROM "$table"
+                WHERE _id > IFNULL((SELECT _id FROM "${getRowIdTableName(table)}" ORDER BY $ROW_ID DESC LIMIT 1), 0)
+                ORDER BY _id;
+                """.trimIndent()
+            )
+        }
+    }
+
+    private fun SynchronizedDatabaseConnection.rowIdTableExists(table: String): Boolean {
+        return withConnection {
+            SQLiteUtils.doesTableExist(readableDatabase, getRowIdTableName(table))
+        }
+    }
+
     private fun SynchronizedDatabaseConnection.ensureRowIdTable(table: String) {
+        if (rowIdTableExists(table)) {
+            return
+        }
+
         resetTransaction {
             execSQL(
                 """
@@ -7,12 +7,29 @@ data class SqlQuery(
     val selectionArgs: Array<String>
 )
 
+/**
+ * Numeric queries compare `CAST`s of the (text) column, so unlike the string ones they can't use
+ * an index on it and check every row.
+ */
 fun Query.toSql(): SqlQuery {
     return when (this) {
         is Query.StringEq -> SqlQuery("$column = ?", arrayOf(value))
         is Query.StringNotEq -> SqlQuery("$column != ?", arrayOf(value))
+        is Query.StringIn -> SqlQuery(
+            "$column IN (${values.joinToString(", ") { "?" }})",
+            values.toTypedArray()
+        )
+        is Query.StringStartsWith -> SqlQuery("$column GLOB ?", arrayOf(escapeGlob(prefix) + "*"))
         is Query.NumericEq -> SqlQuery("CAST($column AS REAL) = CAST(? AS REAL)", arrayOf(value.toString()))
         is Query.NumericNotEq -> SqlQuery("CAST($column AS REAL) != CAST(? AS REAL)", arrayOf(value.toString()))
+        is Query.NumericLessThan -> SqlQuery(
+            "(${isNumeric(column)} AND CAST($column AS REAL) ${if (inclusive) "<=" else "<"} CAST(? AS REAL))",
+            arrayOf(value.toString())
+        )
+        is Query.NumericGreaterThan -> SqlQuery(
+            "(${isNumeric(column)} AND CAST($column AS REAL) ${if (inclusive) ">=" else ">"} CAST(? AS REAL))",
+            arrayOf(value.toString())
+        )
         is Query.And -> {
             val sqlA = queryA.toSql()
             val sqlB = queryB.toSql()
@@ -31,3 +48,21 @@ fun Query.toSql(): SqlQuery {
         }
     }
 }
+
+/**
+ * `CAST` turns any text into a number (`'unknown'` becomes `0.0`), so range comparisons need to
+ * exclude values that aren't numbers like XPath (which treats them as `NaN`) does. Comparing the
+ * text column with a `REAL` expression only converts the text if it is a well formed number, so
+ * this is only true for those.
+ */
+private fun isNumeric(column: String): String {
+    return "$column = CAST($column AS REAL)"
+}
+
+/**
+ * `GLOB` is used for prefix matches rather than `LIKE` as it is case sensitive (like XPath's
+ * `starts-with`) and can still use an index on the column.
+ */
+private fun escapeGlob(value: String): String {
+    return value.replace(Regex("[*?\\[]")) { "[${it.value}]" }
+}
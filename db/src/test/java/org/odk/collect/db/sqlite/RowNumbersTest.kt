@@ -11,6 +11,7 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.odk.collect.db.sqlite.CursorExt.foldAndClose
 import org.odk.collect.db.sqlite.CursorExt.rowToMap
+import org.odk.collect.db.sqlite.RowNumbers.appendRowNumbers
 import org.odk.collect.db.sqlite.RowNumbers.invalidateRowNumbers
 import org.odk.collect.db.sqlite.RowNumbers.rawQueryWithRowNumber
 import org.odk.collect.db.sqlite.SQLiteColumns.ROW_NUMBER
@@ -95,4 +96,46 @@ class RowNumbersTest {
         assertThat(afterRows[1]["position"], equalTo("third"))
         assertThat(afterRows[1][ROW_NUMBER], equalTo("2"))
     }
+
+    @Test
+    fun `#rawQueryWithRowNumber returns results with row_number continuing after rows inserted and append`() {
+        val dbConnection = SynchronizedDatabaseConnection(
+            context,
+            TempFiles.createTempDir().absolutePath,
+            "temp.db",
+            NoopMigrator(),
+            1
+        )
+
+        dbConnection.resetTransaction {
+            execSQL("CREATE TABLE test_table ($_ID integer PRIMARY KEY, position text)")
+        }
+
+        dbConnection.transaction {
+            insertOrThrow("test_table", null, ContentValues().also { it.put("position", "first") })
+            insertOrThrow("test_table", null, ContentValues().also { it.put("position", "second") })
+        }
+
+        val beforeRows = dbConnection.rawQueryWithRowNumber("test_table") { cursor ->
+            cursor.foldAndClose { it.rowToMap() }
+        }
+        assertThat(beforeRows.size, equalTo(2))
+
+        dbConnection.transaction {
+            insertOrThrow("test_table", null, ContentValues().also { it.put("position", "third") })
+        }
+
+        dbConnection.appendRowNumbers("test_table")
+
+        val afterRows = dbConnection.rawQueryWithRowNumber("test_table") { cursor ->
+            cursor.foldAndClose { it.rowToMap() }
+        }
+        assertThat(afterRows.size, equalTo(3))
+
+        assertThat(afterRows[0]["position"], equalTo("first"))
+        assertThat(afterRows[0][ROW_NUMBER], equalTo("1"))
+
+        assertThat(afterRows[2]["position"], equalTo("third"))
+        assertThat(afterRows[2][ROW_NUMBER], equalTo("3"))
+    }
 }
@@ -22,6 +22,38 @@ class SqlQueryTest {
         assertThat(query.selectionArgs, equalTo(arrayOf("30")))
     }
 
+    @Test
+    fun `In query generates correct selection and arguments`() {
+        val query = Query.StringIn("name", listOf("John", "Jane")).toSql()
+
+        assertThat(query.selection, equalTo("name IN (?, ?)"))
+        assertThat(query.selectionArgs, equalTo(arrayOf("John", "Jane")))
+    }
+
+    @Test
+    fun `StartsWith query generates GLOB selection with escaped prefix`() {
+        val query = Query.StringStartsWith("name", "Jo*[?").toSql()
+
+        assertThat(query.selection, equalTo("name GLOB ?"))
+        assertThat(query.selectionArgs, equalTo(arrayOf("Jo[*][[][?]*")))
+    }
+
+    @Test
+    fun `LessThan query generates correct selection and arguments`() {
+        val query = Query.NumericLessThan("age", 30.0).toSql()
+
+        assertThat(query.selection, equalTo("(age = CAST(age AS REAL) AND CAST(age AS REAL) < CAST(? AS REAL))"))
+        assertThat(query.selectionArgs, equalTo(arrayOf("30.0")))
+    }
+
+    @Test
+    fun `GreaterThan inclusive query generates correct selection and arguments`() {
+        val query = Query.NumericGreaterThan("age", 30.0, inclusive = true).toSql()
+
+        assertThat(query.selection, equalTo("(age = CAST(age AS REAL) AND CAST(age AS REAL) >= CAST(? AS REAL))"))
+        assertThat(query.selectionArgs, equalTo(arrayOf("30.0")))
+    }
+
     @Test
     fun `And query generates correct selection and arguments`() {
         val queryA = Query.StringEq("name", "John")
@@ -15,6 +15,13 @@ import java.util.UUID
 
 object LocalEntityUseCases {
 
+    /**
+     * The number of server list rows that are compared with local entities at a time. This keeps
+     * memory use while updating from large lists the same regardless of how many entities they
+     * have and is small enough for the IDs to be used as query parameters.
+     */
+    private const val SERVER_LIST_CHUNK_SIZE = 500
+
     @JvmStatic
     fun updateLocalEntitiesFromForm(
         formEntities: EntitiesExtra?,
@@ -82,47 +89,23 @@ object LocalEntityUseCases {
             return
         }
 
-        val localEntities = entitiesRepository.query(list)
-
-        val missingFromServer = localEntities.associateBy { it.id }.toMutableMap()
-        val newAndUpdated = ArrayList<Entity>()
-        csvParser.use {
-            it.forEach { record ->
-                val serverEntity = parseEntityFromRecord(record) ?: return
-                val existing = missingFromServer.remove(serverEntity.id)
-
-                if (existing == null) {
-                    newAndUpdated.add(
-                        Entity.New(
-                            serverEntity.id,
-                            serverEntity.label,
-                            serverEntity.version,
-                            serverEntity.properties.toList(),
-                            state = Entity.State.ONLINE,
-                            trunkVersion = serverEntity.version,
-                            branchId = UUID.randomUUID().toString()
-                        )
-                    )
-                } else if (existing.version < serverEntity.version) {
-                    newAndUpdated.add(serverEntity.updateLocal(existing))
-                } else if (existing.version == serverEntity.version) {
-                    if (existing.isDirty()) {
-                        newAndUpdated.add(serverEntity.updateLocal(existing))
-                    }
-                } else if (existing.state == Entity.State.OFFLINE) {
-                    val update = existing.copy(state = Entity.State.ONLINE)
-                    newAndUpdated.add(update)
+        csvParser.use { parser ->
+            parser.asSequence().chunked(SERVER_LIST_CHUNK_SIZE).forEach { records ->
+                val serverEntities = records.map { parseEntityFromRecord(it) ?: return }
+                val localEntities = entitiesRepository.query(
+                    list,
+                    Query.StringIn(EntitySchema.ID, serverEntities.map { it.id })
+                ).associateBy { it.id }
+
+                val newAndUpdated = serverEntities.mapNotNull { serverEntity ->
+                    reconcile(serverEntity, localEntities[serverEntity.id])
                 }
-            }
-        }
 
-        missingFromServer.values
-            .filter { it.state == Entity.State.ONLINE }
-            .forEach {
-                entitiesRepository.delete(list, it.id)
+                entitiesRepository.save(list, *newAndUpdated.toTypedArray())
             }
+        }
 
-        entitiesRepository.save(list, *newAndUpdated.toTypedArray())
+        entitiesRepository.deleteOnlineExcept(list, readEntityIds(serverList))
         entitiesRepository.updateList(
             list,
             mediaFile.hash,
@@ -150,6 +133,55 @@ object LocalEntityUseCases {
         }
     }
 
+    /**
+     * Returns the entity that should be saved to bring [existing] up to date with
+     * [serverEntity] or null if it is already up to date.
+     */
+    private fun reconcile(serverEntity: ServerEntity, existing: Entity.Saved?): Entity? {
+        return if (existing == null) {
+            Entity.New(
+                serverEntity.id,
+                serverEntity.label,
+                serverEntity.version,
+                serverEntity.properties.toList(),
+                state = Entity.State.ONLINE,
+                trunkVersion = serverEntity.version,
+                branchId = UUID.randomUUID().toString()
+            )
+        } else if (existing.version < serverEntity.version) {
+            serverEntity.updateLocal(existing)
+        } else if (existing.version == serverEntity.version) {
+            if (existing.isDirty()) {
+                serverEntity.updateLocal(existing)
+            } else {
+                null
+            }
+        } else if (existing.state == Entity.State.OFFLINE) {
+            existing.copy(state = Entity.State.ONLINE)
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Lazily reads the entity IDs from a server list so they can be passed to
+     * [EntitiesRepository.deleteOnlineExcept] without holding them all in memory.
+     */
+    private fun readEntityIds(serverList: File): Sequence<String> {
+        return sequence {
+            SecondaryInstanceCSVParserBuilder()
+                .path(serverList.absolutePath)
+                .build()
+                .use { parser ->
+                    for (record in parser) {
+                        if (record.isSet(EntitySchema.ID)) {
+                            yield(record.get(EntitySchema.ID))
+                        }
+                    }
+                }
+        }
+    }
+
     private fun parseEntityFromRecord(record: CSVRecord): ServerEntity? {
         val map = record.toMap()
 
@@ -0,0 +1,40 @@
+package org.odk.collect.entities.javarosa.parse
+
+import org.javarosa.core.util.externalizable.ExtUtil
+import org.javarosa.core.util.externalizable.Externalizable
+import org.javarosa.core.util.externalizable.PrototypeFactory
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+/**
+ * The children of each secondary instance that a form filters on (in select itemset
+ * predicates) with string equality, prefix or `selected` comparisons. For entity lists these
+ * are the properties worth indexing.
+ */
+class EntityFilterExtra @JvmOverloads constructor(
+    filteredChildren: Map<String, Set<String>> = emptyMap()
+) : Externalizable {
+    private val _filteredChildren: MutableMap<String, Set<String>> = filteredChildren.toMutableMap()
+
+    val filteredChildren: Map<String, Set<String>>
+        get() = _filteredChildren
+
+    override fun readExternal(input: DataInputStream, pf: PrototypeFactory) {
+        val size = ExtUtil.readInt(input)
+        _filteredChildren.clear()
+        repeat(size) {
+            val instance = ExtUtil.readString(input)
+            val children = (0 until ExtUtil.readInt(input)).map { ExtUtil.readString(input) }
+            _filteredChildren[instance] = children.toSet()
+        }
+    }
+
+    override fun writeExternal(output: DataOutputStream) {
+        ExtUtil.writeNumeric(output, _filteredChildren.size.toLong())
+        _filteredChildren.forEach { (instance, children) ->
+            ExtUtil.writeString(output, instance)
+            ExtUtil.writeNumeric(output, children.size.toLong())
+            children.forEach { ExtUtil.writeString(output, it) }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.odk.collect.entities.javarosa.parse
 
 import org.javarosa.core.model.DataBinding
 import org.javarosa.core.model.FormDef
+import org.javarosa.core.model.IFormElement
+import org.javarosa.core.model.QuestionDef
 import org.javarosa.core.model.instance.TreeElement
 import org.javarosa.core.model.instance.TreeReference
 import org.javarosa.model.xform.XPathReference
@@ -14,6 +16,7 @@ import org.odk.collect.entities.javarosa.parse.EntityFormParseProcessor.Companio
 import org.odk.collect.entities.javarosa.parse.EntityFormParseProcessor.Companion.VERSIONS.V2023_1
 import org.odk.collect.entities.javarosa.parse.EntityFormParseProcessor.Companion.VERSIONS.V2024_1
 import org.odk.collect.entities.javarosa.parse.EntityFormParseProcessor.Companion.VERSIONS.V2025_1
+import org.odk.collect.entities.javarosa.parse.XPathExpressionExt.getIndexableChildren
 import org.odk.collect.entities.javarosa.spec.EntityFormParser
 import org.odk.collect.entities.javarosa.spec.UnrecognizedEntityVersionException
 
@@ -61,6 +64,36 @@ class EntityFormParseProcessor() : BindAttributeProcessor, FormDefProcessor, Mod
                 }
             }
         }
+
+        val filteredChildren = mutableMapOf<String, MutableSet<String>>()
+        findFilteredChildren(formDef, filteredChildren)
+        if (filteredChildren.isNotEmpty()) {
+            formDef.extras.put(EntityFilterExtra(filteredChildren))
+        }
+    }
+
+    /**
+     * Finds the children of secondary instances that select itemset predicates compare in a way
+     * that can use an index, so that entity lists can be indexed on them before the form is
+     * filled.
+     */
+    private fun findFilteredChildren(element: IFormElement, filteredChildren: MutableMap<String, MutableSet<String>>) {
+        if (element is QuestionDef) {
+            val nodeset = element.dynamicChoices?.nodesetRef
+            val instance = nodeset?.instanceName
+            if (nodeset != null && instance != null) {
+                (0 until nodeset.size()).forEach { level ->
+                    nodeset.getPredicate(level)?.forEach { predicate ->
+                        val children = predicate.getIndexableChildren()
+                        if (children.isNotEmpty()) {
+                            filteredChildren.getOrPut(instance) { mutableSetOf() }.addAll(children)
+                        }
+                    }
+                }
+            }
+        }
+
+        element.children?.forEach { findFilteredChildren(it, filteredChildren) }
     }
 
     private fun findNearestEntityGroupElement(element: TreeElement?): TreeElement? {
@@ -3,13 +3,19 @@ package org.odk.collect.entities.javarosa.parse
 import org.javarosa.core.model.CompareToNodeExpression
 import org.javarosa.core.model.condition.EvaluationContext
 import org.javarosa.core.model.instance.DataInstance
+import org.javarosa.xpath.expr.XPathBinaryOpExpr
 import org.javarosa.xpath.expr.XPathBoolExpr
+import org.javarosa.xpath.expr.XPathCmpExpr
 import org.javarosa.xpath.expr.XPathEqExpr
 import org.javarosa.xpath.expr.XPathExpression
+import org.javarosa.xpath.expr.XPathFuncExpr
+import org.javarosa.xpath.expr.XPathNumericLiteral
+import org.javarosa.xpath.expr.XPathPathExpr
 import org.javarosa.xpath.expr.XPathStep
 import org.javarosa.xpath.expr.XPathStep.AXIS_CHILD
 import org.javarosa.xpath.expr.XPathStep.AXIS_SELF
 import org.javarosa.xpath.expr.XPathStep.TEST_TYPE_NODE
+import org.javarosa.xpath.expr.XPathUnaryOpExpr
 import org.odk.collect.shared.Query
 
 object XPathExpressionExt {
@@ -21,7 +27,8 @@ object XPathExpressionExt {
      * (where `/some/string/ref` evaluates to `"blah"` within the context of the passed
      * `DataInstance` and `EvaluationContext`)
      *
-     * `and`, `or`, `=` and `!=` are all supported. If an expression cannot be converted to a
+     * `and`, `or`, `=`, `!=`, numeric `<`, `<=`, `>` and `>=`, `starts-with(child, value)` and
+     * `selected(value, child)` are all supported. If an expression cannot be converted to a
      * `Query`, `null` will be returned.
      */
     fun XPathExpression.toQuery(
@@ -31,10 +38,43 @@ object XPathExpressionExt {
         return when (this) {
             is XPathBoolExpr -> xPathBoolExprToQuery(this, sourceInstance, evaluationContext)
             is XPathEqExpr -> xPathEqExprToQuery(this, sourceInstance, evaluationContext)
+            is XPathCmpExpr -> xPathCmpExprToQuery(this, sourceInstance, evaluationContext)
+            is XPathFuncExpr -> xPathFuncExprToQuery(this, sourceInstance, evaluationContext)
             else -> null
         }
     }
 
+    /**
+     * Returns the names of the children (of the nodes being filtered) that [toQuery] compares in
+     * a way an index on them can be used for: string `=`, `starts-with(child, value)` and
+     * `selected(value, child)`. For example `village = /data/village and age > 18` returns only
+     * `village`, as numeric comparisons (including `=` against a number literal) and `!=` can't
+     * use an index.
+     */
+    fun XPathExpression.getIndexableChildren(): Set<String> {
+        return when (this) {
+            is XPathBoolExpr -> a.getIndexableChildren() + b.getIndexableChildren()
+            is XPathEqExpr -> {
+                val candidate = CompareToNodeExpression.parse(this)
+                if (isEqual && candidate != null && candidate.contextSide !is XPathNumericLiteral) {
+                    getChildName(candidate.nodeSide)?.let { setOf(it) } ?: emptySet()
+                } else {
+                    emptySet()
+                }
+            }
+            is XPathFuncExpr -> {
+                val child = when {
+                    args.size != 2 -> null
+                    id.name == "starts-with" -> args[0]
+                    id.name == "selected" -> args[1]
+                    else -> null
+                }
+                (child as? XPathPathExpr)?.let { getChildName(it) }?.let { setOf(it) } ?: emptySet()
+            }
+            else -> emptySet()
+        }
+    }
+
     private fun xPathBoolExprToQuery(
         predicate: XPathBoolExpr,
         sourceInstance: DataInstance<*>,
@@ -91,6 +131,108 @@ object XPathExpressionExt {
         }
     }
 
+    private fun xPathCmpExprToQuery(
+        predicate: XPathCmpExpr,
+        sourceInstance: DataInstance<*>,
+        evaluationContext: EvaluationContext
+    ): Query? {
+        val candidate = CompareToNodeExpression.parse(predicate) ?: return null
+        val child = getChildName(candidate.nodeSide) ?: return null
+
+        val value = when (val contextValue = candidate.evalContextSide(sourceInstance, evaluationContext)) {
+            is Double -> contextValue
+            is String -> contextValue.toDoubleOrNull() ?: return null
+            else -> return null
+        }
+
+        // Flip the comparison for expressions like `18 < age`
+        val op = if (candidate.nodeSide === predicate.a) {
+            predicate.op
+        } else {
+            when (predicate.op) {
+                XPathCmpExpr.LT -> XPathCmpExpr.GT
+                XPathCmpExpr.GT -> XPathCmpExpr.LT
+                XPathCmpExpr.LTE -> XPathCmpExpr.GTE
+                else -> XPathCmpExpr.LTE
+            }
+        }
+
+        return when (op) {
+            XPathCmpExpr.LT -> Query.NumericLessThan(child, value)
+            XPathCmpExpr.LTE -> Query.NumericLessThan(child, value, inclusive = true)
+            XPathCmpExpr.GT -> Query.NumericGreaterThan(child, value)
+            XPathCmpExpr.GTE -> Query.NumericGreaterThan(child, value, inclusive = true)
+            else -> null
+        }
+    }
+
+    private fun xPathFuncExprToQuery(
+        predicate: XPathFuncExpr,
+        sourceInstance: DataInstance<*>,
+        evaluationContext: EvaluationContext
+    ): Query? {
+        if (predicate.args.size != 2) {
+            return null
+        }
+
+        return when (predicate.id.name) {
+            "starts-with" -> {
+                val child = (predicate.args[0] as? XPathPathExpr)?.let { getChildName(it) } ?: return null
+                val prefix = evalContextSide(predicate.args[1], sourceInstance, evaluationContext) ?: return null
+                Query.StringStartsWith(child, prefix)
+            }
+
+            "selected" -> {
+                val child = (predicate.args[1] as? XPathPathExpr)?.let { getChildName(it) } ?: return null
+                val values = evalContextSide(predicate.args[0], sourceInstance, evaluationContext) ?: return null
+                Query.StringIn(child, values.split(" ").filter { it.isNotBlank() })
+            }
+
+            else -> null
+        }
+    }
+
+    /**
+     * Evaluates an argument that doesn't depend on the nodes being filtered (like `/data/prefix`
+     * or `'blah'`) to a string, or returns null if it does depend on them.
+     */
+    private fun evalContextSide(
+        expression: XPathExpression,
+        sourceInstance: DataInstance<*>,
+        evaluationContext: EvaluationContext
+    ): String? {
+        if (!expression.isIdempotent || containsRelativePath(expression)) {
+            return null
+        }
+
+        return XPathFuncExpr.toString(XPathFuncExpr.unpack(expression.eval(sourceInstance, evaluationContext)))
+    }
+
+    private fun containsRelativePath(expression: XPathExpression): Boolean {
+        return when (expression) {
+            is XPathPathExpr -> expression.init_context == XPathPathExpr.INIT_CONTEXT_RELATIVE
+            is XPathBinaryOpExpr -> containsRelativePath(expression.a) || containsRelativePath(expression.b)
+            is XPathUnaryOpExpr -> containsRelativePath(expression.a)
+            is XPathFuncExpr -> expression.args.any { containsRelativePath(it) }
+            else -> false
+        }
+    }
+
+    private fun getChildName(path: XPathPathExpr): String? {
+        if (path.init_context != XPathPathExpr.INIT_CONTEXT_RELATIVE) {
+            return null
+        }
+
+        val steps = path.steps
+        return if (steps.size == 1 && steps[0].axis == AXIS_CHILD && steps[0].name != null) {
+            steps[0].name.name
+        } else if (isNodeRelativeExpression(steps) && steps[1].name != null) {
+            steps[1].name.name
+        } else {
+            null
+        }
+    }
+
     private fun isNodeRelativeExpression(steps: Array<XPathStep>): Boolean {
         return if (steps.size == 2 && steps[0].test == TEST_TYPE_NODE) {
             return steps[0].axis == AXIS_SELF || steps[0].axis == AXIS_CHILD
@@ -8,8 +8,22 @@ interface EntitiesRepository {
     fun getCount(list: String): Int
     fun addList(list: String)
     fun delete(list: String, id: String)
+
+    /**
+     * Deletes the online entities in [list] whose IDs aren't in [ids]. [ids] is only iterated
+     * once so it can be read lazily (from a server list for example) without holding every ID in
+     * memory.
+     */
+    fun deleteOnlineExcept(list: String, ids: Sequence<String>)
     fun query(list: String, query: Query? = null): List<Entity.Saved>
     fun getByIndex(list: String, index: Int): Entity.Saved?
+
+    /**
+     * Creates indexes for the given properties (or `label`/`version`) of [list] so that queries
+     * filtering on them don't need to check every entity. Only string (not numeric) queries can
+     * use them. Properties that the list doesn't have are ignored.
+     */
+    fun createIndexes(list: String, properties: Set<String>)
     fun updateList(list: String, hash: String, needsApproval: Boolean)
     fun getList(list: String): EntityList?
 }
@@ -27,6 +27,15 @@ class InMemEntitiesRepository(private val clock: () -> Long = { 0 }) : EntitiesR
         entities[list]?.removeIf { it.id == id }
     }
 
+    override fun createIndexes(list: String, properties: Set<String>) {
+        // Nothing to index in memory
+    }
+
+    override fun deleteOnlineExcept(list: String, ids: Sequence<String>) {
+        val keep = ids.toHashSet()
+        entities[list]?.removeIf { it.state == Entity.State.ONLINE && !keep.contains(it.id) }
+    }
+
     override fun query(list: String, query: Query?): List<Entity.Saved> {
         val entities = (entities[list] ?: emptyList()).mapIndexed { index, entity ->
             Entity.Saved(
@@ -52,8 +61,18 @@ class InMemEntitiesRepository(private val clock: () -> Long = { 0 }) : EntitiesR
         return when (query) {
             is Query.StringEq -> entities.filter { it.getFieldValue(query.column) == query.value }
             is Query.StringNotEq -> entities.filter { it.getFieldValue(query.column) != query.value }
+            is Query.StringIn -> entities.filter { query.values.contains(it.getFieldValue(query.column)) }
+            is Query.StringStartsWith -> entities.filter { it.getFieldValue(query.column).startsWith(query.prefix) }
             is Query.NumericEq -> entities.filter { it.getFieldValue(query.column).toDoubleOrNull() == query.value }
             is Query.NumericNotEq -> entities.filter { it.getFieldValue(query.column).toDoubleOrNull() != query.value }
+            is Query.NumericLessThan -> entities.filter {
+                val value = it.getFieldValue(query.column).toDoubleOrNull()
+                value != null && (value < query.value || (query.inclusive && value == query.value))
+            }
+            is Query.NumericGreaterThan -> entities.filter {
+                val value = it.getFieldValue(query.column).toDoubleOrNull()
+                value != null && (value > query.value || (query.inclusive && value == query.value))
+            }
             is Query.And -> query(list, query.queryA).intersect(query(list, query.queryB)).toList()
             is Query.Or -> query(list, query.queryA).union(query(list, query.queryB)).toList()
             null -> entities
@@ -603,6 +603,27 @@ class LocalEntityUseCasesTest {
         assertThat(hash, equalTo("hash"))
     }
 
+    @Test
+    fun `updateLocalEntitiesFromServer updates, adds and removes entities in lists that are larger than one chunk`() {
+        val local = (1..1200).map { Entity.New("$it", "Song $it", version = 1, state = Entity.State.ONLINE) }
+        entitiesRepository.save("songs", *local.toTypedArray())
+
+        val server = (2..1300).map { Entity.New("$it", "Song $it", version = if (it % 2 == 0) 2 else 1) }
+        LocalEntityUseCases.updateLocalEntitiesFromServer(
+            "songs",
+            createEntityList(*server.toTypedArray()),
+            entitiesRepository,
+            FormFixtures.mediaFile()
+        )
+
+        val songs = entitiesRepository.query("songs").associateBy { it.id }
+        assertThat(songs.size, equalTo(1299))
+        assertThat(songs.containsKey("1"), equalTo(false))
+        assertThat(songs["2"]!!.version, equalTo(2))
+        assertThat(songs["3"]!!.version, equalTo(1))
+        assertThat(songs["1300"]!!.version, equalTo(2))
+    }
+
     private fun createEntityList(vararg entities: Entity): File {
         if (entities.isNotEmpty()) {
             val header = listOf(
@@ -701,6 +722,16 @@ private class MeasurableEntitiesRepository(private val wrapped: EntitiesReposito
         wrapped.delete(list, id)
     }
 
+    override fun createIndexes(list: String, properties: Set<String>) {
+        accesses += 1
+        wrapped.createIndexes(list, properties)
+    }
+
+    override fun deleteOnlineExcept(list: String, ids: Sequence<String>) {
+        accesses += 1
+        wrapped.deleteOnlineExcept(list, ids)
+    }
+
     override fun query(list: String, query: Query?): List<Entity.Saved> {
         accesses += 1
         return wrapped.query(list, query)
@@ -12,12 +12,14 @@ import org.javarosa.test.XFormsElement.html
 import org.javarosa.test.XFormsElement.input
 import org.javarosa.test.XFormsElement.mainInstance
 import org.javarosa.test.XFormsElement.model
+import org.javarosa.test.XFormsElement.select1Dynamic
 import org.javarosa.test.XFormsElement.t
 import org.javarosa.test.XFormsElement.title
 import org.javarosa.xform.parse.XFormParser
 import org.javarosa.xform.parse.XFormParser.MissingModelAttributeException
 import org.junit.Assert.fail
 import org.junit.Test
+import org.odk.collect.entities.javarosa.parse.EntityFilterExtra
 import org.odk.collect.entities.javarosa.parse.EntityFormExtra
 import org.odk.collect.entities.javarosa.parse.EntityFormParseProcessor
 import org.odk.collect.entities.javarosa.spec.UnrecognizedEntityVersionException
@@ -219,4 +221,52 @@ class EntityFormParseProcessorTest {
         val formDef: FormDef = parser.parse(null)
         assertThat(formDef.extras.get(EntityFormExtra::class.java).saveTos.isEmpty(), equalTo(true))
     }
+
+    @Test
+    fun `children compared as strings to filter select choices are added to extras`() {
+        val form = html(
+            head(
+                title("Follow up form"),
+                model(
+                    mainInstance(
+                        t("data id=\"follow-up-form\"",
+                            t("village"),
+                            t("person")
+                        )
+                    ),
+                    t("instance id=\"people\"",
+                        t("root",
+                            t("item",
+                                t("name", "1"),
+                                t("label", "Person 1"),
+                                t("age", "30"),
+                                t("village", "Kibera")
+                            )
+                        )
+                    ),
+                    bind("/data/village").type("string"),
+                    bind("/data/person").type("string")
+                )
+            ),
+            body(
+                input("/data/village"),
+                select1Dynamic(
+                    "/data/person",
+                    "instance('people')/root/item[village = /data/village and age > 18]",
+                    "name",
+                    "label"
+                )
+            )
+        )
+
+        val processor = EntityFormParseProcessor()
+        val parser = XFormParser(InputStreamReader(ByteArrayInputStream(form.asXml().toByteArray())))
+        parser.addProcessor(processor)
+
+        val formDef: FormDef = parser.parse(null)
+        assertThat(
+            formDef.extras.get(EntityFilterExtra::class.java).filteredChildren,
+            equalTo(mapOf("people" to setOf("village")))
+        )
+    }
 }
@@ -227,7 +227,7 @@ class LocalEntitiesFilterStrategyTest {
                         t("instance id=\"things\" src=\"jr://file-csv/things.csv\""),
                         bind("/data/question").type("string"),
                         bind("/data/calculate").type("string")
-                            .calculate("instance('things')/root/item[starts-with(name, 'thing')]/label")
+                            .calculate("instance('things')/root/item[contains(name, 'thing')]/label")
                     )
                 ),
                 body(
@@ -420,6 +420,165 @@ class LocalEntitiesFilterStrategyTest {
         assertThat(instanceProvider.fullParsePerformed, equalTo(false))
     }
 
+    @Test
+    fun `works correctly in the optimized way with property > number`() {
+        entitiesRepository.save(
+            "things",
+            Entity.New(
+                "thing1",
+                "Thing1",
+                properties = listOf("age" to "25", "village" to "Kibera")
+            )
+        )
+
+        entitiesRepository.save(
+            "things",
+            Entity.New(
+                "thing2",
+                "Thing2",
+                properties = listOf("age" to "30", "village" to "Mathare")
+            )
+        )
+
+        val scenario = Scenario.init(
+            "Secondary instance form",
+            html(
+                head(
+                    title("Secondary instance form"),
+                    model(
+                        mainInstance(
+                            t(
+                                "data id=\"create-entity-form\"",
+                                t("question"),
+                            )
+                        ),
+                        t("instance id=\"things\" src=\"jr://file-csv/things.csv\""),
+                        bind("/data/question").type("string")
+                    )
+                ),
+                body(
+                    select1Dynamic(
+                        "/data/question",
+                        "instance('things')/root/item[age > 26]",
+                        "name",
+                        "label"
+                    )
+                )
+            ),
+            controllerSupplier
+        )
+
+        val choices = scenario.choicesOf("/data/question").map { it.value }
+        assertThat(choices, containsInAnyOrder("thing2"))
+        assertThat(instanceProvider.fullParsePerformed, equalTo(false))
+    }
+
+    @Test
+    fun `works correctly in the optimized way with starts-with property`() {
+        entitiesRepository.save(
+            "things",
+            Entity.New(
+                "thing1",
+                "Thing1",
+                properties = listOf("age" to "25", "village" to "Kibera")
+            )
+        )
+
+        entitiesRepository.save(
+            "things",
+            Entity.New(
+                "thing2",
+                "Thing2",
+                properties = listOf("age" to "30", "village" to "Mathare")
+            )
+        )
+
+        val scenario = Scenario.init(
+            "Secondary instance form",
+            html(
+                head(
+                    title("Secondary instance form"),
+                    model(
+                        mainInstance(
+                            t(
+                                "data id=\"create-entity-form\"",
+                                t("question"),
+                            )
+                        ),
+                        t("instance id=\"things\" src=\"jr://file-csv/things.csv\""),
+                        bind("/data/question").type("string")
+                    )
+                ),
+                body(
+                    select1Dynamic(
+                        "/data/question",
+                        "instance('things')/root/item[starts-with(village, 'Ki')]",
+                        "name",
+                        "label"
+                    )
+                )
+            ),
+            controllerSupplier
+        )
+
+        val choices = scenario.choicesOf("/data/question").map { it.value }
+        assertThat(choices, containsInAnyOrder("thing1"))
+        assertThat(instanceProvider.fullParsePerformed, equalTo(false))
+    }
+
+    @Test
+    fun `works correctly in the optimized way with selected value and property`() {
+        entitiesRepository.save(
+            "things",
+            Entity.New(
+                "thing1",
+                "Thing1",
+                properties = listOf("age" to "25", "village" to "Kibera")
+            )
+        )
+
+        entitiesRepository.save(
+            "things",
+            Entity.New(
+                "thing2",
+                "Thing2",
+                properties = listOf("age" to "30", "village" to "Mathare")
+            )
+        )
+
+        val scenario = Scenario.init(
+            "Secondary instance form",
+            html(
+                head(
+                    title("Secondary instance form"),
+                    model(
+                        mainInstance(
+                            t(
+                                "data id=\"create-entity-form\"",
+                                t("question"),
+                            )
+                        ),
+                        t("instance id=\"things\" src=\"jr://file-csv/things.csv\""),
+                        bind("/data/question").type("string")
+                    )
+                ),
+                body(
+                    select1Dynamic(
+                        "/data/question",
+                        "instance('things')/root/item[selected('Kibera Mathare', village)]",
+                        "name",
+                        "label"
+                    )
+                )
+            ),
+            controllerSupplier
+        )
+
+        val choices = scenario.choicesOf("/data/question").map { it.value }
+        assertThat(choices, containsInAnyOrder("thing1", "thing2"))
+        assertThat(instanceProvider.fullParsePerformed, equalTo(false))
+    }
+
     @Test
     fun `replaces partial elements when entity matches property`() {
         entitiesRepository.save(
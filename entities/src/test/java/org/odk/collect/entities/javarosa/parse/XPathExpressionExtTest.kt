@@ -6,6 +6,7 @@ import org.javarosa.core.model.condition.EvaluationContext
 import org.javarosa.core.model.instance.ExternalDataInstance
 import org.javarosa.xpath.XPathParseTool
 import org.junit.Test
+import org.odk.collect.entities.javarosa.parse.XPathExpressionExt.getIndexableChildren
 import org.odk.collect.entities.javarosa.parse.XPathExpressionExt.toQuery
 import org.odk.collect.shared.Query
 
@@ -58,4 +59,85 @@ class XPathExpressionExtTest {
             equalTo(null)
         )
     }
+
+    @Test
+    fun `#toQuery returns Query for numeric comparisons`() {
+        val sourceInstance = ExternalDataInstance()
+        val evaluationContext = EvaluationContext(sourceInstance)
+
+        assertThat(
+            XPathParseTool.parseXPath("age < 18").toQuery(sourceInstance, evaluationContext),
+            equalTo(Query.NumericLessThan("age", 18.0))
+        )
+        assertThat(
+            XPathParseTool.parseXPath("./age >= 18").toQuery(sourceInstance, evaluationContext),
+            equalTo(Query.NumericGreaterThan("age", 18.0, inclusive = true))
+        )
+    }
+
+    @Test
+    fun `#toQuery flips numeric comparisons when node side is on the right`() {
+        val sourceInstance = ExternalDataInstance()
+        val evaluationContext = EvaluationContext(sourceInstance)
+
+        val expression = XPathParseTool.parseXPath("18 < age")
+        assertThat(
+            expression.toQuery(sourceInstance, evaluationContext),
+            equalTo(Query.NumericGreaterThan("age", 18.0))
+        )
+    }
+
+    @Test
+    fun `#toQuery returns Query for starts-with`() {
+        val sourceInstance = ExternalDataInstance()
+        val evaluationContext = EvaluationContext(sourceInstance)
+
+        val expression = XPathParseTool.parseXPath("starts-with(village, 'Ki')")
+        assertThat(
+            expression.toQuery(sourceInstance, evaluationContext),
+            equalTo(Query.StringStartsWith("village", "Ki"))
+        )
+    }
+
+    @Test
+    fun `#toQuery returns Query for selected with node as value`() {
+        val sourceInstance = ExternalDataInstance()
+        val evaluationContext = EvaluationContext(sourceInstance)
+
+        val expression = XPathParseTool.parseXPath("selected('a b  c', district)")
+        assertThat(
+            expression.toQuery(sourceInstance, evaluationContext),
+            equalTo(Query.StringIn("district", listOf("a", "b", "c")))
+        )
+    }
+
+    @Test
+    fun `#toQuery returns null when function compares two children`() {
+        val sourceInstance = ExternalDataInstance()
+        val evaluationContext = EvaluationContext(sourceInstance)
+
+        val expression = XPathParseTool.parseXPath("starts-with(village, district)")
+        assertThat(
+            expression.toQuery(sourceInstance, evaluationContext),
+            equalTo(null)
+        )
+    }
+
+    @Test
+    fun `#getIndexableChildren returns children compared as strings or prefixes`() {
+        val expression = XPathParseTool.parseXPath(
+            "village = /data/village and (starts-with(./district, 'Ki') or selected(/data/regions, region))"
+        )
+
+        assertThat(expression.getIndexableChildren(), equalTo(setOf("village", "district", "region")))
+    }
+
+    @Test
+    fun `#getIndexableChildren does not return children compared as numbers or with not equal`() {
+        val expression = XPathParseTool.parseXPath(
+            "age > /data/age and score = 3 and village != 'Kibera' and contains(district, 'Ki')"
+        )
+
+        assertThat(expression.getIndexableChildren(), equalTo(emptySet<String>()))
+    }
 }
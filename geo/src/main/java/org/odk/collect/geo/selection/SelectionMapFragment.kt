@@ -33,6 +33,7 @@ import org.odk.collect.maps.MapPoint
 import org.odk.collect.maps.PolygonDescription
 import org.odk.collect.maps.layers.OfflineMapLayersPickerBottomSheetDialogFragment
 import org.odk.collect.maps.layers.ReferenceLayerRepository
+import org.odk.collect.maps.markers.ClusteredMarkerLayer
 import org.odk.collect.maps.markers.MarkerDescription
 import org.odk.collect.maps.markers.MarkerIconDescription
 import org.odk.collect.material.BottomSheetBehavior
@@ -75,16 +76,24 @@ class SelectionMapFragment(
     private val selectedItemViewModel by viewModels<SelectedItemViewModel>()
 
     private lateinit var map: MapFragment
+    private lateinit var markerLayer: ClusteredMarkerLayer
     private lateinit var summarySheetBehavior: BottomSheetBehavior<*>
     private lateinit var summarySheet: SelectionSummarySheet
     private lateinit var bottomSheetCallback: BottomSheetCallback
 
-    private val itemsByFeatureId: MutableMap<Int, MappableSelectItem> = mutableMapOf()
-    private val featureIdsByItemId: MutableMap<Long, Int> = mutableMapOf()
+    /**
+     * Single point items, shown by [markerLayer] which only adds the markers in view
+     */
+    private val pointItemsById: MutableMap<Long, MappableSelectItem.MappableSelectPoint> = mutableMapOf()
+
+    /**
+     * Lines and polygons, which are always on the map
+     */
+    private val polyItemsByFeatureId: MutableMap<Int, MappableSelectItem> = mutableMapOf()
 
     /**
-     * Points to be mapped. Note: kept separately from [.itemsByFeatureId] so we can
-     * quickly zoom to bounding box.
+     * Points to be mapped. Note: kept separately from the items so we can quickly zoom to
+     * bounding box.
      */
     private val points: MutableList<MapPoint> = mutableListOf()
     private var itemCount: Int = 0
@@ -188,6 +197,7 @@ class SelectionMapFragment(
     @SuppressLint("MissingPermission") // Permission handled in Constructor
     private fun initMap(newMapFragment: MapFragment, binding: SelectionMapLayoutBinding) {
         map = newMapFragment
+        markerLayer = ClusteredMarkerLayer(map, scheduler)
 
         binding.zoomToLocation.setMultiClickSafeOnClickListener {
             map.zoomToCurrentLocation(map.getGpsLocation())
@@ -219,7 +229,7 @@ class SelectionMapFragment(
 
         map.setGpsLocationEnabled(true)
 
-        map.setFeatureClickListener(::onFeatureSelected)
+        map.setFeatureClickListener(::onFeatureClick)
         map.setClickListener { onClick() }
 
         selectionMapData.getMappableItems().observe(viewLifecycleOwner) {
@@ -289,56 +299,65 @@ class SelectionMapFragment(
         }
     }
 
-    private fun onFeatureSelected(featureId: Int, maintainZoom: Boolean = true, selectedByUser: Boolean = true) {
-        val item = itemsByFeatureId[featureId]
-        val selectedItem = selectedItemViewModel.getSelectedItem()
+    private fun onFeatureClick(featureId: Int) {
+        if (markerLayer.onFeatureClick(featureId)) {
+            return // A cluster, which has been zoomed in to
+        }
 
+        val item = markerLayer.getItemId(featureId)?.let { pointItemsById[it] }
+            ?: polyItemsByFeatureId[featureId]
         if (item != null) {
-            if (selectedItem != null && selectedItem.id != item.id && selectedItem is MappableSelectItem.MappableSelectPoint) {
-                resetIcon(selectedItem)
-            }
+            onItemSelected(item)
+        }
+    }
 
-            if (skipSummary && selectedByUser) {
-                parentFragmentManager.setFragmentResult(
-                    REQUEST_SELECT_ITEM,
-                    Bundle().also {
-                        it.putLong(RESULT_SELECTED_ITEM, item.id)
-                    }
-                )
-            } else {
-                when (item) {
-                    is MappableSelectItem.MappableSelectLine -> map.zoomToBoundingBox(item.points, 0.8, true)
-                    is MappableSelectItem.MappableSelectPolygon -> map.zoomToBoundingBox(item.points, 0.8, true)
-                    is MappableSelectItem.MappableSelectPoint -> {
-                        val point = item.point
-
-                        if (maintainZoom) {
-                            map.zoomToPoint(MapPoint(point.latitude, point.longitude), map.getZoom(), true)
-                        } else {
-                            map.zoomToPoint(MapPoint(point.latitude, point.longitude), true)
-                        }
-
-                        map.setMarkerIcon(
-                            featureId,
-                            MarkerIconDescription.DrawableResource(item.largeIcon, item.color, item.symbol)
-                        )
+    private fun onItemSelected(item: MappableSelectItem, maintainZoom: Boolean = true, selectedByUser: Boolean = true) {
+        val selectedItem = selectedItemViewModel.getSelectedItem()
+
+        if (selectedItem != null && selectedItem.id != item.id && selectedItem is MappableSelectItem.MappableSelectPoint) {
+            resetIcon(selectedItem)
+        }
+
+        if (skipSummary && selectedByUser) {
+            parentFragmentManager.setFragmentResult(
+                REQUEST_SELECT_ITEM,
+                Bundle().also {
+                    it.putLong(RESULT_SELECTED_ITEM, item.id)
+                }
+            )
+        } else {
+            when (item) {
+                is MappableSelectItem.MappableSelectLine -> map.zoomToBoundingBox(item.points, 0.8, true)
+                is MappableSelectItem.MappableSelectPolygon -> map.zoomToBoundingBox(item.points, 0.8, true)
+                is MappableSelectItem.MappableSelectPoint -> {
+                    val point = item.point
+
+                    if (maintainZoom) {
+                        map.zoomToPoint(MapPoint(point.latitude, point.longitude), map.getZoom(), true)
+                    } else {
+                        map.zoomToPoint(MapPoint(point.latitude, point.longitude), true)
                     }
+
+                    markerLayer.setIcon(
+                        item.id,
+                        MarkerIconDescription.DrawableResource(item.largeIcon, item.color, item.symbol)
+                    )
                 }
+            }
 
-                summarySheet.setItem(item)
+            summarySheet.setItem(item)
 
-                summarySheetBehavior.state = STATE_COLLAPSED
-                summarySheet.viewTreeObserver.addOnGlobalLayoutListener(
-                    object : ViewTreeObserver.OnGlobalLayoutListener {
-                        override fun onGlobalLayout() {
-                            summarySheet.viewTreeObserver.removeOnGlobalLayoutListener(this)
-                            summarySheetBehavior.peekHeight = summarySheet.peekHeight
-                        }
+            summarySheetBehavior.state = STATE_COLLAPSED
+            summarySheet.viewTreeObserver.addOnGlobalLayoutListener(
+                object : ViewTreeObserver.OnGlobalLayoutListener {
+                    override fun onGlobalLayout() {
+                        summarySheet.viewTreeObserver.removeOnGlobalLayoutListener(this)
+                        summarySheetBehavior.peekHeight = summarySheet.peekHeight
                     }
-                )
+                }
+            )
 
-                selectedItemViewModel.setSelectedItem(item)
-            }
+            selectedItemViewModel.setSelectedItem(item)
         }
     }
 
@@ -353,17 +372,16 @@ class SelectionMapFragment(
 
         updateFeatures(items)
 
-        val previouslySelectedItem =
-            itemsByFeatureId.filter { it.value.selected }.map { it.key }.firstOrNull()
+        val previouslySelectedItem = items.firstOrNull { it.selected }
         val selectedItem = selectedItemViewModel.getSelectedItem()
 
         if (selectedItem != null) {
-            val featureId = featureIdsByItemId[selectedItem.id]
-            if (featureId != null) {
-                onFeatureSelected(featureId, selectedByUser = false)
+            val item = items.firstOrNull { it.id == selectedItem.id }
+            if (item != null) {
+                onItemSelected(item, selectedByUser = false)
             }
         } else if (previouslySelectedItem != null) {
-            onFeatureSelected(previouslySelectedItem, maintainZoom = false, selectedByUser = false)
+            onItemSelected(previouslySelectedItem, maintainZoom = false, selectedByUser = false)
         } else if (!map.hasCenter()) {
             if (zoomToFitItems && points.isNotEmpty()) {
                 map.zoomToBoundingBox(points, 0.8, false)
@@ -377,66 +395,69 @@ class SelectionMapFragment(
     }
 
     private fun resetIcon(selectedItem: MappableSelectItem.MappableSelectPoint) {
-        val featureId = featureIdsByItemId[selectedItem.id]
-        if (featureId != null) {
-            map.setMarkerIcon(
-                featureId,
-                MarkerIconDescription.DrawableResource(selectedItem.smallIcon, selectedItem.color, selectedItem.symbol)
-            )
-        }
+        markerLayer.setIcon(
+            selectedItem.id,
+            MarkerIconDescription.DrawableResource(selectedItem.smallIcon, selectedItem.color, selectedItem.symbol)
+        )
     }
 
     /**
-     * Clears the existing features on the map and places features for the current form's instances.
+     * Places features for the current form's instances. Points are handed to [markerLayer] and
+     * lines and polygons that have not changed are left on the map, so only the features that
+     * differ are removed and added.
      */
     private fun updateFeatures(items: List<MappableSelectItem>) {
         points.clear()
-        map.clearFeatures()
-        itemsByFeatureId.clear()
 
         val singlePoints = items.filterIsInstance<MappableSelectItem.MappableSelectPoint>()
         val lines = items.filterIsInstance<MappableSelectItem.MappableSelectLine>()
         val polygons = items.filterIsInstance<MappableSelectItem.MappableSelectPolygon>()
 
-        val markerDescriptions = singlePoints.map {
-            MarkerDescription(
+        pointItemsById.clear()
+        val markerDescriptions = LinkedHashMap<Long, MarkerDescription>()
+        singlePoints.forEach {
+            pointItemsById[it.id] = it
+            markerDescriptions[it.id] = MarkerDescription(
                 MapPoint(it.point.latitude, it.point.longitude),
                 false,
                 MapFragment.BOTTOM,
                 MarkerIconDescription.DrawableResource(it.smallIcon, it.color, it.symbol)
             )
         }
+        markerLayer.setItems(markerDescriptions)
 
-        val pointIds = map.addMarkers(markerDescriptions)
-        val lineIds = lines.fold(listOf<Int>()) { ids, item ->
-            ids + map.addPolyLine(
-                LineDescription(
-                    item.points,
-                    item.strokeWidth,
-                    item.strokeColor?.sanitizeToColorInt()
-                )
-            )
+        val unchanged = mutableMapOf<MappableSelectItem, MutableList<Int>>()
+        polyItemsByFeatureId.forEach { (featureId, item) ->
+            unchanged.getOrPut(item) { mutableListOf() }.add(featureId)
         }
-        val polygonIds = polygons.fold(listOf<Int>()) { ids, item ->
-            ids + map.addPolygon(
-                PolygonDescription(
-                    item.points,
-                    item.strokeWidth,
-                    item.strokeColor?.sanitizeToColorInt(),
-                    item.fillColor?.sanitizeToColorInt()
+        polyItemsByFeatureId.clear()
+
+        (lines + polygons).forEach { item ->
+            val featureId = unchanged[item]?.removeFirstOrNull() ?: when (item) {
+                is MappableSelectItem.MappableSelectLine -> map.addPolyLine(
+                    LineDescription(
+                        item.points,
+                        item.strokeWidth,
+                        item.strokeColor?.sanitizeToColorInt()
+                    )
                 )
-            )
-        }
-
-        (singlePoints + lines + polygons).zip(pointIds + lineIds + polygonIds).forEach { (item, featureId) ->
-            itemsByFeatureId[featureId] = item
-            featureIdsByItemId[item.id] = featureId
-            when (item) {
-                is MappableSelectItem.MappableSelectPoint -> points.add(item.point)
-                is MappableSelectItem.MappableSelectLine -> points.addAll(item.points)
-                is MappableSelectItem.MappableSelectPolygon -> points.addAll(item.points)
+                is MappableSelectItem.MappableSelectPolygon -> map.addPolygon(
+                    PolygonDescription(
+                        item.points,
+                        item.strokeWidth,
+                        item.strokeColor?.sanitizeToColorInt(),
+                        item.fillColor?.sanitizeToColorInt()
+                    )
+                )
+                is MappableSelectItem.MappableSelectPoint -> throw IllegalStateException()
             }
+            polyItemsByFeatureId[featureId] = item
         }
+        unchanged.values.flatten().forEach(map::removeFeature)
+
+        singlePoints.forEach { points.add(it.point) }
+        lines.forEach { points.addAll(it.points) }
+        polygons.forEach { points.addAll(it.points) }
 
         featureCount = items.size
     }
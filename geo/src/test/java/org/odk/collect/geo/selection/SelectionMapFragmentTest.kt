@@ -43,6 +43,7 @@ import org.odk.collect.geo.R
 import org.odk.collect.geo.support.FakeMapFragment
 import org.odk.collect.geo.support.Fixtures
 import org.odk.collect.geo.support.RobolectricApplication
+import org.odk.collect.maps.MapBounds
 import org.odk.collect.maps.MapFragment
 import org.odk.collect.maps.MapFragmentFactory
 import org.odk.collect.maps.MapPoint
@@ -161,6 +162,39 @@ class SelectionMapFragmentTest {
         assertThat(map.getMarkers(), equalTo(emptyList()))
     }
 
+    @Test
+    fun `only replaces markers for items that change when items update`() {
+        val unchanged = Fixtures.actionMappableSelectPoint().copy(id = 0, point = MapPoint(40.0, 0.0))
+        val changed = Fixtures.actionMappableSelectPoint().copy(id = 1, point = MapPoint(41.0, 0.0))
+        val itemsLiveData = MutableLiveData<List<MappableSelectItem>>(listOf(unchanged, changed))
+        whenever(data.getMappableItems()).thenReturn(itemsLiveData)
+
+        launcherRule.launchInContainer(SelectionMapFragment::class.java)
+        map.ready()
+
+        val unchangedFeatureId = map.getFeatureId(listOf(unchanged.toMapPoint()))
+        itemsLiveData.value = listOf(unchanged, changed.copy(point = MapPoint(42.0, 0.0)))
+
+        assertThat(map.getFeatureId(listOf(unchanged.toMapPoint())), equalTo(unchangedFeatureId))
+        assertThat(map.getMarkers(), equalTo(listOf(MapPoint(40.0, 0.0), MapPoint(42.0, 0.0))))
+    }
+
+    @Test
+    fun `only shows markers around the visible part of the map`() {
+        val near = Fixtures.actionMappableSelectPoint().copy(id = 0, point = MapPoint(40.0, 0.0))
+        val far = Fixtures.actionMappableSelectPoint().copy(id = 1, point = MapPoint(-40.0, 100.0))
+        whenever(data.getMappableItems()).thenReturn(MutableLiveData(listOf(near, far)))
+
+        launcherRule.launchInContainer(SelectionMapFragment::class.java)
+        map.ready()
+
+        map.moveCamera(MapBounds(39.0, -1.0, 41.0, 1.0), 10.0)
+        assertThat(map.getMarkers(), equalTo(listOf(near.toMapPoint())))
+
+        map.moveCamera(MapBounds(-41.0, 99.0, -39.0, 101.0), 10.0)
+        assertThat(map.getMarkers(), equalTo(listOf(far.toMapPoint())))
+    }
+
     @Test
     fun `updates item count when items update`() {
         val items: List<MappableSelectItem> = listOf(
@@ -2,7 +2,9 @@ package org.odk.collect.geo.support
 
 import androidx.fragment.app.Fragment
 import org.odk.collect.maps.LineDescription
+import org.odk.collect.maps.MapBounds
 import org.odk.collect.maps.MapFragment
+import org.odk.collect.maps.MapFragment.CameraIdleListener
 import org.odk.collect.maps.MapFragment.FeatureListener
 import org.odk.collect.maps.MapFragment.PointListener
 import org.odk.collect.maps.MapFragment.ReadyListener
@@ -24,6 +26,8 @@ class FakeMapFragment(private val ready: Boolean = false) : Fragment(), MapFragm
     private var gpsLocation: MapPoint? = null
     private var featureClickListener: FeatureListener? = null
     private var dragListener: FeatureListener? = null
+    private var cameraIdleListener: CameraIdleListener? = null
+    private var visibleBounds: MapBounds? = null
     private val markers = mutableMapOf<Int, MapPoint>()
     private val markerIcons = mutableMapOf<Int, MarkerIconDescription?>()
     private val polyLines = mutableMapOf<Int, LineDescription>()
@@ -188,6 +192,23 @@ class FakeMapFragment(private val ready: Boolean = false) : Fragment(), MapFragm
         dragListener = listener
     }
 
+    override fun getVisibleBounds(): MapBounds? {
+        return visibleBounds
+    }
+
+    override fun setCameraIdleListener(listener: CameraIdleListener?) {
+        cameraIdleListener = listener
+    }
+
+    /**
+     * Shows [bounds] at [zoom] as if the user had moved the map there
+     */
+    fun moveCamera(bounds: MapBounds?, zoom: Double) {
+        visibleBounds = bounds
+        this.zoom = zoom
+        cameraIdleListener?.onCameraIdle()
+    }
+
     override fun setGpsLocationEnabled(enabled: Boolean) {}
     override fun getGpsLocation(): MapPoint? {
         return gpsLocation
@@ -58,6 +58,7 @@ import org.odk.collect.googlemaps.GoogleMapConfigurator.GoogleMapTypeOption;
 import org.odk.collect.googlemaps.scaleview.MapScaleView;
 import org.odk.collect.location.LocationClient;
 import org.odk.collect.maps.LineDescription;
+import org.odk.collect.maps.MapBounds;
 import org.odk.collect.maps.MapConfigurator;
 import org.odk.collect.maps.MapFragment;
 import org.odk.collect.maps.MapPoint;
@@ -115,6 +116,7 @@ public class GoogleMapFragment extends MapViewModelMapFragment implements
     private PointListener gpsLocationListener;
     private FeatureListener featureClickListener;
     private FeatureListener dragEndListener;
+    private CameraIdleListener cameraIdleListener;
 
     private boolean clientWantsLocationUpdates;
     private MapPoint lastLocationFix;
@@ -179,6 +181,9 @@ public class GoogleMapFragment extends MapViewModelMapFragment implements
                             getMapViewModel().onUserMove(center, newZoomLevel);
                         }
                     }
+                    if (cameraIdleListener != null) {
+                        cameraIdleListener.onCameraIdle();
+                    }
                 }
             };
             googleMap.setOnCameraMoveStartedListener(cameraListener);
@@ -409,6 +414,19 @@ public class GoogleMapFragment extends MapViewModelMapFragment implements
         dragEndListener = listener;
     }
 
+    @Override public @Nullable MapBounds getVisibleBounds() {
+        if (map == null) {
+            return null;
+        }
+        LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+        return new MapBounds(bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude);
+    }
+
+    @Override public void setCameraIdleListener(@Nullable CameraIdleListener listener) {
+        cameraIdleListener = listener;
+    }
+
     @Override public void setGpsLocationListener(@Nullable PointListener listener) {
         gpsLocationListener = listener;
     }
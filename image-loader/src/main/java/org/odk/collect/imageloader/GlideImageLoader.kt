@@ -11,7 +11,7 @@ import com.bumptech.glide.request.RequestOptions
 import com.bumptech.glide.request.target.Target
 import com.bumptech.glide.signature.ObjectKey
 import org.odk.collect.imageloader.svg.SvgSoftwareLayerSetter
-import org.odk.collect.shared.strings.Md5.getMd5Hash
+import org.odk.collect.shared.strings.Md5.getCachedMd5Hash
 import java.io.File
 
 class GlideImageLoader : ImageLoader {
@@ -35,7 +35,7 @@ class GlideImageLoader : ImageLoader {
                 .`as`(PictureDrawable::class.java)
                 .listener(SvgSoftwareLayerSetter())
                 .load(imageFile)
-                .signature(ObjectKey(imageFile.getMd5Hash()!!))
+                .signature(ObjectKey(imageFile.getCachedMd5Hash()!!)) // smap
                 .listener(object : RequestListener<PictureDrawable> {
                     override fun onLoadFailed(
                         e: GlideException?,
@@ -63,7 +63,7 @@ class GlideImageLoader : ImageLoader {
         } else {
             Glide.with(imageView)
                 .load(imageFile)
-                .signature(ObjectKey(imageFile.getMd5Hash()!!))
+                .signature(ObjectKey(imageFile.getCachedMd5Hash()!!)) // smap
                 .listener(object : RequestListener<Drawable> {
                     override fun onLoadFailed(
                         e: GlideException?,
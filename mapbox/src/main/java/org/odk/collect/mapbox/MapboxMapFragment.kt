@@ -54,13 +54,16 @@ import com.mapbox.maps.plugin.gestures.addOnMapLongClickListener
 import com.mapbox.maps.plugin.gestures.addOnMoveListener
 import com.mapbox.maps.plugin.gestures.addOnScaleListener
 import com.mapbox.maps.plugin.locationcomponent.location
+import com.mapbox.maps.toCameraOptions
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import org.odk.collect.androidshared.utils.ScreenUtils
 import org.odk.collect.location.LocationClient
 import org.odk.collect.location.LocationClient.LocationClientListener
 import org.odk.collect.maps.LineDescription
+import org.odk.collect.maps.MapBounds
 import org.odk.collect.maps.MapFragment
+import org.odk.collect.maps.MapFragment.CameraIdleListener
 import org.odk.collect.maps.MapFragment.ErrorListener
 import org.odk.collect.maps.MapFragment.FeatureListener
 import org.odk.collect.maps.MapFragment.PointListener
@@ -118,6 +121,7 @@ class MapboxMapFragment :
 
     private var featureClickListener: FeatureListener? = null
     private var featureDragEndListener: FeatureListener? = null
+    private var cameraIdleListener: CameraIdleListener? = null
 
     private var lastLocationProvider: String? = null
     private var lastLocationFix: MapPoint? = null
@@ -205,6 +209,9 @@ class MapboxMapFragment :
                         getMapViewModel().onUserMove(center, cameraState.zoom)
                     }
                 })
+                addOnMapIdleListener {
+                    cameraIdleListener?.onCameraIdle()
+                }
             }
 
         // Naming the annotation layers lets addOverlayLayer find them and slot reference
@@ -484,6 +491,24 @@ class MapboxMapFragment :
         featureDragEndListener = listener
     }
 
+    override fun getVisibleBounds(): MapBounds? {
+        if (!::mapView.isInitialized || mapView.width == 0 || mapView.height == 0) {
+            return null
+        }
+
+        val bounds = mapboxMap.coordinateBoundsForCamera(mapboxMap.cameraState.toCameraOptions())
+        return MapBounds(
+            bounds.southwest.latitude(),
+            bounds.southwest.longitude(),
+            bounds.northeast.latitude(),
+            bounds.northeast.longitude()
+        )
+    }
+
+    override fun setCameraIdleListener(listener: CameraIdleListener?) {
+        cameraIdleListener = listener
+    }
+
     override fun setGpsLocationEnabled(enabled: Boolean) {
         if (enabled != clientWantsLocationUpdates) {
             clientWantsLocationUpdates = enabled
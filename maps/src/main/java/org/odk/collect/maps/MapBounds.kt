@@ -0,0 +1,61 @@
+package org.odk.collect.maps
+
+/**
+ * An area of the map between two latitudes and two longitudes. When the area crosses the
+ * antimeridian [west] is greater than [east].
+ */
+data class MapBounds(
+    val south: Double,
+    val west: Double,
+    val north: Double,
+    val east: Double
+) {
+
+    fun contains(point: MapPoint): Boolean {
+        return contains(point.latitude, point.longitude)
+    }
+
+    fun contains(latitude: Double, longitude: Double): Boolean {
+        if (latitude < south || latitude > north) {
+            return false
+        }
+
+        return if (west <= east) {
+            longitude in west..east
+        } else {
+            longitude >= west || longitude <= east
+        }
+    }
+
+    /**
+     * Returns bounds grown by [fraction] of the width and height on every side, so that
+     * 0.5 gives an area twice as wide and twice as high.
+     */
+    fun expand(fraction: Double): MapBounds {
+        val height = north - south
+        val width = if (west <= east) east - west else east + 360 - west
+
+        val newSouth = (south - height * fraction).coerceAtLeast(-90.0)
+        val newNorth = (north + height * fraction).coerceAtMost(90.0)
+        val newWidth = width * (1 + 2 * fraction)
+
+        return if (newWidth >= 360) {
+            MapBounds(newSouth, -180.0, newNorth, 180.0)
+        } else {
+            MapBounds(
+                newSouth,
+                wrapLongitude(west - width * fraction),
+                newNorth,
+                wrapLongitude(east + width * fraction)
+            )
+        }
+    }
+
+    private fun wrapLongitude(longitude: Double): Double {
+        return when {
+            longitude < -180 -> longitude + 360
+            longitude > 180 -> longitude - 360
+            else -> longitude
+        }
+    }
+}
@@ -132,6 +132,18 @@ interface MapFragment {
     /** Sets or clears the callback for when a drag is completed.  */
     fun setDragEndListener(listener: FeatureListener?)
 
+    /**
+     * Gets the area of the map that is currently shown, or null if the map has not been
+     * laid out yet.
+     */
+    fun getVisibleBounds(): MapBounds?
+
+    /**
+     * Sets or clears the callback for when the map stops moving, whether it was moved by the
+     * user or by one of the zoom methods.
+     */
+    fun setCameraIdleListener(listener: CameraIdleListener?)
+
     /**
      * Enables/disables GPS tracking.  While enabled, the GPS location is shown
      * on the map, the first GPS fix will trigger any pending callbacks set by
@@ -191,6 +203,10 @@ interface MapFragment {
         fun onFeature(featureId: Int)
     }
 
+    fun interface CameraIdleListener {
+        fun onCameraIdle()
+    }
+
     companion object {
         val INITIAL_CENTER: MapPoint = MapPoint(0.0, -30.0)
         const val INITIAL_ZOOM: Float = 2f
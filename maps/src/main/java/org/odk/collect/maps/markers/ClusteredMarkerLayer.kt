@@ -0,0 +1,230 @@
+package org.odk.collect.maps.markers
+
+import org.odk.collect.async.Scheduler
+import org.odk.collect.maps.MapFragment
+import org.odk.collect.maps.MapPoint
+
+/**
+ * Shows a large number of markers on a [MapFragment] without adding all of them to the map.
+ *
+ * Only the markers in and around the part of the map that is shown are added. When there
+ * are too many of those to show on their own, markers that would be drawn close together
+ * are shown as a single cluster marker (see [MarkerClusterer]), and clicking a cluster zooms
+ * in to the markers in it.
+ *
+ * The markers shown are worked out again when the map stops moving and when the items
+ * change. Only the markers that differ from what is already on the map are removed or added,
+ * so features keep their IDs while their items stay on screen. With many items the work is
+ * done in the background.
+ *
+ * Items are identified by an ID chosen by the caller. The layer uses the map's camera idle
+ * listener, so the caller should not set its own.
+ */
+class ClusteredMarkerLayer @JvmOverloads constructor(
+    private val map: MapFragment,
+    private val scheduler: Scheduler,
+    private val clusterColor: Int = DEFAULT_CLUSTER_COLOR
+) {
+
+    private val items = LinkedHashMap<Long, MarkerDescription>()
+
+    private val shownItems = HashMap<Long, ShownItem>()
+    private val shownClusters = HashMap<ClusterKey, Int>()
+    private val itemIdsByFeatureId = HashMap<Int, Long>()
+    private val clusterItemsByFeatureId = HashMap<Int, LongArray>()
+
+    private var generation = 0
+
+    init {
+        map.setCameraIdleListener { update() }
+    }
+
+    /**
+     * Replaces the items with [newItems], in the order they should be added to the map.
+     */
+    fun setItems(newItems: Map<Long, MarkerDescription>) {
+        items.clear()
+        items.putAll(newItems)
+        update()
+    }
+
+    /**
+     * Changes the icon of an item. The item keeps the icon until it is changed again or
+     * the items are replaced, even if it is not on the map at the moment.
+     */
+    fun setIcon(itemId: Long, iconDescription: MarkerIconDescription) {
+        val item = items[itemId] ?: return
+        val updated = item.copy(iconDescription = iconDescription)
+        items[itemId] = updated
+
+        shownItems[itemId]?.let {
+            map.setMarkerIcon(it.featureId, iconDescription)
+            it.marker = updated
+        }
+    }
+
+    /**
+     * The ID of the item shown by a feature, or null if the feature is a cluster or is not
+     * part of this layer.
+     */
+    fun getItemId(featureId: Int): Long? {
+        return itemIdsByFeatureId[featureId]
+    }
+
+    /**
+     * The feature showing an item, or null if the item is off screen or in a cluster.
+     */
+    fun getFeatureId(itemId: Long): Int? {
+        return shownItems[itemId]?.featureId
+    }
+
+    /**
+     * Zooms in to the markers in a cluster. Returns false if the feature is not a cluster.
+     */
+    fun onFeatureClick(featureId: Int): Boolean {
+        val itemIds = clusterItemsByFeatureId[featureId] ?: return false
+        val points = itemIds.mapNotNull { items[it]?.point }
+        if (points.isNotEmpty()) {
+            map.zoomToBoundingBox(points, 0.8, true)
+        }
+        return true
+    }
+
+    /**
+     * Works out the markers to show for the current items and viewport and updates the map.
+     */
+    fun update() {
+        val generation = ++this.generation
+        val ids = items.keys.toLongArray()
+        val points = items.values.map { it.point }
+        val zoom = map.getZoom()
+        val bounds = map.getVisibleBounds()?.expand(VIEWPORT_MARGIN)
+
+        if (ids.size <= MAX_FOREGROUND_ITEMS) {
+            show(generation, ids, MarkerClusterer.cluster(points, zoom, bounds))
+        } else {
+            scheduler.immediate(
+                { MarkerClusterer.cluster(points, zoom, bounds) },
+                { show(generation, ids, it) }
+            )
+        }
+    }
+
+    /**
+     * Removes all of the markers from the map
+     */
+    fun clear() {
+        generation++
+        items.clear()
+        (shownItems.values.map { it.featureId } + shownClusters.values).forEach(map::removeFeature)
+        shownItems.clear()
+        shownClusters.clear()
+        itemIdsByFeatureId.clear()
+        clusterItemsByFeatureId.clear()
+    }
+
+    private fun show(generation: Int, ids: LongArray, groups: List<MarkerClusterer.Group>) {
+        if (generation != this.generation) {
+            return // Items or viewport changed while this was worked out and another update is coming
+        }
+
+        val wantedItems = HashSet<Long>()
+        val wantedClusters = HashMap<ClusterKey, LongArray>()
+        val toAdd = mutableListOf<MarkerDescription>()
+        val toAddKeys = mutableListOf<Any>()
+
+        for (group in groups) {
+            if (group.cell == null) {
+                val itemId = ids[group.indexes[0]]
+                val marker = items[itemId] ?: continue
+                wantedItems.add(itemId)
+
+                val shown = shownItems[itemId]
+                if (shown == null) {
+                    toAdd.add(marker)
+                    toAddKeys.add(itemId)
+                } else if (shown.marker != marker) {
+                    if (shown.marker.copy(iconDescription = marker.iconDescription) == marker) {
+                        map.setMarkerIcon(shown.featureId, marker.iconDescription)
+                        shown.marker = marker
+                    } else {
+                        removeItem(itemId)
+                        toAdd.add(marker)
+                        toAddKeys.add(itemId)
+                    }
+                }
+            } else {
+                val key = ClusterKey(group.cell, group.size, group.point)
+                val itemIds = LongArray(group.size) { ids[group.indexes[it]] }
+                wantedClusters[key] = itemIds
+
+                val featureId = shownClusters[key]
+                if (featureId == null) {
+                    toAdd.add(
+                        MarkerDescription(
+                            group.point,
+                            false,
+                            MapFragment.CENTER,
+                            MarkerIconDescription.Cluster(group.size, clusterColor)
+                        )
+                    )
+                    toAddKeys.add(key)
+                } else {
+                    clusterItemsByFeatureId[featureId] = itemIds
+                }
+            }
+        }
+
+        shownItems.keys.filter { !wantedItems.contains(it) }.forEach(::removeItem)
+        shownClusters.keys.filter { !wantedClusters.containsKey(it) }.forEach { key ->
+            shownClusters.remove(key)?.let {
+                clusterItemsByFeatureId.remove(it)
+                map.removeFeature(it)
+            }
+        }
+
+        if (toAdd.isNotEmpty()) {
+            map.addMarkers(toAdd).forEachIndexed { index, featureId ->
+                when (val key = toAddKeys[index]) {
+                    is Long -> {
+                        shownItems[key] = ShownItem(featureId, toAdd[index])
+                        itemIdsByFeatureId[featureId] = key
+                    }
+
+                    is ClusterKey -> {
+                        shownClusters[key] = featureId
+                        clusterItemsByFeatureId[featureId] = wantedClusters.getValue(key)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun removeItem(itemId: Long) {
+        shownItems.remove(itemId)?.let {
+            itemIdsByFeatureId.remove(it.featureId)
+            map.removeFeature(it.featureId)
+        }
+    }
+
+    private class ShownItem(val featureId: Int, var marker: MarkerDescription)
+
+    private data class ClusterKey(val cell: MarkerClusterer.Cell, val size: Int, val point: MapPoint)
+
+    companion object {
+
+        /**
+         * Markers are added this far outside the viewport, as a fraction of its size, so that
+         * small pans do not change the map
+         */
+        const val VIEWPORT_MARGIN = 0.5
+
+        /**
+         * Up to this many items are worked out straight away rather than in the background,
+         * handing the work to another thread would take longer than doing it
+         */
+        const val MAX_FOREGROUND_ITEMS = 500
+
+        const val DEFAULT_CLUSTER_COLOR = 0xFF1565C0.toInt()
+    }
+}
@@ -0,0 +1,96 @@
+package org.odk.collect.maps.markers
+
+import org.odk.collect.maps.MapBounds
+import org.odk.collect.maps.MapPoint
+import kotlin.math.PI
+import kotlin.math.floor
+import kotlin.math.ln
+import kotlin.math.sin
+
+/**
+ * Groups points that would be drawn close together at a zoom level.
+ *
+ * The world is divided into a grid of cells [CELL_SIZE] pixels across at the (whole) zoom
+ * level, the same projection the map SDKs use for tiles, and the points in each cell form a
+ * group. The cells are fixed for a zoom level so panning the map does not change the groups
+ * that were already shown, and each zoom level in splits the cells of the one before into
+ * four so groups only ever break up as the user zooms in.
+ */
+object MarkerClusterer {
+
+    /**
+     * Size of a cell at 256 pixel tiles. Roughly the size of a cluster marker plus the space
+     * around it.
+     */
+    const val CELL_SIZE = 64.0
+
+    /**
+     * Points are always shown on their own from this zoom level, by then points in the same
+     * cell are a few metres apart and a cluster could not be split by zooming in further.
+     */
+    const val MAX_CLUSTER_ZOOM = 18
+
+    /**
+     * Points are shown on their own when there are no more than this many to show.
+     */
+    const val MAX_MARKERS = 200
+
+    private const val TILE_SIZE = 256.0
+
+    data class Cell(val zoom: Int, val x: Int, val y: Int)
+
+    /**
+     * The points in a cell, or a single point with a null cell when points are not clustered.
+     * [indexes] are the positions of the points in the list passed to [cluster].
+     */
+    class Group(val cell: Cell?, val indexes: IntArray, val point: MapPoint) {
+        val size: Int
+            get() = indexes.size
+    }
+
+    /**
+     * Groups the points within [bounds] (all of the points if that is null). Groups are
+     * returned in the order of their first point.
+     */
+    @JvmStatic
+    fun cluster(points: List<MapPoint>, zoom: Double, bounds: MapBounds?, maxMarkers: Int = MAX_MARKERS): List<Group> {
+        val visible = points.indices.filter { bounds == null || bounds.contains(points[it]) }
+
+        if (visible.size <= maxMarkers || zoom >= MAX_CLUSTER_ZOOM) {
+            return visible.map { Group(null, intArrayOf(it), points[it]) }
+        }
+
+        val level = floor(zoom).toInt().coerceAtLeast(0)
+        val cellsAcross = TILE_SIZE * (1 shl level) / CELL_SIZE
+
+        val cells = LinkedHashMap<Cell, MutableList<Int>>()
+        for (index in visible) {
+            val point = points[index]
+            val x = (point.longitude + 180) / 360 * cellsAcross
+            val sinLatitude = sin(point.latitude * PI / 180).coerceIn(-0.9999, 0.9999)
+            val y = (0.5 - ln((1 + sinLatitude) / (1 - sinLatitude)) / (4 * PI)) * cellsAcross
+
+            val cell = Cell(level, floor(x).toInt(), floor(y).toInt())
+            cells.getOrPut(cell) { mutableListOf() }.add(index)
+        }
+
+        return cells.map { (cell, indexes) ->
+            if (indexes.size == 1) {
+                Group(null, intArrayOf(indexes[0]), points[indexes[0]])
+            } else {
+                var latitude = 0.0
+                var longitude = 0.0
+                for (index in indexes) {
+                    latitude += points[index].latitude
+                    longitude += points[index].longitude
+                }
+
+                Group(
+                    cell,
+                    indexes.toIntArray(),
+                    MapPoint(latitude / indexes.size, longitude / indexes.size)
+                )
+            }
+        }
+    }
+}
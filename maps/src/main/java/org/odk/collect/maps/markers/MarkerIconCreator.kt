@@ -35,6 +35,16 @@ object MarkerIconCreator {
                 }
             }
 
+            is MarkerIconDescription.Cluster -> {
+                fromCache("Cluster" + markerIconDescription.getLabel() + markerIconDescription.color) {
+                    createCluster(
+                        context.resources.displayMetrics.density,
+                        markerIconDescription.getLabel(),
+                        markerIconDescription.color
+                    )
+                }
+            }
+
             is MarkerIconDescription.DrawableResource -> {
                 val drawableId = markerIconDescription.drawable
                 val color = markerIconDescription.getColor()
@@ -72,6 +82,47 @@ object MarkerIconCreator {
         return bitmap
     }
 
+    /**
+     * A filled circle with the label in the middle, larger for longer labels so that
+     * bigger clusters stand out
+     */
+    private fun createCluster(density: Float, label: String, color: Int): Bitmap {
+        val diameter = (28 + 6 * label.length) * density
+        val bitmap = Bitmap.createBitmap(diameter.toInt(), diameter.toInt(), Config.ARGB_8888)
+
+        Canvas(bitmap).also { canvas ->
+            val radius = diameter / 2
+            val strokeSize = 2 * density
+
+            val fill = Paint().also {
+                it.style = Paint.Style.FILL
+                it.isAntiAlias = true
+                it.color = color
+            }
+            canvas.drawCircle(radius, radius, radius - strokeSize, fill)
+
+            val stroke = Paint().also {
+                it.style = Paint.Style.STROKE
+                it.isAntiAlias = true
+                it.color = Color.WHITE
+                it.strokeWidth = strokeSize
+            }
+            canvas.drawCircle(radius, radius, radius - (strokeSize / 2), stroke)
+
+            val text = Paint().also {
+                it.style = Paint.Style.FILL
+                it.isAntiAlias = true
+                it.color = if (ColorUtils.calculateLuminance(color) < 0.5) Color.WHITE else Color.BLACK
+                it.textSize = 13 * density
+                it.typeface = Typeface.create(Typeface.DEFAULT, Typeface.BOLD)
+                it.textAlign = Paint.Align.CENTER
+            }
+            canvas.drawText(label, radius, radius - (text.descent() + text.ascent()) / 2, text)
+        }
+
+        return bitmap
+    }
+
     private fun fromCache(bitmapId: String, factory: () -> Bitmap): Bitmap {
         return if (cache[bitmapId] == null) {
             factory().also {
@@ -22,4 +22,11 @@ sealed interface MarkerIconDescription {
     }
 
     data class TracePoint(val lineSize: Float, val color: Int) : MarkerIconDescription
+
+    /**
+     * A circle showing how many markers have been drawn as one, see [ClusteredMarkerLayer]
+     */
+    data class Cluster(val count: Int, val color: Int) : MarkerIconDescription {
+        fun getLabel(): String = if (count > 999) "999+" else count.toString()
+    }
 }
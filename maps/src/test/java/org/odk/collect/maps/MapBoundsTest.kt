@@ -0,0 +1,50 @@
+package org.odk.collect.maps
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class MapBoundsTest {
+
+    @Test
+    fun `contains points inside the bounds`() {
+        val bounds = MapBounds(10.0, 20.0, 11.0, 21.0)
+
+        assertThat(bounds.contains(MapPoint(10.5, 20.5)), equalTo(true))
+        assertThat(bounds.contains(MapPoint(11.5, 20.5)), equalTo(false))
+        assertThat(bounds.contains(MapPoint(10.5, 19.5)), equalTo(false))
+    }
+
+    @Test
+    fun `contains points either side of the antimeridian when the bounds cross it`() {
+        val bounds = MapBounds(-10.0, 170.0, 10.0, -170.0)
+
+        assertThat(bounds.contains(MapPoint(0.0, 175.0)), equalTo(true))
+        assertThat(bounds.contains(MapPoint(0.0, -175.0)), equalTo(true))
+        assertThat(bounds.contains(MapPoint(0.0, 0.0)), equalTo(false))
+    }
+
+    @Test
+    fun `expand grows the bounds on every side`() {
+        val bounds = MapBounds(10.0, 20.0, 12.0, 24.0)
+
+        assertThat(bounds.expand(0.5), equalTo(MapBounds(9.0, 18.0, 13.0, 26.0)))
+    }
+
+    @Test
+    fun `expand wraps around the antimeridian`() {
+        val bounds = MapBounds(0.0, 176.0, 1.0, 180.0)
+
+        assertThat(bounds.expand(0.5), equalTo(MapBounds(-0.5, 174.0, 1.5, -178.0)))
+    }
+
+    @Test
+    fun `expand covers the whole world when the bounds would overlap themselves`() {
+        val bounds = MapBounds(-80.0, -100.0, 80.0, 100.0)
+
+        assertThat(bounds.expand(0.5), equalTo(MapBounds(-90.0, -180.0, 90.0, 180.0)))
+    }
+}
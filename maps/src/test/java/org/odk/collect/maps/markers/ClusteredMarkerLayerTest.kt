@@ -0,0 +1,218 @@
+package org.odk.collect.maps.markers
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.instanceOf
+import org.hamcrest.Matchers.notNullValue
+import org.hamcrest.Matchers.nullValue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.clearInvocations
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import org.odk.collect.maps.MapBounds
+import org.odk.collect.maps.MapFragment
+import org.odk.collect.maps.MapPoint
+import org.odk.collect.testshared.FakeScheduler
+
+@RunWith(AndroidJUnit4::class)
+class ClusteredMarkerLayerTest {
+
+    private val map = mock<MapFragment>()
+    private val scheduler = FakeScheduler()
+    private val features = mutableMapOf<Int, MarkerDescription>()
+    private var nextFeatureId = 1
+    private var cameraIdleListener: MapFragment.CameraIdleListener? = null
+
+    @Before
+    fun setup() {
+        doAnswer { invocation ->
+            invocation.getArgument<List<MarkerDescription>>(0).map {
+                val featureId = nextFeatureId++
+                features[featureId] = it
+                featureId
+            }
+        }.whenever(map).addMarkers(any())
+
+        doAnswer { invocation ->
+            features.remove(invocation.getArgument(0))
+        }.whenever(map).removeFeature(any())
+
+        doAnswer { invocation ->
+            cameraIdleListener = invocation.getArgument(0)
+        }.whenever(map).setCameraIdleListener(anyOrNull())
+    }
+
+    @Test
+    fun `adds a marker for each item`() {
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(MapPoint(0.0, 0.0), MapPoint(1.0, 1.0)))
+
+        assertThat(features.values.map { it.point }, equalTo(listOf(MapPoint(0.0, 0.0), MapPoint(1.0, 1.0))))
+        assertThat(layer.getItemId(layer.getFeatureId(1)!!), equalTo(1L))
+    }
+
+    @Test
+    fun `only changes the markers for items that change`() {
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(MapPoint(0.0, 0.0), MapPoint(1.0, 1.0)))
+        val unchangedFeatureId = layer.getFeatureId(0)
+        clearInvocations(map)
+
+        layer.setItems(markers(MapPoint(0.0, 0.0), MapPoint(2.0, 2.0), MapPoint(3.0, 3.0)))
+
+        assertThat(layer.getFeatureId(0), equalTo(unchangedFeatureId))
+        verify(map, never()).removeFeature(eq(unchangedFeatureId!!))
+        val added = argumentCaptor<List<MarkerDescription>>()
+        verify(map).addMarkers(added.capture())
+        assertThat(added.firstValue.map { it.point }, equalTo(listOf(MapPoint(2.0, 2.0), MapPoint(3.0, 3.0))))
+        assertThat(features.size, equalTo(3))
+    }
+
+    @Test
+    fun `changes the icon in place when only the icon of an item changes`() {
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(MapPoint(0.0, 0.0)))
+        val featureId = layer.getFeatureId(0)!!
+        clearInvocations(map)
+
+        val newIcon = MarkerIconDescription.DrawableResource(2)
+        layer.setItems(mapOf(0L to marker(MapPoint(0.0, 0.0), newIcon)))
+
+        verify(map).setMarkerIcon(featureId, newIcon)
+        verify(map, never()).removeFeature(any())
+        verify(map, never()).addMarkers(any())
+    }
+
+    @Test
+    fun `setIcon keeps the icon when the item scrolls out of view and back`() {
+        whenever(map.getVisibleBounds()).thenReturn(MapBounds(-1.0, -1.0, 1.0, 1.0))
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(MapPoint(0.0, 0.0)))
+
+        val newIcon = MarkerIconDescription.DrawableResource(2)
+        layer.setIcon(0, newIcon)
+        verify(map).setMarkerIcon(layer.getFeatureId(0)!!, newIcon)
+
+        moveCamera(MapBounds(10.0, 10.0, 11.0, 11.0), 10.0)
+        assertThat(layer.getFeatureId(0), nullValue())
+
+        moveCamera(MapBounds(-1.0, -1.0, 1.0, 1.0), 10.0)
+        assertThat(features[layer.getFeatureId(0)!!]!!.iconDescription, equalTo(newIcon))
+    }
+
+    @Test
+    fun `only adds markers around the visible part of the map`() {
+        whenever(map.getVisibleBounds()).thenReturn(MapBounds(-1.0, -1.0, 1.0, 1.0))
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(MapPoint(0.0, 0.0), MapPoint(1.2, 1.2), MapPoint(20.0, 20.0)))
+
+        assertThat(features.values.map { it.point }, equalTo(listOf(MapPoint(0.0, 0.0), MapPoint(1.2, 1.2))))
+
+        moveCamera(MapBounds(19.0, 19.0, 21.0, 21.0), 10.0)
+        assertThat(features.values.map { it.point }, equalTo(listOf(MapPoint(20.0, 20.0))))
+    }
+
+    @Test
+    fun `shows clusters when there are too many markers to show`() {
+        whenever(map.getZoom()).thenReturn(5.0)
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(*grid(300)))
+
+        assertThat(features.size, equalTo(1))
+        val cluster = features.values.first()
+        assertThat(cluster.iconDescription, equalTo(MarkerIconDescription.Cluster(300, ClusteredMarkerLayer.DEFAULT_CLUSTER_COLOR)))
+        assertThat(layer.getItemId(features.keys.first()), nullValue())
+    }
+
+    @Test
+    fun `clicking a cluster zooms to the markers in it`() {
+        whenever(map.getZoom()).thenReturn(5.0)
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        val points = grid(300)
+        layer.setItems(markers(*points))
+
+        assertThat(layer.onFeatureClick(features.keys.first()), equalTo(true))
+        verify(map).zoomToBoundingBox(points.toList(), 0.8, true)
+    }
+
+    @Test
+    fun `clicking a marker is not handled`() {
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(MapPoint(0.0, 0.0)))
+
+        assertThat(layer.onFeatureClick(layer.getFeatureId(0)!!), equalTo(false))
+    }
+
+    @Test
+    fun `works out the markers in the background when there are many items`() {
+        whenever(map.getZoom()).thenReturn(5.0)
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(*grid(ClusteredMarkerLayer.MAX_FOREGROUND_ITEMS + 1)))
+        assertThat(features.size, equalTo(0))
+
+        scheduler.flush()
+        assertThat(features.size, equalTo(1))
+        assertThat(features.values.first().iconDescription, instanceOf(MarkerIconDescription.Cluster::class.java))
+    }
+
+    @Test
+    fun `ignores markers worked out for items that have since changed`() {
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(*grid(ClusteredMarkerLayer.MAX_FOREGROUND_ITEMS + 1)))
+        layer.setItems(markers(MapPoint(0.0, 0.0)))
+
+        scheduler.flush()
+        assertThat(features.values.map { it.point }, equalTo(listOf(MapPoint(0.0, 0.0))))
+    }
+
+    @Test
+    fun `clear removes all markers`() {
+        val layer = ClusteredMarkerLayer(map, scheduler)
+        layer.setItems(markers(MapPoint(0.0, 0.0), MapPoint(1.0, 1.0)))
+
+        layer.clear()
+        assertThat(features.size, equalTo(0))
+        assertThat(layer.getFeatureId(0), nullValue())
+    }
+
+    @Test
+    fun `uses the camera idle listener`() {
+        ClusteredMarkerLayer(map, scheduler)
+        assertThat(cameraIdleListener, notNullValue())
+    }
+
+    private fun moveCamera(bounds: MapBounds, zoom: Double) {
+        whenever(map.getVisibleBounds()).thenReturn(bounds)
+        whenever(map.getZoom()).thenReturn(zoom)
+        cameraIdleListener!!.onCameraIdle()
+    }
+
+    private fun markers(vararg points: MapPoint): Map<Long, MarkerDescription> {
+        val markers = LinkedHashMap<Long, MarkerDescription>()
+        points.forEachIndexed { index, point ->
+            markers[index.toLong()] = marker(point, MarkerIconDescription.DrawableResource(1))
+        }
+        return markers
+    }
+
+    private fun marker(point: MapPoint, icon: MarkerIconDescription): MarkerDescription {
+        return MarkerDescription(point, false, MapFragment.BOTTOM, icon)
+    }
+
+    /**
+     * Points a few metres apart that all fall in one cell when zoomed out
+     */
+    private fun grid(count: Int): Array<MapPoint> {
+        return Array(count) { MapPoint(-33.0 + (it / 20) * 0.0001, 151.0 + (it % 20) * 0.0001) }
+    }
+}
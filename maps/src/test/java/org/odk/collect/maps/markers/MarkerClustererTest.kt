@@ -0,0 +1,91 @@
+package org.odk.collect.maps.markers
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.lessThan
+import org.hamcrest.Matchers.nullValue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.odk.collect.maps.MapBounds
+import org.odk.collect.maps.MapPoint
+
+@RunWith(AndroidJUnit4::class)
+class MarkerClustererTest {
+
+    @Test
+    fun `returns each point on its own when there are not too many`() {
+        val points = grid(10, 10, 0.001)
+
+        val groups = MarkerClusterer.cluster(points, 5.0, null)
+
+        assertThat(groups.size, equalTo(100))
+        groups.forEachIndexed { index, group ->
+            assertThat(group.cell, nullValue())
+            assertThat(group.indexes.toList(), equalTo(listOf(index)))
+            assertThat(group.point, equalTo(points[index]))
+        }
+    }
+
+    @Test
+    fun `only returns points within the bounds`() {
+        val points = listOf(MapPoint(0.0, 0.0), MapPoint(50.0, 50.0), MapPoint(0.5, 0.5))
+
+        val groups = MarkerClusterer.cluster(points, 5.0, MapBounds(-1.0, -1.0, 1.0, 1.0))
+
+        assertThat(groups.flatMap { it.indexes.toList() }, equalTo(listOf(0, 2)))
+    }
+
+    @Test
+    fun `groups points that are close together when there are too many`() {
+        val points = grid(30, 30, 0.001)
+
+        val groups = MarkerClusterer.cluster(points, 5.0, null)
+
+        assertThat(groups.size, equalTo(1))
+        assertThat(groups[0].size, equalTo(points.size))
+        assertThat(groups[0].point.latitude, equalTo(points.map { it.latitude }.average()))
+    }
+
+    @Test
+    fun `every point is in exactly one group`() {
+        val points = grid(40, 40, 0.05)
+
+        val groups = MarkerClusterer.cluster(points, 8.0, null)
+
+        assertThat(groups.size, lessThan(points.size))
+        assertThat(groups.flatMap { it.indexes.toList() }.sorted(), equalTo(points.indices.toList()))
+    }
+
+    @Test
+    fun `groups split up when zooming in`() {
+        val points = grid(40, 40, 0.05)
+
+        val zoomedOut = MarkerClusterer.cluster(points, 8.0, null)
+        val zoomedIn = MarkerClusterer.cluster(points, 9.0, null)
+
+        assertThat(zoomedOut.size, lessThan(zoomedIn.size))
+        val zoomedOutGroupOf = mutableMapOf<Int, Int>()
+        zoomedOut.forEachIndexed { group, it -> it.indexes.forEach { index -> zoomedOutGroupOf[index] = group } }
+        zoomedIn.forEach {
+            assertThat(it.indexes.map { index -> zoomedOutGroupOf[index] }.distinct().size, equalTo(1))
+        }
+    }
+
+    @Test
+    fun `does not group points from the max cluster zoom`() {
+        val points = grid(30, 30, 0.00001)
+
+        val groups = MarkerClusterer.cluster(points, MarkerClusterer.MAX_CLUSTER_ZOOM.toDouble(), null)
+
+        assertThat(groups.size, equalTo(points.size))
+    }
+
+    private fun grid(rows: Int, columns: Int, spacing: Double): List<MapPoint> {
+        return (0 until rows).flatMap { row ->
+            (0 until columns).map { column ->
+                MapPoint(-33.0 + row * spacing, 151.0 + column * spacing)
+            }
+        }
+    }
+}
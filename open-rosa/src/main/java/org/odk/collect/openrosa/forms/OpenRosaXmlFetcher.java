@@ -3,12 +3,19 @@ package org.odk.collect.openrosa.forms;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.javarosa.xform.parse.XFormParser;
 import org.kxml2.kdom.Document;
+import org.odk.collect.openrosa.http.ConditionalGetCache;
 import org.odk.collect.openrosa.http.HttpCredentialsInterface;
 import org.odk.collect.openrosa.http.HttpGetResult;
 import org.odk.collect.openrosa.http.OpenRosaHttpInterface;
+import org.odk.collect.shared.strings.Md5;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
@@ -16,6 +23,8 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
 
 import timber.log.Timber;
 
@@ -30,6 +39,7 @@ public class OpenRosaXmlFetcher {
 
     private final OpenRosaHttpInterface httpInterface;
     private WebCredentialsProvider webCredentialsUtils;
+    private ConditionalGetCache conditionalGetCache;     // smap
 
     public OpenRosaXmlFetcher(OpenRosaHttpInterface httpInterface, WebCredentialsProvider webCredentialsUtils) {
         this.httpInterface = httpInterface;
@@ -79,6 +89,109 @@ public class OpenRosaXmlFetcher {
     @NonNull
     public HttpGetResult fetch(@NonNull String downloadUrl, @Nullable final String contentType,
                                      boolean credentials) throws Exception {    // smap include credentials flag
+        URI uri = toUri(downloadUrl);
+
+        if(!credentials) {       // Smap do not pass credentials if it is not required (proxyPass 400 error)
+            return httpInterface.executeGetRequest(uri, contentType, null);
+        } else {
+            return httpInterface.executeGetRequest(uri, contentType, webCredentialsUtils.getCredentials(uri));
+        }
+    }
+
+    /**
+     * smap - Remember the validators sent with files so that they can be fetched with a
+     * conditional request.  Without a cache every request is unconditional.
+     */
+    public void setConditionalGetCache(@Nullable ConditionalGetCache conditionalGetCache) {
+        this.conditionalGetCache = conditionalGetCache;
+    }
+
+    @Nullable
+    public ConditionalGetCache getConditionalGetCache() {
+        return conditionalGetCache;
+    }
+
+    /**
+     * smap - Fetch a file that may already be on the device.  If it is, the validators saved
+     * when it was downloaded are sent and a 304 response with no stream is returned if it has
+     * not changed.  Call {@link #saveValidators} once the body of a 200 response is saved.
+     *
+     * @param localCopy the copy of the file on the device or null to always fetch it
+     */
+    @NonNull
+    public HttpGetResult fetchIfModified(@NonNull String downloadUrl, boolean credentials,
+                                         @Nullable File localCopy) throws Exception {
+        URI uri = toUri(downloadUrl);
+
+        HashMap<String, String> headers = new HashMap<>();
+        if (conditionalGetCache != null && localCopy != null && localCopy.exists()) {
+            headers.putAll(conditionalGetCache.getConditionalHeaders(downloadUrl));
+        }
+
+        HttpGetResult result = httpInterface.executeGetRequest(uri,
+                credentials ? webCredentialsUtils.getCredentials(uri) : null, headers);
+
+        if (result.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED
+                && conditionalGetCache != null && localCopy != null) {
+            Timber.i("Not modified: %s", downloadUrl);
+            conditionalGetCache.notModified(localCopy.length());
+        }
+        return result;
+    }
+
+    /**
+     * smap - Record the validators of a response returned by {@link #fetchIfModified} after its
+     * body has been saved
+     */
+    public void saveValidators(@NonNull String downloadUrl, @NonNull HttpGetResult result) {
+        if (conditionalGetCache != null) {
+            conditionalGetCache.save(downloadUrl, result);
+        }
+    }
+
+    /**
+     * smap - The same as {@link #getXML} but the document is kept so that it can be fetched with
+     * a conditional request next time and parsed again from the copy if it has not changed
+     */
+    public DocumentFetchResult getXMLIfModified(String urlString) throws Exception {
+        if (conditionalGetCache == null) {
+            return getXML(urlString);
+        }
+
+        File copy = conditionalGetCache.getBodyFile(urlString);
+        HttpGetResult result = fetchIfModified(urlString, true, copy);
+
+        byte[] bytes;
+        if (result.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            try (InputStream is = new FileInputStream(copy)) {
+                bytes = IOUtils.toByteArray(is);
+            }
+        } else if (result.getStatusCode() == HttpURLConnection.HTTP_OK) {
+            try (InputStream is = result.getInputStream()) {
+                // The same check as getXML, a login page from a network proxy is not the document
+                String type = result.getHeader("Content-Type");
+                if (type != null && !type.toLowerCase(Locale.ENGLISH).contains(HTTP_CONTENT_TYPE_TEXT_XML)) {
+                    throw new Exception("ContentType: " + type + " returned from: " + urlString
+                            + " is not " + HTTP_CONTENT_TYPE_TEXT_XML
+                            + ".  This is often caused by a network proxy.  Do you need "
+                            + "to login to your network?");
+                }
+                bytes = IOUtils.toByteArray(is);
+            }
+            FileUtils.writeByteArrayToFile(copy, bytes);
+            saveValidators(urlString, result);
+        } else {
+            String error = "getXML failed while accessing "
+                    + urlString + " with status code: " + result.getStatusCode();
+            return new DocumentFetchResult(error, result.getStatusCode());
+        }
+
+        Document doc = XFormParser.getXMLDocument(new InputStreamReader(new ByteArrayInputStream(bytes)));
+        return new DocumentFetchResult(doc, result.isOpenRosaResponse(),
+                Md5.getMd5Hash(new ByteArrayInputStream(bytes)));
+    }
+
+    private static URI toUri(@NonNull String downloadUrl) throws Exception {
         URI uri;
         try {
             // assume the downloadUrl is escaped properly
@@ -93,12 +206,7 @@ public class OpenRosaXmlFetcher {
             Timber.e(new Error("Invalid server URL (no hostname): " + downloadUrl));
             throw new Exception("Invalid server URL (no hostname): " + downloadUrl);
         }
-
-        if(!credentials) {       // Smap do not pass credentials if it is not required (proxyPass 400 error)
-            return httpInterface.executeGetRequest(uri, contentType, null);
-        } else {
-            return httpInterface.executeGetRequest(uri, contentType, webCredentialsUtils.getCredentials(uri));
-        }
+        return uri;
     }
 
     public void updateWebCredentialsProvider(WebCredentialsProvider webCredentialsUtils) {
@@ -0,0 +1,159 @@
+package org.odk.collect.openrosa.http;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.odk.collect.shared.strings.Md5;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * smap - Remembers the ETag and Last-Modified validators the server sent with files that are
+ * kept on the device, so that the next request for one of them can be conditional.  When the
+ * file has not changed the server answers with an empty 304 response rather than sending it
+ * again.
+ *
+ * Also counts what the 304 responses saved, so that each sync can report it.
+ */
+public class ConditionalGetCache {
+
+    static final String VALIDATORS_FILE = "validators.properties";
+
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String ETAG_PREFIX = "etag.";
+    private static final String LAST_MODIFIED_PREFIX = "modified.";
+
+    private final File dir;
+    private Properties validators;      // Loaded on first use
+
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    public ConditionalGetCache(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * The If-None-Match and If-Modified-Since headers for a URL, empty if the server has not
+     * sent any validators for it
+     */
+    @NonNull
+    public synchronized HashMap<String, String> getConditionalHeaders(@NonNull String url) {
+        HashMap<String, String> headers = new HashMap<>();
+        String etag = getValidators().getProperty(ETAG_PREFIX + url);
+        if (etag != null) {
+            headers.put("If-None-Match", etag);
+        }
+        String lastModified = getValidators().getProperty(LAST_MODIFIED_PREFIX + url);
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        return headers;
+    }
+
+    /**
+     * Record the validators of a response once its body has been saved on the device
+     */
+    public synchronized void save(@NonNull String url, @NonNull HttpGetResult result) {
+        String etag = result.getHeader(ETAG);
+        String lastModified = result.getHeader(LAST_MODIFIED);
+
+        Properties properties = getValidators();
+        boolean changed = update(properties, ETAG_PREFIX + url, etag);
+        changed |= update(properties, LAST_MODIFIED_PREFIX + url, lastModified);
+        if (changed) {
+            store();
+        }
+    }
+
+    public synchronized void remove(@NonNull String url) {
+        Properties properties = getValidators();
+        boolean changed = properties.remove(ETAG_PREFIX + url) != null;
+        changed |= properties.remove(LAST_MODIFIED_PREFIX + url) != null;
+        if (changed) {
+            store();
+        }
+    }
+
+    /**
+     * Where the body of a document that is parsed rather than kept as a file, like a manifest,
+     * is saved so that it can be used again after a 304 response
+     */
+    @NonNull
+    public File getBodyFile(@NonNull String url) {
+        return new File(dir, Md5.getMd5Hash(url) + ".body");
+    }
+
+    /**
+     * Record that the server did not need to send a file because the copy on the device is current
+     */
+    public void notModified(long bytes) {
+        notModified.incrementAndGet();
+        bytesSaved.addAndGet(bytes);
+    }
+
+    /**
+     * The size of the files that did not need to be sent
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * The number of requests answered with a 304 response
+     */
+    public int getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    private static boolean update(Properties properties, String key, @Nullable String value) {
+        if (value == null || value.isEmpty()) {
+            return properties.remove(key) != null;
+        } else {
+            return !value.equals(properties.setProperty(key, value));
+        }
+    }
+
+    private Properties getValidators() {
+        if (validators == null) {
+            validators = new Properties();
+            File file = new File(dir, VALIDATORS_FILE);
+            if (file.exists()) {
+                try (InputStream is = new FileInputStream(file)) {
+                    validators.load(is);
+                } catch (Exception e) {
+                    // Files will be downloaded in full until validators are saved again
+                    Timber.e(e, "Invalid conditional request validators");
+                    validators = new Properties();
+                }
+            }
+        }
+        return validators;
+    }
+
+    private void store() {
+        dir.mkdirs();
+        File file = new File(dir, VALIDATORS_FILE);
+        File temp = new File(dir, VALIDATORS_FILE + ".tmp");
+        try (OutputStream os = new FileOutputStream(temp)) {
+            validators.store(os, null);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to save conditional request validators");
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Timber.e("Failed to replace conditional request validators");
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.odk.collect.openrosa.http;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.InputStream;
 import java.util.Map;
@@ -82,4 +83,17 @@ public class HttpGetResult {
     public int getStatusCode() {
         return statusCode;
     }
+
+    /**
+     * smap - The value of a response header, ignoring the case of its name
+     */
+    @Nullable
+    public String getHeader(@NonNull String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
 }
@@ -53,6 +53,10 @@ public interface OpenRosaHttpInterface {
 
     /**
      * Uploads submission files and then list of other files to server
+     * <p>
+     * smap - If the HEAD response for the server named a resumable upload endpoint, large files
+     * are sent there first in chunks and an interrupted upload carries on from where it stopped
+     * the next time the submission is sent.
      *
      * @param submissionFile The main file to be uploaded (Form file)
      * @param fileList       List of Files to be uploaded
@@ -87,6 +91,23 @@ public interface OpenRosaHttpInterface {
                                             @Nullable HttpCredentialsInterface credentials
                                           ) throws IOException, URISyntaxException;
 
+    /**
+     * smap
+     * Updates tasks on a server that accepts the compact form of the task status
+     *
+     * @param body         the gzipped task status
+     * @param formatHeader the header that names the format of the body
+     * @param version      the format of the body
+     * @param uri          where to send the task status
+     */
+    @NonNull
+    HttpPostResult uploadCompactTaskStatus(@NonNull byte[] body,
+                                           @NonNull String formatHeader,
+                                           int version,
+                                           @NonNull URI uri,
+                                           @Nullable HttpCredentialsInterface credentials
+                                          ) throws IOException, URISyntaxException;
+
     /**
      * smap
      * Updates location
@@ -104,6 +125,24 @@ public interface OpenRosaHttpInterface {
                                    @Nullable HttpCredentialsInterface credentials
     ) throws IOException, URISyntaxException;
 
+    /**
+     * smap
+     * Updates location with a batch of fixes recorded since the last update.  The latest fix is
+     * also sent as lat and lon so a server that does not read the batch still gets the current location.
+     *
+     * @param lat    latitude of the latest fix
+     * @param lon    longitude of the latest fix
+     * @param points JSON array of the fixes, oldest first, each with lat, lon and time
+     * @param uri    where to send the location
+     */
+    @NonNull
+    HttpPostResult uploadLocations(String lat,
+                                   String lon,
+                                   @NonNull String points,
+                                   @NonNull URI uri,
+                                   @Nullable HttpCredentialsInterface credentials
+    ) throws IOException, URISyntaxException;
+
     /**
      * smap
      * Updates tasks on a Server.
@@ -141,8 +180,9 @@ public interface OpenRosaHttpInterface {
 
     /**
      * smap - Get a file allowing extra request headers to be set.  Used to send a Range header
-     * so that a large download interrupted by a poor connection can be resumed.  A 206 response
-     * is accepted as well as a 200.
+     * so that a large download interrupted by a poor connection can be resumed, or validators
+     * for a conditional request.  A 206 response is accepted as well as a 200, and a 304 response
+     * is returned without a stream.
      *
      * @param uri of the file to get
      * @param credentials to authenticate with, may be null
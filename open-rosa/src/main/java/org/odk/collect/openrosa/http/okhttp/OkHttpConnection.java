@@ -23,11 +23,13 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;     // smap
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;    // smap
 
 import okhttp3.FormBody;    // smap
 import okhttp3.Headers;
@@ -44,6 +46,8 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
     private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";     // smap
     private static final String GZIP_CONTENT_ENCODING = "gzip";                 // smap
     private static final String HTTP_CONTENT_TYPE_TEXT_XML = "text/xml";
+    private static final String RESUMABLE_UPLOAD_HEADER = "X-Smap-Resumable-Upload";     // smap - tus endpoint for large attachments
+    private static final String RESUMABLE_UPLOAD_PART = "resumable_upload";              // smap
 
     private final OkHttpOpenRosaServerClientProvider clientFactory;
 
@@ -53,6 +57,9 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
     @NonNull
     private final String userAgent;
 
+    // smap - resumable upload endpoints advertised in HEAD responses, keyed on the host they were sent by
+    private final Map<String, URI> resumableEndpoints = new ConcurrentHashMap<>();
+
     public OkHttpConnection(@Nullable String cacheDir, @NonNull FileToContentTypeMapper fileToContentTypeMapper, @NonNull String userAgent) {
         this.clientFactory = new OkHttpOpenRosaServerClientProvider(cacheDir);
         this.fileToContentTypeMapper = fileToContentTypeMapper;
@@ -124,7 +131,8 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
 
     /*
      * smap - Get a file allowing extra request headers, used to resume a download with a Range
-     * header.  Unlike executeGetRequest above this accepts a 206 partial content response.
+     * header or to make a conditional request.  Unlike executeGetRequest above this accepts a 206
+     * partial content response and a 304 not modified response, which has no stream.
      */
     @NonNull
     @Override
@@ -145,23 +153,29 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
         Response response = httpClient.makeRequest(requestBuilder.build(), new Date());
         int statusCode = response.code();
 
-        if (statusCode != HttpURLConnection.HTTP_OK && statusCode != HttpURLConnection.HTTP_PARTIAL) {
+        if (statusCode != HttpURLConnection.HTTP_OK && statusCode != HttpURLConnection.HTTP_PARTIAL
+                && statusCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
             discardEntityBytes(response);
             Timber.i("Error: %s (%s at %s", response.message(), String.valueOf(statusCode), physicalUri.toString());
             throw new Exception(response.message() + " : " + statusCode + " : " + physicalUri.toString());
         }
 
-        ResponseBody body = response.body();
-        if (body == null) {
-            throw new Exception("No entity body returned from: " + physicalUri.toString());
-        }
-
         Map<String, String> responseHeaders = new HashMap<>();
         Headers respHeaders = response.headers();
         for (int i = 0; i < respHeaders.size(); i++) {
             responseHeaders.put(respHeaders.name(i), respHeaders.value(i));
         }
 
+        if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            discardEntityBytes(response);
+            return new HttpGetResult(null, responseHeaders, "", statusCode);
+        }
+
+        ResponseBody body = response.body();
+        if (body == null) {
+            throw new Exception("No entity body returned from: " + physicalUri.toString());
+        }
+
         return new HttpGetResult(body.byteStream(), responseHeaders, "", statusCode);
     }
 
@@ -183,6 +197,12 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
 
         if (statusCode == HttpURLConnection.HTTP_NO_CONTENT) {
             responseHeaders = new OkHttpCaseInsensitiveHeaders(response.headers());
+
+            // smap - remember where large attachments can be sent in resumable chunks
+            String resumableEndpoint = response.header(RESUMABLE_UPLOAD_HEADER);
+            if (resumableEndpoint != null && uri.getAuthority() != null) {
+                resumableEndpoints.put(uri.getAuthority(), physicalUri.resolve(resumableEndpoint));
+            }
         }
 
         discardEntityBytes(response);
@@ -203,6 +223,21 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
                                                    @NonNull long contentLength) throws Exception {
         HttpPostResult postResult = null;
 
+        // smap - send large attachments first in chunks that can be resumed, the submission refers to them
+        Map<File, String> resumableUrls = new HashMap<>();
+        List<ResumableUpload> resumableUploads = new ArrayList<>();
+        URI resumableEndpoint = uri.getAuthority() != null ? resumableEndpoints.get(uri.getAuthority()) : null;
+        if (resumableEndpoint != null) {
+            OpenRosaServerClient uploadClient = clientFactory.get(resumableEndpoint.getScheme(), userAgent, credentials);
+            for (File file : fileList) {
+                if (file.length() >= ResumableUpload.MIN_SIZE) {
+                    ResumableUpload upload = new ResumableUpload(uploadClient, resumableEndpoint, file);
+                    resumableUrls.put(file, upload.upload());
+                    resumableUploads.add(upload);
+                }
+            }
+        }
+
         boolean first = true;
         int fileIndex = 0;
         int lastFileIndex;
@@ -225,15 +260,23 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
 
                 String contentType = fileToContentTypeMapper.map(file.getName());
 
-                RequestBody fileRequestBody = RequestBody.create(MediaType.parse(contentType), file);
-                multipartBuilder.addPart(MultipartBody.Part.createFormData(file.getName(), file.getName(), fileRequestBody));
+                if (resumableUrls.containsKey(file)) {      // smap - already on the server
+                    multipartBuilder.addPart(MultipartBody.Part.createFormData(RESUMABLE_UPLOAD_PART,
+                            file.getName() + " " + resumableUrls.get(file)));
+                    Timber.i("added resumable upload of %s", file.getName());
+                } else {
+                    RequestBody fileRequestBody = RequestBody.create(MediaType.parse(contentType), file);
+                    multipartBuilder.addPart(MultipartBody.Part.createFormData(file.getName(), file.getName(), fileRequestBody));
 
-                byteCount += file.length();
-                Timber.i("added file of type '%s' %s", contentType, file.getName());
+                    byteCount += file.length();
+                    Timber.i("added file of type '%s' %s", contentType, file.getName());
+                }
 
                 // we've added at least one attachment to the request...
                 if (fileIndex + 1 < fileList.size()) {
-                    if ((fileIndex - lastFileIndex + 1 > 100) || (byteCount + fileList.get(fileIndex + 1).length()
+                    File next = fileList.get(fileIndex + 1);
+                    long nextLength = resumableUrls.containsKey(next) ? 0 : next.length();     // smap
+                    if ((fileIndex - lastFileIndex + 1 > 100) || (byteCount + nextLength
                             > contentLength)) {
                         // the next file would exceed the 10MB threshold...
                         Timber.i("Extremely long post is being split into multiple posts");
@@ -269,6 +312,10 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
 
         }
 
+        for (ResumableUpload upload : resumableUploads) {     // smap
+            upload.finish();
+        }
+
         return postResult;
     }
 
@@ -358,18 +405,73 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
 
     }
 
+    @Override
+    public @NonNull HttpPostResult uploadCompactTaskStatus(@NonNull byte[] body,
+                                                           @NonNull String formatHeader,
+                                                           int version,
+                                                           @NonNull URI uri,
+                                                           @Nullable HttpCredentialsInterface credentials
+    ) throws IOException, URISyntaxException {
+        URI physicalUri = getPhysicalUri(uri, credentials);
+        Timber.i("Task status: %d bytes compressed", body.length);
+
+        OpenRosaServerClient httpClient = clientFactory.get(physicalUri.getScheme(), userAgent, credentials);
+
+        Request request = new Request.Builder()
+                .url(physicalUri.toURL())
+                .post(RequestBody.create(MediaType.parse("application/octet-stream"), body))
+                .addHeader(formatHeader, String.valueOf(version))
+                .addHeader("Content-Encoding", GZIP_CONTENT_ENCODING)
+                .build();
+
+        Response response = httpClient.makeRequest(request, new Date());
+
+        if (response.code() == 204) {
+            throw new IOException();
+        }
+
+        HttpPostResult postResult = new HttpPostResult(
+                response.body().string(),
+                response.code(),
+                response.message());
+
+        discardEntityBytes(response);
+
+        return postResult;
+    }
+
     @Override
     public @NonNull HttpPostResult uploadLocation(String lat,
                                                   String lon,
                                                   @NonNull URI uri,
                                                   @Nullable HttpCredentialsInterface credentials
     ) throws IOException, URISyntaxException {
+        return uploadLocation(new FormBody.Builder()
+                .add("lat", lat)
+                .add("lon", lon)
+                .build(), uri, credentials);
+    }
 
-        URI physicalUri = getPhysicalUri(uri, credentials);
-        RequestBody formBody = new FormBody.Builder()
+    @Override
+    public @NonNull HttpPostResult uploadLocations(String lat,
+                                                   String lon,
+                                                   @NonNull String points,
+                                                   @NonNull URI uri,
+                                                   @Nullable HttpCredentialsInterface credentials
+    ) throws IOException, URISyntaxException {
+        return uploadLocation(new FormBody.Builder()
                 .add("lat", lat)
                 .add("lon", lon)
-                .build();
+                .add("points", points)
+                .build(), uri, credentials);
+    }
+
+    private HttpPostResult uploadLocation(RequestBody formBody,
+                                          @NonNull URI uri,
+                                          @Nullable HttpCredentialsInterface credentials
+    ) throws IOException, URISyntaxException {
+
+        URI physicalUri = getPhysicalUri(uri, credentials);
 
         OpenRosaServerClient httpClient = clientFactory.get(uri.getScheme(), userAgent, credentials);
 
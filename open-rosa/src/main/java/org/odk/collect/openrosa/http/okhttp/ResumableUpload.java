@@ -0,0 +1,273 @@
+package org.odk.collect.openrosa.http.okhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.Date;
+import java.util.Properties;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.ByteString;
+import timber.log.Timber;
+
+/**
+ * smap - Uploads a large attachment in fixed size chunks so that a dropped connection only
+ * loses the chunk in flight rather than the whole file.  Uses the tus resumable upload
+ * protocol (https://tus.io/protocols/resumable-upload): the upload is created with a POST,
+ * the server is asked how much it has with a HEAD and each chunk is sent with a PATCH at the
+ * offset the server acknowledged last.
+ *
+ * The URL of the upload and the last acknowledged offset are kept in a small hidden file next
+ * to the attachment, so they belong to the instance and an upload that is interrupted,
+ * even by the app being restarted, carries on from where the server got to.
+ */
+class ResumableUpload {
+
+    static final long CHUNK_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * Attachments smaller than this are sent in the multipart submission as before
+     */
+    static final long MIN_SIZE = 8 * 1024 * 1024;
+
+    private static final String TUS_VERSION = "1.0.0";
+    private static final String TUS_RESUMABLE = "Tus-Resumable";
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+    private static final String UPLOAD_METADATA = "Upload-Metadata";
+    private static final MediaType OFFSET_OCTET_STREAM = MediaType.parse("application/offset+octet-stream");
+
+    private static final String URL = "url";
+    private static final String SIZE = "size";
+    private static final String MODIFIED = "modified";
+    private static final String OFFSET = "offset";
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final OpenRosaServerClient client;
+    private final URI endpoint;
+    private final File file;
+    private final File stateFile;
+    private final long chunkSize;
+
+    ResumableUpload(OpenRosaServerClient client, URI endpoint, File file) {
+        this(client, endpoint, file, CHUNK_SIZE);
+    }
+
+    ResumableUpload(OpenRosaServerClient client, URI endpoint, File file, long chunkSize) {
+        this.client = client;
+        this.endpoint = endpoint;
+        this.file = file;
+        this.stateFile = getStateFile(file);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Send whatever part of the file the server does not already have
+     *
+     * @return the URL of the completed upload, which the submission refers to
+     * @throws IOException if the upload could not be completed, the progress acknowledged by the
+     *                     server so far is kept for the next attempt
+     */
+    @NonNull
+    String upload() throws IOException {
+        long size = file.length();
+
+        String url = null;
+        long offset = -1;
+        Properties state = readState();
+        if (state != null && String.valueOf(size).equals(state.getProperty(SIZE))
+                && String.valueOf(file.lastModified()).equals(state.getProperty(MODIFIED))) {
+            url = state.getProperty(URL);
+            offset = getOffset(url);    // What the server has, which can be more than was recorded
+        }
+
+        if (offset < 0) {
+            url = create(size);
+            offset = 0;
+            saveState(url, 0);
+        } else {
+            Timber.i("Resuming upload of %s at %d of %d bytes", file.getName(), offset, size);
+        }
+
+        while (offset < size) {
+            long length = Math.min(chunkSize, size - offset);
+            offset = sendChunk(url, offset, length);
+            saveState(url, offset);
+        }
+
+        return url;
+    }
+
+    /**
+     * Forget the upload once the submission that refers to it has been accepted
+     */
+    void finish() {
+        stateFile.delete();
+    }
+
+    /**
+     * Hidden so that it is not sent as an attachment of the instance
+     */
+    static File getStateFile(File file) {
+        return new File(file.getParentFile(), "." + file.getName() + ".upload");
+    }
+
+    private String create(long size) throws IOException {
+        String name = ByteString.encodeUtf8(file.getName()).base64();
+        Request request = new Request.Builder()
+                .url(endpoint.toURL())
+                .post(RequestBody.create(null, new byte[0]))
+                .addHeader(TUS_RESUMABLE, TUS_VERSION)
+                .addHeader(UPLOAD_LENGTH, String.valueOf(size))
+                .addHeader(UPLOAD_METADATA, "filename " + name)
+                .build();
+
+        try (Response response = client.makeRequest(request, new Date())) {
+            String location = response.header("Location");
+            if (response.code() != HttpURLConnection.HTTP_CREATED || location == null) {
+                throw new IOException("Failed to create upload for " + file.getName() + ": " + response.code());
+            }
+            return endpoint.resolve(location).toString();
+        }
+    }
+
+    /**
+     * @return the offset the server has for an upload or -1 if it no longer knows about it
+     */
+    private long getOffset(@Nullable String url) throws IOException {
+        if (url == null) {
+            return -1;
+        }
+
+        Request request = new Request.Builder()
+                .url(url)
+                .head()
+                .addHeader(TUS_RESUMABLE, TUS_VERSION)
+                .build();
+
+        try (Response response = client.makeRequest(request, new Date())) {
+            if (response.code() == HttpURLConnection.HTTP_NOT_FOUND
+                    || response.code() == HttpURLConnection.HTTP_GONE
+                    || response.code() == HttpURLConnection.HTTP_FORBIDDEN) {
+                return -1;      // Expired, start again
+            }
+            return readOffset(response);
+        }
+    }
+
+    private long sendChunk(String url, long offset, long length) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .patch(slice(offset, length))
+                .addHeader(TUS_RESUMABLE, TUS_VERSION)
+                .addHeader(UPLOAD_OFFSET, String.valueOf(offset))
+                .build();
+
+        try (Response response = client.makeRequest(request, new Date())) {
+            if (response.code() == HttpURLConnection.HTTP_CONFLICT) {
+                // Our offset is out of date, carry on from what the server has
+                long serverOffset = getOffset(url);
+                if (serverOffset < 0) {
+                    stateFile.delete();
+                    throw new IOException("Upload of " + file.getName() + " has expired");
+                }
+                return serverOffset;
+            }
+            long acknowledged = readOffset(response);
+            if (acknowledged <= offset) {
+                throw new IOException("Server did not accept bytes " + offset + " to " + (offset + length) + " of " + file.getName());
+            }
+            return acknowledged;
+        }
+    }
+
+    private long readOffset(Response response) throws IOException {
+        String value = response.header(UPLOAD_OFFSET);
+        if (response.code() / 100 != 2 || value == null) {
+            throw new IOException("Upload of " + file.getName() + " failed: " + response.code());
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid upload offset: " + value);
+        }
+    }
+
+    private RequestBody slice(long offset, long length) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return OFFSET_OCTET_STREAM;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                try (RandomAccessFile source = new RandomAccessFile(file, "r")) {
+                    source.seek(offset);
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    long remaining = length;
+                    while (remaining > 0) {
+                        int bytes = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (bytes < 0) {
+                            throw new IOException(file.getName() + " is shorter than expected");
+                        }
+                        sink.write(buffer, 0, bytes);
+                        remaining -= bytes;
+                    }
+                }
+            }
+        };
+    }
+
+    private Properties readState() {
+        if (!stateFile.exists()) {
+            return null;
+        }
+        Properties state = new Properties();
+        try (InputStream is = new FileInputStream(stateFile)) {
+            state.load(is);
+            return state;
+        } catch (Exception e) {
+            Timber.e(e, "Invalid upload progress in %s", stateFile.getName());
+            return null;
+        }
+    }
+
+    /**
+     * Written to a copy that then replaces the file so an interruption never leaves it half written
+     */
+    private void saveState(String url, long offset) throws IOException {
+        Properties state = new Properties();
+        state.setProperty(URL, url);
+        state.setProperty(SIZE, String.valueOf(file.length()));
+        state.setProperty(MODIFIED, String.valueOf(file.lastModified()));
+        state.setProperty(OFFSET, String.valueOf(offset));
+
+        File temp = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        try (OutputStream os = new FileOutputStream(temp)) {
+            state.store(os, null);
+        }
+        if (!temp.renameTo(stateFile)) {
+            throw new IOException("Failed to save upload progress for " + file.getName());
+        }
+    }
+}
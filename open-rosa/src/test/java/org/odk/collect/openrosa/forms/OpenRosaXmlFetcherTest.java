@@ -3,26 +3,40 @@ package org.odk.collect.openrosa.forms;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.odk.collect.openrosa.http.ConditionalGetCache;
+import org.odk.collect.openrosa.http.HttpCredentialsInterface;
 import org.odk.collect.openrosa.http.HttpGetResult;
 import org.odk.collect.openrosa.http.OpenRosaConstants;
 import org.odk.collect.openrosa.http.OpenRosaHttpInterface;
 import org.odk.collect.openrosa.support.StubWebCredentialsProvider;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
 import java.util.HashMap;
 
 @RunWith(AndroidJUnit4.class)
 public class OpenRosaXmlFetcherTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private OpenRosaHttpInterface httpInterface;
     private OpenRosaXmlFetcher openRosaXMLFetcher;
 
@@ -57,6 +71,92 @@ public class OpenRosaXmlFetcherTest {
         assertThat(result.responseCode, equalTo(500));
         assertThat(result.errorMessage, equalTo("getXML failed while accessing http://testurl with status code: 500"));
     }
-}
 
+    @Test
+    public void fetchIfModified_sendsTheSavedValidatorsForAFileOnTheDevice() throws Exception {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.newFolder());
+        openRosaXMLFetcher.setConditionalGetCache(cache);
+
+        HashMap<String, String> responseHeaders = new HashMap<>();
+        responseHeaders.put("ETag", "\"v1\"");
+        openRosaXMLFetcher.saveValidators("http://testurl", new HttpGetResult(null, responseHeaders, "", 200));
+
+        File localCopy = temporaryFolder.newFile();
+        when(executeGetRequestWithHeaders()).thenReturn(new HttpGetResult(null, new HashMap<>(), "", 304));
+        HttpGetResult result = openRosaXMLFetcher.fetchIfModified("http://testurl", true, localCopy);
+
+        ArgumentCaptor<HashMap<String, String>> headers = ArgumentCaptor.forClass(HashMap.class);
+        verify(httpInterface).executeGetRequest(any(URI.class), nullable(HttpCredentialsInterface.class), headers.capture());
+        assertThat(headers.getValue().get("If-None-Match"), equalTo("\"v1\""));
+        assertThat(result.getStatusCode(), equalTo(304));
+        assertThat(cache.getNotModifiedCount(), equalTo(1));
+    }
+
+    @Test
+    public void fetchIfModified_withoutAFileOnTheDevice_sendsNoValidators() throws Exception {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.newFolder());
+        openRosaXMLFetcher.setConditionalGetCache(cache);
+
+        HashMap<String, String> responseHeaders = new HashMap<>();
+        responseHeaders.put("ETag", "\"v1\"");
+        openRosaXMLFetcher.saveValidators("http://testurl", new HttpGetResult(null, responseHeaders, "", 200));
+
+        when(executeGetRequestWithHeaders()).thenReturn(new HttpGetResult(
+                new ByteArrayInputStream("<xml></xml>".getBytes()), new HashMap<>(), "", 200));
+        openRosaXMLFetcher.fetchIfModified("http://testurl", true, new File(temporaryFolder.getRoot(), "missing"));
+
+        ArgumentCaptor<HashMap<String, String>> headers = ArgumentCaptor.forClass(HashMap.class);
+        verify(httpInterface).executeGetRequest(any(URI.class), nullable(HttpCredentialsInterface.class), headers.capture());
+        assertThat(headers.getValue().isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void getXMLIfModified_whenNotModified_parsesTheSavedCopy() throws Exception {
+        openRosaXMLFetcher.setConditionalGetCache(new ConditionalGetCache(temporaryFolder.newFolder()));
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put(OpenRosaConstants.VERSION_HEADER, "1.0");
+        headers.put("ETag", "\"v1\"");
+        when(executeGetRequestWithHeaders()).thenReturn(
+                new HttpGetResult(new ByteArrayInputStream("<manifest></manifest>".getBytes()), headers, "", 200),
+                new HttpGetResult(null, headers, "", 304));
 
+        DocumentFetchResult first = openRosaXMLFetcher.getXMLIfModified("http://testurl");
+        DocumentFetchResult second = openRosaXMLFetcher.getXMLIfModified("http://testurl");
+
+        assertThat(second.errorMessage, nullValue());
+        assertThat(second.doc.getRootElement().getName(), equalTo("manifest"));
+        assertThat(second.getHash(), equalTo(first.getHash()));
+    }
+
+    @Test
+    public void getXMLIfModified_whenNotXml_throwsAndDoesNotSaveTheValidators() throws Exception {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.newFolder());
+        openRosaXMLFetcher.setConditionalGetCache(cache);
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "text/html; charset=utf-8");
+        headers.put("ETag", "\"login\"");
+        when(executeGetRequestWithHeaders()).thenReturn(new HttpGetResult(
+                new ByteArrayInputStream("<html><body>Login</body></html>".getBytes()), headers, "", 200));
+
+        assertThrows(Exception.class, () -> openRosaXMLFetcher.getXMLIfModified("http://testurl"));
+        assertThat(cache.getConditionalHeaders("http://testurl").isEmpty(), equalTo(true));
+        assertThat(cache.getBodyFile("http://testurl").exists(), equalTo(false));
+    }
+
+    @Test
+    public void getXMLIfModified_withoutACache_makesAnUnconditionalRequest() throws Exception {
+        when(httpInterface.executeGetRequest(any(URI.class), nullable(String.class), nullable(HttpCredentialsInterface.class)))
+                .thenReturn(new HttpGetResult(new ByteArrayInputStream("<xml></xml>".getBytes()), new HashMap<>(), "", 200));
+
+        DocumentFetchResult result = openRosaXMLFetcher.getXMLIfModified("http://testurl");
+
+        assertThat(result.errorMessage, nullValue());
+        verify(httpInterface, never()).executeGetRequest(any(URI.class), nullable(HttpCredentialsInterface.class), any(HashMap.class));
+    }
+
+    private HttpGetResult executeGetRequestWithHeaders() throws Exception {
+        return httpInterface.executeGetRequest(any(URI.class), nullable(HttpCredentialsInterface.class), any(HashMap.class));
+    }
+}
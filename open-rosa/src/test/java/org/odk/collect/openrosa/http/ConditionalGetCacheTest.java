@@ -0,0 +1,104 @@
+package org.odk.collect.openrosa.http;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+
+public class ConditionalGetCacheTest {
+
+    private static final String URL = "https://example.com/formXML?key=form1";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void withoutValidatorsThereAreNoConditionalHeaders() {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.getRoot());
+        assertThat(cache.getConditionalHeaders(URL).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void savedValidatorsAreSentAsConditionalHeaders() {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.getRoot());
+        cache.save(URL, response("\"abc\"", "Wed, 21 Oct 2026 07:28:00 GMT"));
+
+        HashMap<String, String> headers = cache.getConditionalHeaders(URL);
+        assertThat(headers.get("If-None-Match"), equalTo("\"abc\""));
+        assertThat(headers.get("If-Modified-Since"), equalTo("Wed, 21 Oct 2026 07:28:00 GMT"));
+        assertThat(headers.size(), equalTo(2));
+    }
+
+    @Test
+    public void validatorsAreReadBackByANewCache() {
+        new ConditionalGetCache(temporaryFolder.getRoot()).save(URL, response("\"abc\"", null));
+
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.getRoot());
+        assertThat(cache.getConditionalHeaders(URL).get("If-None-Match"), equalTo("\"abc\""));
+        assertThat(cache.getConditionalHeaders("https://example.com/other").isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void aResponseWithoutValidatorsClearsTheOldOnes() {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.getRoot());
+        cache.save(URL, response("\"abc\"", null));
+        cache.save(URL, response(null, null));
+
+        assertThat(cache.getConditionalHeaders(URL).isEmpty(), equalTo(true));
+        assertThat(new ConditionalGetCache(temporaryFolder.getRoot()).getConditionalHeaders(URL).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void removedValidatorsAreNotSent() {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.getRoot());
+        cache.save(URL, response("\"abc\"", null));
+        cache.remove(URL);
+
+        assertThat(new ConditionalGetCache(temporaryFolder.getRoot()).getConditionalHeaders(URL).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void anInvalidValidatorsFileIsIgnored() throws Exception {
+        File dir = temporaryFolder.getRoot();
+        FileUtils.writeStringToFile(new File(dir, ConditionalGetCache.VALIDATORS_FILE),
+                "etag.\\u00zz", "UTF-8");
+
+        ConditionalGetCache cache = new ConditionalGetCache(dir);
+        assertThat(cache.getConditionalHeaders(URL).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void notModifiedResponsesAreCounted() {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.getRoot());
+        cache.notModified(1000);
+        cache.notModified(24);
+
+        assertThat(cache.getNotModifiedCount(), equalTo(2));
+        assertThat(cache.getBytesSaved(), equalTo(1024L));
+    }
+
+    @Test
+    public void eachUrlHasItsOwnBodyFile() {
+        ConditionalGetCache cache = new ConditionalGetCache(temporaryFolder.getRoot());
+        assertThat(cache.getBodyFile(URL), not(equalTo(cache.getBodyFile("https://example.com/other"))));
+        assertThat(cache.getBodyFile(URL), equalTo(cache.getBodyFile(URL)));
+    }
+
+    private static HttpGetResult response(String etag, String lastModified) {
+        HashMap<String, String> headers = new HashMap<>();
+        if (etag != null) {
+            headers.put("etag", etag);      // Header names are not case sensitive
+        }
+        if (lastModified != null) {
+            headers.put("Last-Modified", lastModified);
+        }
+        return new HttpGetResult(null, headers, "", 200);
+    }
+}
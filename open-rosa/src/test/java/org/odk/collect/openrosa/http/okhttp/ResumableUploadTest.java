@@ -0,0 +1,237 @@
+package org.odk.collect.openrosa.http.okhttp;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThrows;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.odk.collect.openrosa.http.HttpPostResult;
+import org.odk.collect.openrosa.support.MockWebServerRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class ResumableUploadTest {
+
+    private static final long CHUNK_SIZE = 4000;
+
+    @Rule
+    public MockWebServerRule mockWebServerRule = new MockWebServerRule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TusServer server;
+    private MockWebServer mockWebServer;
+    private OpenRosaServerClient client;
+    private URI endpoint;
+
+    @Before
+    public void setup() throws Exception {
+        server = new TusServer();
+        mockWebServer = mockWebServerRule.start();
+        mockWebServer.setDispatcher(server);
+        client = new OkHttpOpenRosaServerClientProvider(null).get("http", "Test Agent", null);
+        endpoint = mockWebServer.url("/upload").uri();
+    }
+
+    @Test
+    public void theFileIsSentInChunks() throws Exception {
+        File file = createFile("video.mp4", 10_500);
+
+        String url = new ResumableUpload(client, endpoint, file, CHUNK_SIZE).upload();
+
+        assertThat(url, equalTo(mockWebServer.url("/upload/1").toString()));
+        assertThat(server.received.toByteArray(), equalTo(readFile(file)));
+        assertThat(server.requests, equalTo(Arrays.asList("POST", "PATCH 0", "PATCH 4000", "PATCH 8000")));
+    }
+
+    @Test
+    public void anInterruptedUploadCarriesOnFromWhatTheServerAcknowledged() throws Exception {
+        File file = createFile("video.mp4", 10_500);
+        server.failPatchAt = 4000;
+
+        assertThrows(IOException.class, () -> new ResumableUpload(client, endpoint, file, CHUNK_SIZE).upload());
+
+        server.failPatchAt = -1;
+        server.requests.clear();
+        new ResumableUpload(client, endpoint, file, CHUNK_SIZE).upload();
+
+        assertThat(server.requests, equalTo(Arrays.asList("HEAD", "PATCH 4000", "PATCH 8000")));
+        assertThat(server.received.toByteArray(), equalTo(readFile(file)));
+    }
+
+    @Test
+    public void anUploadTheServerHasForgottenIsStartedAgain() throws Exception {
+        File file = createFile("video.mp4", 10_500);
+        server.failPatchAt = 4000;
+        assertThrows(IOException.class, () -> new ResumableUpload(client, endpoint, file, CHUNK_SIZE).upload());
+
+        server.failPatchAt = -1;
+        server.forget();
+        server.requests.clear();
+        new ResumableUpload(client, endpoint, file, CHUNK_SIZE).upload();
+
+        assertThat(server.requests, equalTo(Arrays.asList("HEAD", "POST", "PATCH 0", "PATCH 4000", "PATCH 8000")));
+        assertThat(server.received.toByteArray(), equalTo(readFile(file)));
+    }
+
+    @Test
+    public void aFileThatHasChangedIsStartedAgain() throws Exception {
+        File file = createFile("video.mp4", 10_500);
+        server.failPatchAt = 4000;
+        assertThrows(IOException.class, () -> new ResumableUpload(client, endpoint, file, CHUNK_SIZE).upload());
+
+        server.failPatchAt = -1;
+        server.requests.clear();
+        file.setLastModified(file.lastModified() - 60_000);
+        new ResumableUpload(client, endpoint, file, CHUNK_SIZE).upload();
+
+        assertThat(server.requests.get(0), equalTo("POST"));
+    }
+
+    @Test
+    public void finishingForgetsTheUpload() throws Exception {
+        File file = createFile("video.mp4", 100);
+        ResumableUpload upload = new ResumableUpload(client, endpoint, file, CHUNK_SIZE);
+        upload.upload();
+
+        upload.finish();
+        assertThat(ResumableUpload.getStateFile(file).exists(), equalTo(false));
+
+        server.requests.clear();
+        new ResumableUpload(client, endpoint, file, CHUNK_SIZE).upload();
+        assertThat(server.requests, equalTo(Arrays.asList("POST", "PATCH 0")));
+    }
+
+    @Test
+    public void largeAttachmentsAreSentToTheEndpointTheServerAdvertised() throws Exception {
+        OkHttpConnection connection = new OkHttpConnection(null, fileName -> "application/octet-stream", "Test Agent");
+        server.advertiseEndpoint = true;
+
+        URI submissionUri = mockWebServer.url("/submission").uri();
+        connection.executeHeadRequest(submissionUri, null);
+
+        File submission = createFile("submission.xml", 100);
+        File small = createFile("photo.jpg", 1000);
+        File large = createFile("video.mp4", (int) ResumableUpload.MIN_SIZE);
+        HttpPostResult result = connection.uploadSubmissionAndFiles(Arrays.asList(small, large), submission,
+                submissionUri, null, null, null, null, null, 100_000_000L);
+
+        assertThat(result.getResponseCode(), equalTo(201));
+        assertThat(server.received.size(), equalTo((int) ResumableUpload.MIN_SIZE));
+        assertThat(server.submission, containsString("name=\"resumable_upload\""));
+        assertThat(server.submission, containsString("video.mp4 " + mockWebServer.url("/upload/1")));
+        assertThat(server.submission, containsString("filename=\"photo.jpg\""));
+        assertThat(server.submission, not(containsString("filename=\"video.mp4\"")));
+        assertThat(ResumableUpload.getStateFile(large).exists(), equalTo(false));
+    }
+
+    private File createFile(String name, int size) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), name);
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(bytes);
+        }
+        file.setLastModified(1_000_000_000_000L);
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Enough of a tus server to take a single upload, and an OpenRosa submission endpoint
+     */
+    private static class TusServer extends Dispatcher {
+
+        final List<String> requests = new CopyOnWriteArrayList<>();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        String submission;
+        boolean advertiseEndpoint;
+        long failPatchAt = -1;
+
+        private long length = -1;
+
+        void forget() {
+            length = -1;
+            received = new ByteArrayOutputStream();
+        }
+
+        @NonNull
+        @Override
+        public synchronized MockResponse dispatch(@NonNull RecordedRequest request) {
+            String path = request.getPath();
+
+            if (path.startsWith("/submission")) {
+                if (request.getMethod().equals("HEAD")) {
+                    MockResponse response = new MockResponse().setResponseCode(204);
+                    if (advertiseEndpoint) {
+                        response.addHeader("X-Smap-Resumable-Upload", "/upload");
+                    }
+                    return response;
+                }
+                submission = request.getBody().readUtf8();
+                return new MockResponse().setResponseCode(201);
+            }
+
+            switch (request.getMethod()) {
+                case "POST":
+                    requests.add("POST");
+                    length = Long.parseLong(request.getHeader("Upload-Length"));
+                    received = new ByteArrayOutputStream();
+                    return new MockResponse().setResponseCode(201).addHeader("Location", "/upload/1");
+
+                case "HEAD":
+                    requests.add("HEAD");
+                    if (length < 0) {
+                        return new MockResponse().setResponseCode(404);
+                    }
+                    return new MockResponse().setResponseCode(200)
+                            .addHeader("Upload-Offset", received.size())
+                            .addHeader("Upload-Length", length);
+
+                case "PATCH":
+                    long offset = Long.parseLong(request.getHeader("Upload-Offset"));
+                    requests.add("PATCH " + offset);
+                    if (length < 0) {
+                        return new MockResponse().setResponseCode(404);
+                    }
+                    if (offset == failPatchAt) {
+                        return new MockResponse().setResponseCode(500);
+                    }
+                    if (offset != received.size()) {
+                        return new MockResponse().setResponseCode(409);
+                    }
+                    byte[] bytes = request.getBody().readByteArray();
+                    received.write(bytes, 0, bytes.length);
+                    return new MockResponse().setResponseCode(204).addHeader("Upload-Offset", received.size());
+
+                default:
+                    return new MockResponse().setResponseCode(405);
+            }
+        }
+    }
+}
@@ -47,6 +47,7 @@ import org.jetbrains.annotations.NotNull;
 import org.odk.collect.androidshared.system.ContextUtils;
 import org.odk.collect.location.LocationClient;
 import org.odk.collect.maps.LineDescription;
+import org.odk.collect.maps.MapBounds;
 import org.odk.collect.maps.MapConfigurator;
 import org.odk.collect.maps.MapFragment;
 import org.odk.collect.maps.MapPoint;
@@ -62,6 +63,7 @@ import org.odk.collect.maps.markers.MarkerIconCreator;
 import org.odk.collect.maps.markers.MarkerIconDescription;
 import org.odk.collect.settings.SettingsProvider;
 import org.osmdroid.api.IGeoPoint;
+import org.osmdroid.events.DelayedMapListener;
 import org.osmdroid.events.MapListener;
 import org.osmdroid.events.ScrollEvent;
 import org.osmdroid.events.ZoomEvent;
@@ -102,6 +104,9 @@ public class OsmDroidMapFragment extends MapViewModelMapFragment implements
     // Bundle keys understood by applyConfig().
     public static final String KEY_WEB_MAP_SERVICE = "WEB_MAP_SERVICE";
 
+    // Milliseconds without scroll or zoom events before the map counts as having stopped
+    private static final long CAMERA_IDLE_DELAY = 250;
+
     @Inject
     ReferenceLayerRepository referenceLayerRepository;
 
@@ -121,6 +126,7 @@ public class OsmDroidMapFragment extends MapViewModelMapFragment implements
     private PointListener gpsLocationListener;
     private FeatureListener featureClickListener;
     private FeatureListener dragEndListener;
+    private CameraIdleListener cameraIdleListener;
     private MyLocationNewOverlay myLocationOverlay;
     private OsmLocationClientWrapper osmLocationClientWrapper;
     private int nextFeatureId = 1;
@@ -217,6 +223,25 @@ public class OsmDroidMapFragment extends MapViewModelMapFragment implements
                 return false;
             }
         });
+        // Scroll and zoom events come for every frame of a move, wait for them to stop
+        map.addMapListener(new DelayedMapListener(new MapListener() {
+            @Override
+            public boolean onScroll(ScrollEvent event) {
+                return onCameraIdle();
+            }
+
+            @Override
+            public boolean onZoom(ZoomEvent event) {
+                return onCameraIdle();
+            }
+
+            private boolean onCameraIdle() {
+                if (cameraIdleListener != null) {
+                    cameraIdleListener.onCameraIdle();
+                }
+                return false;
+            }
+        }, CAMERA_IDLE_DELAY));
         addAttributionAndMapEventsOverlays();
         loadReferenceOverlay();
         addMapLayoutChangeListener(map);
@@ -445,6 +470,20 @@ public class OsmDroidMapFragment extends MapViewModelMapFragment implements
         dragEndListener = listener;
     }
 
+    @Override
+    public @Nullable MapBounds getVisibleBounds() {
+        if (map == null || map.getWidth() == 0 || map.getHeight() == 0) {
+            return null;
+        }
+        BoundingBox box = map.getBoundingBox();
+        return new MapBounds(box.getLatSouth(), box.getLonWest(), box.getLatNorth(), box.getLonEast());
+    }
+
+    @Override
+    public void setCameraIdleListener(@Nullable CameraIdleListener listener) {
+        cameraIdleListener = listener;
+    }
+
     @Override
     public void setGpsLocationListener(@Nullable PointListener listener) {
         gpsLocationListener = listener;
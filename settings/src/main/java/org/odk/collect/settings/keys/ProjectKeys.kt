@@ -115,6 +115,9 @@ object ProjectKeys {
     const val KEY_SMAP_INPUT_METHOD = "smap_input_method" // GeoPoly recording settings
     const val KEY_SMAP_IM_RI = "smap_im_ri"
     const val KEY_SMAP_IM_ACC = "smap_im_acc"
+    const val KEY_SMAP_TRAIL_TOLERANCE = "smap_trail_tolerance" // Metres a simplified user trail can differ from the points recorded, 0 to keep them all
     const val KEY_SMAP_REQUEST_LOCATION_DONE = "smap_request_location_done"
     const val KEY_SMAP_SUBMISSION_AUTH_FAILED_AT = "smap_submission_auth_failed_at" // System time in milli seconds that the server last rejected our credentials on submission
+    const val KEY_SMAP_SYNC_TOKEN = "smap_sync_token" // Change token returned by the server with the last task refresh
+    const val KEY_SMAP_SYNC_TOKEN_OWNER = "smap_sync_token_owner" // Server and user the sync token was issued for
 }
@@ -2,16 +2,24 @@ package org.odk.collect.shared
 
 import org.odk.collect.shared.Query.And
 import org.odk.collect.shared.Query.NumericEq
+import org.odk.collect.shared.Query.NumericGreaterThan
+import org.odk.collect.shared.Query.NumericLessThan
 import org.odk.collect.shared.Query.NumericNotEq
 import org.odk.collect.shared.Query.Or
 import org.odk.collect.shared.Query.StringEq
+import org.odk.collect.shared.Query.StringIn
 import org.odk.collect.shared.Query.StringNotEq
+import org.odk.collect.shared.Query.StringStartsWith
 
 sealed class Query {
     data class StringEq(val column: String, val value: String) : Query()
     data class StringNotEq(val column: String, val value: String) : Query()
+    data class StringIn(val column: String, val values: List<String>) : Query()
+    data class StringStartsWith(val column: String, val prefix: String) : Query()
     data class NumericEq(val column: String, val value: Double) : Query()
     data class NumericNotEq(val column: String, val value: Double) : Query()
+    data class NumericLessThan(val column: String, val value: Double, val inclusive: Boolean = false) : Query()
+    data class NumericGreaterThan(val column: String, val value: Double, val inclusive: Boolean = false) : Query()
     data class And(val queryA: Query, val queryB: Query) : Query()
     data class Or(val queryA: Query, val queryB: Query) : Query()
 }
@@ -20,8 +28,12 @@ fun Query.mapColumns(columnMapper: (String) -> String): Query {
     return when (this) {
         is StringEq -> StringEq(columnMapper(column), value)
         is StringNotEq -> StringNotEq(columnMapper(column), value)
+        is StringIn -> StringIn(columnMapper(column), values)
+        is StringStartsWith -> StringStartsWith(columnMapper(column), prefix)
         is NumericEq -> NumericEq(columnMapper(column), value)
         is NumericNotEq -> NumericNotEq(columnMapper(column), value)
+        is NumericLessThan -> NumericLessThan(columnMapper(column), value, inclusive)
+        is NumericGreaterThan -> NumericGreaterThan(columnMapper(column), value, inclusive)
         is And -> And(
             queryA.mapColumns(columnMapper),
             queryB.mapColumns(columnMapper)
@@ -0,0 +1,184 @@
+package org.odk.collect.shared.strings
+
+import org.odk.collect.shared.strings.Md5.getMd5Hash
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Remembers the MD5 of files so that a file that has not changed is not read again. An entry is
+ * only used while the file has the same size and modified time as when it was hashed.
+ *
+ * Recently used hashes are kept in memory. Every hash is also written to a small file in
+ * [storeDir] (named after the hash of the path) so they survive the app being restarted without
+ * having to load them all up front. The inode would make a stronger key but it can't be read
+ * through [File] and `java.nio.file` isn't available on every version of Android we support.
+ *
+ * A file modified in the last [RECENT_MS] isn't cached as it could be written again within the
+ * resolution of the modified time without its size changing.
+ */
+class FileHashCache @JvmOverloads constructor(
+    private val storeDir: File?,
+    private val maxEntries: Int = 1000,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    private val memory = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?): Boolean {
+            return size > maxEntries
+        }
+    }
+
+    private val _hits = AtomicLong()
+    private val _misses = AtomicLong()
+
+    /**
+     * The number of hashes that came from memory or the store rather than reading the file
+     */
+    val hits: Long
+        get() = _hits.get()
+
+    /**
+     * The number of times a file had to be read
+     */
+    val misses: Long
+        get() = _misses.get()
+
+    fun getMd5Hash(file: File): String? {
+        val size = file.length()
+        val modified = file.lastModified()
+        if (modified == 0L) {
+            return null // Doesn't exist
+        }
+
+        val path = file.absolutePath
+        val cached = synchronized(memory) { memory[path] } ?: readEntry(path)?.also {
+            synchronized(memory) { memory[path] = it }
+        }
+
+        if (cached != null && cached.size == size && cached.modified == modified) {
+            _hits.incrementAndGet()
+            return cached.md5
+        }
+
+        _misses.incrementAndGet()
+        val md5 = file.getMd5Hash() ?: return null
+        if (clock() - modified >= RECENT_MS && file.length() == size && file.lastModified() == modified) {
+            val entry = Entry(size, modified, md5)
+            synchronized(memory) { memory[path] = entry }
+            writeEntry(path, entry)
+        }
+
+        return md5
+    }
+
+    /**
+     * Forget the hash of a file, for example when it is deleted
+     */
+    fun remove(file: File) {
+        val path = file.absolutePath
+        synchronized(memory) { memory.remove(path) }
+        storeFile(path)?.delete()
+    }
+
+    /**
+     * Delete the stored hashes of files that no longer exist (and any left over partial writes)
+     * so the store doesn't grow forever. This reads every entry so should be run in the
+     * background.
+     */
+    fun prune() {
+        val files = storeDir?.listFiles() ?: return
+        files.forEach { file ->
+            if (file.name == PRUNED_FILE) {
+                return@forEach
+            }
+
+            if (file.name.contains(".tmp.")) {
+                file.delete()
+                return@forEach
+            }
+
+            val path = try {
+                file.bufferedReader().use { it.readLine() }
+            } catch (e: Exception) {
+                null
+            }
+
+            if (path == null || !File(path).exists()) {
+                path?.let { synchronized(memory) { memory.remove(it) } }
+                file.delete()
+            }
+        }
+    }
+
+    /**
+     * Runs [prune] if it hasn't been run in the last [PRUNE_INTERVAL_MS]. Otherwise only the time
+     * of the last prune is read, so this can be called every time the app starts.
+     */
+    fun pruneIfDue() {
+        val dir = storeDir ?: return
+        val pruned = File(dir, PRUNED_FILE)
+        val lastPruned = try {
+            pruned.readText().trim().toLong()
+        } catch (e: Exception) {
+            null
+        }
+
+        val now = clock()
+        if (lastPruned != null && lastPruned <= now && now - lastPruned < PRUNE_INTERVAL_MS) {
+            return
+        }
+
+        prune()
+        try {
+            dir.mkdirs()
+            pruned.writeText(now.toString())
+        } catch (e: Exception) {
+            // Only means it is pruned again next time
+        }
+    }
+
+    private fun readEntry(path: String): Entry? {
+        val file = storeFile(path) ?: return null
+        if (!file.exists()) {
+            return null
+        }
+
+        return try {
+            val lines = file.readLines()
+            if (lines.size == 4 && lines[0] == path) {
+                Entry(lines[1].toLong(), lines[2].toLong(), lines[3])
+            } else {
+                null
+            }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private fun writeEntry(path: String, entry: Entry) {
+        val file = storeFile(path) ?: return
+        try {
+            storeDir!!.mkdirs()
+            val temp = File(storeDir, file.name + ".tmp." + Thread.currentThread().id)
+            temp.writeText("$path\n${entry.size}\n${entry.modified}\n${entry.md5}")
+            if (!temp.renameTo(file)) {
+                temp.delete()
+            }
+        } catch (e: Exception) {
+            // Only means the file is hashed again after a restart
+        }
+    }
+
+    private fun storeFile(path: String): File? {
+        return storeDir?.let { File(it, path.getMd5Hash()!!) }
+    }
+
+    private data class Entry(val size: Long, val modified: Long, val md5: String)
+
+    companion object {
+        const val RECENT_MS = 2000L
+        const val PRUNE_INTERVAL_MS = 24 * 60 * 60 * 1000L
+
+        private const val PRUNED_FILE = "pruned"
+    }
+}
@@ -11,6 +11,22 @@ import java.security.NoSuchAlgorithmException
 
 object Md5 {
 
+    /**
+     * Used by [getCachedMd5Hash]. Set by the app once it knows where the cache can be stored.
+     */
+    @Volatile
+    @JvmStatic
+    var fileHashCache: FileHashCache? = null
+
+    /**
+     * The same as [getMd5Hash] but doesn't read the file again if it hasn't changed since it was
+     * last hashed. Use this for files that are checked repeatedly, like form media.
+     */
+    @JvmStatic
+    fun File.getCachedMd5Hash(): String? {
+        return fileHashCache?.getMd5Hash(this) ?: getMd5Hash()
+    }
+
     @JvmStatic
     @JvmOverloads
     fun String.getMd5Hash(bufSize: Int = 16 * 1024): String? {
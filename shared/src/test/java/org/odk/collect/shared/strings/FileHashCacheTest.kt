@@ -0,0 +1,175 @@
+package org.odk.collect.shared.strings
+
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.nullValue
+import org.junit.Test
+import org.odk.collect.shared.TempFiles
+import org.odk.collect.shared.strings.Md5.getCachedMd5Hash
+import org.odk.collect.shared.strings.Md5.getMd5Hash
+import java.io.File
+
+class FileHashCacheTest {
+
+    private val storeDir = TempFiles.createTempDir()
+    private val modified = 1_000_000L
+    private var now = modified + 60_000
+
+    @Test
+    fun `an unchanged file is only read once`() {
+        val cache = FileHashCache(storeDir) { now }
+        val file = createFile("blah")
+
+        assertThat(cache.getMd5Hash(file), equalTo(file.getMd5Hash()))
+        assertThat(cache.getMd5Hash(file), equalTo(file.getMd5Hash()))
+        assertThat(cache.misses, equalTo(1L))
+        assertThat(cache.hits, equalTo(1L))
+    }
+
+    @Test
+    fun `a file with a different size is read again`() {
+        val cache = FileHashCache(storeDir) { now }
+        val file = createFile("blah")
+        cache.getMd5Hash(file)
+
+        file.writeText("blah blah")
+        file.setLastModified(modified)
+
+        assertThat(cache.getMd5Hash(file), equalTo(file.getMd5Hash()))
+        assertThat(cache.misses, equalTo(2L))
+    }
+
+    @Test
+    fun `a file with a different modified time is read again`() {
+        val cache = FileHashCache(storeDir) { now }
+        val file = createFile("blah")
+        cache.getMd5Hash(file)
+
+        file.writeText("bleh")
+        file.setLastModified(modified + 1000)
+
+        assertThat(cache.getMd5Hash(file), equalTo(file.getMd5Hash()))
+        assertThat(cache.misses, equalTo(2L))
+    }
+
+    @Test
+    fun `hashes are read back from the store by a new cache`() {
+        val file = createFile("blah")
+        FileHashCache(storeDir) { now }.getMd5Hash(file)
+
+        val cache = FileHashCache(storeDir) { now }
+        assertThat(cache.getMd5Hash(file), equalTo(file.getMd5Hash()))
+        assertThat(cache.hits, equalTo(1L))
+        assertThat(cache.misses, equalTo(0L))
+    }
+
+    @Test
+    fun `recently modified files are not cached`() {
+        val cache = FileHashCache(storeDir) { modified + 500 }
+        val file = createFile("blah")
+
+        cache.getMd5Hash(file)
+        cache.getMd5Hash(file)
+        assertThat(cache.misses, equalTo(2L))
+    }
+
+    @Test
+    fun `the least recently used hashes are dropped from memory`() {
+        val cache = FileHashCache(null, 1) { now }
+        val file1 = createFile("one")
+        val file2 = createFile("two")
+
+        cache.getMd5Hash(file1)
+        cache.getMd5Hash(file2)
+        cache.getMd5Hash(file1)
+        assertThat(cache.misses, equalTo(3L))
+
+        cache.getMd5Hash(file1)
+        assertThat(cache.hits, equalTo(1L))
+    }
+
+    @Test
+    fun `removed files are read again`() {
+        val cache = FileHashCache(storeDir) { now }
+        val file = createFile("blah")
+        cache.getMd5Hash(file)
+
+        cache.remove(file)
+        cache.getMd5Hash(file)
+        assertThat(cache.misses, equalTo(2L))
+        assertThat(FileHashCache(storeDir) { now }.getMd5Hash(file), equalTo(file.getMd5Hash()))
+    }
+
+    @Test
+    fun `prune deletes the stored hashes of files that no longer exist`() {
+        val cache = FileHashCache(storeDir) { now }
+        val kept = createFile("kept")
+        val deleted = createFile("deleted")
+        cache.getMd5Hash(kept)
+        cache.getMd5Hash(deleted)
+        File(storeDir, "partial.tmp.1").writeText("blah")
+        assertThat(storeDir.listFiles()!!.size, equalTo(3))
+
+        deleted.delete()
+        cache.prune()
+        assertThat(storeDir.listFiles()!!.size, equalTo(1))
+
+        val newCache = FileHashCache(storeDir) { now }
+        newCache.getMd5Hash(kept)
+        assertThat(newCache.hits, equalTo(1L))
+    }
+
+    @Test
+    fun `pruneIfDue only prunes once a day`() {
+        val cache = FileHashCache(storeDir) { now }
+        val deleted = createFile("deleted")
+        cache.getMd5Hash(deleted)
+        cache.pruneIfDue()
+
+        deleted.delete()
+        now += FileHashCache.PRUNE_INTERVAL_MS - 1
+        cache.pruneIfDue()
+        assertThat(storeDir.listFiles()!!.size, equalTo(2))
+
+        now += 1
+        cache.pruneIfDue()
+        assertThat(storeDir.listFiles()!!.size, equalTo(1))
+    }
+
+    @Test
+    fun `prune does not delete the time of the last prune`() {
+        val cache = FileHashCache(storeDir) { now }
+        cache.pruneIfDue()
+
+        val deleted = createFile("deleted")
+        cache.getMd5Hash(deleted)
+        deleted.delete()
+        cache.prune()
+        assertThat(storeDir.listFiles()!!.size, equalTo(1))
+
+        cache.getMd5Hash(createFile("new"))
+        cache.pruneIfDue()
+        assertThat(storeDir.listFiles()!!.size, equalTo(2))
+    }
+
+    @Test
+    fun `a missing file has no hash`() {
+        val cache = FileHashCache(storeDir) { now }
+        assertThat(cache.getMd5Hash(File(storeDir, "missing")), nullValue())
+    }
+
+    @Test
+    fun `getCachedMd5Hash reads the file when there is no cache`() {
+        val file = createFile("blah")
+
+        Md5.fileHashCache = null
+        assertThat(file.getCachedMd5Hash(), equalTo(file.getMd5Hash()))
+    }
+
+    private fun createFile(contents: String): File {
+        return TempFiles.createTempFile().also {
+            it.writeText(contents)
+            it.setLastModified(modified)
+        }
+    }
+}